@@ -0,0 +1,89 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerAllocationDetailsDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.OffenderLocationDto;
+import uk.gov.justice.digital.hmpps.keyworker.model.AllocationReason;
+import uk.gov.justice.digital.hmpps.keyworker.model.AllocationType;
+import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
+import uk.gov.justice.digital.hmpps.keyworker.repository.OffenderKeyworkerRepository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+/**
+ * Matching of a prison roll against its active allocations, as used for the unallocated and allocated prisoner lists.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KeyworkerAllocationProcessorBenchmark {
+
+    private static final String PRISON_ID = "LEI";
+
+    @Param({"100", "1000", "5000"})
+    private int prisonerCount;
+
+    private KeyworkerAllocationProcessor processor;
+    private List<OffenderLocationDto> offenders;
+    private List<OffenderKeyworker> allocations;
+
+    @Setup
+    public void setUp() {
+        offenders = new ArrayList<>();
+        allocations = new ArrayList<>();
+
+        // Two in three prisoners are allocated
+        for (var i = 0; i < prisonerCount; i++) {
+            final var offenderNo = String.format("A%04dAA", i);
+            offenders.add(OffenderLocationDto.builder()
+                    .offenderNo(offenderNo)
+                    .bookingId((long) i)
+                    .firstName("First" + i)
+                    .lastName("Last" + i)
+                    .agencyId(PRISON_ID)
+                    .assignedLivingUnitDesc("A-1-" + i)
+                    .build());
+            if (i % 3 != 0) {
+                allocations.add(OffenderKeyworker.builder()
+                        .offenderKeyworkerId((long) i)
+                        .offenderNo(offenderNo)
+                        .staffId((long) (i % 50))
+                        .prisonId(PRISON_ID)
+                        .assignedDateTime(LocalDateTime.now().minusDays(i % 365))
+                        .active(true)
+                        .allocationType(i % 7 == 0 ? AllocationType.PROVISIONAL : AllocationType.AUTO)
+                        .allocationReason(AllocationReason.AUTO)
+                        .build());
+            }
+        }
+
+        final var repository = Mockito.mock(OffenderKeyworkerRepository.class);
+        when(repository.findByActiveAndOffenderNoIn(eq(true), anyCollection())).thenReturn(allocations);
+        processor = new KeyworkerAllocationProcessor(repository);
+    }
+
+    @Benchmark
+    public List<OffenderLocationDto> filterByUnallocated() {
+        return processor.filterByUnallocated(offenders);
+    }
+
+    @Benchmark
+    public List<KeyworkerAllocationDetailsDto> decorateAllocated() {
+        return processor.decorateAllocated(allocations, offenders);
+    }
+}
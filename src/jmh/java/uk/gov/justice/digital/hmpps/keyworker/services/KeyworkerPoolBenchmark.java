@@ -0,0 +1,124 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.Prison;
+import uk.gov.justice.digital.hmpps.keyworker.model.AllocationReason;
+import uk.gov.justice.digital.hmpps.keyworker.model.AllocationType;
+import uk.gov.justice.digital.hmpps.keyworker.model.KeyworkerStatus;
+import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Selection of the priority Key worker for each unallocated prisoner in an auto-allocation run, including the refresh
+ * of the selected Key worker's position in the pool after each allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KeyworkerPoolBenchmark {
+
+    private static final String PRISON_ID = "LEI";
+
+    @Param({"10", "100", "500"})
+    private int keyworkerCount;
+
+    @Param({"100", "1000", "5000"})
+    private int prisonerCount;
+
+    private PrisonSupportedService prisonSupportedService;
+    private AllocationHistorySnapshot allocationHistory;
+    private List<KeyworkerDto> keyworkers;
+    private List<String> offenderNos;
+
+    @Setup
+    public void setUp() {
+        final var random = new Random(42);
+
+        prisonSupportedService = Mockito.mock(PrisonSupportedService.class);
+        when(prisonSupportedService.getPrisonDetail(PRISON_ID)).thenReturn(Prison.builder()
+                .prisonId(PRISON_ID)
+                .capacityTier1(6)
+                .capacityTier2(9)
+                .build());
+
+        // Enough capacity for every prisoner, with Key workers starting from a few existing allocations each
+        final var capacity = prisonerCount / keyworkerCount + 3;
+        keyworkers = new ArrayList<>();
+        for (var staffId = 1L; staffId <= keyworkerCount; staffId++) {
+            keyworkers.add(KeyworkerDto.builder()
+                    .staffId(staffId)
+                    .capacity(capacity)
+                    .numberAllocated(random.nextInt(3))
+                    .status(KeyworkerStatus.ACTIVE)
+                    .autoAllocationAllowed(true)
+                    .build());
+        }
+
+        offenderNos = new ArrayList<>();
+        for (var i = 0; i < prisonerCount; i++) {
+            offenderNos.add(String.format("A%04dAA", i));
+        }
+
+        // A previous auto-allocation for each Key worker, and one in ten prisoners previously allocated
+        final var keyworkerAllocations = keyworkers.stream()
+                .map(kw -> allocation("Z" + kw.getStaffId(), kw.getStaffId(), LocalDateTime.now().minusMinutes(random.nextInt(10000))))
+                .collect(Collectors.toList());
+        final var offenderAllocations = new ArrayList<OffenderKeyworker>();
+        for (var i = 0; i < prisonerCount; i += 10) {
+            offenderAllocations.add(allocation(offenderNos.get(i), 1L + random.nextInt(keyworkerCount), LocalDateTime.now().minusDays(30)));
+        }
+        allocationHistory = new AllocationHistorySnapshot(offenderAllocations, keyworkerAllocations);
+    }
+
+    @Benchmark
+    public void allocateAll(final Blackhole blackhole) {
+        final var pool = new KeyworkerPool(allocationHistory, prisonSupportedService, copyKeyworkers(), PRISON_ID);
+
+        for (final var offenderNo : offenderNos) {
+            final var keyworker = pool.getKeyworker(offenderNo);
+            pool.incrementAndRefreshKeyworker(keyworker);
+            blackhole.consume(keyworker);
+        }
+    }
+
+    @Benchmark
+    public KeyworkerPool initialise() {
+        return new KeyworkerPool(allocationHistory, prisonSupportedService, copyKeyworkers(), PRISON_ID);
+    }
+
+    // The pool updates allocation counts on the Key workers it holds
+    private List<KeyworkerDto> copyKeyworkers() {
+        return keyworkers.stream().map(kw -> kw.toBuilder().build()).collect(Collectors.toList());
+    }
+
+    private static OffenderKeyworker allocation(final String offenderNo, final long staffId, final LocalDateTime assigned) {
+        return OffenderKeyworker.builder()
+                .offenderNo(offenderNo)
+                .staffId(staffId)
+                .prisonId(PRISON_ID)
+                .assignedDateTime(assigned)
+                .expiryDateTime(assigned.plusDays(7))
+                .active(false)
+                .allocationType(AllocationType.AUTO)
+                .allocationReason(AllocationReason.AUTO)
+                .build();
+    }
+}
@@ -0,0 +1,87 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerStatSummary;
+import uk.gov.justice.digital.hmpps.keyworker.dto.Prison;
+import uk.gov.justice.digital.hmpps.keyworker.dto.PrisonKeyWorkerAggregatedStats;
+import uk.gov.justice.digital.hmpps.keyworker.model.PrisonKeyWorkerStatistic;
+import uk.gov.justice.digital.hmpps.keyworker.repository.PrisonKeyWorkerStatisticRepository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * Aggregation of a year of daily statistics for 120 prisons into the prison statistics summary. The repository returns
+ * prepared rows, so only the aggregation in the service is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class KeyworkerStatsServiceBenchmark {
+
+    private static final int PRISON_COUNT = 120;
+
+    private final LocalDate toDate = LocalDate.of(2019, 1, 31);
+    private final LocalDate fromDate = toDate.minusMonths(1).plusDays(1);
+
+    private KeyworkerStatsService service;
+    private List<String> prisonIds;
+
+    @Setup
+    public void setUp() {
+        prisonIds = new ArrayList<>();
+        final var dailyStats = new ArrayList<PrisonKeyWorkerStatistic>();
+        final var currentData = new ArrayList<PrisonKeyWorkerAggregatedStats>();
+        final var previousData = new ArrayList<PrisonKeyWorkerAggregatedStats>();
+
+        for (var p = 0; p < PRISON_COUNT; p++) {
+            final var prisonId = String.format("P%02d", p);
+            prisonIds.add(prisonId);
+
+            for (var date = toDate.minusYears(1); !date.isAfter(toDate); date = date.plusDays(1)) {
+                dailyStats.add(PrisonKeyWorkerStatistic.builder()
+                        .prisonId(prisonId)
+                        .snapshotDate(date)
+                        .totalNumPrisoners(600 + p)
+                        .numPrisonersAssignedKeyWorker(500 + date.getDayOfYear() % 50)
+                        .numberKeyWorkerSessions(20 + date.getDayOfMonth())
+                        .numberKeyWorkerEntries(30 + date.getDayOfMonth())
+                        .numberOfActiveKeyworkers(40 + p % 10)
+                        .avgNumDaysFromReceptionToAllocationDays(5 + p % 5)
+                        .avgNumDaysFromReceptionToKeyWorkingSession(8 + p % 5)
+                        .build());
+            }
+            currentData.add(new PrisonKeyWorkerAggregatedStats(prisonId, fromDate, toDate, 900L, 1200L, 44.0, 520.0, 620.0, 6.0, 9.0));
+            previousData.add(new PrisonKeyWorkerAggregatedStats(prisonId, fromDate.minusMonths(1), fromDate.minusDays(1), 850L, 1100L, 43.0, 510.0, 615.0, 7.0, 10.0));
+        }
+
+        final var statisticRepository = Mockito.mock(PrisonKeyWorkerStatisticRepository.class);
+        when(statisticRepository.getAggregatedData(anyList(), any(), any()))
+                .thenAnswer(invocation -> fromDate.equals(invocation.getArgument(1)) ? currentData : previousData);
+        when(statisticRepository.findByPrisonIdInAndSnapshotDateBetween(anyList(), any(), any())).thenReturn(dailyStats);
+
+        final var prisonSupportedService = Mockito.mock(PrisonSupportedService.class);
+        when(prisonSupportedService.getPrisonDetail(anyString())).thenReturn(Prison.builder().kwSessionFrequencyInWeeks(1).build());
+
+        service = new KeyworkerStatsService(null, prisonSupportedService, null, statisticRepository, null, null);
+    }
+
+    @Benchmark
+    public KeyworkerStatSummary getPrisonStats() {
+        return service.getPrisonStats(prisonIds, fromDate, toDate);
+    }
+}
@@ -0,0 +1,97 @@
+package uk.gov.justice.digital.hmpps.keyworker.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.gov.justice.digital.hmpps.keyworker.dto.OffenderKeyworkerDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.StaffLocationRoleDto;
+import uk.gov.justice.digital.hmpps.keyworker.model.AllocationType;
+import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping between allocation entities and DTOs, for a page of allocations or a whole prison's allocation history.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConversionHelperBenchmark {
+
+    @Param({"100", "5000"})
+    private int size;
+
+    private List<OffenderKeyworker> models;
+    private List<OffenderKeyworkerDto> dtos;
+    private List<StaffLocationRoleDto> staff;
+
+    @Setup
+    public void setUp() {
+        models = new ArrayList<>();
+        dtos = new ArrayList<>();
+        staff = new ArrayList<>();
+
+        final var assigned = LocalDateTime.of(2018, 6, 1, 10, 0);
+        for (var i = 0; i < size; i++) {
+            final var offenderNo = String.format("A%04dAA", i);
+            models.add(OffenderKeyworker.builder()
+                    .offenderKeyworkerId((long) i)
+                    .offenderNo(offenderNo)
+                    .staffId((long) (i % 50))
+                    .prisonId("LEI")
+                    .active(i % 4 == 0)
+                    .assignedDateTime(assigned.plusMinutes(i))
+                    .allocationType(AllocationType.AUTO)
+                    .userId("USER")
+                    .build());
+            dtos.add(OffenderKeyworkerDto.builder()
+                    .offenderKeyworkerId((long) i)
+                    .offenderNo(offenderNo)
+                    .staffId((long) (i % 50))
+                    .agencyId("LEI")
+                    .active(i % 4 == 0 ? "Y" : "N")
+                    .assigned(assigned.plusMinutes(i))
+                    .userId("USER")
+                    .build());
+            staff.add(StaffLocationRoleDto.builder()
+                    .staffId((long) i)
+                    .firstName("First" + i)
+                    .lastName("Last" + i)
+                    .agencyId("LEI")
+                    .scheduleTypeDescription("Full Time")
+                    .hoursPerWeek(BigDecimal.valueOf(6))
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public List<OffenderKeyworkerDto> convertOffenderKeyworkerModel2Dto() {
+        return ConversionHelper.convertOffenderKeyworkerModel2Dto(models);
+    }
+
+    @Benchmark
+    public Set<OffenderKeyworker> convertOffenderKeyworkerDto2Model() {
+        return ConversionHelper.convertOffenderKeyworkerDto2Model(dtos);
+    }
+
+    @Benchmark
+    public void convertOffenderKeyworkerModel2KeyworkerAllocationDetailsDto(final Blackhole blackhole) {
+        models.forEach(model -> blackhole.consume(ConversionHelper.convertOffenderKeyworkerModel2KeyworkerAllocationDetailsDto(model)));
+    }
+
+    @Benchmark
+    public void getKeyworkerDto(final Blackhole blackhole) {
+        staff.forEach(dto -> blackhole.consume(ConversionHelper.getKeyworkerDto(dto)));
+    }
+}
@@ -0,0 +1,140 @@
+package uk.gov.justice.digital.hmpps.keyworker.batch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.util.toolbox.AggregationStrategies;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import uk.gov.justice.digital.hmpps.keyworker.dto.AutoAllocationOutcomeDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.AutoAllocationOutcomeDto.Status;
+import uk.gov.justice.digital.hmpps.keyworker.dto.Prison;
+import uk.gov.justice.digital.hmpps.keyworker.exception.AllocationException;
+import uk.gov.justice.digital.hmpps.keyworker.services.AutoAllocationProgress;
+import uk.gov.justice.digital.hmpps.keyworker.services.KeyworkerAutoAllocationService;
+import uk.gov.justice.digital.hmpps.keyworker.services.PrisonSupportedService;
+import uk.gov.justice.digital.hmpps.keyworker.utils.CallerContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs auto-allocation for every migrated prison that supports it, several prisons at a time. Each prison is allocated
+ * in its own transaction, on behalf of the user that requested the run, and leaves provisional allocations to be
+ * confirmed per prison as usual. Not scheduled, as provisional allocations must be reviewed.
+ */
+@Component
+@ConditionalOnProperty(name = "quartz.enabled")
+@Slf4j
+public class AutoAllocationRoute extends RouteBuilder {
+    public static final String DIRECT_AUTO_ALLOCATION = "direct:autoAllocation";
+    private static final String DIRECT_AUTO_ALLOCATE_PRISON = "direct:auto-allocate-prison";
+    private static final String CALLER_CONTEXT = "autoAllocationCallerContext";
+    private static final String PRISONS_COMPLETED = "autoAllocationPrisonsCompleted";
+
+    // Each prison makes its Elite2 calls one at a time, so this also bounds concurrent Elite2 calls made by the job
+    @Value("${svc.kw.allocation.batch.max.concurrent.prisons:4}")
+    private int maxConcurrentPrisons;
+
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int connectionPoolSize;
+
+    private final KeyworkerAutoAllocationService keyworkerAutoAllocationService;
+    private final PrisonSupportedService prisonSupportedService;
+
+    @Autowired
+    public AutoAllocationRoute(final KeyworkerAutoAllocationService keyworkerAutoAllocationService, final PrisonSupportedService prisonSupportedService) {
+        this.keyworkerAutoAllocationService = keyworkerAutoAllocationService;
+        this.prisonSupportedService = prisonSupportedService;
+    }
+
+    @Override
+    public void configure() {
+        final var threads = ParallelPrisons.threads(maxConcurrentPrisons, connectionPoolSize);
+        log.info("Multi-prison Auto-allocation will process up to {} prisons in parallel", threads);
+
+        final var executorService = getContext().getExecutorServiceManager()
+                .newFixedThreadPool(this, "AutoAllocation", threads);
+
+        from(DIRECT_AUTO_ALLOCATION)
+                .log("Starting: Multi-prison Auto-allocation")
+                .process(exchange -> exchange.setProperty(CALLER_CONTEXT, CallerContext.capture()))
+                .bean(prisonSupportedService, "getMigratedPrisons")
+                .process(this::selectAutoAllocationPrisons)
+                .log("There are ${body.size} prisons supporting auto-allocation")
+                .split(body(), AggregationStrategies.flexible(AutoAllocationOutcomeDto.class).accumulateInCollection(ArrayList.class))
+                    .parallelProcessing()
+                    .executorService(executorService)
+                    .to(DIRECT_AUTO_ALLOCATE_PRISON)
+                .end()
+                .process(this::logSummary)
+                .log("Complete: Multi-prison Auto-allocation");
+
+        from(DIRECT_AUTO_ALLOCATE_PRISON)
+                .log("Auto-allocation for ${body.prisonId}")
+                .process(this::autoAllocate)
+                .log("Auto-allocation ${body.status} for ${body.prisonId} with ${body.allocations} allocations");
+    }
+
+    private void selectAutoAllocationPrisons(final Exchange exchange) {
+        final List<Prison> prisons = exchange.getIn().getBody(List.class);
+
+        exchange.setProperty(PRISONS_COMPLETED, new AtomicInteger());
+        exchange.getIn().setBody(prisons.stream().filter(Prison::isAutoAllocatedSupported).collect(Collectors.toList()));
+    }
+
+    private void autoAllocate(final Exchange exchange) {
+        final var prisonId = exchange.getIn().getBody(Prison.class).getPrisonId();
+        final var callerContext = exchange.getProperty(CALLER_CONTEXT, CallerContext.class);
+
+        // Halts without allocating if the prison is already being auto-allocated
+        final var outcome = callerContext.call(() -> autoAllocate(prisonId));
+
+        final var completed = exchange.getProperty(PRISONS_COMPLETED, AtomicInteger.class).incrementAndGet();
+        log.info("Auto-allocation progress: {} of {} prisons processed.", completed, exchange.getProperty(Exchange.SPLIT_SIZE));
+
+        exchange.getIn().setBody(outcome);
+    }
+
+    private AutoAllocationOutcomeDto autoAllocate(final String prisonId) {
+        final var progress = new AutoAllocationProgress();
+
+        try {
+            final var allocations = keyworkerAutoAllocationService.autoAllocate(prisonId, progress);
+
+            return buildOutcome(prisonId, Status.COMPLETED, allocations, null);
+        } catch (final AllocationException aex) {
+            // Allocations made before halting are kept
+            return buildOutcome(prisonId, Status.HALTED, progress.getAllocations(), aex.getMessage());
+        } catch (final RuntimeException rex) {
+            log.error("Auto-allocation failed for {}", prisonId, rex);
+
+            // Allocations are rolled back on failure
+            return buildOutcome(prisonId, Status.FAILED, 0L, rex.getMessage());
+        }
+    }
+
+    private AutoAllocationOutcomeDto buildOutcome(final String prisonId, final Status status, final Long allocations, final String outcome) {
+        return AutoAllocationOutcomeDto.builder()
+                .prisonId(prisonId)
+                .status(status)
+                .allocations(allocations)
+                .outcome(outcome)
+                .build();
+    }
+
+    private void logSummary(final Exchange exchange) {
+        final List<?> results = exchange.getIn().getBody(List.class);
+
+        final var byStatus = results.stream()
+                .filter(AutoAllocationOutcomeDto.class::isInstance)
+                .map(AutoAllocationOutcomeDto.class::cast)
+                .collect(Collectors.groupingBy(AutoAllocationOutcomeDto::getStatus, Collectors.counting()));
+
+        log.info("Auto-allocation outcomes by status: {}", byStatus);
+    }
+}
@@ -21,6 +21,9 @@ public class DeallocationRoute extends RouteBuilder {
     @Value("${deallocation.job.cron}")
     private String cronExpression;
 
+    @Value("${api.keyworker.deallocate.streaming.enabled:false}")
+    private boolean streamingEnabled;
+
     private final KeyworkerBatchService service;
 
     @Autowired
@@ -37,7 +40,7 @@ public class DeallocationRoute extends RouteBuilder {
         }
 
         from(DIRECT_DEALLOCATION)
-                .bean(service, "executeDeallocation")
+                .bean(service, streamingEnabled ? "executeStreamingDeallocation" : "executeDeallocation")
                 .log("Deallocation route complete");
 
     }
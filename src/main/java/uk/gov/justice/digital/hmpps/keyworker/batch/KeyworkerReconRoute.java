@@ -1,5 +1,6 @@
 package uk.gov.justice.digital.hmpps.keyworker.batch;
 
+import lombok.extern.slf4j.Slf4j;
 import org.apache.camel.LoggingLevel;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.commons.lang3.StringUtils;
@@ -12,10 +13,12 @@ import uk.gov.justice.digital.hmpps.keyworker.services.ReconciliationService;
 
 
 /**
- * A Scheduled job that checks builds stats for each prison for the previous day
+ * A Scheduled job that reconciles active key worker allocations in each prison against the prisoners actually there.
+ * Prisons may optionally be processed in parallel, each in its own transaction.
  */
 @Component
 @ConditionalOnProperty(name = "quartz.enabled")
+@Slf4j
 public class KeyworkerReconRoute extends RouteBuilder {
     public static final String DIRECT_KEY_WORKER_RECON = "direct:keyWorkerRecon";
     private static final String QUARTZ_KEY_WORKER_RECON_URI = "quartz2://application/keyWorkerRecon?cron=";
@@ -25,6 +28,15 @@ public class KeyworkerReconRoute extends RouteBuilder {
     @Value("${key.worker.recon.job.cron}")
     private String cronExpression;
 
+    @Value("${key.worker.recon.job.parallel.enabled:false}")
+    private boolean parallelEnabled;
+
+    @Value("${key.worker.recon.job.parallel.threads:4}")
+    private int parallelThreads;
+
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int connectionPoolSize;
+
     private final ReconciliationService reconciliationService;
     private final PrisonSupportedService prisonSupportedService;
 
@@ -43,12 +55,21 @@ public class KeyworkerReconRoute extends RouteBuilder {
                     .to(DIRECT_KEY_WORKER_RECON);
         }
 
-        from(DIRECT_KEY_WORKER_RECON)
+        final var split = from(DIRECT_KEY_WORKER_RECON)
                 .log("Starting: Key Worker Reconciliation")
                 .bean(prisonSupportedService, "getMigratedPrisons")
                 .log("There are ${body.size} prisons")
-                .split(body())
-                    .to(DIRECT_RECON)
+                .split(body());
+
+        if (parallelEnabled) {
+            final var threads = ParallelPrisons.threads(parallelThreads, connectionPoolSize);
+            log.info("Key Worker Reconciliation will process up to {} prisons in parallel", threads);
+
+            split.parallelProcessing()
+                    .executorService(getContext().getExecutorServiceManager().newFixedThreadPool(this, "KeyWorkerRecon", threads));
+        }
+
+        split.to(DIRECT_RECON)
                 .end()
                 .log("Complete: Key Worker Reconciliation");
 
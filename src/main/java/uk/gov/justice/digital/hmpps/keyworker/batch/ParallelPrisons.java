@@ -0,0 +1,22 @@
+package uk.gov.justice.digital.hmpps.keyworker.batch;
+
+/**
+ * Sizing for routes that process prisons in parallel.
+ */
+final class ParallelPrisons {
+
+    private ParallelPrisons() {
+    }
+
+    /**
+     * Each prison holds a database connection for the whole of its transaction, so prisons processed at once are kept
+     * to half the connection pool to leave connections for the API.
+     *
+     * @param parallelThreads threads configured for the route.
+     * @param connectionPoolSize size of the database connection pool.
+     * @return number of prisons to process at once, at least one.
+     */
+    static int threads(final int parallelThreads, final int connectionPoolSize) {
+        return Math.max(1, Math.min(parallelThreads, connectionPoolSize / 2));
+    }
+}
@@ -1,5 +1,7 @@
 package uk.gov.justice.digital.hmpps.keyworker.batch;
 
+import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.Exchange;
 import org.apache.camel.LoggingLevel;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.commons.lang3.StringUtils;
@@ -10,21 +12,37 @@ import org.springframework.stereotype.Component;
 import uk.gov.justice.digital.hmpps.keyworker.services.KeyworkerStatsService;
 import uk.gov.justice.digital.hmpps.keyworker.services.PrisonSupportedService;
 
+import java.time.Duration;
 
 /**
- * A Scheduled job that checks builds stats for each prison for the previous day
+ * A Scheduled job that checks builds stats for each prison for the previous day. Prisons may optionally be processed in
+ * parallel, each in its own transaction.
  */
 @Component
 @ConditionalOnProperty(name = "quartz.enabled")
+@Slf4j
 public class PrisonStatsRoute extends RouteBuilder {
     public static final String DIRECT_PRISON_STATS = "direct:prisonStats";
     private static final String QUARTZ_PRISON_STATS_URI = "quartz2://application/prisonStats?cron=";
     private static final String DIRECT_GENERATE_STATS = "direct:generate-stats";
     private static final String DIRECT_LOG_ERROR = "direct:log-error";
+    private static final String STATS_START_TIME = "prisonStatsStartTime";
+    private static final String STATS_ELAPSED_MILLIS = "prisonStatsElapsedMillis";
 
     @Value("${prisonStats.job.cron}")
     private String cronExpression;
 
+    @Value("${prisonStats.job.parallel.enabled:false}")
+    private boolean parallelEnabled;
+
+    @Value("${prisonStats.job.parallel.threads:4}")
+    private int parallelThreads;
+
+    // Elite2 calls are made one at a time per prison, so the prisons processed at once also bound concurrent Elite2
+    // calls made by the job
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int connectionPoolSize;
+
     private final KeyworkerStatsService keyworkerStatsService;
     private final PrisonSupportedService prisonSupportedService;
 
@@ -42,20 +60,33 @@ public class PrisonStatsRoute extends RouteBuilder {
                     .to(DIRECT_PRISON_STATS);
         }
 
-        from(DIRECT_PRISON_STATS)
+        final var split = from(DIRECT_PRISON_STATS)
                 .log("Starting: Daily Prison Statistics")
+                .process(this::startTimer)
                 .bean(prisonSupportedService, "getMigratedPrisons")
                 .log("There are ${body.size} migrated prisons")
-                .split(body())
-                    .to(DIRECT_GENERATE_STATS)
+                .split(body());
+
+        if (parallelEnabled) {
+            final var threads = ParallelPrisons.threads(parallelThreads, connectionPoolSize);
+            log.info("Daily Prison Statistics will process up to {} prisons in parallel", threads);
+
+            split.parallelProcessing()
+                    .executorService(getContext().getExecutorServiceManager().newFixedThreadPool(this, "PrisonStats", threads));
+        }
+
+        split.to(DIRECT_GENERATE_STATS)
                 .end()
-                .log("Complete: Daily Prison Statistics");
+                .process(this::stopTimer)
+                .log("Complete: Daily Prison Statistics in ${exchangeProperty." + STATS_ELAPSED_MILLIS + "} ms");
 
         from(DIRECT_GENERATE_STATS)
                 .errorHandler(deadLetterChannel(DIRECT_LOG_ERROR).redeliveryDelay(3000).backOffMultiplier(1.37).maximumRedeliveries(2))
                 .log("Gathering stats for ${body.prisonId}")
+                .process(this::startTimer)
                 .bean(keyworkerStatsService, "generatePrisonStats(${body.prisonId})")
-                .log("Stats completed for ${body.prisonId}");
+                .process(this::stopTimer)
+                .log("Stats completed for ${body.prisonId} in ${exchangeProperty." + STATS_ELAPSED_MILLIS + "} ms");
 
         from(DIRECT_LOG_ERROR)
                 .log(LoggingLevel.ERROR, "Error occurred processing ${body.prisonId}")
@@ -63,4 +94,13 @@ public class PrisonStatsRoute extends RouteBuilder {
                 .bean(keyworkerStatsService , "raiseStatsProcessingError(${body.prisonId})");
 
     }
+
+    private void startTimer(final Exchange exchange) {
+        exchange.setProperty(STATS_START_TIME, System.nanoTime());
+    }
+
+    private void stopTimer(final Exchange exchange) {
+        final var elapsed = Duration.ofNanos(System.nanoTime() - exchange.getProperty(STATS_START_TIME, Long.class));
+        exchange.setProperty(STATS_ELAPSED_MILLIS, elapsed.toMillis());
+    }
 }
@@ -10,10 +10,12 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import uk.gov.justice.digital.hmpps.keyworker.batch.EnableNewNomisRoute;
+import uk.gov.justice.digital.hmpps.keyworker.dto.AutoAllocationOutcomeDto;
 import uk.gov.justice.digital.hmpps.keyworker.dto.ErrorResponse;
 
 import java.util.List;
 
+import static uk.gov.justice.digital.hmpps.keyworker.batch.AutoAllocationRoute.DIRECT_AUTO_ALLOCATION;
 import static uk.gov.justice.digital.hmpps.keyworker.batch.DeallocationRoute.DIRECT_DEALLOCATION;
 import static uk.gov.justice.digital.hmpps.keyworker.batch.KeyworkerReconRoute.DIRECT_KEY_WORKER_RECON;
 import static uk.gov.justice.digital.hmpps.keyworker.batch.PrisonStatsRoute.DIRECT_PRISON_STATS;
@@ -130,4 +132,22 @@ public class BatchController {
         producerTemplate.send(DIRECT_KEY_WORKER_RECON, exchange -> {});
     }
 
+    @ApiOperation(
+            value = "Run auto-allocation for all prisons that support it",
+            notes = "Prisons are processed in parallel. Provisional allocations must still be confirmed for each prison.",
+            nickname = "runBatchAutoAllocation",
+            hidden = true)
+
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = AutoAllocationOutcomeDto.class, responseContainer = "List"),
+            @ApiResponse(code = 500, message = "Unrecoverable error occurred whilst processing request.", response = ErrorResponse.class) })
+
+    @PostMapping(path = "/auto-allocate")
+    @PreAuthorize("hasRole('OMIC_ADMIN')")
+    public List<AutoAllocationOutcomeDto> runBatchAutoAllocation() {
+        final var response = producerTemplate.send(DIRECT_AUTO_ALLOCATION, exchange -> {});
+        final List<AutoAllocationOutcomeDto> outcomes = response.getIn().getBody(List.class);
+        log.info("processed /batch/auto-allocate call for {} prisons", outcomes.size());
+        return outcomes;
+    }
 }
@@ -9,6 +9,7 @@ import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestClientResponseException;
 import uk.gov.justice.digital.hmpps.keyworker.dto.ErrorResponse;
 import uk.gov.justice.digital.hmpps.keyworker.exception.AllocationException;
+import uk.gov.justice.digital.hmpps.keyworker.exception.Elite2UnavailableException;
 import uk.gov.justice.digital.hmpps.keyworker.exception.PrisonNotMigratedException;
 import uk.gov.justice.digital.hmpps.keyworker.exception.PrisonNotSupportAutoAllocationException;
 import uk.gov.justice.digital.hmpps.keyworker.exception.PrisonNotSupportedException;
@@ -42,6 +43,18 @@ public class ControllerAdvice {
                         .build());
     }
 
+    @ExceptionHandler(Elite2UnavailableException.class)
+    public ResponseEntity<ErrorResponse> handleException(final Elite2UnavailableException e) {
+        log.warn("Elite2 unavailable: {}", e.getMessage());
+        return ResponseEntity
+                .status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(ErrorResponse
+                        .builder()
+                        .status(HttpStatus.SERVICE_UNAVAILABLE.value())
+                        .developerMessage(e.getMessage())
+                        .build());
+    }
+
     @ExceptionHandler(AccessDeniedException.class)
     public ResponseEntity<ErrorResponse> handleException(final AccessDeniedException e) {
         log.debug("Forbidden (403) returned", e);
@@ -13,6 +13,7 @@ import uk.gov.justice.digital.hmpps.keyworker.dto.*;
 import uk.gov.justice.digital.hmpps.keyworker.model.AllocationType;
 import uk.gov.justice.digital.hmpps.keyworker.model.KeyworkerStatus;
 import uk.gov.justice.digital.hmpps.keyworker.rolemigration.UserRolesMigrationService;
+import uk.gov.justice.digital.hmpps.keyworker.services.AutoAllocationJobService;
 import uk.gov.justice.digital.hmpps.keyworker.services.KeyworkerAutoAllocationService;
 import uk.gov.justice.digital.hmpps.keyworker.services.KeyworkerMigrationService;
 import uk.gov.justice.digital.hmpps.keyworker.services.KeyworkerService;
@@ -41,17 +42,20 @@ public class KeyworkerServiceController {
     private final UserRolesMigrationService roleMigrationService;
     private final KeyworkerAutoAllocationService keyworkerAutoAllocationService;
     private final PrisonSupportedService prisonSupportedService;
+    private final AutoAllocationJobService autoAllocationJobService;
 
     public KeyworkerServiceController(final KeyworkerService keyworkerService,
                                       final KeyworkerMigrationService keyworkerMigrationService,
                                       final KeyworkerAutoAllocationService keyworkerAutoAllocationService,
                                       final UserRolesMigrationService roleMigrationService,
-                                      final PrisonSupportedService prisonSupportedService) {
+                                      final PrisonSupportedService prisonSupportedService,
+                                      final AutoAllocationJobService autoAllocationJobService) {
         this.keyworkerService = keyworkerService;
         this.keyworkerMigrationService = keyworkerMigrationService;
         this.keyworkerAutoAllocationService = keyworkerAutoAllocationService;
         this.roleMigrationService = roleMigrationService;
         this.prisonSupportedService = prisonSupportedService;
+        this.autoAllocationJobService = autoAllocationJobService;
     }
 
     /* --------------------------------------------------------------------------------*/
@@ -299,6 +303,68 @@ public class KeyworkerServiceController {
     }
     /* --------------------------------------------------------------------------------*/
 
+    @ApiOperation(
+            value = "Submit auto-allocation job for specified prison.",
+            notes = "Starts auto-allocation in the background and returns immediately. Use the returned job id to monitor progress and outcome. If a job for the prison is already in progress, that job is returned.",
+            nickname="submitAutoAllocationJob")
+
+    @ApiResponses(value = {
+            @ApiResponse(code = 202, message = "Auto-allocation job accepted.", response = AutoAllocationJobDto.class),
+            @ApiResponse(code = 404, message = "Prison id provided is not valid or is not accessible to user.", response = ErrorResponse.class),
+            @ApiResponse(code = 500, message = "Unrecoverable error occurred whilst processing request.", response = ErrorResponse.class) })
+
+    @PostMapping(path = "/{prisonId}/allocate/job")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+
+    public AutoAllocationJobDto submitAutoAllocationJob(
+            @ApiParam(value = "prisonId", required = true)
+            @NotEmpty
+            @PathVariable("prisonId") final String prisonId) {
+        return autoAllocationJobService.submit(prisonId);
+    }
+
+    /* --------------------------------------------------------------------------------*/
+
+    @ApiOperation(
+            value = "Progress and outcome of an auto-allocation job.",
+            notes = "Finished jobs are available for a limited time.",
+            nickname="getAutoAllocationJob")
+
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = AutoAllocationJobDto.class),
+            @ApiResponse(code = 404, message = "Job not found.", response = ErrorResponse.class),
+            @ApiResponse(code = 500, message = "Unrecoverable error occurred whilst processing request.", response = ErrorResponse.class) })
+
+    @GetMapping(path = "/allocate/job/{jobId}")
+
+    public AutoAllocationJobDto getAutoAllocationJob(
+            @ApiParam(value = "jobId", required = true)
+            @NotEmpty
+            @PathVariable("jobId") final String jobId) {
+        return autoAllocationJobService.getJob(jobId);
+    }
+    /* --------------------------------------------------------------------------------*/
+
+    @ApiOperation(
+            value = "Plan auto-allocation for specified prison without making any allocations.",
+            notes = "Returns the allocations the auto-allocation process would make and the resulting load of each available Key worker. No allocation records are created, so this may be repeated freely.",
+            nickname="planAutoAllocation")
+
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = AllocationPlanDto.class),
+            @ApiResponse(code = 404, message = "Prison id provided is not valid or is not accessible to user.", response = ErrorResponse.class),
+            @ApiResponse(code = 500, message = "Unrecoverable error occurred whilst processing request.", response = ErrorResponse.class) })
+
+    @GetMapping(path = "/{prisonId}/allocate/plan")
+
+    public AllocationPlanDto planAutoAllocation(
+            @ApiParam(value = "prisonId", required = true)
+            @NotEmpty
+            @PathVariable("prisonId") final String prisonId) {
+        return keyworkerAutoAllocationService.planAllocations(prisonId);
+    }
+    /* --------------------------------------------------------------------------------*/
+
     @ApiOperation(
             value = "Confirm allocations chosen by the auto-allocation process.",
             notes = "Confirm allocations chosen by the auto-allocation process.",
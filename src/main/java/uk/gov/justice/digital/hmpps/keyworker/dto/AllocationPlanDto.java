@@ -0,0 +1,41 @@
+package uk.gov.justice.digital.hmpps.keyworker.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import java.util.List;
+
+@ApiModel(description = "Allocations that auto-allocation would make at a prison, without applying them")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AllocationPlanDto {
+
+    @ApiModelProperty(required = true, value = "Prison for which allocations were planned.", position = 1)
+    @NotBlank
+    private String prisonId;
+
+    @ApiModelProperty(required = true, value = "Proposed offender to Key worker allocations, in the order auto-allocation would make them.", position = 2)
+    @NotNull
+    private List<KeyworkerAllocationDto> allocations;
+
+    @ApiModelProperty(required = true, value = "Load of each available Key worker once the proposed allocations are applied.", position = 3)
+    @NotNull
+    private List<KeyworkerPlannedLoadDto> keyworkers;
+
+    @ApiModelProperty(required = true, value = "Offenders that would remain unallocated.", position = 4)
+    @NotNull
+    private List<String> unallocatedOffenderNos;
+
+    @ApiModelProperty(value = "Reason auto-allocation would halt before all offenders are allocated, if any.", position = 5)
+    private String outcome;
+}
@@ -0,0 +1,55 @@
+package uk.gov.justice.digital.hmpps.keyworker.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import java.time.LocalDateTime;
+
+@ApiModel(description = "Auto-allocation job")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AutoAllocationJobDto {
+
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, HALTED, FAILED
+    }
+
+    @ApiModelProperty(required = true, value = "Identifies the job.", position = 1)
+    @NotBlank
+    private String jobId;
+
+    @ApiModelProperty(required = true, value = "Prison being auto-allocated.", position = 2)
+    @NotBlank
+    private String prisonId;
+
+    @ApiModelProperty(required = true, value = "QUEUED, RUNNING, COMPLETED if all offenders were allocated, HALTED if auto-allocation stopped early (allocations made are kept) or FAILED.", position = 3)
+    @NotNull
+    private Status status;
+
+    @ApiModelProperty(required = true, value = "Number of provisional allocations made so far.", position = 4)
+    @NotNull
+    private Long allocations;
+
+    @ApiModelProperty(value = "Number of offenders yet to be allocated, once known.", position = 5)
+    private Integer offendersRemaining;
+
+    @ApiModelProperty(value = "Reason auto-allocation halted or failed.", position = 6)
+    private String outcome;
+
+    @ApiModelProperty(required = true, value = "Date and time the job was submitted.", position = 7)
+    @NotNull
+    private LocalDateTime submittedDateTime;
+
+    @ApiModelProperty(value = "Date and time the job finished.", position = 8)
+    private LocalDateTime completedDateTime;
+}
@@ -0,0 +1,40 @@
+package uk.gov.justice.digital.hmpps.keyworker.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+
+@ApiModel(description = "Outcome of auto-allocation at a prison")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AutoAllocationOutcomeDto {
+
+    public enum Status {
+        COMPLETED, HALTED, FAILED
+    }
+
+    @ApiModelProperty(required = true, value = "Prison at which auto-allocation was run.", position = 1)
+    @NotBlank
+    private String prisonId;
+
+    @ApiModelProperty(required = true, value = "COMPLETED if all offenders were allocated, HALTED if auto-allocation stopped early (allocations made are kept) or FAILED.", position = 2)
+    @NotNull
+    private Status status;
+
+    @ApiModelProperty(required = true, value = "Number of provisional allocations made.", position = 3)
+    @NotNull
+    private Long allocations;
+
+    @ApiModelProperty(value = "Reason auto-allocation halted or failed.", position = 4)
+    private String outcome;
+}
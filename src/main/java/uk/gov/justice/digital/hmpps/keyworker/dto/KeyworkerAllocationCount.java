@@ -0,0 +1,17 @@
+package uk.gov.justice.digital.hmpps.keyworker.dto;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+@Getter
+@EqualsAndHashCode
+public class KeyworkerAllocationCount {
+
+    private final Long staffId;
+    private final Long numberAllocated;
+
+    public KeyworkerAllocationCount(final Long staffId, final Long numberAllocated) {
+        this.staffId = staffId;
+        this.numberAllocated = numberAllocated;
+    }
+}
@@ -12,7 +12,7 @@ import java.time.LocalDate;
 
 @ApiModel(description = "Key worker details")
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -0,0 +1,46 @@
+package uk.gov.justice.digital.hmpps.keyworker.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotNull;
+
+@ApiModel(description = "Key worker load following a planned auto-allocation")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class KeyworkerPlannedLoadDto {
+
+    @ApiModelProperty(required = true, value = "Identifies Key worker.", position = 1)
+    @NotNull
+    private Long staffId;
+
+    @ApiModelProperty(value = "Key worker's first name.", position = 2)
+    private String firstName;
+
+    @ApiModelProperty(value = "Key worker's last name.", position = 3)
+    private String lastName;
+
+    @ApiModelProperty(required = true, value = "Key worker's allocation capacity.", position = 4)
+    @NotNull
+    private Integer capacity;
+
+    @ApiModelProperty(required = true, value = "Number of offenders currently allocated to Key worker.", position = 5)
+    @NotNull
+    private Integer currentAllocations;
+
+    @ApiModelProperty(required = true, value = "Number of offenders the plan would allocate to Key worker.", position = 6)
+    @NotNull
+    private Integer plannedAllocations;
+
+    @ApiModelProperty(required = true, value = "Number of offenders allocated to Key worker once the plan is applied.", position = 7)
+    @NotNull
+    private Integer totalAllocations;
+}
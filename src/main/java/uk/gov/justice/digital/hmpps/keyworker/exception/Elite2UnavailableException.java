@@ -0,0 +1,14 @@
+package uk.gov.justice.digital.hmpps.keyworker.exception;
+
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Raised instead of calling Elite2 when the circuit breaker for the endpoint's group is open, or when the group
+ * already has as many calls in flight as it allows.
+ */
+public class Elite2UnavailableException extends RestClientException {
+
+    public Elite2UnavailableException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,40 @@
+package uk.gov.justice.digital.hmpps.keyworker.model;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.io.Serializable;
+
+/**
+ * Number of active, non-provisional allocations a Key worker has in a prison, kept up to date as allocations change so
+ * that it does not have to be counted from OFFENDER_KEY_WORKER on every read.
+ */
+@Entity
+@Table(name = "KEY_WORKER_LOAD")
+@IdClass(KeyworkerLoad.KeyworkerLoadId.class)
+@Data()
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder(toBuilder = true)
+@EqualsAndHashCode(of = {"staffId", "prisonId"})
+public class KeyworkerLoad {
+
+    @Id()
+    @Column(name = "STAFF_ID", nullable = false)
+    private Long staffId;
+
+    @Id()
+    @Column(name = "PRISON_ID", nullable = false)
+    private String prisonId;
+
+    @Column(name = "NUMBER_ALLOCATED", nullable = false)
+    private int numberAllocated;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class KeyworkerLoadId implements Serializable {
+        private Long staffId;
+        private String prisonId;
+    }
+}
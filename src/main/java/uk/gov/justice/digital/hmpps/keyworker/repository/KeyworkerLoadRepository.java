@@ -0,0 +1,37 @@
+package uk.gov.justice.digital.hmpps.keyworker.repository;
+
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import uk.gov.justice.digital.hmpps.keyworker.model.KeyworkerLoad;
+
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
+
+public interface KeyworkerLoadRepository extends CrudRepository<KeyworkerLoad, KeyworkerLoad.KeyworkerLoadId> {
+
+    List<KeyworkerLoad> findByPrisonIdAndStaffIdIn(String prisonId, Collection<Long> staffIds);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select l from KeyworkerLoad l where l.prisonId = :prisonId and l.staffId in (:staffIds) order by l.staffId")
+    List<KeyworkerLoad> lockByPrisonIdAndStaffIdIn(@Param("prisonId") String prisonId, @Param("staffIds") Collection<Long> staffIds);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select l from KeyworkerLoad l where l.prisonId = :prisonId order by l.staffId")
+    List<KeyworkerLoad> lockByPrisonId(@Param("prisonId") String prisonId);
+
+    /**
+     * Inserts a load unless there already is one, in SQL that both HSQLDB and PostgreSQL accept. A concurrent insert of
+     * the same load that is not yet committed still fails with a duplicate key, so callers must retry.
+     *
+     * @return 1 if the load was inserted, 0 if it already existed.
+     */
+    @Modifying
+    @Query(value = "insert into KEY_WORKER_LOAD (STAFF_ID, PRISON_ID, NUMBER_ALLOCATED) " +
+            "select cast(:staffId as bigint), cast(:prisonId as varchar(6)), cast(:numberAllocated as integer) from (values (0)) as V(X) " +
+            "where not exists (select 1 from KEY_WORKER_LOAD L where L.STAFF_ID = :staffId and L.PRISON_ID = :prisonId)", nativeQuery = true)
+    int insertIfMissing(@Param("staffId") Long staffId, @Param("prisonId") String prisonId, @Param("numberAllocated") int numberAllocated);
+}
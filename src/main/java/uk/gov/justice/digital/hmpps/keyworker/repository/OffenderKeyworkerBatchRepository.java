@@ -0,0 +1,18 @@
+package uk.gov.justice.digital.hmpps.keyworker.repository;
+
+import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
+
+import java.util.Collection;
+
+public interface OffenderKeyworkerBatchRepository {
+
+    /**
+     * Inserts new allocation records using JDBC batches, bypassing the persistence context. Audit columns must already
+     * be populated on the supplied allocations.
+     *
+     * @param allocations new allocations.
+     * @param batchSize number of rows to send to the database per batch.
+     * @return number of rows inserted.
+     */
+    int insertAll(Collection<OffenderKeyworker> allocations, int batchSize);
+}
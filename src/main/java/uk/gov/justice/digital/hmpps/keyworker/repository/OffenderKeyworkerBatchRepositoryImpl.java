@@ -0,0 +1,52 @@
+package uk.gov.justice.digital.hmpps.keyworker.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+
+public class OffenderKeyworkerBatchRepositoryImpl implements OffenderKeyworkerBatchRepository {
+
+    private static final String INSERT_ALLOCATION = "INSERT INTO OFFENDER_KEY_WORKER " +
+            "(OFFENDER_NO, STAFF_ID, ASSIGNED_DATE_TIME, ACTIVE_FLAG, ALLOC_REASON, ALLOC_TYPE, USER_ID, PRISON_ID, " +
+            "EXPIRY_DATE_TIME, DEALLOC_REASON, CREATE_DATETIME, CREATE_USER_ID) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public OffenderKeyworkerBatchRepositoryImpl(final JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public int insertAll(final Collection<OffenderKeyworker> allocations, final int batchSize) {
+        if (allocations.isEmpty()) {
+            return 0;
+        }
+
+        final var results = jdbcTemplate.batchUpdate(INSERT_ALLOCATION, allocations, batchSize, (ps, allocation) -> {
+            ps.setString(1, allocation.getOffenderNo());
+            ps.setLong(2, allocation.getStaffId());
+            ps.setTimestamp(3, toTimestamp(allocation.getAssignedDateTime()));
+            ps.setString(4, allocation.isActive() ? "Y" : "N");
+            ps.setString(5, allocation.getAllocationReason().getReasonCode());
+            ps.setString(6, allocation.getAllocationType().getTypeCode());
+            ps.setString(7, allocation.getUserId());
+            ps.setString(8, allocation.getPrisonId());
+            ps.setTimestamp(9, toTimestamp(allocation.getExpiryDateTime()));
+            ps.setString(10, allocation.getDeallocationReason() != null ? allocation.getDeallocationReason().getReasonCode() : null);
+            ps.setTimestamp(11, toTimestamp(allocation.getCreationDateTime()));
+            ps.setString(12, allocation.getCreateUserId());
+        });
+
+        // Drivers may report SUCCESS_NO_INFO (-2) rather than a row count for each batched statement
+        return Arrays.stream(results).flatMapToInt(Arrays::stream).map(count -> count < 0 ? 1 : count).sum();
+    }
+
+    private static Timestamp toTimestamp(final LocalDateTime dateTime) {
+        return dateTime != null ? Timestamp.valueOf(dateTime) : null;
+    }
+}
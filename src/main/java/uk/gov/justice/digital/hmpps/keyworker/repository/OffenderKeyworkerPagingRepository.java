@@ -0,0 +1,28 @@
+package uk.gov.justice.digital.hmpps.keyworker.repository;
+
+import uk.gov.justice.digital.hmpps.keyworker.dto.AllocationsFilterDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.SortOrder;
+import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
+
+import java.util.List;
+
+public interface OffenderKeyworkerPagingRepository {
+
+    /**
+     * Active allocations in a prison matching the filter, restricted to one page in the database. Without an allocation
+     * type only non-provisional allocations are returned; the date range applies to the date assigned, inclusive.
+     *
+     * @param filter prison, optional allocation type and date range.
+     * @param orderByAssigned order by date assigned, rather than the order allocations were made in.
+     * @param sortOrder direction of the ordering.
+     * @param offset number of matching allocations to skip.
+     * @param limit maximum number of allocations to return.
+     * @return the page of allocations.
+     */
+    List<OffenderKeyworker> findActiveAllocations(AllocationsFilterDto filter, boolean orderByAssigned, SortOrder sortOrder, long offset, long limit);
+
+    /**
+     * Number of active allocations matching the filter, as for {@link #findActiveAllocations}.
+     */
+    long countActiveAllocations(AllocationsFilterDto filter);
+}
@@ -0,0 +1,74 @@
+package uk.gov.justice.digital.hmpps.keyworker.repository;
+
+import uk.gov.justice.digital.hmpps.keyworker.dto.AllocationsFilterDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.SortOrder;
+import uk.gov.justice.digital.hmpps.keyworker.model.AllocationType;
+import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.util.List;
+
+public class OffenderKeyworkerPagingRepositoryImpl implements OffenderKeyworkerPagingRepository {
+
+    private final EntityManager entityManager;
+
+    public OffenderKeyworkerPagingRepositoryImpl(final EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    public List<OffenderKeyworker> findActiveAllocations(final AllocationsFilterDto filter, final boolean orderByAssigned, final SortOrder sortOrder, final long offset, final long limit) {
+        final var direction = sortOrder == SortOrder.DESC ? " desc" : " asc";
+        // The allocation id breaks ties, so that pages do not overlap when allocations share a date assigned
+        final var orderBy = orderByAssigned
+                ? " order by ok.assignedDateTime" + direction + ", ok.offenderKeyworkerId" + direction
+                : " order by ok.offenderKeyworkerId" + direction;
+
+        final var query = entityManager.createQuery("select ok" + fromWhere(filter) + orderBy, OffenderKeyworker.class);
+        setParameters(query, filter);
+
+        return query
+                .setFirstResult((int) Math.min(offset, Integer.MAX_VALUE))
+                .setMaxResults((int) Math.min(limit, Integer.MAX_VALUE))
+                .getResultList();
+    }
+
+    @Override
+    public long countActiveAllocations(final AllocationsFilterDto filter) {
+        final var query = entityManager.createQuery("select count(ok)" + fromWhere(filter), Long.class);
+        setParameters(query, filter);
+
+        return query.getSingleResult();
+    }
+
+    private static String fromWhere(final AllocationsFilterDto filter) {
+        final var jpql = new StringBuilder(" from OffenderKeyworker ok where ok.prisonId = :prisonId and ok.active = :active");
+
+        jpql.append(hasAllocationType(filter) ? " and ok.allocationType = :allocationType" : " and ok.allocationType <> :allocationType");
+        if (filter.getFromDate() != null && filter.getFromDate().isPresent()) {
+            jpql.append(" and ok.assignedDateTime >= :fromDateTime");
+        }
+        if (filter.getToDate() != null) {
+            jpql.append(" and ok.assignedDateTime < :toDateTime");
+        }
+        return jpql.toString();
+    }
+
+    private static void setParameters(final Query query, final AllocationsFilterDto filter) {
+        query.setParameter("prisonId", filter.getPrisonId());
+        query.setParameter("active", true);
+        query.setParameter("allocationType", hasAllocationType(filter) ? filter.getAllocationType().get() : AllocationType.PROVISIONAL);
+
+        if (filter.getFromDate() != null && filter.getFromDate().isPresent()) {
+            query.setParameter("fromDateTime", filter.getFromDate().get().atStartOfDay());
+        }
+        if (filter.getToDate() != null) {
+            query.setParameter("toDateTime", filter.getToDate().plusDays(1).atStartOfDay());
+        }
+    }
+
+    private static boolean hasAllocationType(final AllocationsFilterDto filter) {
+        return filter.getAllocationType() != null && filter.getAllocationType().isPresent();
+    }
+}
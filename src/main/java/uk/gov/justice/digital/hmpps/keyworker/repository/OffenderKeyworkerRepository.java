@@ -4,6 +4,7 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
+import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerAllocationCount;
 import uk.gov.justice.digital.hmpps.keyworker.model.AllocationType;
 import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
 
@@ -11,13 +12,15 @@ import java.time.LocalDateTime;
 import java.util.Collection;
 import java.util.List;
 
-public interface OffenderKeyworkerRepository extends CrudRepository<OffenderKeyworker,Long> {
+public interface OffenderKeyworkerRepository extends CrudRepository<OffenderKeyworker,Long>, OffenderKeyworkerBatchRepository, OffenderKeyworkerPagingRepository {
 
     List<OffenderKeyworker> findByOffenderNo(String offenderNo);
+    List<OffenderKeyworker> findByOffenderNoIn(Collection<String> offenderNos);
 
     OffenderKeyworker findByOffenderNoAndActiveAndAllocationTypeIsNot(String offenderNo, boolean active, AllocationType type);
 
     List<OffenderKeyworker> findByStaffId(Long staffId);
+    List<OffenderKeyworker> findByStaffIdIn(Collection<Long> staffIds);
 
     List<OffenderKeyworker> findByStaffIdAndPrisonIdAndActive(Long staffId, String prisonId, boolean active);
     List<OffenderKeyworker> findByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(Long staffId, String prisonId, boolean active, AllocationType type);
@@ -34,6 +37,23 @@ public interface OffenderKeyworkerRepository extends CrudRepository<OffenderKeyw
 
     Integer countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(Long staffId, String prisonId, boolean active, AllocationType allocationType);
 
+    @Query("select new uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerAllocationCount(ok.staffId, count(ok)) " +
+            "from OffenderKeyworker ok " +
+            "where ok.prisonId = :prisonId " +
+            "and ok.staffId in (:staffIds) " +
+            "and ok.active = :active " +
+            "and ok.allocationType <> :allocationType " +
+            "group by ok.staffId")
+    List<KeyworkerAllocationCount> countAllocationsByStaffId(@Param("prisonId") String prisonId, @Param("staffIds") Collection<Long> staffIds, @Param("active") boolean active, @Param("allocationType") AllocationType allocationType);
+
+    @Query("select new uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerAllocationCount(ok.staffId, count(ok)) " +
+            "from OffenderKeyworker ok " +
+            "where ok.prisonId = :prisonId " +
+            "and ok.active = :active " +
+            "and ok.allocationType <> :allocationType " +
+            "group by ok.staffId")
+    List<KeyworkerAllocationCount> countAllocationsByPrisonId(@Param("prisonId") String prisonId, @Param("active") boolean active, @Param("allocationType") AllocationType allocationType);
+
     @Modifying
     @Query("delete from OffenderKeyworker ok where ok.prisonId = :prisonId and ok.allocationType = uk.gov.justice.digital.hmpps.keyworker.model.AllocationType.PROVISIONAL")
     Integer deleteExistingProvisionals(@Param("prisonId") String prisonId);
@@ -1,13 +1,22 @@
 package uk.gov.justice.digital.hmpps.keyworker.repository;
 
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import uk.gov.justice.digital.hmpps.keyworker.model.PrisonSupported;
 
+import javax.persistence.LockModeType;
 import java.util.List;
+import java.util.Optional;
 
 public interface PrisonSupportedRepository extends CrudRepository<PrisonSupported, String> {
 
     boolean existsByPrisonId(String prisonId);
 
     List<PrisonSupported> findAllByMigratedEquals(boolean migrated);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select p from PrisonSupported p where p.prisonId = :prisonId")
+    Optional<PrisonSupported> lockByPrisonId(@Param("prisonId") String prisonId);
 }
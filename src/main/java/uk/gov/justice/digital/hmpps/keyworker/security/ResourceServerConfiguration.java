@@ -64,6 +64,8 @@ public class ResourceServerConfiguration extends ResourceServerConfigurerAdapter
                         "/v2/api-docs",
                         "/swagger-ui.html", "/swagger-resources", "/swagger-resources/configuration/ui",
                         "/swagger-resources/configuration/security").permitAll()
+                // Metrics name the Elite2 endpoints called, so are only scraped with a system token
+                .antMatchers("/metrics", "/metrics/**", "/prometheus").hasRole("SYSTEM_USER")
           .anyRequest()
           .authenticated();
     }
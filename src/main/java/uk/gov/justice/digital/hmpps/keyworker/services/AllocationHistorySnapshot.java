@@ -0,0 +1,43 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory snapshot of the allocation history of the offenders and Key workers taking part in an auto-allocation run.
+ * The snapshot is retrieved in bulk before allocation begins so that a {@code KeyworkerPool} can prioritise Key workers
+ * without querying the database for each offender or Key worker.
+ */
+public class AllocationHistorySnapshot {
+    private final Map<String, List<OffenderKeyworker>> offenderAllocations;
+    private final Map<Long, List<OffenderKeyworker>> keyworkerAllocations;
+
+    AllocationHistorySnapshot(final Collection<OffenderKeyworker> offenderAllocations,
+                              final Collection<OffenderKeyworker> keyworkerAllocations) {
+        this.offenderAllocations = offenderAllocations.stream()
+                .collect(Collectors.groupingBy(OffenderKeyworker::getOffenderNo));
+        this.keyworkerAllocations = keyworkerAllocations.stream()
+                .collect(Collectors.groupingBy(OffenderKeyworker::getStaffId));
+    }
+
+    /**
+     * @param offenderNo offender number.
+     * @return all allocations, current and previous, of the offender.
+     */
+    public List<OffenderKeyworker> getAllocationHistoryForPrisoner(final String offenderNo) {
+        return offenderAllocations.getOrDefault(offenderNo, Collections.emptyList());
+    }
+
+    /**
+     * @param staffId Key worker staff id.
+     * @return all allocations, current and previous, of the Key worker.
+     */
+    public List<OffenderKeyworker> getAllocationsForKeyworker(final Long staffId) {
+        return keyworkerAllocations.getOrDefault(staffId, Collections.emptyList());
+    }
+}
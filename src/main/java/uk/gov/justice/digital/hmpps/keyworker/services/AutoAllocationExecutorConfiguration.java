@@ -0,0 +1,24 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class AutoAllocationExecutorConfiguration {
+
+    @Value("${svc.kw.allocation.job.threads:2}")
+    private int threads;
+
+    @Bean(name = "autoAllocationExecutor")
+    public ThreadPoolTaskExecutor autoAllocationExecutor() {
+        final var executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("auto-allocation-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        return executor;
+    }
+}
@@ -0,0 +1,170 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Service;
+import uk.gov.justice.digital.hmpps.keyworker.dto.AutoAllocationJobDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.AutoAllocationJobDto.Status;
+import uk.gov.justice.digital.hmpps.keyworker.exception.AllocationException;
+import uk.gov.justice.digital.hmpps.keyworker.utils.CallerContext;
+
+import javax.persistence.EntityNotFoundException;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs auto-allocation as a background job, so that the request starting it need not wait for every offender to be
+ * allocated. Jobs are held in memory and are forgotten some time after they finish.
+ */
+@Service
+@Slf4j
+public class AutoAllocationJobService {
+
+    private final KeyworkerAutoAllocationService keyworkerAutoAllocationService;
+    private final PrisonSupportedService prisonSupportedService;
+    private final TaskExecutor autoAllocationExecutor;
+
+    private final Map<String, AutoAllocationJob> jobs = new ConcurrentHashMap<>();
+
+    @Value("${svc.kw.allocation.job.retention.minutes:60}")
+    private int retentionMinutes;
+
+    public AutoAllocationJobService(final KeyworkerAutoAllocationService keyworkerAutoAllocationService,
+                                    final PrisonSupportedService prisonSupportedService,
+                                    @Qualifier("autoAllocationExecutor") final TaskExecutor autoAllocationExecutor) {
+        this.keyworkerAutoAllocationService = keyworkerAutoAllocationService;
+        this.prisonSupportedService = prisonSupportedService;
+        this.autoAllocationExecutor = autoAllocationExecutor;
+    }
+
+    /**
+     * Submits an auto-allocation job for the specified prison. If a job for the prison has not yet finished, that job
+     * is returned instead of starting another. A job for a prison being auto-allocated in some other way halts.
+     *
+     * @param prisonId prison to auto-allocate.
+     * @return submitted job.
+     */
+    @PreAuthorize("hasAnyRole('OMIC_ADMIN')")
+    public AutoAllocationJobDto submit(final String prisonId) {
+        Validate.isTrue(StringUtils.isNotBlank(prisonId), "Prison id must be provided.");
+
+        prisonSupportedService.verifyPrisonSupportsAutoAllocation(prisonId);
+
+        removeExpiredJobs();
+
+        final var newJob = new AutoAllocationJob(UUID.randomUUID().toString(), prisonId);
+
+        synchronized (jobs) {
+            final var unfinishedJob = jobs.values().stream()
+                    .filter(job -> job.prisonId.equals(prisonId) && !job.isFinished())
+                    .findFirst();
+
+            if (unfinishedJob.isPresent()) {
+                log.info("Auto-allocation job {} already in progress for agency [{}].", unfinishedJob.get().jobId, prisonId);
+
+                return unfinishedJob.get().toDto();
+            }
+            jobs.put(newJob.jobId, newJob);
+        }
+
+        final var callerContext = CallerContext.capture();
+
+        try {
+            autoAllocationExecutor.execute(() -> callerContext.call(() -> run(newJob)));
+        } catch (final RuntimeException e) {
+            newJob.finish(Status.FAILED, e.getMessage());
+
+            throw e;
+        }
+
+        log.info("Auto-allocation job {} submitted for agency [{}].", newJob.jobId, prisonId);
+
+        return newJob.toDto();
+    }
+
+    /**
+     * @param jobId job identifier.
+     * @return current state of the job.
+     * @throws EntityNotFoundException if no such job exists, or it finished more than the retention period ago.
+     */
+    @PreAuthorize("hasAnyRole('OMIC_ADMIN')")
+    public AutoAllocationJobDto getJob(final String jobId) {
+        final var job = jobs.get(jobId);
+
+        if (job == null) {
+            throw new EntityNotFoundException(String.format("Auto-allocation job [%s] not found.", jobId));
+        }
+        return job.toDto();
+    }
+
+    private Void run(final AutoAllocationJob job) {
+        job.status = Status.RUNNING;
+
+        try {
+            keyworkerAutoAllocationService.autoAllocate(job.prisonId, job.progress);
+
+            job.finish(Status.COMPLETED, null);
+        } catch (final AllocationException aex) {
+            job.finish(Status.HALTED, aex.getMessage());
+        } catch (final RuntimeException rex) {
+            log.error("Auto-allocation job {} failed for agency [{}].", job.jobId, job.prisonId, rex);
+
+            job.finish(Status.FAILED, rex.getMessage());
+        }
+        return null;
+    }
+
+    private void removeExpiredJobs() {
+        final var expiry = LocalDateTime.now().minusMinutes(retentionMinutes);
+
+        jobs.values().removeIf(job -> job.isFinished() && job.completedDateTime.isBefore(expiry));
+    }
+
+    private static class AutoAllocationJob {
+        private final String jobId;
+        private final String prisonId;
+        private final AutoAllocationProgress progress = new AutoAllocationProgress();
+        private final LocalDateTime submittedDateTime = LocalDateTime.now();
+        private volatile Status status = Status.QUEUED;
+        private volatile String outcome;
+        private volatile LocalDateTime completedDateTime;
+
+        private AutoAllocationJob(final String jobId, final String prisonId) {
+            this.jobId = jobId;
+            this.prisonId = prisonId;
+        }
+
+        private void finish(final Status finalStatus, final String finalOutcome) {
+            outcome = finalOutcome;
+            completedDateTime = LocalDateTime.now();
+            status = finalStatus;
+        }
+
+        private boolean isFinished() {
+            return completedDateTime != null;
+        }
+
+        private AutoAllocationJobDto toDto() {
+            // Allocations are rolled back if auto-allocation fails
+            final var allocations = status == Status.FAILED ? 0L : progress.getAllocations();
+
+            return AutoAllocationJobDto.builder()
+                    .jobId(jobId)
+                    .prisonId(prisonId)
+                    .status(status)
+                    .allocations(allocations)
+                    .offendersRemaining(progress.getOffendersRemaining())
+                    .outcome(outcome)
+                    .submittedDateTime(submittedDateTime)
+                    .completedDateTime(completedDateTime)
+                    .build();
+        }
+    }
+}
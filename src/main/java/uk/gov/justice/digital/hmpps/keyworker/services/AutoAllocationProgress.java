@@ -0,0 +1,58 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Progress of a single auto-allocation run. Allocations are counted by the run's
+ * {@code counter.keyworker.allocations.auto} counter, so progress may be read from another thread while the run is
+ * in progress.
+ */
+public class AutoAllocationProgress {
+    private static final String COUNTER_METRIC_KEYWORKER_AUTO_ALLOCATIONS = "counter.keyworker.allocations.auto";
+
+    private final Counter counter;
+    private volatile Integer offendersToAllocate;
+
+    public AutoAllocationProgress() {
+        counter = Counter
+                .builder(COUNTER_METRIC_KEYWORKER_AUTO_ALLOCATIONS)
+                .description("indicates number of allocations suggested")
+                .tags("keyworker", "allocation")
+                .register(new SimpleMeterRegistry());
+    }
+
+    /**
+     * @return counter incremented as each allocation is made.
+     */
+    public Counter getCounter() {
+        return counter;
+    }
+
+    void setOffendersToAllocate(final int offendersToAllocate) {
+        this.offendersToAllocate = offendersToAllocate;
+    }
+
+    /**
+     * @return number of allocations made so far.
+     */
+    public long getAllocations() {
+        return (long) counter.count();
+    }
+
+    /**
+     * @return number of unallocated offenders found at the start of the run, or {@code null} if not yet known.
+     */
+    public Integer getOffendersToAllocate() {
+        return offendersToAllocate;
+    }
+
+    /**
+     * @return number of offenders yet to be allocated, or {@code null} if not yet known.
+     */
+    public Integer getOffendersRemaining() {
+        final var total = offendersToAllocate;
+
+        return total == null ? null : Math.max(0, total - (int) getAllocations());
+    }
+}
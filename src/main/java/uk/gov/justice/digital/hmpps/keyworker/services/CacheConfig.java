@@ -1,54 +1,99 @@
 package uk.gov.justice.digital.hmpps.keyworker.services;
 
-import net.sf.ehcache.config.CacheConfiguration;
-import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CachingConfigurer;
 import org.springframework.cache.annotation.EnableCaching;
-import org.springframework.cache.ehcache.EhCacheCacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
 import org.springframework.cache.interceptor.*;
+import org.springframework.cache.support.SimpleCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache per Elite2 lookup. Each cache's time to live and maximum weight can be set with
+ * cache.{name}.timeout.seconds and cache.{name}.max.weight; entries weigh 1, or the number of elements for lists.
+ * Hit, miss and eviction counts are published to the actuator metrics and info endpoints.
+ * <p>
+ * Staff lookups are made with the system client, so their entries are shared and refreshed ahead, and are kept for
+ * cache.fallback.seconds after their time to live to be returned while Elite2 is unavailable. The other lookups
+ * are made with the caller's token and depend on the caller's caseloads, so their entries are kept per user and are
+ * never refreshed, which would mean calling Elite2 as that user after their request has finished.
+ */
 @Configuration
 @EnableCaching
 public class CacheConfig implements CachingConfigurer {
 
+    static final Set<String> USER_SCOPED_CACHES = Set.of("getStaffKeyWorkerForPrison", "getPrisonerDetail", "getAvailableKeyworkers");
+
     @Value("${cache.timeout.seconds.staff:86400}")
     private int staffInformationTimeoutSeconds;
 
+    @Value("${cache.timeout.seconds.prisoner:300}")
+    private int prisonerInformationTimeoutSeconds;
 
-    @Bean(destroyMethod="shutdown")
-    public net.sf.ehcache.CacheManager ehCacheManager() {
-        final var config = new net.sf.ehcache.config.Configuration();
+    // Entries used again once this much of their time to live has passed are refreshed in the background
+    @Value("${cache.refresh.ahead.percent:80}")
+    private int refreshAheadPercent;
 
-        config.addCache(config("getBasicKeyworkerDtoForStaffId", 10000, staffInformationTimeoutSeconds, MemoryStoreEvictionPolicy.LRU));
-        config.addCache(config("getStaffDetailByUserId", 10000, staffInformationTimeoutSeconds, MemoryStoreEvictionPolicy.LRU));
+    @Value("${cache.fallback.seconds:86400}")
+    private int fallbackSeconds;
 
-        return net.sf.ehcache.CacheManager.newInstance(config);
-    }
+    private final Environment environment;
 
-    public static CacheConfiguration config(final String name, final int maxElements, final int timeoutSeconds, final MemoryStoreEvictionPolicy policy) {
-        return new CacheConfiguration().name(name)
-                .memoryStoreEvictionPolicy(policy)
-                .eternal(false)
-                .overflowToOffHeap(false)
-                .maxEntriesLocalHeap(maxElements)
-                .timeToLiveSeconds(timeoutSeconds)
-                .timeToIdleSeconds(timeoutSeconds);
+    public CacheConfig(final Environment environment) {
+        this.environment = environment;
     }
 
     @Bean
     @Override
     public CacheManager cacheManager() {
-        return new EhCacheCacheManager(ehCacheManager());
+        final var cacheManager = new SimpleCacheManager();
+        cacheManager.setCaches(List.of(
+                cache("getBasicKeyworkerDtoForStaffId", staffInformationTimeoutSeconds, 10000),
+                cache("getStaffDetailByUserId", staffInformationTimeoutSeconds, 10000),
+                cache("getStaffKeyWorkerForPrison", prisonerInformationTimeoutSeconds, 10000),
+                cache("getPrisonerDetail", prisonerInformationTimeoutSeconds, 10000),
+                cache("getAvailableKeyworkers", prisonerInformationTimeoutSeconds, 20000)
+        ));
+        return cacheManager;
+    }
+
+    private CaffeineCache cache(final String name, final int defaultTimeoutSeconds, final long defaultMaxWeight) {
+        final int timeoutSeconds = environment.getProperty("cache." + name + ".timeout.seconds", Integer.class, defaultTimeoutSeconds);
+        final long maxWeight = environment.getProperty("cache." + name + ".max.weight", Long.class, defaultMaxWeight);
+
+        final var builder = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher(CacheConfig::weigh)
+                .recordStats();
+
+        if (USER_SCOPED_CACHES.contains(name)) {
+            return new CaffeineCache(name, builder.expireAfterWrite(timeoutSeconds, TimeUnit.SECONDS).build());
+        }
+        builder.expireAfterWrite(timeoutSeconds + fallbackSeconds, TimeUnit.SECONDS);
+        if (refreshAheadPercent > 0 && refreshAheadPercent < 100) {
+            builder.refreshAfterWrite(Math.max(1, timeoutSeconds * refreshAheadPercent / 100), TimeUnit.SECONDS);
+        }
+        // Misses and refreshes load through the key, so concurrent misses for the same key make one Elite2 call
+        return new FallbackCaffeineCache(name, builder.build(RefreshableKey::load), timeoutSeconds);
+    }
+
+    private static int weigh(final Object key, final Object value) {
+        return value instanceof Collection ? Math.max(1, ((Collection<?>) value).size()) : 1;
     }
 
     @Bean
     @Override
     public KeyGenerator keyGenerator() {
-        return new SimpleKeyGenerator();
+        return new RefreshableKeyGenerator();
     }
 
     @Bean
@@ -1,9 +1,10 @@
 package uk.gov.justice.digital.hmpps.keyworker.services;
 
-import net.sf.ehcache.CacheManager;
+import com.github.benmanes.caffeine.cache.Cache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.actuate.info.Info;
 import org.springframework.boot.actuate.info.InfoContributor;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Component;
 
 import java.util.HashMap;
@@ -22,22 +23,20 @@ public class CacheInfoContributor implements InfoContributor {
     @Override
     public void contribute(final Info.Builder builder) {
         final Map<String, String> results = new HashMap<>();
-        long memory = 0;
 
         for (final var name : cacheManager.getCacheNames()) {
-            final var cache = cacheManager.getCache(name);
-            final var statistics = cache.getStatistics();
-            results.put(name, String.format("%d / %d hits:%d misses:%d bytes:%d",
-                    cache.getKeysNoDuplicateCheck().size(),
-                    cache.getCacheConfiguration().getMaxEntriesLocalHeap(),
-                    statistics.cacheHitCount(),
-                    statistics.cacheMissCount(),
-                    statistics.getLocalHeapSizeInBytes()
+            @SuppressWarnings("unchecked")
+            final var cache = (Cache<Object, Object>) cacheManager.getCache(name).getNativeCache();
+            final var statistics = cache.stats();
+            final var eviction = cache.policy().eviction();
+            results.put(name, String.format("%d / %d hits:%d misses:%d evictions:%d",
+                    eviction.map(e -> e.weightedSize().orElse(cache.estimatedSize())).orElse(cache.estimatedSize()),
+                    eviction.map(e -> e.getMaximum()).orElse(0L),
+                    statistics.hitCount(),
+                    statistics.missCount(),
+                    statistics.evictionCount()
             ));
-            memory += statistics.getLocalHeapSizeInBytes();
-
         }
         builder.withDetail("caches", results);
-        builder.withDetail("cacheTotalMemoryMB", String.format("%.2f", memory / 1048576.0));
     }
 }
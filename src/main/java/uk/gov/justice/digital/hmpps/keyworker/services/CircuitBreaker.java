@@ -0,0 +1,138 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Count based circuit breaker. It opens when at least failureRateThreshold percent of the last windowSize calls
+ * failed, and rejects calls while open. Once openDuration has passed it lets halfOpenCalls trial calls through,
+ * closing again if they all succeed and reopening as soon as one fails.
+ */
+@Slf4j
+class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureRateThreshold;
+    private final Duration openDuration;
+    private final int halfOpenCalls;
+    private final Clock clock;
+
+    // Outcomes of the last calls made while closed, true for a failure
+    private final boolean[] outcomes;
+    private int next;
+    private int recorded;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private Instant openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    CircuitBreaker(final String name, final int windowSize, final int failureRateThreshold, final Duration openDuration,
+                   final int halfOpenCalls, final Clock clock) {
+        this.name = name;
+        this.outcomes = new boolean[windowSize];
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDuration = openDuration;
+        this.halfOpenCalls = halfOpenCalls;
+        this.clock = clock;
+    }
+
+    /**
+     * @return whether a call may be made now; a call that may be made must report its outcome, or that it was not made.
+     */
+    synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN) {
+            if (clock.instant().isBefore(openedAt.plus(openDuration))) {
+                return false;
+            }
+            transitionTo(State.HALF_OPEN);
+            halfOpenPermits = halfOpenCalls;
+            halfOpenSuccesses = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenPermits == 0) {
+                return false;
+            }
+            halfOpenPermits--;
+        }
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            if (++halfOpenSuccesses == halfOpenCalls) {
+                transitionTo(State.CLOSED);
+                clearOutcomes();
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (recorded == outcomes.length && failures * 100 >= failureRateThreshold * outcomes.length) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Hands back the permission of a call that was cancelled before it had an outcome.
+     */
+    synchronized void onCancelled() {
+        if (state == State.HALF_OPEN && halfOpenPermits + halfOpenSuccesses < halfOpenCalls) {
+            halfOpenPermits++;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    private void record(final boolean failure) {
+        if (recorded == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void open() {
+        transitionTo(State.OPEN);
+        openedAt = clock.instant();
+    }
+
+    private void clearOutcomes() {
+        next = 0;
+        recorded = 0;
+        failures = 0;
+    }
+
+    private void transitionTo(final State newState) {
+        if (newState == State.OPEN) {
+            log.warn("Elite2 {} circuit breaker opened, from {}", name, state);
+        } else {
+            log.info("Elite2 {} circuit breaker {}, from {}", name, newState, state);
+        }
+        state = newState;
+    }
+}
@@ -0,0 +1,82 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import uk.gov.justice.digital.hmpps.keyworker.dto.PrisonerCustodyStatusDto;
+import uk.gov.justice.digital.hmpps.keyworker.model.DeallocationReason;
+import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
+import uk.gov.justice.digital.hmpps.keyworker.repository.BatchHistoryRepository;
+import uk.gov.justice.digital.hmpps.keyworker.repository.OffenderKeyworkerRepository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * De-allocates prisoners for one chunk of released or transferred prisoner movements and advances the de-allocation
+ * job's checkpoint, committing both together.
+ */
+@Service
+@Transactional
+@Slf4j
+public class DeallocationChunkService {
+    static final String DEALLOCATE_JOB = "DeallocateJob";
+
+    private final OffenderKeyworkerRepository repository;
+    private final BatchHistoryRepository batchHistoryRepository;
+    private final KeyworkerLoadService keyworkerLoadService;
+
+    public DeallocationChunkService(final OffenderKeyworkerRepository repository,
+                                    final BatchHistoryRepository batchHistoryRepository,
+                                    final KeyworkerLoadService keyworkerLoadService) {
+        this.repository = repository;
+        this.batchHistoryRepository = batchHistoryRepository;
+        this.keyworkerLoadService = keyworkerLoadService;
+    }
+
+    /**
+     * @param movements movements in the order they were created.
+     * @param checkpoint time from which the job should next look for movements once this chunk is committed.
+     * @return number of allocations ended.
+     */
+    public int deallocate(final List<PrisonerCustodyStatusDto> movements, final LocalDateTime checkpoint) {
+        final var offenderNos = movements.stream().map(PrisonerCustodyStatusDto::getOffenderNo).collect(Collectors.toSet());
+        final var activeAllocations = offenderNos.isEmpty() ? List.<OffenderKeyworker>of() : repository.findByActiveAndOffenderNoIn(true, offenderNos);
+        final var allocationsByOffenderNo = activeAllocations.stream().collect(Collectors.groupingBy(OffenderKeyworker::getOffenderNo));
+
+        final var deallocated = new ArrayList<OffenderKeyworker>();
+        for (final var ps : movements) {
+            // There shouldnt ever be more than 1, but just in case
+            for (final var offenderKeyworker : allocationsByOffenderNo.getOrDefault(ps.getOffenderNo(), List.of())) {
+                if (!offenderKeyworker.isActive()) {
+                    // Already ended by an earlier movement in this chunk
+                    continue;
+                }
+                if (StringUtils.equals(ps.getToAgency(), offenderKeyworker.getPrisonId())) {
+                    log.warn("Not proceeding with " + ps);
+                } else {
+                    offenderKeyworker.deallocate(ps.getCreateDateTime(), "REL".equals(ps.getMovementType()) ? DeallocationReason.RELEASED : DeallocationReason.TRANSFER);
+                    log.info("Deallocated offender from KW {} at {} due to record " + ps, offenderKeyworker.getStaffId(), offenderKeyworker.getPrisonId());
+                    deallocated.add(offenderKeyworker);
+                }
+            }
+        }
+
+        keyworkerLoadService.refresh(deallocated);
+        advanceCheckpoint(checkpoint);
+        return deallocated.size();
+    }
+
+    /**
+     * Moves the de-allocation job's last run time forward to checkpoint, never back.
+     */
+    public void advanceCheckpoint(final LocalDateTime checkpoint) {
+        final var deallocateJob = batchHistoryRepository.findByName(DEALLOCATE_JOB);
+        if (deallocateJob.getLastRun().isBefore(checkpoint)) {
+            deallocateJob.setLastRun(checkpoint);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class DeallocationExecutorConfiguration {
+
+    @Value("${api.keyworker.deallocate.maxConcurrentDays:4}")
+    private int threads;
+
+    @Bean(name = "deallocationMovementsExecutor")
+    public ThreadPoolTaskExecutor deallocationMovementsExecutor() {
+        final var executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("deallocation-movements-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        return executor;
+    }
+}
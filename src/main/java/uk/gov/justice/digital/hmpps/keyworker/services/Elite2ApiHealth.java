@@ -9,14 +9,20 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+/**
+ * Elite2's own health, along with the circuit breaker state and free capacity of each endpoint group.
+ */
 @Component
 public class Elite2ApiHealth implements HealthIndicator {
 
     private final RestTemplate restTemplate;
+    private final Elite2Resilience elite2Resilience;
 
     @Autowired
-    public Elite2ApiHealth(@Qualifier("elite2ApiHealthRestTemplate") final RestTemplate restTemplate) {
+    public Elite2ApiHealth(@Qualifier("elite2ApiHealthRestTemplate") final RestTemplate restTemplate,
+                           final Elite2Resilience elite2Resilience) {
         this.restTemplate = restTemplate;
+        this.elite2Resilience = elite2Resilience;
     }
 
     @Override
@@ -38,6 +44,7 @@ public class Elite2ApiHealth implements HealthIndicator {
     private Health health(final Health.Builder builder, final HttpStatus code) {
         return builder
                 .withDetail("HttpStatus", code.value())
+                .withDetail("endpointGroups", elite2Resilience.getStatus())
                 .build();
     }
 }
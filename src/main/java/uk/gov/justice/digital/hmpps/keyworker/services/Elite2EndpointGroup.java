@@ -0,0 +1,58 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import java.util.Set;
+
+import static uk.gov.justice.digital.hmpps.keyworker.services.NomisService.*;
+
+/**
+ * Groups of Elite2 endpoints which get a circuit breaker, bulkhead and timeout each. Endpoints are identified by their
+ * URI template; any not listed belong to the roll, which covers offender, prisoner and allocation lookups.
+ */
+enum Elite2EndpointGroup {
+    ROLL("roll", 60, 10_000),
+    STAFF("staff", 60, 5_000),
+    CASE_NOTES("case-notes", 30, 20_000),
+    MOVEMENTS("movements", 10, 30_000);
+
+    private static final Set<String> STAFF_ENDPOINTS = Set.of(GET_STAFF_IN_SPECIFIC_PRISON, URI_STAFF, GET_USER_DETAILS,
+            URI_AVAILABLE_KEYWORKERS, URI_ENABLE_USERS_WITH_CASELOAD, URI_GET_ALL_PRISONS);
+    private static final Set<String> CASE_NOTE_ENDPOINTS = Set.of(CASE_NOTE_USAGE, CASE_NOTE_USAGE_BY_PRISONER);
+
+    private final String name;
+    private final int defaultMaxConcurrentCalls;
+    private final int defaultTimeoutMillis;
+
+    Elite2EndpointGroup(final String name, final int defaultMaxConcurrentCalls, final int defaultTimeoutMillis) {
+        this.name = name;
+        this.defaultMaxConcurrentCalls = defaultMaxConcurrentCalls;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+    }
+
+    static Elite2EndpointGroup of(final String endpoint) {
+        if (URI_MOVEMENTS.equals(endpoint)) {
+            return MOVEMENTS;
+        }
+        if (CASE_NOTE_ENDPOINTS.contains(endpoint)) {
+            return CASE_NOTES;
+        }
+        if (STAFF_ENDPOINTS.contains(endpoint)) {
+            return STAFF;
+        }
+        return ROLL;
+    }
+
+    /**
+     * @return name used in the group's properties and health details.
+     */
+    String getName() {
+        return name;
+    }
+
+    int getDefaultMaxConcurrentCalls() {
+        return defaultMaxConcurrentCalls;
+    }
+
+    int getDefaultTimeoutMillis() {
+        return defaultTimeoutMillis;
+    }
+}
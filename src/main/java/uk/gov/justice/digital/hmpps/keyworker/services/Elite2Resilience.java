@@ -0,0 +1,203 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import uk.gov.justice.digital.hmpps.keyworker.exception.Elite2UnavailableException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * A circuit breaker, bulkhead and timeout for each {@link Elite2EndpointGroup}, so that a slow or failing group of
+ * Elite2 endpoints can neither hold every request thread nor hold up calls to the other groups. A group's settings can
+ * be changed with elite2.resilience.{group}.max.concurrent.calls, max.wait.ms, timeout.ms, failure.rate.threshold,
+ * window.size, open.seconds and half.open.calls.
+ * <p>
+ * Calls are rejected with {@link Elite2UnavailableException} while their group's breaker is open, or when the group has
+ * no room for another call within max.wait.ms. Error statuses from 500 and I/O failures, timeouts included, count as
+ * failures; any other error status is an answer from a working Elite2 and counts as a success.
+ */
+@Component
+public class Elite2Resilience {
+
+    private static final String REJECTIONS_METRIC = "elite2.request.rejections";
+
+    // Timeout of the group whose call is being made on this thread, applied by the RestTemplate's request factory
+    private static final ThreadLocal<Integer> TIMEOUT_MILLIS = new ThreadLocal<>();
+
+    private final Map<Elite2EndpointGroup, Group> groups = new EnumMap<>(Elite2EndpointGroup.class);
+
+    @Autowired
+    public Elite2Resilience(final Environment environment, final MeterRegistry meterRegistry) {
+        this(environment, meterRegistry, Clock.systemUTC());
+    }
+
+    Elite2Resilience(final Environment environment, final MeterRegistry meterRegistry, final Clock clock) {
+        for (final var group : Elite2EndpointGroup.values()) {
+            groups.put(group, new Group(group, environment, meterRegistry, clock));
+        }
+    }
+
+    /**
+     * @return timeout of the call being made on this thread, or null if none is.
+     */
+    public static Integer getTimeoutMillis() {
+        return TIMEOUT_MILLIS.get();
+    }
+
+    /**
+     * @return whether the exception shows that Elite2 is down or struggling, rather than that it refused the request.
+     */
+    public static boolean isUnavailable(final Throwable e) {
+        if (e instanceof RestClientResponseException) {
+            return ((RestClientResponseException) e).getRawStatusCode() >= 500;
+        }
+        return e instanceof ResourceAccessException || e instanceof Elite2UnavailableException;
+    }
+
+    /**
+     * Makes the call on this thread, waiting for room in the endpoint's group if need be.
+     */
+    <T> T call(final String endpoint, final Supplier<T> call) {
+        final var group = groups.get(Elite2EndpointGroup.of(endpoint));
+        group.acquire(true);
+
+        final var outerTimeout = TIMEOUT_MILLIS.get();
+        TIMEOUT_MILLIS.set(group.timeoutMillis);
+        try {
+            final var result = call.get();
+            group.breaker.onSuccess();
+            return result;
+        } catch (final RuntimeException | Error e) {
+            group.onOutcome(e);
+            throw e;
+        } finally {
+            group.bulkhead.release();
+            if (outerTimeout == null) {
+                TIMEOUT_MILLIS.remove();
+            } else {
+                TIMEOUT_MILLIS.set(outerTimeout);
+            }
+        }
+    }
+
+    /**
+     * Makes the call when subscribed to, timing it out after the group's timeout. Subscriptions may happen on event
+     * loop threads, so a group with no room rejects the call at once instead of waiting.
+     */
+    <T> Mono<T> call(final String endpoint, final Mono<T> call) {
+        final var group = groups.get(Elite2EndpointGroup.of(endpoint));
+        return Mono.defer(() -> {
+            group.acquire(false);
+            return call.timeout(Duration.ofMillis(group.timeoutMillis))
+                    .onErrorMap(TimeoutException.class, e -> new ResourceAccessException(
+                            "Elite2 " + group.name + " call to " + endpoint + " timed out after " + group.timeoutMillis + "ms"))
+                    .doOnSuccess(result -> group.breaker.onSuccess())
+                    .doOnError(group::onOutcome)
+                    .doFinally(signal -> {
+                        if (signal == SignalType.CANCEL) {
+                            group.breaker.onCancelled();
+                        }
+                        group.bulkhead.release();
+                    });
+        });
+    }
+
+    /**
+     * @return breaker state and free capacity of each group, by group name.
+     */
+    public Map<String, Object> getStatus() {
+        final var status = new LinkedHashMap<String, Object>();
+        groups.values().forEach(group -> status.put(group.name, Map.of(
+                "circuitBreaker", group.breaker.getState().name(),
+                "availableConcurrentCalls", group.bulkhead.availablePermits(),
+                "maxConcurrentCalls", group.maxConcurrentCalls)));
+        return status;
+    }
+
+    private static class Group {
+        private final String name;
+        private final CircuitBreaker breaker;
+        private final Semaphore bulkhead;
+        private final int maxConcurrentCalls;
+        private final long maxWaitMillis;
+        private final int timeoutMillis;
+        private final Counter breakerRejections;
+        private final Counter bulkheadRejections;
+
+        Group(final Elite2EndpointGroup group, final Environment environment, final MeterRegistry meterRegistry, final Clock clock) {
+            name = group.getName();
+            final var prefix = "elite2.resilience." + name + ".";
+
+            maxConcurrentCalls = environment.getProperty(prefix + "max.concurrent.calls", Integer.class, group.getDefaultMaxConcurrentCalls());
+            maxWaitMillis = environment.getProperty(prefix + "max.wait.ms", Long.class, 1000L);
+            timeoutMillis = environment.getProperty(prefix + "timeout.ms", Integer.class, group.getDefaultTimeoutMillis());
+            bulkhead = new Semaphore(maxConcurrentCalls, true);
+            breaker = new CircuitBreaker(name,
+                    environment.getProperty(prefix + "window.size", Integer.class, 20),
+                    environment.getProperty(prefix + "failure.rate.threshold", Integer.class, 50),
+                    Duration.ofSeconds(environment.getProperty(prefix + "open.seconds", Integer.class, 30)),
+                    environment.getProperty(prefix + "half.open.calls", Integer.class, 3),
+                    clock);
+
+            breakerRejections = rejections(meterRegistry, "circuit-open");
+            bulkheadRejections = rejections(meterRegistry, "bulkhead-full");
+        }
+
+        private Counter rejections(final MeterRegistry meterRegistry, final String reason) {
+            return Counter.builder(REJECTIONS_METRIC)
+                    .description("Elite2 calls not made because their endpoint group's breaker was open or it had no room")
+                    .tags("group", name, "reason", reason)
+                    .register(meterRegistry);
+        }
+
+        /**
+         * Takes a place in the bulkhead and the breaker's permission to make a call.
+         */
+        void acquire(final boolean wait) {
+            if (!tryAcquireBulkhead(wait)) {
+                bulkheadRejections.increment();
+                throw new Elite2UnavailableException("Elite2 " + name + " calls are all in use, " + maxConcurrentCalls + " at a time");
+            }
+            if (!breaker.tryAcquirePermission()) {
+                bulkhead.release();
+                breakerRejections.increment();
+                throw new Elite2UnavailableException("Elite2 " + name + " circuit breaker is open");
+            }
+        }
+
+        private boolean tryAcquireBulkhead(final boolean wait) {
+            if (!wait) {
+                return bulkhead.tryAcquire();
+            }
+            try {
+                return bulkhead.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        void onOutcome(final Throwable e) {
+            if (isUnavailable(e)) {
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.interceptor.CacheOperationInvoker;
+
+import java.util.OptionalLong;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache whose entries are kept for a while after their time to live, and are then only returned in place of a
+ * failure to load them again because Elite2 is unavailable, see {@link Elite2Resilience#isUnavailable(Throwable)}.
+ * The underlying Caffeine cache must expire entries after write, no sooner than the time to live.
+ */
+@Slf4j
+class FallbackCaffeineCache extends CaffeineCache {
+
+    private final Cache<Object, Object> cache;
+    private final long timeoutSeconds;
+
+    FallbackCaffeineCache(final String name, final Cache<Object, Object> cache, final long timeoutSeconds) {
+        super(name, cache);
+        this.cache = cache;
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    @Override
+    protected Object lookup(final Object key) {
+        return isExpired(key) ? null : super.lookup(key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(final Object key, final Callable<T> valueLoader) {
+        if (!isExpired(key)) {
+            return super.get(key, valueLoader);
+        }
+        try {
+            final var value = valueLoader.call();
+            put(key, value);
+            return value;
+        } catch (final Exception e) {
+            final var lastValue = cache.getIfPresent(key);
+            if (lastValue == null || !Elite2Resilience.isUnavailable(causeOf(e))) {
+                throw new ValueRetrievalException(key, valueLoader, e);
+            }
+            log.warn("Elite2 unavailable, so returning the last result of {} for {}: {}", getName(), key, e.getMessage());
+            return (T) fromStoreValue(lastValue);
+        }
+    }
+
+    private boolean isExpired(final Object key) {
+        final var age = cache.policy().expireAfterWrite()
+                .map(expiration -> expiration.ageOf(key, TimeUnit.SECONDS))
+                .orElse(OptionalLong.empty());
+        return age.isPresent() && age.getAsLong() >= timeoutSeconds;
+    }
+
+    private static Throwable causeOf(final Exception e) {
+        // The cache aspect wraps the cached method's exceptions
+        return e instanceof CacheOperationInvoker.ThrowableWrapper ? e.getCause() : e;
+    }
+}
@@ -10,6 +10,8 @@ import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
 import uk.gov.justice.digital.hmpps.keyworker.repository.OffenderKeyworkerRepository;
 import uk.gov.justice.digital.hmpps.keyworker.utils.ConversionHelper;
 
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -46,8 +48,10 @@ public class KeyworkerAllocationProcessor {
         // Obtain list of active Keyworker allocations for these offenders, if any
         final var allocs = repository.findByActiveAndOffenderNoIn(true, offenderNos);
 
-        // Extract offender numbers having active allocation
+        // Extract offender numbers having active allocation. Provisional allocations are ignored before duplicates are
+        // resolved, as an auto-allocation run replaces them, so an offender who also has a real allocation is allocated.
         final var activeOffenderNos = allocs.stream()
+                .filter(alloc -> alloc.getAllocationType() != AllocationType.PROVISIONAL)
                 .collect(Collectors.toMap(
                         OffenderKeyworker::getOffenderNo,
                         Function.identity(),
@@ -58,9 +62,7 @@ public class KeyworkerAllocationProcessor {
                 ));
 
         // Return input list, filtered to remove offenders that have an active allocation
-        return dtos.stream().filter(dto ->
-                !activeOffenderNos.containsKey(dto.getOffenderNo())
-                        || activeOffenderNos.get(dto.getOffenderNo()).getAllocationType() == AllocationType.PROVISIONAL)
+        return dtos.stream().filter(dto -> !activeOffenderNos.containsKey(dto.getOffenderNo()))
                 .collect(Collectors.toList());
     }
 
@@ -78,4 +80,22 @@ public class KeyworkerAllocationProcessor {
                 }
         ).collect(Collectors.toList());
     }
+
+    /**
+     * Orders allocation details by the position of each offender in the provided list of offenders, which has been
+     * sorted by NOMIS. Allocations for offenders not in the list come last, in their original order.
+     *
+     * @param allocations allocation details to order.
+     * @param offenders offenders in the required order.
+     * @return ordered allocation details.
+     */
+    public List<KeyworkerAllocationDetailsDto> sortByOffenders(final List<KeyworkerAllocationDetailsDto> allocations, final List<OffenderLocationDto> offenders) {
+        final var positions = new HashMap<String, Integer>();
+        for (var i = 0; i < offenders.size(); i++) {
+            positions.putIfAbsent(offenders.get(i).getOffenderNo(), i);
+        }
+        return allocations.stream()
+                .sorted(Comparator.comparing(allocation -> positions.getOrDefault(allocation.getOffenderNo(), Integer.MAX_VALUE)))
+                .collect(Collectors.toList());
+    }
 }
@@ -1,14 +1,20 @@
 package uk.gov.justice.digital.hmpps.keyworker.services;
 
+import com.google.common.collect.Lists;
 import io.micrometer.core.instrument.Counter;
-import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.gov.justice.digital.hmpps.keyworker.dto.AllocationPlanDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerAllocationDto;
 import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerPlannedLoadDto;
 import uk.gov.justice.digital.hmpps.keyworker.dto.OffenderLocationDto;
 import uk.gov.justice.digital.hmpps.keyworker.exception.AllocationException;
 import uk.gov.justice.digital.hmpps.keyworker.model.AllocationReason;
@@ -17,7 +23,13 @@ import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
 import uk.gov.justice.digital.hmpps.keyworker.repository.OffenderKeyworkerRepository;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Service implementation of Key worker auto-allocation. On initiation the auto-allocation process will attempt to
@@ -29,15 +41,26 @@ import java.util.List;
 @Transactional(noRollbackFor = {AllocationException.class})
 @Slf4j
 public class KeyworkerAutoAllocationService {
-    private static final String COUNTER_METRIC_KEYWORKER_AUTO_ALLOCATIONS = "counter.keyworker.allocations.auto";
     private static final String OUTCOME_NO_UNALLOCATED_OFFENDERS = "No unallocated offenders.";
     static final String OUTCOME_NO_AVAILABLE_KEY_WORKERS = "No Key workers available for allocation.";
+    public static final String OUTCOME_ALREADY_IN_PROGRESS = "Auto-allocation already in progress for prison.";
     private static final String OUTCOME_AUTO_ALLOCATION_SUCCESS = "Offender with bookingId [{}] successfully auto-allocated to Key worker with staffId [{}].";
+    static final int HISTORY_PREFETCH_BATCH_SIZE = 500;
 
     private final KeyworkerService keyworkerService;
     private final KeyworkerPoolFactory keyworkerPoolFactory;
     private final OffenderKeyworkerRepository offenderKeyworkerRepository;
     private final PrisonSupportedService prisonSupportedService;
+    private final KeyworkerLoadService keyworkerLoadService;
+
+    // A prison is only ever auto-allocated by one run at a time, whether started by a job or the multi-prison batch
+    private final Set<String> prisonsInProgress = ConcurrentHashMap.newKeySet();
+
+    @Value("${svc.kw.allocation.bulk.insert.enabled:false}")
+    private boolean bulkInsertEnabled;
+
+    @Value("${svc.kw.allocation.bulk.insert.batch.size:100}")
+    private int bulkInsertBatchSize;
 
     /**
      * Constructor.
@@ -48,20 +71,63 @@ public class KeyworkerAutoAllocationService {
     public KeyworkerAutoAllocationService(final KeyworkerService keyworkerService,
                                           final KeyworkerPoolFactory keyworkerPoolFactory,
                                           final OffenderKeyworkerRepository offenderKeyworkerRepository,
-                                          final PrisonSupportedService prisonSupportedService) {
+                                          final PrisonSupportedService prisonSupportedService,
+                                          final KeyworkerLoadService keyworkerLoadService) {
         this.keyworkerService = keyworkerService;
         this.keyworkerPoolFactory = keyworkerPoolFactory;
         this.offenderKeyworkerRepository = offenderKeyworkerRepository;
         this.prisonSupportedService = prisonSupportedService;
+        this.keyworkerLoadService = keyworkerLoadService;
     }
 
     @PreAuthorize("hasAnyRole('OMIC_ADMIN')")
     public long autoAllocate(final String prisonId) throws AllocationException {
+        return autoAllocate(prisonId, new AutoAllocationProgress());
+    }
+
+    /**
+     * Runs auto-allocation for the specified prison, recording progress as each allocation is made. This allows callers
+     * to report progress, or the number of allocations made if auto-allocation halts.
+     *
+     * @param prisonId prison to auto-allocate.
+     * @param progress progress of this run.
+     * @return number of allocations made.
+     * @throws AllocationException if auto-allocation halts before all offenders are allocated, or is already in
+     * progress for the prison.
+     */
+    @PreAuthorize("hasAnyRole('OMIC_ADMIN')")
+    public long autoAllocate(final String prisonId, final AutoAllocationProgress progress) throws AllocationException {
         // Confirm a valid prison has been supplied.
         Validate.isTrue(StringUtils.isNotBlank(prisonId), "Prison id must be provided.");
 
         prisonSupportedService.verifyPrisonSupportsAutoAllocation(prisonId);
 
+        if (!prisonsInProgress.add(prisonId)) {
+            log.info("Key worker auto-allocation already in progress for agency [{}].", prisonId);
+
+            throw AllocationException.withMessage(OUTCOME_ALREADY_IN_PROGRESS);
+        }
+
+        // Held until this run's allocations are committed or rolled back, so that the next run sees them
+        final var releaseOnCompletion = TransactionSynchronizationManager.isSynchronizationActive();
+        if (releaseOnCompletion) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(final int status) {
+                    prisonsInProgress.remove(prisonId);
+                }
+            });
+        }
+        try {
+            return allocate(prisonId, progress);
+        } finally {
+            if (!releaseOnCompletion) {
+                prisonsInProgress.remove(prisonId);
+            }
+        }
+    }
+
+    private long allocate(final String prisonId, final AutoAllocationProgress progress) {
         log.info("Key worker auto-allocation process initiated for agency [{}].", prisonId);
 
         // Tidy up any abandoned previous run
@@ -71,11 +137,12 @@ public class KeyworkerAutoAllocationService {
         }
 
         // Get initial counter metric
-        final var counter = initialiseCounter();
+        final var counter = progress.getCounter();
         final var startAllocCount = counter.count();
 
         // Get all unallocated offenders for agency
         final var unallocatedOffenders = getUnallocatedOffenders(prisonId);
+        progress.setOffendersToAllocate(unallocatedOffenders.size());
 
         // Are there any unallocated offenders? If not, log and exit, otherwise proceed.
         if (unallocatedOffenders.isEmpty()) {
@@ -92,15 +159,26 @@ public class KeyworkerAutoAllocationService {
             log.info("Proceeding with auto-allocation for {} unallocated offenders and {} available Key workers at agency [{}].",
                     unallocatedOffenders.size(), availableKeyworkers.size(), prisonId);
 
+            // Retrieve allocation history for all offenders and Key workers involved up front, rather than one at a time
+            // as each offender is allocated.
+            final var allocationHistory = prefetchAllocationHistory(unallocatedOffenders, availableKeyworkers);
+
             // At this point, we have some unallocated offenders and some available Key workers. Let's put the Key
             // workers into a pool then start processing allocations.
-            final var keyworkerPool = keyworkerPoolFactory.getKeyworkerPool(prisonId, availableKeyworkers);
+            final var keyworkerPool = keyworkerPoolFactory.getKeyworkerPool(prisonId, availableKeyworkers, allocationHistory);
+
+            // When bulk insert is enabled, provisional allocations are held here and written together once processing
+            // stops, rather than being saved one at a time.
+            final List<OffenderKeyworker> pendingAllocations = new ArrayList<>();
 
             // Continue processing allocations for unallocated offenders until no further unallocated offenders exist
             // or Key workers no longer have capacity.
             try {
-                processAllocations(unallocatedOffenders, keyworkerPool, counter);
+                processAllocations(unallocatedOffenders, keyworkerPool, pendingAllocations, counter);
             } catch (final AllocationException aex) {
+                // Allocations made before capacity was exhausted are still retained
+                storePendingAllocations(pendingAllocations, counter);
+
                 final var allocCount = calcAndLogAllocationsProcessed(prisonId, startAllocCount, counter);
 
                 log.info("Key worker auto-allocation terminated after processing {} allocations.", allocCount);
@@ -108,33 +186,125 @@ public class KeyworkerAutoAllocationService {
 
                 throw aex;
             }
+
+            storePendingAllocations(pendingAllocations, counter);
         }
 
         return (long)calcAndLogAllocationsProcessed(prisonId, startAllocCount, counter);
     }
 
+    /**
+     * Determines the allocations auto-allocation would make for the specified prison, without creating any allocation
+     * records. Where Key workers run out of capacity, the plan contains the allocations made up to that point.
+     *
+     * @param prisonId prison to plan allocations for.
+     * @return proposed allocations and the resulting load of each available Key worker.
+     */
+    @PreAuthorize("hasAnyRole('OMIC_ADMIN')")
+    @Transactional(readOnly = true)
+    public AllocationPlanDto planAllocations(final String prisonId) {
+        Validate.isTrue(StringUtils.isNotBlank(prisonId), "Prison id must be provided.");
+
+        prisonSupportedService.verifyPrisonSupportsAutoAllocation(prisonId);
+
+        log.info("Key worker auto-allocation plan requested for agency [{}].", prisonId);
+
+        final var unallocatedOffenders = getUnallocatedOffenders(prisonId);
+        final var availableKeyworkers = unallocatedOffenders.isEmpty()
+                ? List.<KeyworkerDto>of() : keyworkerService.getKeyworkersAvailableForAutoAllocation(prisonId);
+
+        final List<KeyworkerAllocationDto> plannedAllocations = new ArrayList<>();
+        String outcome = null;
+
+        // Key worker allocation counts are incremented by the pool as offenders are allocated
+        final Map<Long, Integer> currentAllocations = availableKeyworkers.stream()
+                .collect(Collectors.toMap(KeyworkerDto::getStaffId, KeyworkerDto::getNumberAllocated, (count1, count2) -> count1));
+
+        if (unallocatedOffenders.isEmpty()) {
+            outcome = OUTCOME_NO_UNALLOCATED_OFFENDERS;
+        } else if (availableKeyworkers.isEmpty()) {
+            outcome = OUTCOME_NO_AVAILABLE_KEY_WORKERS;
+        } else {
+            final var allocationHistory = prefetchAllocationHistory(unallocatedOffenders, availableKeyworkers);
+            final var keyworkerPool = keyworkerPoolFactory.getKeyworkerPool(prisonId, availableKeyworkers, allocationHistory);
+
+            try {
+                for (final var offender : unallocatedOffenders) {
+                    final var keyworker = keyworkerPool.getKeyworker(offender.getOffenderNo());
+
+                    plannedAllocations.add(buildPlannedAllocation(offender, keyworker));
+
+                    keyworkerPool.incrementAndRefreshKeyworker(keyworker);
+                }
+            } catch (final AllocationException aex) {
+                outcome = aex.getMessage();
+            }
+        }
+
+        log.info("Planned {} allocations for agency [{}].", plannedAllocations.size(), prisonId);
+
+        return AllocationPlanDto.builder()
+                .prisonId(prisonId)
+                .allocations(plannedAllocations)
+                .keyworkers(buildPlannedLoads(availableKeyworkers, currentAllocations))
+                .unallocatedOffenderNos(unallocatedOffenders.stream()
+                        .skip(plannedAllocations.size())
+                        .map(OffenderLocationDto::getOffenderNo)
+                        .collect(Collectors.toList()))
+                .outcome(outcome)
+                .build();
+    }
+
     @PreAuthorize("hasAnyRole('OMIC_ADMIN')")
     public Long confirmAllocations(final String prisonId) {
         prisonSupportedService.verifyPrisonMigrated(prisonId);
-        return (long)offenderKeyworkerRepository.confirmProvisionals(prisonId);
+        final long confirmed = offenderKeyworkerRepository.confirmProvisionals(prisonId);
+        keyworkerLoadService.refresh(prisonId);
+        return confirmed;
     }
 
     private int clearExistingProvisionals(final String prisonId) {
         return offenderKeyworkerRepository.deleteExistingProvisionals(prisonId);
     }
 
-    private void processAllocations(final List<OffenderLocationDto> offenders, final KeyworkerPool keyworkerPool, final Counter counter) {
+    private AllocationHistorySnapshot prefetchAllocationHistory(final List<OffenderLocationDto> offenders, final List<KeyworkerDto> keyworkers) {
+        final var offenderNos = offenders.stream().map(OffenderLocationDto::getOffenderNo).distinct().collect(Collectors.toList());
+        final var staffIds = keyworkers.stream().map(KeyworkerDto::getStaffId).distinct().collect(Collectors.toList());
+
+        final var offenderAllocations = findInBatches(offenderNos, offenderKeyworkerRepository::findByOffenderNoIn);
+        final var keyworkerAllocations = findInBatches(staffIds, offenderKeyworkerRepository::findByStaffIdIn);
+
+        log.debug("Retrieved {} offender allocations and {} Key worker allocations for auto-allocation.",
+                offenderAllocations.size(), keyworkerAllocations.size());
+
+        return new AllocationHistorySnapshot(offenderAllocations, keyworkerAllocations);
+    }
+
+    private <T> List<OffenderKeyworker> findInBatches(final List<T> ids, final Function<List<T>, List<OffenderKeyworker>> finder) {
+        final List<OffenderKeyworker> results = new ArrayList<>();
+
+        // Provisional allocations are replaced by each run so never influence prioritisation
+        Lists.partition(ids, HISTORY_PREFETCH_BATCH_SIZE).forEach(batch -> finder.apply(batch).stream()
+                .filter(allocation -> allocation.getAllocationType() != AllocationType.PROVISIONAL)
+                .forEach(results::add));
+
+        return results;
+    }
+
+    private void processAllocations(final List<OffenderLocationDto> offenders, final KeyworkerPool keyworkerPool,
+                                    final List<OffenderKeyworker> pendingAllocations, final Counter counter) {
         // Process allocation for each unallocated offender
         for (final var offender : offenders) {
-            processAllocation(offender, keyworkerPool, counter);
+            processAllocation(offender, keyworkerPool, pendingAllocations, counter);
         }
     }
 
-    private void processAllocation(final OffenderLocationDto offender, final KeyworkerPool keyworkerPool, final Counter counter) {
+    private void processAllocation(final OffenderLocationDto offender, final KeyworkerPool keyworkerPool,
+                                   final List<OffenderKeyworker> pendingAllocations, final Counter counter) {
         final var keyworker = keyworkerPool.getKeyworker(offender.getOffenderNo());
 
         // At this point, Key worker to which offender will be allocated has been identified - create provisional allocation
-        storeAllocation(offender, keyworker, counter);
+        storeAllocation(offender, keyworker, pendingAllocations, counter);
 
         // Update Key worker pool with refreshed Key worker (following successful allocation)
         keyworkerPool.incrementAndRefreshKeyworker(keyworker);
@@ -144,14 +314,30 @@ public class KeyworkerAutoAllocationService {
         return keyworkerService.getUnallocatedOffenders(prisonId, null,null);
     }
 
-    private void storeAllocation(final OffenderLocationDto offender, final KeyworkerDto keyworker, final Counter counter) {
+    private void storeAllocation(final OffenderLocationDto offender, final KeyworkerDto keyworker,
+                                 final List<OffenderKeyworker> pendingAllocations, final Counter counter) {
         final var keyWorkerAllocation = buildKeyWorkerAllocation(offender, keyworker);
 
-        keyworkerService.allocate(keyWorkerAllocation);
+        if (bulkInsertEnabled) {
+            // Counted once written, by storePendingAllocations
+            pendingAllocations.add(keyWorkerAllocation);
+        } else {
+            keyworkerService.allocate(keyWorkerAllocation);
 
-        counter.increment();
+            counter.increment();
 
-        log.info(OUTCOME_AUTO_ALLOCATION_SUCCESS, offender.getBookingId(), keyworker.getStaffId());
+            log.info(OUTCOME_AUTO_ALLOCATION_SUCCESS, offender.getBookingId(), keyworker.getStaffId());
+        }
+    }
+
+    private void storePendingAllocations(final List<OffenderKeyworker> pendingAllocations, final Counter counter) {
+        if (!pendingAllocations.isEmpty()) {
+            keyworkerService.allocateAll(pendingAllocations, bulkInsertBatchSize);
+
+            counter.increment(pendingAllocations.size());
+
+            log.info("Bulk inserted {} provisional allocations.", pendingAllocations.size());
+        }
     }
 
     private OffenderKeyworker buildKeyWorkerAllocation(final OffenderLocationDto offender, final KeyworkerDto keyworker) {
@@ -166,6 +352,34 @@ public class KeyworkerAutoAllocationService {
                 .build();
     }
 
+    private KeyworkerAllocationDto buildPlannedAllocation(final OffenderLocationDto offender, final KeyworkerDto keyworker) {
+        return KeyworkerAllocationDto.builder()
+                .offenderNo(offender.getOffenderNo())
+                .staffId(keyworker.getStaffId())
+                .prisonId(offender.getAgencyId())
+                .allocationReason(AllocationReason.AUTO)
+                .allocationType(AllocationType.PROVISIONAL)
+                .build();
+    }
+
+    private List<KeyworkerPlannedLoadDto> buildPlannedLoads(final List<KeyworkerDto> keyworkers, final Map<Long, Integer> currentAllocations) {
+        return keyworkers.stream()
+                .map(kw -> {
+                    final int current = currentAllocations.get(kw.getStaffId());
+
+                    return KeyworkerPlannedLoadDto.builder()
+                            .staffId(kw.getStaffId())
+                            .firstName(kw.getFirstName())
+                            .lastName(kw.getLastName())
+                            .capacity(kw.getCapacity())
+                            .currentAllocations(current)
+                            .plannedAllocations(kw.getNumberAllocated() - current)
+                            .totalAllocations(kw.getNumberAllocated())
+                            .build();
+                })
+                .collect(Collectors.toList());
+    }
+
     private double calcAndLogAllocationsProcessed(final String prisonId, final double startAllocCount, final Counter counter) {
         // Determine total allocations for this execution of auto-allocation process.
         final var allocCount = counter.count() - startAllocCount;
@@ -174,12 +388,4 @@ public class KeyworkerAutoAllocationService {
 
         return allocCount;
     }
-
-    private Counter initialiseCounter() {
-        return Counter
-                .builder(COUNTER_METRIC_KEYWORKER_AUTO_ALLOCATIONS)
-                .description("indicates number of allocations suggested")
-                .tags("keyworker", "allocation")
-                .register(new SimpleMeterRegistry());
-    }
 }
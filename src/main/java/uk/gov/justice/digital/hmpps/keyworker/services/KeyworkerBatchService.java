@@ -3,8 +3,11 @@ package uk.gov.justice.digital.hmpps.keyworker.services;
 import com.microsoft.applicationinsights.TelemetryClient;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.HttpServerErrorException;
 import uk.gov.justice.digital.hmpps.keyworker.dto.PrisonerCustodyStatusDto;
@@ -12,6 +15,7 @@ import uk.gov.justice.digital.hmpps.keyworker.model.BatchHistory;
 import uk.gov.justice.digital.hmpps.keyworker.model.DeallocationReason;
 import uk.gov.justice.digital.hmpps.keyworker.model.Keyworker;
 import uk.gov.justice.digital.hmpps.keyworker.model.KeyworkerStatus;
+import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
 import uk.gov.justice.digital.hmpps.keyworker.repository.BatchHistoryRepository;
 import uk.gov.justice.digital.hmpps.keyworker.repository.KeyworkerRepository;
 import uk.gov.justice.digital.hmpps.keyworker.repository.OffenderKeyworkerRepository;
@@ -19,10 +23,18 @@ import uk.gov.justice.digital.hmpps.keyworker.repository.OffenderKeyworkerReposi
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Service
 @Transactional
@@ -33,6 +45,9 @@ public class KeyworkerBatchService {
     private final KeyworkerRepository keyworkerRepository;
     private TelemetryClient telemetryClient;
     private final BatchHistoryRepository batchHistoryRepository;
+    private final DeallocationChunkService deallocationChunkService;
+    private final KeyworkerLoadService keyworkerLoadService;
+    private final TaskExecutor movementsExecutor;
     @Value("${api.keyworker.deallocate.lookBackDays}")
     private int lookBackDays;
     @Value("${api.keyworker.deallocate.maxAttempts}")
@@ -41,29 +56,29 @@ public class KeyworkerBatchService {
     private int backoffMs;
     @Value("${api.keyworker.initial.deallocate.threshold}")
     private String initialDeallocateThreshold;
+    @Value("${api.keyworker.deallocate.chunkSize:500}")
+    private int chunkSize;
 
     public KeyworkerBatchService(final OffenderKeyworkerRepository repository,
                                  final KeyworkerRepository keyworkerRepository,
                                  final NomisService nomisService,
-                                 final TelemetryClient telemetryClient, final BatchHistoryRepository batchHistoryRepository) {
+                                 final TelemetryClient telemetryClient, final BatchHistoryRepository batchHistoryRepository,
+                                 final DeallocationChunkService deallocationChunkService,
+                                 final KeyworkerLoadService keyworkerLoadService,
+                                 @Qualifier("deallocationMovementsExecutor") final TaskExecutor movementsExecutor) {
         this.keyworkerRepository = keyworkerRepository;
         this.telemetryClient = telemetryClient;
         this.repository = repository;
         this.nomisService = nomisService;
         this.batchHistoryRepository = batchHistoryRepository;
+        this.deallocationChunkService = deallocationChunkService;
+        this.keyworkerLoadService = keyworkerLoadService;
+        this.movementsExecutor = movementsExecutor;
     }
 
     public void executeDeallocation() {
         try {
-            var deallocateJob = batchHistoryRepository.findByName("DeallocateJob");
-            if (deallocateJob == null) {
-                deallocateJob = BatchHistory.builder()
-                        .name("DeallocateJob")
-                        .lastRun(LocalDateTime.parse(initialDeallocateThreshold))
-                        .build();
-                batchHistoryRepository.save(deallocateJob);
-                log.warn("Created BatchHistory record");
-            }
+            final var deallocateJob = findOrCreateDeallocateJob();
             final var previousJobStart = deallocateJob.getLastRun();
             final var thisJobStart = LocalDateTime.now();
 
@@ -80,15 +95,51 @@ public class KeyworkerBatchService {
         }
     }
 
+    /**
+     * De-allocates as {@link #executeDeallocation()} does, but commits every chunkSize movements rather than in one
+     * transaction, advancing the job's last run time with each chunk so that a failed run is resumed from there.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void executeStreamingDeallocation() {
+        try {
+            final var deallocateJob = findOrCreateDeallocateJob();
+            final var previousJobStart = deallocateJob.getLastRun();
+            final var thisJobStart = LocalDateTime.now();
+
+            log.info("******** Streaming De-allocation Process Started using previousJobStart=" + previousJobStart);
+
+            final var deallocated = deallocateInChunks(previousJobStart);
+
+            deallocationChunkService.advanceCheckpoint(thisJobStart);
+
+            log.info("******** Streaming De-allocation Process Ended, {} allocations ended", deallocated);
+        } catch (final Exception e) {
+            log.error("Batch exception", e);
+            telemetryClient.trackException(e);
+        }
+    }
+
+    private BatchHistory findOrCreateDeallocateJob() {
+        var deallocateJob = batchHistoryRepository.findByName(DeallocationChunkService.DEALLOCATE_JOB);
+        if (deallocateJob == null) {
+            deallocateJob = BatchHistory.builder()
+                    .name(DeallocationChunkService.DEALLOCATE_JOB)
+                    .lastRun(LocalDateTime.parse(initialDeallocateThreshold))
+                    .build();
+            batchHistoryRepository.save(deallocateJob);
+            log.warn("Created BatchHistory record");
+        }
+        return deallocateJob;
+    }
+
     private void checkMovements(final LocalDateTime previousJobStart) {
 
         final var today = LocalDate.now();
 
         logEventToAzure(previousJobStart, today);
 
-        for (var dayNumber = 0; dayNumber >= -lookBackDays; dayNumber--) {
-
-            final var prisonerStatuses = getFromNomis(previousJobStart, today, dayNumber);
+        final var deallocated = new ArrayList<OffenderKeyworker>();
+        for (final var prisonerStatuses : getAllFromNomis(previousJobStart, today)) {
 
             prisonerStatuses.forEach(ps -> {
                 final var ok = repository.findByActiveAndOffenderNo(true, ps.getOffenderNo());
@@ -99,54 +150,107 @@ public class KeyworkerBatchService {
                     } else {
                         offenderKeyworker.deallocate(ps.getCreateDateTime(), "REL".equals(ps.getMovementType()) ? DeallocationReason.RELEASED : DeallocationReason.TRANSFER);
                         log.info("Deallocated offender from KW {} at {} due to record " + ps, offenderKeyworker.getStaffId(), offenderKeyworker.getPrisonId());
+                        deallocated.add(offenderKeyworker);
                     }
                 });
             });
         }
+        keyworkerLoadService.refresh(deallocated);
     }
 
-    private List<PrisonerCustodyStatusDto> getFromNomis(final LocalDateTime previousJobStart, final LocalDate today, final int dayNumber) {
-
-        for (var i = 1; i <= maxAttempts; i++) {
-            final var movementDate = today.plusDays(dayNumber);
-            try {
-
-                // Use /movements endpoint to get info from offender_external_movements
-                // which matches when the trigger on this table fires to update offender_key_workers
-
-                final var startTime = System.currentTimeMillis();
-                final var prisonerStatuses = nomisService.getPrisonerStatuses(previousJobStart, movementDate);
-                final var endTime = System.currentTimeMillis();
-
-                log.info("Day offset {}: {} released or transferred prisoners found", dayNumber, prisonerStatuses.size());
-                logSubEventToAzure(dayNumber, prisonerStatuses, endTime - startTime);
-                return prisonerStatuses;
-
-            } catch (final HttpServerErrorException e) {
-                // The gateway could timeout
-                if (!e.getMessage().contains("502 Bad Gateway")) {
-                    throw e;
-                } else if (i == maxAttempts) {
-                    log.warn("Detected a gateway timeout for movementDate=" + movementDate + ", attempt " + i + ", aborting", e);
-                    // Throw toys out of pram and leave till next batch run
-                    throw e;
-                } else {
-                    log.warn("Detected a gateway timeout for movementDate=" + movementDate + ", attempt " + i + ", retrying", e);
-                    telemetryClient.trackException(e);
-                    // don't hammer a struggling back end
-                    pause();
-                }
+    private int deallocateInChunks(final LocalDateTime previousJobStart) {
+
+        final var today = LocalDate.now();
+
+        logEventToAzure(previousJobStart, today);
+
+        final var movements = new ArrayList<PrisonerCustodyStatusDto>();
+        getAllFromNomis(previousJobStart, today).forEach(movements::addAll);
+        // The checkpoint is a creation time, so movements are processed in the order they were created
+        movements.sort(Comparator.comparing(PrisonerCustodyStatusDto::getCreateDateTime));
+
+        var deallocated = 0;
+        var chunkStart = 0;
+        while (chunkStart < movements.size()) {
+            var chunkEnd = Math.min(chunkStart + chunkSize, movements.size());
+            // Keep movements created at the same time in one chunk so a restart cannot skip any of them
+            while (chunkEnd < movements.size()
+                    && movements.get(chunkEnd).getCreateDateTime().equals(movements.get(chunkEnd - 1).getCreateDateTime())) {
+                chunkEnd++;
             }
+            final var chunk = movements.subList(chunkStart, chunkEnd);
+            final var checkpoint = chunk.get(chunk.size() - 1).getCreateDateTime();
+
+            deallocated += deallocationChunkService.deallocate(chunk, checkpoint);
+            log.info("De-allocation checkpoint now {}, {} of {} movements processed", checkpoint, chunkEnd, movements.size());
+
+            chunkStart = chunkEnd;
         }
-        // Should never get here
-        throw new IllegalStateException();
+        return deallocated;
+    }
+
+    /**
+     * Fetches movements for each day of the look back window at the same time, up to the limit of the movements executor.
+     *
+     * @return movements for each day, most recent day first.
+     */
+    private List<List<PrisonerCustodyStatusDto>> getAllFromNomis(final LocalDateTime previousJobStart, final LocalDate today) {
+        final var days = IntStream.rangeClosed(0, lookBackDays)
+                .mapToObj(dayNumber -> getFromNomis(previousJobStart, today, -dayNumber, 1, movementsExecutor))
+                .collect(Collectors.toList());
+
+        return days.stream().map(KeyworkerBatchService::join).collect(Collectors.toList());
+    }
+
+    private CompletableFuture<List<PrisonerCustodyStatusDto>> getFromNomis(final LocalDateTime previousJobStart, final LocalDate today,
+                                                                           final int dayNumber, final int attempt, final Executor executor) {
+        final var movementDate = today.plusDays(dayNumber);
+
+        return CompletableFuture.supplyAsync(() -> {
+
+            // Use /movements endpoint to get info from offender_external_movements
+            // which matches when the trigger on this table fires to update offender_key_workers
+
+            final var startTime = System.currentTimeMillis();
+            final var prisonerStatuses = nomisService.getPrisonerStatuses(previousJobStart, movementDate);
+            final var endTime = System.currentTimeMillis();
+
+            log.info("Day offset {}: {} released or transferred prisoners found", dayNumber, prisonerStatuses.size());
+            logSubEventToAzure(dayNumber, prisonerStatuses, endTime - startTime);
+            return prisonerStatuses;
+
+        }, executor).handle((prisonerStatuses, failure) -> {
+            if (failure == null) {
+                return CompletableFuture.completedFuture(prisonerStatuses);
+            }
+            final var e = failure instanceof CompletionException ? failure.getCause() : failure;
+
+            // The gateway could timeout
+            if (!(e instanceof HttpServerErrorException) || !e.getMessage().contains("502 Bad Gateway")) {
+                return CompletableFuture.<List<PrisonerCustodyStatusDto>>failedFuture(e);
+            } else if (attempt == maxAttempts) {
+                log.warn("Detected a gateway timeout for movementDate=" + movementDate + ", attempt " + attempt + ", aborting", e);
+                // Throw toys out of pram and leave till next batch run
+                return CompletableFuture.<List<PrisonerCustodyStatusDto>>failedFuture(e);
+            } else {
+                log.warn("Detected a gateway timeout for movementDate=" + movementDate + ", attempt " + attempt + ", retrying", e);
+                telemetryClient.trackException((HttpServerErrorException) e);
+                // don't hammer a struggling back end, but don't hold a thread while waiting either
+                final var afterBackoff = CompletableFuture.delayedExecutor(backoffMs, TimeUnit.MILLISECONDS, movementsExecutor);
+                return getFromNomis(previousJobStart, today, dayNumber, attempt + 1, afterBackoff);
+            }
+        }).thenCompose(Function.identity());
     }
 
-    private void pause() {
+    private static <T> T join(final CompletableFuture<T> result) {
         try {
-            Thread.sleep(backoffMs);
-        } catch (final InterruptedException ie) {
-            log.error("Unexpected error", ie);
+            return result.join();
+        } catch (final CompletionException e) {
+            // Fail as the fetch would have done had it been called directly
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
     }
 
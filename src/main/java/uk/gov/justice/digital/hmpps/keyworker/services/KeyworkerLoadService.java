@@ -0,0 +1,196 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.Validate;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerAllocationCount;
+import uk.gov.justice.digital.hmpps.keyworker.model.AllocationType;
+import uk.gov.justice.digital.hmpps.keyworker.model.KeyworkerLoad;
+import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
+import uk.gov.justice.digital.hmpps.keyworker.repository.KeyworkerLoadRepository;
+import uk.gov.justice.digital.hmpps.keyworker.repository.OffenderKeyworkerRepository;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Maintains KEY_WORKER_LOAD, the number of active non-provisional allocations per Key worker and prison. Whenever
+ * allocations change, the load of each Key worker affected is recounted within the same transaction, so the table
+ * stays consistent with OFFENDER_KEY_WORKER; {@link #reconcile(String)} corrects any drift for a whole prison.
+ */
+@Service
+@Transactional
+@Slf4j
+public class KeyworkerLoadService {
+
+    private static final int MAX_INSERT_ATTEMPTS = 3;
+
+    private final KeyworkerLoadRepository repository;
+    private final OffenderKeyworkerRepository offenderKeyworkerRepository;
+    private final TransactionTemplate insertTransaction;
+
+    public KeyworkerLoadService(final KeyworkerLoadRepository repository,
+                                final OffenderKeyworkerRepository offenderKeyworkerRepository,
+                                final PlatformTransactionManager transactionManager) {
+        this.repository = repository;
+        this.offenderKeyworkerRepository = offenderKeyworkerRepository;
+        this.insertTransaction = new TransactionTemplate(transactionManager);
+        this.insertTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Number of active, non-provisional allocations for each Key worker in a prison, without counting allocations.
+     *
+     * @param prisonId prison.
+     * @param staffIds Key workers.
+     * @return load of each Key worker that has any allocations; Key workers without a load have none.
+     */
+    @Transactional(readOnly = true)
+    public Map<Long, Integer> getNumberAllocated(final String prisonId, final Collection<Long> staffIds) {
+        Validate.notBlank(prisonId, "Prison id is required.");
+
+        if (staffIds.isEmpty()) {
+            return Map.of();
+        }
+        return repository.findByPrisonIdAndStaffIdIn(prisonId, staffIds).stream()
+                .collect(Collectors.toMap(KeyworkerLoad::getStaffId, KeyworkerLoad::getNumberAllocated));
+    }
+
+    /**
+     * Recounts the load of each Key worker of the given allocations, after they have been created or changed.
+     */
+    public void refresh(final Collection<OffenderKeyworker> allocations) {
+        // Prisons and Key workers in order, so that concurrent refreshes lock loads in the same order
+        allocations.stream()
+                .collect(Collectors.groupingBy(OffenderKeyworker::getPrisonId, TreeMap::new,
+                        Collectors.mapping(OffenderKeyworker::getStaffId, Collectors.toCollection(TreeSet::new))))
+                .forEach(this::refresh);
+    }
+
+    /**
+     * Recounts the load of the given Key workers in a prison.
+     */
+    public void refresh(final String prisonId, final Collection<Long> staffIds) {
+        if (staffIds.isEmpty()) {
+            return;
+        }
+        final var sortedStaffIds = new TreeSet<>(staffIds);
+        insertMissing(prisonId, sortedStaffIds);
+
+        // Lock loads first, so that concurrent changes for the same Key worker are counted one after the other
+        final var loads = repository.lockByPrisonIdAndStaffIdIn(prisonId, sortedStaffIds);
+        final var counts = offenderKeyworkerRepository.countAllocationsByStaffId(prisonId, sortedStaffIds, true, AllocationType.PROVISIONAL);
+
+        update(prisonId, sortedStaffIds, loads, counts);
+    }
+
+    /**
+     * Recounts the load of every Key worker in a prison, after allocations across the prison have changed.
+     *
+     * @param prisonId prison.
+     * @return number of Key worker loads changed.
+     */
+    public int refresh(final String prisonId) {
+        Validate.notBlank(prisonId, "Prison id is required.");
+
+        insertMissing(prisonId, offenderKeyworkerRepository.countAllocationsByPrisonId(prisonId, true, AllocationType.PROVISIONAL).stream()
+                .map(KeyworkerAllocationCount::getStaffId)
+                .collect(Collectors.toCollection(TreeSet::new)));
+
+        final var loads = repository.lockByPrisonId(prisonId);
+        final var counts = offenderKeyworkerRepository.countAllocationsByPrisonId(prisonId, true, AllocationType.PROVISIONAL);
+
+        final var staffIds = new HashSet<Long>();
+        loads.forEach(load -> staffIds.add(load.getStaffId()));
+        counts.forEach(count -> staffIds.add(count.getStaffId()));
+
+        return update(prisonId, staffIds, loads, counts);
+    }
+
+    /**
+     * Recounts the load of every Key worker in a prison when no allocations should have changed since they were last
+     * counted, reporting any that were wrong.
+     *
+     * @param prisonId prison.
+     * @return number of Key worker loads which were wrong and have been corrected.
+     */
+    public int reconcile(final String prisonId) {
+        final var corrected = refresh(prisonId);
+        if (corrected > 0) {
+            log.warn("Corrected {} key worker loads in {}", corrected, prisonId);
+        }
+        return corrected;
+    }
+
+    /**
+     * Creates an empty load for any Key worker without one, so that there is a row to lock even before their first
+     * allocation is counted. Concurrent first allocations for the same Key worker then both find the row, rather than
+     * both inserting it.
+     * <p>
+     * Loads are created and committed in a transaction of their own: when a concurrent insert of the same load wins,
+     * the duplicate key fails only that transaction (PostgreSQL cannot carry on with a failed one), and the retry then
+     * finds the load.
+     */
+    private void insertMissing(final String prisonId, final SortedSet<Long> staffIds) {
+        if (staffIds.isEmpty()) {
+            return;
+        }
+        final var missing = new TreeSet<>(staffIds);
+        repository.findByPrisonIdAndStaffIdIn(prisonId, staffIds).forEach(load -> missing.remove(load.getStaffId()));
+        if (missing.isEmpty()) {
+            return;
+        }
+        for (var attempt = 1; ; attempt++) {
+            try {
+                insertTransaction.execute(status -> {
+                    missing.forEach(staffId -> repository.insertIfMissing(staffId, prisonId, 0));
+                    return null;
+                });
+                return;
+            } catch (final DataIntegrityViolationException e) {
+                if (attempt == MAX_INSERT_ATTEMPTS) {
+                    throw e;
+                }
+                log.debug("Key worker load in {} inserted concurrently, retrying", prisonId);
+            }
+        }
+    }
+
+    private int update(final String prisonId, final Collection<Long> staffIds, final List<KeyworkerLoad> loads, final List<KeyworkerAllocationCount> counts) {
+        final var loadsByStaffId = loads.stream().collect(Collectors.toMap(KeyworkerLoad::getStaffId, Function.identity()));
+        final var countsByStaffId = counts.stream().collect(Collectors.toMap(KeyworkerAllocationCount::getStaffId, KeyworkerAllocationCount::getNumberAllocated));
+
+        // Only for a Key worker first allocated after the empty loads were created
+        final var late = staffIds.stream()
+                .filter(staffId -> !loadsByStaffId.containsKey(staffId) && countsByStaffId.getOrDefault(staffId, 0L) > 0)
+                .collect(Collectors.toCollection(TreeSet::new));
+        if (!late.isEmpty()) {
+            insertMissing(prisonId, late);
+            repository.lockByPrisonIdAndStaffIdIn(prisonId, late).forEach(load -> loadsByStaffId.put(load.getStaffId(), load));
+        }
+
+        var changed = 0;
+        for (final var staffId : staffIds) {
+            final var numberAllocated = countsByStaffId.getOrDefault(staffId, 0L).intValue();
+            final var load = loadsByStaffId.get(staffId);
+
+            if (load != null && load.getNumberAllocated() != numberAllocated) {
+                load.setNumberAllocated(numberAllocated);
+                changed++;
+            }
+        }
+        return changed;
+    }
+}
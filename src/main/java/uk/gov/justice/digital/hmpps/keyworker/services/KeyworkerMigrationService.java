@@ -6,6 +6,7 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import uk.gov.justice.digital.hmpps.keyworker.dto.OffenderKeyworkerDto;
+import uk.gov.justice.digital.hmpps.keyworker.exception.PrisonNotSupportedException;
 import uk.gov.justice.digital.hmpps.keyworker.model.AllocationReason;
 import uk.gov.justice.digital.hmpps.keyworker.model.AllocationType;
 import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
@@ -26,32 +27,39 @@ public class KeyworkerMigrationService {
     private final PrisonSupportedRepository repository;
     private final PrisonSupportedService prisonSupportedService;
     private final OffenderKeyworkerRepository offenderKeyworkerRepository;
+    private final KeyworkerLoadService keyworkerLoadService;
 
     public KeyworkerMigrationService(final NomisService nomisService,
                                      final PrisonSupportedRepository repository,
                                      final PrisonSupportedService prisonSupportedService,
-                                     final OffenderKeyworkerRepository offenderKeyworkerRepository) {
+                                     final OffenderKeyworkerRepository offenderKeyworkerRepository,
+                                     final KeyworkerLoadService keyworkerLoadService) {
         this.repository = repository;
         this.nomisService = nomisService;
         this.prisonSupportedService = prisonSupportedService;
         this.offenderKeyworkerRepository = offenderKeyworkerRepository;
+        this.keyworkerLoadService = keyworkerLoadService;
     }
 
     @PreAuthorize("hasRole('KW_MIGRATION')")
     public void migrateKeyworkerByPrison(final String prisonId) {
-        if (prisonSupportedService.isMigrated(prisonId)) return;
+        // Read and locked in this transaction rather than taken from the snapshot, which can be stale, so that
+        // concurrent or repeated requests cannot migrate the same prison twice
+        final var prison = repository.lockByPrisonId(prisonId)
+                .orElseThrow(() -> PrisonNotSupportedException.withId(prisonId));
+        if (prison.isMigrated()) return;
 
         // If we get here, agency is eligible for migration and has not yet been migrated.
         final var allocations = nomisService.getOffenderKeyWorkerPage(prisonId, 0, Integer.MAX_VALUE);
         log.debug("[{}] allocations retrieved for agency [{}]", allocations.size(), prisonId);
         // persist all allocations
         offenderKeyworkerRepository.saveAll(translate(allocations));
+        keyworkerLoadService.refresh(prisonId);
 
         // Mark prison as migrated
-        repository.findById(prisonId).ifPresent(prison -> {
-            prison.setMigrated(true);
-            prison.setMigratedDateTime(LocalDateTime.now());
-        });
+        prison.setMigrated(true);
+        prison.setMigratedDateTime(LocalDateTime.now());
+        prisonSupportedService.prisonConfigurationChanged();
     }
 
     private Set<OffenderKeyworker> translate(final List<OffenderKeyworkerDto> dtos) {
@@ -7,13 +7,16 @@ import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerDto;
 import uk.gov.justice.digital.hmpps.keyworker.exception.AllocationException;
 import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
 
+import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Represents a collection of Key workers that are available for allocation and encapsulates the implementation of
  * allocation rules which govern which Key worker is next in line for allocation at any particular moment.
  *
+ * Key workers are held in an addressable binary heap, indexed by staffId, so that selection of the priority Key worker
+ * and re-prioritisation of a single Key worker are both O(log n) operations.
+ *
  * NB: KeyworkerPool is not thread safe. The pool is designed for short-lived, single-threaded operation. As a result
  * an instance of KeyworkerPool will not support multiple auto-allocation processes. Each auto-allocation process
  * should instantiate and use its own KeyworkerPool.
@@ -22,21 +25,33 @@ import java.util.stream.Collectors;
 public class KeyworkerPool {
     static final String OUTCOME_ALL_KEY_WORKERS_AT_CAPACITY = "All available Key workers are at full capacity.";
 
-    private final SortedSet<KeyworkerDto> keyworkerPool;
-    private final Map<Long,List<OffenderKeyworker>> keyworkerAllocations;
+    // Implements Key worker allocation prioritisation algorithm - highest priority Key worker is at head of the heap.
+    // A full Key worker is kicked to last place, then Key workers are ordered by number allocated, then by most recent
+    // auto-allocation (Key workers with no known auto-allocations first) and finally by staffId (to ensure uniqueness).
+    private static final Comparator<PoolEntry> PRIORITY_ORDER = Comparator
+            .comparing(PoolEntry::isFull)
+            .thenComparingInt(PoolEntry::getNumberAllocated)
+            .thenComparing(PoolEntry::getLastAutoAllocation, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(PoolEntry::getStaffId);
+
+    private final Map<Long, PoolEntry> poolEntries;
+    private final Map<Integer, Set<Long>> unprioritisedStaffIdsByAllocations;
+    private final PoolEntry[] heap;
+    private int heapSize;
+
     private final SortedSet<Integer> capacityTiers;
-    private final Set<Long> keyworkerStaffIds;
 
-    private KeyworkerService keyworkerService;
+    private final AllocationHistorySnapshot allocationHistory;
 
-    KeyworkerPool(final KeyworkerService keyworkerService,
+    KeyworkerPool(final AllocationHistorySnapshot allocationHistory,
                   final PrisonSupportedService prisonSupportedService,
                   final Collection<KeyworkerDto> keyworkers,
                   final String prisonId) {
         Validate.notEmpty(keyworkers, "Key worker pool must contain at least one Key worker.");
         Validate.notBlank(prisonId, "Prison must be specified.");
+        Validate.notNull(allocationHistory, "Allocation history must be specified.");
 
-        this.keyworkerService = keyworkerService;
+        this.allocationHistory = allocationHistory;
         final var prisonDetail = prisonSupportedService.getPrisonDetail(prisonId);
 
         this.capacityTiers = new TreeSet<>();
@@ -44,89 +59,25 @@ public class KeyworkerPool {
         capacityTiers.add(prisonDetail.getCapacityTier2());
 
         // Initialise key worker pool
-        keyworkerStaffIds = new HashSet<>();
-        keyworkerAllocations = new HashMap<>();
+        poolEntries = new HashMap<>();
+        unprioritisedStaffIdsByAllocations = new HashMap<>();
+        heap = new PoolEntry[keyworkers.size()];
 
         keyworkers.forEach(kw -> {
-            keyworkerStaffIds.add(kw.getStaffId());
-            keyworkerAllocations.put(kw.getStaffId(), null);
-        });
-
-        keyworkerPool = new TreeSet<>(buildKeyworkerComparator());
-        keyworkerPool.addAll(keyworkers);
-
-        log.debug("Key worker pool initialised with {} members.", keyworkers.size());
-    }
+            final var entry = new PoolEntry(kw, calculateEnhancedCapacity(kw));
 
-    // Constructs Key worker comparator which, effectively, implements Key worker allocation prioritisation algorithm.
-    // Comparator function ensures that highest priority Key worker is at head of Key worker pool.
-    private Comparator<KeyworkerDto> buildKeyworkerComparator() {
-
-        // If a KW is full, kick it to last place
-        final Comparator<KeyworkerDto> isFullComparator = (kw1, kw2) -> {
-            final var enhancedCapacityKw1 = calculateEnhancedCapacity(kw1);
-            final var enhancedCapacityKw2 = calculateEnhancedCapacity(kw2);
-            final Integer numberAllocated1 = totalAllocations(kw1);
-            final Integer numberAllocated2 = totalAllocations(kw2);
-            if (numberAllocated1 >= enhancedCapacityKw1) {
-                if (numberAllocated2 >= enhancedCapacityKw2) {
-                    return 0;
-                }
-                return 1;
-            }
-            if (numberAllocated2 >= enhancedCapacityKw2) {
-                return -1;
-            }
-            return 0;
-        };
-
-        final Comparator<KeyworkerDto> numberAllocatedComparator = (kw1, kw2) -> {
-            final Integer numberAllocated1 = totalAllocations(kw1);
-            final Integer numberAllocated2 = totalAllocations(kw2);
-            return numberAllocated1.compareTo(numberAllocated2);
-        };
-
-        final Comparator<Long> staffIdComparator = (id1, id2) -> {
-            final var keyWorkerAllocationComparator = Comparator.comparing(OffenderKeyworker::getAssignedDateTime);
-
-            final SortedSet<OffenderKeyworker> id1Allocations = new TreeSet<>(keyWorkerAllocationComparator);
-            final SortedSet<OffenderKeyworker> id2Allocations = new TreeSet<>(keyWorkerAllocationComparator);
-
-            Optional.ofNullable(keyworkerAllocations.get(id1)).ifPresent(id1Allocations::addAll);
-            Optional.ofNullable(keyworkerAllocations.get(id2)).ifPresent(id2Allocations::addAll);
-
-            int result;
-
-            // If neither Key worker has any auto-allocations, or both have auto-allocations and an identical
-            // assigned datetime for most recent allocation, arbitrarily sort by staffId (to ensure uniqueness).
-            if (id1Allocations.isEmpty()) {
-                result = id2Allocations.isEmpty() ? (id1.compareTo(id2)) : -1;
-            } else if (id2Allocations.isEmpty()) {
-                result = 1;
-            } else {
-                result = id1Allocations.last().getAssignedDateTime().compareTo(id2Allocations.last().getAssignedDateTime());
-
-                if (result == 0) {
-                    result = id1.compareTo(id2);
-                }
+            if (poolEntries.putIfAbsent(kw.getStaffId(), entry) == null) {
+                addUnprioritised(entry);
+                heap[heapSize] = entry;
+                entry.heapIndex = heapSize++;
             }
-            return result;
-        };
-
-        final var comparator = isFullComparator
-                .thenComparing(numberAllocatedComparator)
-                .thenComparing(KeyworkerDto::getStaffId, staffIdComparator);
+        });
 
-        return (kw1, kw2) -> {
-            if (kw1 == kw2) {
-                return 0;
-            }
-            return comparator.compare(kw1, kw2);
-        };
-    }
+        for (var i = (heapSize >>> 1) - 1; i >= 0; i--) {
+            siftDown(i);
+        }
 
-    private int totalAllocations(final KeyworkerDto kw1) {
-        return kw1.getNumberAllocated();
+        log.debug("Key worker pool initialised with {} members.", heapSize);
     }
 
     private int calculateEnhancedCapacity(final KeyworkerDto kw1) {
@@ -153,7 +104,7 @@ public class KeyworkerPool {
         log.debug("Prioritising Key worker for allocation of offender with offenderNo [{}]", offenderNo);
 
         // Retrieve any previous Key worker allocations for offender.
-        final var previousAllocations = keyworkerService.getAllocationHistoryForPrisoner(offenderNo);
+        final var previousAllocations = allocationHistory.getAllocationHistoryForPrisoner(offenderNo);
 
         // First, determine if offender was previously allocated to any Key workers in the pool
         final var previousKeyworker = findPreviousAllocation(offenderNo, previousAllocations);
@@ -174,7 +125,7 @@ public class KeyworkerPool {
             // error as no Key worker currently in pool can accept any further allocations.
             checkMaxCapacity();
 
-            priorityKeyworker = keyworkerPool.first();
+            priorityKeyworker = heap[0].keyworker;
         }
 
         log.debug("Key worker with staffId [{}] selected for allocation of offender with offenderNo [{}].",
@@ -193,18 +144,25 @@ public class KeyworkerPool {
      */
     public void incrementAndRefreshKeyworker(final KeyworkerDto keyworker) {
         Validate.notNull(keyworker, "Key worker to refresh must be specified.");
-        final var savedOldAllocationsList = keyworkerAllocations.get(keyworker.getStaffId());
 
-        // Remove Key worker from pool (throwing exception if Key worker not in pool)
-        if (removeKeyworker(keyworker.getStaffId()).isEmpty()) {
+        final var entry = poolEntries.get(keyworker.getStaffId());
+
+        if (entry == null) {
             log.error("Key worker with staffId [{}] not in pool.", keyworker.getStaffId());
 
             throw new IllegalStateException("Key worker to refresh is not in Key worker pool.");
         }
+
+        removeUnprioritised(entry);
         keyworker.setNumberAllocated(keyworker.getNumberAllocated() + 1);
+        entry.keyworker = keyworker;
+        addUnprioritised(entry);
+
+        // An extra allocation can only lower the Key worker's priority
+        siftDown(entry.heapIndex);
 
-        // Add Key worker back to pool
-        reinstateKeyworker(keyworker, savedOldAllocationsList);
+        log.debug("Key worker with staffId [{}] refreshed in pool, having [{}] allocations. Priority Key worker has staffId [{}] and [{}] allocations.",
+                keyworker.getStaffId(), keyworker.getNumberAllocated(), heap[0].getStaffId(), heap[0].getNumberAllocated());
     }
 
     private Optional<KeyworkerDto> findPreviousAllocation(final String offenderNo, final List<OffenderKeyworker> keyWorkerAllocations) {
@@ -216,91 +174,141 @@ public class KeyworkerPool {
         if (ObjectUtils.isEmpty(keyWorkerAllocations)) {
             previousKeyworker = Optional.empty();
         } else {
-            final var latestAllocation = keyWorkerAllocations.stream()
-                    .filter(kwa -> kwa.getOffenderNo().equals(offenderNo) && keyworkerStaffIds.contains(kwa.getStaffId()))
-                    .max(Comparator.comparing(OffenderKeyworker::getAssignedDateTime));
-
-            if (latestAllocation.isPresent()) {
-                // Key worker staff id of latest allocation
-                final var keyworkerStaffId = latestAllocation.get().getStaffId();
-
-                previousKeyworker = keyworkerPool.stream().filter(kw -> keyworkerStaffId.equals(kw.getStaffId())).findFirst();
-            } else {
-                previousKeyworker = Optional.empty();
-            }
+            previousKeyworker = keyWorkerAllocations.stream()
+                    .filter(kwa -> kwa.getOffenderNo().equals(offenderNo) && poolEntries.containsKey(kwa.getStaffId()))
+                    .max(Comparator.comparing(OffenderKeyworker::getAssignedDateTime))
+                    .map(latestAllocation -> poolEntries.get(latestAllocation.getStaffId()).keyworker);
         }
 
         return previousKeyworker;
     }
 
-    // Applies sorting algorithm to Key worker list to determine allocation priority of Key workers. Must be called
-    // prior to each request for priority Key worker.
+    // Refines allocation priority of Key workers having fewest allocations by loading their auto-allocation history.
+    // Must be called prior to each request for priority Key worker.
     private void prioritiseKeyworkers() {
         checkMaxCapacity();
 
         // Identify Key worker(s) with least number of allocations - first Key worker in pool will have least allocations
-        final int fewestAllocs = keyworkerPool.first().getNumberAllocated();
+        final int fewestAllocs = heap[0].getNumberAllocated();
 
         // If priority Key worker has no allocations, no further processing required, otherwise identify any other Key
-        // workers in pool having same number of allocations (and their keyworkerAllocations map entry remains uninitialised)
+        // workers in pool having same number of allocations (and whose allocations have not yet been retrieved)
         if (fewestAllocs > 0) {
-            final var fewestAllocKeyworkers = keyworkerPool.stream()
-                    .filter(kw -> kw.getNumberAllocated() == fewestAllocs)
-                    .filter(kw -> keyworkerAllocations.get(kw.getStaffId()) == null)
-                    .collect(Collectors.toList());
+            final var fewestAllocStaffIds = unprioritisedStaffIdsByAllocations.get(fewestAllocs);
 
             // If only one Key worker with fewest allocations, no further processing required, otherwise retrieve
-            // allocations for all Key workers with fewest allocations and update sort.
-            if (fewestAllocKeyworkers.size() > 1) {
-                // For each Key worker with fewest allocations, remove from pool, update allocations, reinstate to pool.
-                fewestAllocKeyworkers.forEach(kw -> {
-                    removeKeyworker(kw.getStaffId());
-                    reinstateKeyworker(kw, keyworkerService.getAllocationsForKeyworker(kw.getStaffId()));
-                });
+            // allocations for all Key workers with fewest allocations and update their position in pool.
+            if (fewestAllocStaffIds != null && fewestAllocStaffIds.size() > 1) {
+                List.copyOf(fewestAllocStaffIds).forEach(staffId ->
+                        applyAllocations(poolEntries.get(staffId), allocationHistory.getAllocationsForKeyworker(staffId)));
             }
         }
 
-        log.debug("Key worker pool prioritised - priority Key worker has {} allocations.",
-                keyworkerPool.first().getNumberAllocated());
+        log.debug("Key worker pool prioritised - priority Key worker has {} allocations.", heap[0].getNumberAllocated());
     }
 
     private void checkMaxCapacity() {
-        final var first = keyworkerPool.first();
-        if (first.getNumberAllocated() >= calculateEnhancedCapacity(first)) {
+        if (heap[0].isFull()) {
             log.error(OUTCOME_ALL_KEY_WORKERS_AT_CAPACITY);
 
             throw AllocationException.withMessage(OUTCOME_ALL_KEY_WORKERS_AT_CAPACITY);
         }
     }
 
-    private Optional<KeyworkerDto> removeKeyworker(final long staffId) {
-        log.debug("Removing Key worker with staffId [{}] from pool.", staffId);
+    private void applyAllocations(final PoolEntry entry, final List<OffenderKeyworker> allocations) {
+        if (allocations == null) {
+            return;
+        }
 
-        keyworkerStaffIds.remove(staffId);
+        // Filter out manual allocations (and Provisionals obviously. Only interested in auto-allocations)
+        final var lastAutoAllocation = allocations.stream()
+                .filter(kwa -> kwa.getAllocationType().isAuto())
+                .map(OffenderKeyworker::getAssignedDateTime)
+                .max(Comparator.naturalOrder())
+                .orElse(null);
 
-        final var keyworker = keyworkerPool.stream().filter(kw -> kw.getStaffId().equals(staffId)).findFirst();
+        removeUnprioritised(entry);
+        entry.allocationsRetrieved = true;
+        entry.lastAutoAllocation = lastAutoAllocation;
 
-        keyworker.ifPresent(keyworkerPool::remove);
+        // Key workers without auto-allocations keep their position, others can only move down the pool
+        siftDown(entry.heapIndex);
 
-        keyworkerAllocations.remove(staffId);
-        return keyworker;
+        log.debug("Key worker with staffId [{}] prioritised using most recent auto-allocation at [{}].",
+                entry.getStaffId(), lastAutoAllocation);
     }
 
-    private void reinstateKeyworker(final KeyworkerDto keyworker, final List<OffenderKeyworker> allocations) {
-        final var staffId = keyworker.getStaffId();
+    private void addUnprioritised(final PoolEntry entry) {
+        if (!entry.allocationsRetrieved) {
+            unprioritisedStaffIdsByAllocations
+                    .computeIfAbsent(entry.getNumberAllocated(), count -> new HashSet<>())
+                    .add(entry.getStaffId());
+        }
+    }
 
-        log.debug("Reinstating Key worker with staffId [{}], and having [{}] allocations, to pool.",
-                staffId, keyworker.getNumberAllocated());
+    private void removeUnprioritised(final PoolEntry entry) {
+        if (!entry.allocationsRetrieved) {
+            final var staffIds = unprioritisedStaffIdsByAllocations.get(entry.getNumberAllocated());
 
-        // Filter out manual allocations (and Provisionals obviously. Only interested in auto-allocations)
-        final var autoAllocations = (allocations == null) ? null :
-                allocations.stream().filter(kwa -> kwa.getAllocationType().isAuto()).collect(Collectors.toList());
+            if (staffIds != null) {
+                staffIds.remove(entry.getStaffId());
+            }
+        }
+    }
+
+    private void siftDown(final int index) {
+        final var entry = heap[index];
+        var i = index;
+        final var half = heapSize >>> 1;
+
+        while (i < half) {
+            var child = (i << 1) + 1;
+            final var right = child + 1;
+
+            if (right < heapSize && PRIORITY_ORDER.compare(heap[right], heap[child]) < 0) {
+                child = right;
+            }
+            if (PRIORITY_ORDER.compare(entry, heap[child]) <= 0) {
+                break;
+            }
+            place(heap[child], i);
+            i = child;
+        }
+        place(entry, i);
+    }
+
+    private void place(final PoolEntry entry, final int index) {
+        heap[index] = entry;
+        entry.heapIndex = index;
+    }
 
-        keyworkerAllocations.put(staffId, autoAllocations);
-        keyworkerPool.add(keyworker);
-        keyworkerStaffIds.add(staffId);
+    // A member of the pool, together with the precomputed values used to prioritise it.
+    private static class PoolEntry {
+        private KeyworkerDto keyworker;
+        private final int enhancedCapacity;
+        private boolean allocationsRetrieved;
+        private LocalDateTime lastAutoAllocation;
+        private int heapIndex;
+
+        private PoolEntry(final KeyworkerDto keyworker, final int enhancedCapacity) {
+            this.keyworker = keyworker;
+            this.enhancedCapacity = enhancedCapacity;
+        }
+
+        private Long getStaffId() {
+            return keyworker.getStaffId();
+        }
 
-        log.debug("Key worker with staffId [{}] reinstated to pool. New pool size is [{}] and priority Key worker has staffId [{}] and [{}] allocations.",
-                staffId, keyworkerPool.size(), keyworkerPool.first().getStaffId(), keyworkerPool.first().getNumberAllocated());
+        private int getNumberAllocated() {
+            return keyworker.getNumberAllocated();
+        }
+
+        private boolean isFull() {
+            return getNumberAllocated() >= enhancedCapacity;
+        }
+
+        private LocalDateTime getLastAutoAllocation() {
+            return lastAutoAllocation;
+        }
     }
 }
@@ -13,23 +13,21 @@ import java.util.Collection;
 @Component
 @Slf4j
 public class KeyworkerPoolFactory {
-    private final KeyworkerService keyworkerService;
     private final PrisonSupportedService prisonSupportedService;
 
-    public KeyworkerPoolFactory(final KeyworkerService keyworkerService,
-                                final PrisonSupportedService prisonSupportedService) {
+    public KeyworkerPoolFactory(final PrisonSupportedService prisonSupportedService) {
 
-        this.keyworkerService = keyworkerService;
         this.prisonSupportedService = prisonSupportedService;
     }
 
     /**
-     * Initialise new key worker pool with set of key workers.
+     * Initialise new key worker pool with set of key workers, prioritised using previously retrieved allocation history.
      */
-    public KeyworkerPool getKeyworkerPool(final String prisonId, final Collection<KeyworkerDto> keyworkers) {
+    public KeyworkerPool getKeyworkerPool(final String prisonId, final Collection<KeyworkerDto> keyworkers,
+                                          final AllocationHistorySnapshot allocationHistory) {
         Validate.notEmpty(keyworkers);
 
-        final var keyworkerPool = new KeyworkerPool(keyworkerService, prisonSupportedService, keyworkers, prisonId);
+        final var keyworkerPool = new KeyworkerPool(allocationHistory, prisonSupportedService, keyworkers, prisonId);
 
         log.debug("Initialised new Key worker pool with {} members for prison {}.",
                 keyworkers.size(), prisonId);
@@ -1,10 +1,13 @@
 package uk.gov.justice.digital.hmpps.keyworker.services;
 
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.RegExUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.text.WordUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -15,6 +18,7 @@ import uk.gov.justice.digital.hmpps.keyworker.model.*;
 import uk.gov.justice.digital.hmpps.keyworker.repository.KeyworkerRepository;
 import uk.gov.justice.digital.hmpps.keyworker.repository.OffenderKeyworkerRepository;
 import uk.gov.justice.digital.hmpps.keyworker.security.AuthenticationFacade;
+import uk.gov.justice.digital.hmpps.keyworker.utils.CallerContext;
 import uk.gov.justice.digital.hmpps.keyworker.utils.ConversionHelper;
 
 import javax.persistence.EntityNotFoundException;
@@ -22,7 +26,11 @@ import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 import static java.lang.String.format;
 import static uk.gov.justice.digital.hmpps.keyworker.model.KeyworkerStatus.ACTIVE;
@@ -43,36 +51,46 @@ public class KeyworkerService  {
     private final KeyworkerAllocationProcessor processor;
     private final PrisonSupportedService prisonSupportedService;
     private final NomisService nomisService;
+    private final KeyworkerLoadService keyworkerLoadService;
+    private final TaskExecutor staffLookupExecutor;
 
     public KeyworkerService(final AuthenticationFacade authenticationFacade,
                             final OffenderKeyworkerRepository repository,
                             final KeyworkerRepository keyworkerRepository,
                             final KeyworkerAllocationProcessor processor,
                             final PrisonSupportedService prisonSupportedService,
-                            final NomisService nomisService) {
+                            final NomisService nomisService,
+                            final KeyworkerLoadService keyworkerLoadService,
+                            @Qualifier("staffLookupExecutor") final TaskExecutor staffLookupExecutor) {
         this.authenticationFacade = authenticationFacade;
         this.repository = repository;
         this.keyworkerRepository = keyworkerRepository;
         this.processor = processor;
         this.prisonSupportedService = prisonSupportedService;
         this.nomisService = nomisService;
+        this.keyworkerLoadService = keyworkerLoadService;
+        this.staffLookupExecutor = staffLookupExecutor;
     }
 
     public List<KeyworkerDto> getAvailableKeyworkers(final String prisonId, final boolean activeOnly) {
 
-        final var returnedList = nomisService.getAvailableKeyworkers(prisonId);
+        // Key workers are decorated below, so work on copies rather than the cached Elite2 results
+        final var returnedList = nomisService.getAvailableKeyworkers(prisonId).stream()
+                .map(keyworker -> keyworker.toBuilder().build())
+                .collect(Collectors.toList());
 
         final List<KeyworkerDto> availableKeyworkerList;
 
         if (prisonSupportedService.isMigrated(prisonId)) {
             final var prisonCapacityDefault = getPrisonCapacityDefault(prisonId);
 
+            returnedList.forEach(k -> k.setAgencyId(prisonId));
+            decorateWithKeyworkerData(returnedList, prisonCapacityDefault);
+
             availableKeyworkerList = returnedList.stream()
-                    .peek(k -> k.setAgencyId(prisonId))
-                    .peek(k -> decorateWithKeyworkerData(k, prisonCapacityDefault))
                     .filter(k -> !activeOnly || k.getStatus() == ACTIVE)
-                    .peek(this::decorateWithAllocationsCount)
                     .collect(Collectors.toList());
+            decorateWithAllocationsCount(availableKeyworkerList);
         } else {
             availableKeyworkerList = returnedList.stream()
                     .peek(k -> k.setAgencyId(prisonId))
@@ -99,16 +117,27 @@ public class KeyworkerService  {
     public Page<KeyworkerAllocationDetailsDto> getAllocations(final AllocationsFilterDto allocationFilter, final PagingAndSortingDto pagingAndSorting) {
 
         final var prisonId = allocationFilter.getPrisonId();
-        final var allocations =
-                allocationFilter.getAllocationType().isPresent() ?
-                        repository.findByActiveAndPrisonIdAndAllocationType(true, prisonId, allocationFilter.getAllocationType().get())
-                        :
-                        repository.findByActiveAndPrisonIdAndAllocationTypeIsNot(true, prisonId, AllocationType.PROVISIONAL);
-        final var allOffenders = nomisService.getOffendersAtLocation(prisonId, pagingAndSorting.getSortFields(), pagingAndSorting.getSortOrder(), false);
-
-        final var results = processor.decorateAllocated(allocations, allOffenders);
-
-        return new Page<>(results, (long) allocations.size(), 0L, (long) allocations.size());
+        final var offset = pagingAndSorting.getPageOffset();
+        final var limit = pagingAndSorting.getPageLimit();
+        final var sortFields = StringUtils.split(StringUtils.deleteWhitespace(pagingAndSorting.getSortFields()), ',');
+        final var totalRecords = repository.countActiveAllocations(allocationFilter);
+
+        final List<KeyworkerAllocationDetailsDto> results;
+        if (ArrayUtils.contains(sortFields, "firstName") || ArrayUtils.contains(sortFields, "lastName")) {
+            // Names are only held in NOMIS, so all matching allocations are ordered by the prison roll before paging
+            final var allocations = repository.findActiveAllocations(allocationFilter, false, SortOrder.ASC, 0, Integer.MAX_VALUE);
+            final var allOffenders = nomisService.getOffendersAtLocation(prisonId, pagingAndSorting.getSortFields(), pagingAndSorting.getSortOrder(), false);
+            results = processor.sortByOffenders(processor.decorateAllocated(allocations, allOffenders), allOffenders).stream()
+                    .skip(offset)
+                    .limit(limit)
+                    .collect(Collectors.toList());
+        } else {
+            final var allocations = repository.findActiveAllocations(allocationFilter, ArrayUtils.contains(sortFields, "assigned"), pagingAndSorting.getSortOrder(), offset, limit);
+            final var offenderNos = allocations.stream().map(OffenderKeyworker::getOffenderNo).distinct().collect(Collectors.toList());
+            final var offenders = offenderNos.isEmpty() ? List.<OffenderLocationDto>of() : nomisService.getOffendersForPrison(prisonId, offenderNos);
+            results = processor.decorateAllocated(allocations, offenders);
+        }
+        return new Page<>(results, totalRecords, offset, limit);
     }
 
 
@@ -162,7 +191,7 @@ public class KeyworkerService  {
         final var keyworkerDto = ConversionHelper.getKeyworkerDto(staffKeyWorker);
         if (prisonSupportedService.isMigrated(prisonId)) {
             decorateWithKeyworkerData(keyworkerDto, prisonCapacityDefault);
-            decorateWithAllocationsCount(keyworkerDto);
+            decorateWithAllocationsCount(Collections.singletonList(keyworkerDto));
         } else {
             decorateWithNomisKeyworkerData(keyworkerDto);
             populateWithAllocations(Collections.singletonList(keyworkerDto), prisonId);
@@ -205,7 +234,14 @@ public class KeyworkerService  {
 
         final var allocation = ConversionHelper.getOffenderKeyworker(newAllocation, authenticationFacade.getCurrentUsername());
 
-        allocate(allocation);
+        save(allocation);
+
+        // Old and new Key worker recounted together, so their loads are locked in staff id order
+        final var changed = new ArrayList<>(entities);
+        if (allocation.getAllocationType() != AllocationType.PROVISIONAL) {
+            changed.add(allocation);
+        }
+        keyworkerLoadService.refresh(changed);
     }
 
     /**
@@ -217,6 +253,14 @@ public class KeyworkerService  {
     public void allocate(final OffenderKeyworker allocation) {
         Validate.notNull(allocation);
 
+        save(allocation);
+
+        if (allocation.getAllocationType() != AllocationType.PROVISIONAL) {
+            keyworkerLoadService.refresh(List.of(allocation));
+        }
+    }
+
+    private void save(final OffenderKeyworker allocation) {
         // This service method creates a new allocation record, therefore it will apply certain defaults automatically.
         final var now = LocalDateTime.now();
 
@@ -230,6 +274,40 @@ public class KeyworkerService  {
         repository.save(allocation);
     }
 
+    /**
+     * Creates new allocation records in bulk, applying the same defaults as {@link #allocate(OffenderKeyworker)} except
+     * that the assigned date and time of each allocation is retained. Records are written using JDBC batches, so
+     * creation audit details are applied here rather than by the entity listener.
+     *
+     * @param allocations allocation details.
+     * @param batchSize number of records to write per batch.
+     */
+    @PreAuthorize("hasAnyRole('OMIC_ADMIN')")
+    public void allocateAll(final List<OffenderKeyworker> allocations, final int batchSize) {
+        Validate.notNull(allocations);
+
+        final var now = LocalDateTime.now();
+        final var currentUsername = authenticationFacade.getCurrentUsername();
+
+        allocations.forEach(allocation -> {
+            allocation.setActive(true);
+
+            if (allocation.getAssignedDateTime() == null) {
+                allocation.setAssignedDateTime(now);
+            }
+            if (StringUtils.isBlank(allocation.getUserId())) {
+                allocation.setUserId(currentUsername);
+            }
+            allocation.setCreationDateTime(now);
+            allocation.setCreateUserId(currentUsername);
+        });
+
+        repository.insertAll(allocations, batchSize);
+
+        keyworkerLoadService.refresh(allocations.stream()
+                .filter(allocation -> allocation.getAllocationType() != AllocationType.PROVISIONAL)
+                .collect(Collectors.toList()));
+    }
 
     public List<OffenderKeyworker> getAllocationHistoryForPrisoner(final String offenderNo) {
         return repository.findByOffenderNo(offenderNo);
@@ -244,12 +322,32 @@ public class KeyworkerService  {
         final var prisonsMigrated = keyworkers.stream().map(OffenderKeyworker::getPrisonId).distinct().collect(Collectors.toList());
 
         // get the allocations that are in nomis for other prisons
-        final var allocations =
-                nomisService.getAllocationHistoryByOffenderNos(Collections.singletonList(offenderNo))
-                .stream()
+        final var nomisAllocations = nomisService.getAllocationHistoryByOffenderNos(Collections.singletonList(offenderNo)).stream()
                 .filter(a -> !prisonsMigrated.contains(a.getAgencyId()))
+                .collect(Collectors.toList());
+        final var migratedAllocations = keyworkers.stream()
+                .filter(kw -> kw.getAllocationType() != AllocationType.PROVISIONAL)
+                .collect(Collectors.toList());
+
+        // Each member of staff and user usually appears on several allocations, so look each up once, all at the same time
+        final var staffIds = new HashSet<Long>();
+        final var userIds = new HashSet<String>();
+        nomisAllocations.forEach(kw -> {
+            staffIds.add(kw.getStaffId());
+            userIds.addAll(Arrays.asList(kw.getUserId(), kw.getCreatedBy(), kw.getModifiedBy()));
+        });
+        migratedAllocations.forEach(kw -> {
+            staffIds.add(kw.getStaffId());
+            userIds.addAll(Arrays.asList(kw.getUserId(), kw.getCreateUserId(), kw.getModifyUserId()));
+        });
+        final var staffLookups = lookupAll(staffIds, nomisService::getBasicKeyworkerDtoForStaffId);
+        final var userLookups = lookupAll(userIds, nomisService::getStaffDetailByUserId);
+        final var staff = joinAll(staffLookups);
+        final var users = joinAll(userLookups);
+
+        final var allocations = nomisAllocations.stream()
                 .map(kw -> {
-                            var staffKw = nomisService.getBasicKeyworkerDtoForStaffId(kw.getStaffId());
+                            var staffKw = staff.get(kw.getStaffId());
 
                     return KeyWorkerAllocation.builder()
                                 .firstName(staffKw.getFirstName())
@@ -261,45 +359,42 @@ public class KeyworkerService  {
                                 .assigned(kw.getAssigned())
                                 .expired(kw.getExpired())
                                 .prisonId(kw.getAgencyId())
-                                .userId(nomisService.getStaffDetailByUserId(kw.getUserId()))
-                                .createdByUser(nomisService.getStaffDetailByUserId(kw.getCreatedBy()))
+                                .userId(users.get(kw.getUserId()))
+                                .createdByUser(users.get(kw.getCreatedBy()))
                                 .creationDateTime(kw.getCreated())
-                                .lastModifiedByUser(nomisService.getStaffDetailByUserId(kw.getModifiedBy()))
+                                .lastModifiedByUser(users.get(kw.getModifiedBy()))
                                 .modifyDateTime(kw.getModified())
                                 .build(); }
                                 )
                 .collect(Collectors.toList());
 
-        if (!keyworkers.isEmpty()) {
-            allocations.addAll(keyworkers.stream()
-                    .filter(kw -> kw.getAllocationType() != AllocationType.PROVISIONAL)
-                    .map(
-                            kw -> {
-                                var staffKw = nomisService.getBasicKeyworkerDtoForStaffId(kw.getStaffId());
-
-                                var deallocationReason = WordUtils.capitalizeFully(RegExUtils.replaceAll(kw.getDeallocationReason() != null ? kw.getDeallocationReason().getReasonCode() : null, "_", " "));
-                                return KeyWorkerAllocation.builder()
-                                        .offenderKeyworkerId(kw.getOffenderKeyworkerId())
-                                        .firstName(staffKw.getFirstName())
-                                        .lastName(staffKw.getLastName())
-                                        .staffId(kw.getStaffId())
-                                        .active(kw.isActive())
-                                        .allocationType(kw.getAllocationType())
-                                        .allocationReason(WordUtils.capitalizeFully(kw.getAllocationReason().getReasonCode()))
-                                        .assigned(kw.getAssignedDateTime())
-                                        .expired(kw.getExpiryDateTime())
-                                        .deallocationReason(deallocationReason)
-                                        .prisonId(kw.getPrisonId())
-                                        .userId(nomisService.getStaffDetailByUserId(kw.getUserId()))
-                                        .createdByUser(nomisService.getStaffDetailByUserId(kw.getCreateUserId()))
-                                        .creationDateTime(kw.getCreationDateTime())
-                                        .lastModifiedByUser(nomisService.getStaffDetailByUserId(kw.getModifyUserId()))
-                                        .modifyDateTime(kw.getModifyDateTime())
-                                        .build();
-                            }
-
-                    ).collect(Collectors.toList()));
-        }
+        allocations.addAll(migratedAllocations.stream()
+                .map(
+                        kw -> {
+                            var staffKw = staff.get(kw.getStaffId());
+
+                            var deallocationReason = WordUtils.capitalizeFully(RegExUtils.replaceAll(kw.getDeallocationReason() != null ? kw.getDeallocationReason().getReasonCode() : null, "_", " "));
+                            return KeyWorkerAllocation.builder()
+                                    .offenderKeyworkerId(kw.getOffenderKeyworkerId())
+                                    .firstName(staffKw.getFirstName())
+                                    .lastName(staffKw.getLastName())
+                                    .staffId(kw.getStaffId())
+                                    .active(kw.isActive())
+                                    .allocationType(kw.getAllocationType())
+                                    .allocationReason(WordUtils.capitalizeFully(kw.getAllocationReason().getReasonCode()))
+                                    .assigned(kw.getAssignedDateTime())
+                                    .expired(kw.getExpiryDateTime())
+                                    .deallocationReason(deallocationReason)
+                                    .prisonId(kw.getPrisonId())
+                                    .userId(users.get(kw.getUserId()))
+                                    .createdByUser(users.get(kw.getCreateUserId()))
+                                    .creationDateTime(kw.getCreationDateTime())
+                                    .lastModifiedByUser(users.get(kw.getModifyUserId()))
+                                    .modifyDateTime(kw.getModifyDateTime())
+                                    .build();
+                        }
+
+                ).collect(Collectors.toList()));
 
         keyWorkerAllocations = allocations.stream()
                 .sorted(Comparator
@@ -316,6 +411,32 @@ public class KeyworkerService  {
         return Optional.ofNullable(offenderKeyWorkerHistory);
     }
 
+    /**
+     * Starts lookup for each key on the staff lookup executor, as the current caller.
+     */
+    private <K, V> Map<K, CompletableFuture<V>> lookupAll(final Set<K> keys, final Function<K, V> lookup) {
+        final var callerContext = CallerContext.capture();
+        final var lookups = new HashMap<K, CompletableFuture<V>>();
+        keys.forEach(key -> lookups.put(key, CompletableFuture.supplyAsync(() -> callerContext.call(() -> lookup.apply(key)), staffLookupExecutor)));
+        return lookups;
+    }
+
+    private static <K, V> Map<K, V> joinAll(final Map<K, CompletableFuture<V>> lookups) {
+        final var results = new HashMap<K, V>();
+        lookups.forEach((key, result) -> {
+            try {
+                results.put(key, result.join());
+            } catch (final CompletionException e) {
+                // Fail as the lookup would have done had it been called directly
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        });
+        return results;
+    }
+
     public List<OffenderKeyworker> getAllocationsForKeyworker(final Long staffId) {
         return repository.findByStaffId(staffId);
     }
@@ -337,8 +458,12 @@ public class KeyworkerService  {
                                 .build())
                         .collect(Collectors.toList());
             } else {
+                final var offenderNos = allocations.stream().map(OffenderKeyworker::getOffenderNo).distinct().collect(Collectors.toList());
+                final var prisoners = nomisService.getPrisonerDetails(offenderNos).stream()
+                        .collect(Collectors.toMap(PrisonerDetail::getOffenderNo, Function.identity(), (first, second) -> first));
+
                 detailsDtoList = allocations.stream()
-                        .map(allocation -> decorateWithOffenderDetails(prisonId, allocation))
+                        .map(allocation -> decorateWithOffenderDetails(prisonId, allocation, Optional.ofNullable(prisoners.get(allocation.getOffenderNo()))))
                         //remove allocations from returned list that do not have associated booking records - these are movements or merges
                         .filter(dto -> dto.getBookingId() != null)
                         .sorted(Comparator
@@ -356,11 +481,9 @@ public class KeyworkerService  {
         return detailsDtoList;
     }
 
-    private KeyworkerAllocationDetailsDto decorateWithOffenderDetails(final String prisonId, final OffenderKeyworker allocation) {
+    private KeyworkerAllocationDetailsDto decorateWithOffenderDetails(final String prisonId, final OffenderKeyworker allocation, final Optional<PrisonerDetail> prisoner) {
         final KeyworkerAllocationDetailsDto dto;
 
-        final var prisoner = nomisService.getPrisonerDetail(allocation.getOffenderNo());
-
         if (prisoner.isPresent()) {
             final var offenderSummaryDto = prisoner.get();
             final var samePrison = allocation.getPrisonId().equals(offenderSummaryDto.getLatestLocationId());
@@ -401,12 +524,15 @@ public class KeyworkerService  {
         final List<KeyworkerDto> convertedKeyworkerDtoList = new ArrayList<>();
         final var prisonDetail = prisonSupportedService.getPrisonDetail(prisonId);
         if (prisonDetail.isMigrated()) {
-            convertedKeyworkerDtoList.addAll(response.getBody().stream().distinct()
+            final var keyworkers = response.getBody().stream().distinct()
                     .map(ConversionHelper::getKeyworkerDto)
-                    .peek(k -> decorateWithKeyworkerData(k, prisonCapacityDefault))
+                    .collect(Collectors.toList());
+            decorateWithKeyworkerData(keyworkers, prisonCapacityDefault);
+
+            convertedKeyworkerDtoList.addAll(keyworkers.stream()
                     .filter(t -> !statusFilter.isPresent() || t.getStatus() == statusFilter.get())
-                    .peek(this::decorateWithAllocationsCount)
                     .collect(Collectors.toList()));
+            decorateWithAllocationsCount(convertedKeyworkerDtoList);
         } else {
             convertedKeyworkerDtoList.addAll(response.getBody().stream().distinct()
                     .map(ConversionHelper::getKeyworkerDto)
@@ -477,25 +603,48 @@ public class KeyworkerService  {
 
     private void decorateWithKeyworkerData(final KeyworkerDto keyworkerDto, final int capacityDefault) {
         if (keyworkerDto != null && keyworkerDto.getAgencyId() != null) {
-            keyworkerRepository.findById(keyworkerDto.getStaffId())
-                .ifPresentOrElse(
-                    keyworker -> {
-                        keyworkerDto.setCapacity(keyworker.getCapacity() != null ? keyworker.getCapacity() : capacityDefault);
-                        keyworkerDto.setStatus(keyworker.getStatus());
-                        keyworkerDto.setAgencyId(keyworkerDto.getAgencyId());
-                        keyworkerDto.setAutoAllocationAllowed(keyworker.getAutoAllocationFlag());
-                        keyworkerDto.setActiveDate(keyworker.getActiveDate());
-                    },
-                    () -> {
-                        keyworkerDto.setCapacity(capacityDefault);
-                        keyworkerDto.setStatus(KeyworkerStatus.ACTIVE);
-                        keyworkerDto.setAgencyId(keyworkerDto.getAgencyId());
-                        keyworkerDto.setAutoAllocationAllowed(true);
-                    }
-                );
+            decorateWithKeyworkerData(keyworkerDto, keyworkerRepository.findById(keyworkerDto.getStaffId()), capacityDefault);
+        }
+    }
+
+    /**
+     * Decorates a list of key workers using one query for all of their KEYWORKER rows.
+     */
+    private void decorateWithKeyworkerData(final List<KeyworkerDto> keyworkerDtos, final int capacityDefault) {
+        final var staffIds = keyworkerDtos.stream()
+                .filter(k -> k.getAgencyId() != null)
+                .map(KeyworkerDto::getStaffId)
+                .collect(Collectors.toSet());
+
+        if (!staffIds.isEmpty()) {
+            final var keyworkers = StreamSupport.stream(keyworkerRepository.findAllById(staffIds).spliterator(), false)
+                    .collect(Collectors.toMap(Keyworker::getStaffId, kw -> kw));
+
+            keyworkerDtos.stream()
+                    .filter(k -> k.getAgencyId() != null)
+                    .forEach(k -> decorateWithKeyworkerData(k, Optional.ofNullable(keyworkers.get(k.getStaffId())), capacityDefault));
         }
     }
 
+    private void decorateWithKeyworkerData(final KeyworkerDto keyworkerDto, final Optional<Keyworker> keyworkerRecord, final int capacityDefault) {
+        keyworkerRecord
+            .ifPresentOrElse(
+                keyworker -> {
+                    keyworkerDto.setCapacity(keyworker.getCapacity() != null ? keyworker.getCapacity() : capacityDefault);
+                    keyworkerDto.setStatus(keyworker.getStatus());
+                    keyworkerDto.setAgencyId(keyworkerDto.getAgencyId());
+                    keyworkerDto.setAutoAllocationAllowed(keyworker.getAutoAllocationFlag());
+                    keyworkerDto.setActiveDate(keyworker.getActiveDate());
+                },
+                () -> {
+                    keyworkerDto.setCapacity(capacityDefault);
+                    keyworkerDto.setStatus(KeyworkerStatus.ACTIVE);
+                    keyworkerDto.setAgencyId(keyworkerDto.getAgencyId());
+                    keyworkerDto.setAutoAllocationAllowed(true);
+                }
+            );
+    }
+
     private void decorateWithNomisKeyworkerData(final KeyworkerDto keyworkerDto) {
         if (keyworkerDto != null && keyworkerDto.getAgencyId() != null) {
             keyworkerDto.setStatus(KeyworkerStatus.ACTIVE);
@@ -504,11 +653,19 @@ public class KeyworkerService  {
         }
     }
 
-    private void decorateWithAllocationsCount(final KeyworkerDto keyworkerDto) {
-        if (keyworkerDto != null && keyworkerDto.getAgencyId() != null) {
-            final var allocationsCount = repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(keyworkerDto.getStaffId(), keyworkerDto.getAgencyId(), true, AllocationType.PROVISIONAL);
-            keyworkerDto.setNumberAllocated(allocationsCount);
-        }
+    /**
+     * Sets the number of active allocations for a list of key workers from their maintained load, with one query per prison.
+     */
+    private void decorateWithAllocationsCount(final List<KeyworkerDto> keyworkerDtos) {
+        keyworkerDtos.stream()
+                .filter(k -> k != null && k.getAgencyId() != null)
+                .collect(Collectors.groupingBy(KeyworkerDto::getAgencyId))
+                .forEach((prisonId, prisonKeyworkers) -> {
+                    final var staffIds = prisonKeyworkers.stream().map(KeyworkerDto::getStaffId).distinct().collect(Collectors.toList());
+                    final var numberAllocated = keyworkerLoadService.getNumberAllocated(prisonId, staffIds);
+
+                    prisonKeyworkers.forEach(k -> k.setNumberAllocated(numberAllocated.getOrDefault(k.getStaffId(), 0)));
+                });
     }
 
     @PreAuthorize("hasAnyRole('OMIC_ADMIN')")
@@ -547,6 +704,7 @@ public class KeyworkerService  {
                 ok.setActive(false);
                 ok.setExpiryDateTime(now);
             });
+            keyworkerLoadService.refresh(allocations);
         }
 
         if (behaviour.isRemoveFromAutoAllocation()) {
@@ -568,6 +726,7 @@ public class KeyworkerService  {
             offenderKeyworker.deallocate(now, DeallocationReason.MANUAL);
             log.info("De-allocated offender {} from KW {} at {}", offenderNo, offenderKeyworker.getStaffId(), offenderKeyworker.getPrisonId());
         });
+        keyworkerLoadService.refresh(offenderKeyworkers);
     }
 
 }
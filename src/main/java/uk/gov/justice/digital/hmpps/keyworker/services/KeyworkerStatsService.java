@@ -9,6 +9,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import uk.gov.justice.digital.hmpps.keyworker.dto.*;
 import uk.gov.justice.digital.hmpps.keyworker.model.AllocationType;
+import uk.gov.justice.digital.hmpps.keyworker.model.Keyworker;
 import uk.gov.justice.digital.hmpps.keyworker.model.KeyworkerStatus;
 import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
 import uk.gov.justice.digital.hmpps.keyworker.model.PrisonKeyWorkerStatistic;
@@ -24,9 +25,12 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAdjusters;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.time.temporal.ChronoUnit.DAYS;
 import static java.time.temporal.ChronoUnit.WEEKS;
@@ -115,8 +119,19 @@ public class KeyworkerStatsService {
             log.warn("Statistics have already been generated for {} on {}", prisonId, snapshotDate);
 
         } else {
-            // get all offenders in prison at the moment
-            final var activePrisoners = nomisService.getOffendersAtLocation(prisonId, "bookingId", SortOrder.ASC, true);
+            final var pagingAndSorting = PagingAndSortingDto.builder()
+                    .pageLimit(3000L)
+                    .pageOffset(0L)
+                    .sortFields("staffId")
+                    .sortOrder(SortOrder.ASC)
+                    .build();
+
+            // get all offenders in prison at the moment, and the prison's key workers; the non-blocking Elite2 client
+            // makes these calls at the same time
+            final var activePrisonersCall = nomisService.getOffendersAtLocationAsync(prisonId, "bookingId", SortOrder.ASC, true);
+            final var activeKeyWorkersCall = nomisService.getActiveStaffKeyWorkersForPrisonAsync(prisonId, Optional.empty(), pagingAndSorting, true);
+
+            final var activePrisoners = join(activePrisonersCall);
             log.info("There are currently {} prisoners in {}", activePrisoners.size(), prisonId);
 
             // get a distinct list of offenderNos
@@ -126,21 +141,17 @@ public class KeyworkerStatsService {
             final var allocatedKeyWorkers = offenderKeyworkerRepository.findByActiveAndPrisonIdAndOffenderNoInAndAllocationTypeIsNot(true, prisonId, offenderNos, AllocationType.PROVISIONAL);
             log.info("There are currently {} allocated key workers to prisoners in {}", allocatedKeyWorkers.size(), prisonId);
 
-            final var pagingAndSorting = PagingAndSortingDto.builder()
-                    .pageLimit(3000L)
-                    .pageOffset(0L)
-                    .sortFields("staffId")
-                    .sortOrder(SortOrder.ASC)
-                    .build();
-            final var activeKeyWorkers = nomisService.getActiveStaffKeyWorkersForPrison(prisonId, Optional.empty(), pagingAndSorting, true);
+            final var activeKeyWorkers = join(activeKeyWorkersCall);
 
             // remove key workers not active
-            final var keyWorkers = activeKeyWorkers.getBody().stream().filter(
-                    kw -> {
-                        var keyworker = keyworkerRepository.findById(kw.getStaffId()).orElse(null);
-                        return keyworker == null || keyworker.getStatus() == KeyworkerStatus.ACTIVE;
-                    }
-            ).collect(Collectors.toList());
+            final var staffIds = activeKeyWorkers.getBody().stream().map(StaffLocationRoleDto::getStaffId).collect(Collectors.toSet());
+            final var inactiveStaffIds = StreamSupport.stream(keyworkerRepository.findAllById(staffIds).spliterator(), false)
+                    .filter(keyworker -> keyworker.getStatus() != KeyworkerStatus.ACTIVE)
+                    .map(Keyworker::getStaffId)
+                    .collect(Collectors.toSet());
+            final var keyWorkers = activeKeyWorkers.getBody().stream()
+                    .filter(kw -> !inactiveStaffIds.contains(kw.getStaffId()))
+                    .collect(Collectors.toList());
             log.info("There are currently {} active key workers in {}", keyWorkers.size(), prisonId);
 
             final var newAllocationsOnly = getNewAllocations(prisonId, snapshotDate);
@@ -253,6 +264,18 @@ public class KeyworkerStatsService {
                 .build();
     }
 
+    private static <T> T join(final CompletableFuture<T> call) {
+        try {
+            return call.join();
+        } catch (final CompletionException e) {
+            // Fail as the call would have done had it been made directly
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
     private List<String> getReceptionDatesForOffenders(final List<OffenderKeyworker> newAllocationsOnly, final List<String> offendersWithSessions) {
         final List<String> receptionCheckList = new ArrayList<>();
         if (offendersWithSessions.size() > 0 || newAllocationsOnly.size() > 0) {
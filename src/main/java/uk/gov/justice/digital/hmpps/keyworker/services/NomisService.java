@@ -7,10 +7,12 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public interface NomisService {
     String URI_ACTIVE_OFFENDERS_BY_AGENCY = "/bookings?query=agencyId:eq:'{prisonId}'";
     String URI_ACTIVE_OFFENDER_BY_AGENCY = URI_ACTIVE_OFFENDERS_BY_AGENCY + "&offenderNo={offenderNo}&iepLevel=true";
+    String URI_ACTIVE_OFFENDERS_BY_AGENCY_AND_OFFENDER_NOS = "/bookings/offenders/{prisonId}/list";
     String URI_MOVEMENTS = "/movements?fromDateTime={fromDateTime}&movementDate={movementDate}";
     String URI_STAFF = "/staff/{staffId}";
     String GET_USER_DETAILS = "/users/{username}";
@@ -20,6 +22,7 @@ public interface NomisService {
     String CASE_NOTE_USAGE = "/case-notes/staff-usage";
     String CASE_NOTE_USAGE_BY_PRISONER = "/case-notes/usage";
     String URI_PRISONER_LOOKUP = "/prisoners/{offenderNo}";
+    String URI_PRISONERS = "/prisoners";
     String URI_CURRENT_ALLOCATIONS = "/key-worker/{agencyId}/current-allocations";
     String URI_CURRENT_ALLOCATIONS_BY_OFFENDERS = "/key-worker/{agencyId}/current-allocations/offenders";
     String URI_OFFENDERS_ALLOCATION_HISTORY = "/key-worker/offenders/allocationHistory";
@@ -32,10 +35,22 @@ public interface NomisService {
 
     Optional<OffenderLocationDto> getOffenderForPrison(String prisonId, String offenderNo);
 
+    List<OffenderLocationDto> getOffendersForPrison(String prisonId, List<String> offenderNos);
+
     Optional<PrisonerDetail> getPrisonerDetail(String offenderNo);
 
+    List<PrisonerDetail> getPrisonerDetails(List<String> offenderNos);
+
     ResponseEntity<List<StaffLocationRoleDto>> getActiveStaffKeyWorkersForPrison(String prisonId, Optional<String> nameFilter, PagingAndSortingDto pagingAndSorting, boolean admin);
 
+    /**
+     * As {@link #getActiveStaffKeyWorkersForPrison}, but returns as soon as the call is started, so that other calls
+     * can be made while it is in flight. Clients which block make the call before returning.
+     */
+    default CompletableFuture<ResponseEntity<List<StaffLocationRoleDto>>> getActiveStaffKeyWorkersForPrisonAsync(final String prisonId, final Optional<String> nameFilter, final PagingAndSortingDto pagingAndSorting, final boolean admin) {
+        return CompletableFuture.completedFuture(getActiveStaffKeyWorkersForPrison(prisonId, nameFilter, pagingAndSorting, admin));
+    }
+
     Optional<StaffLocationRoleDto> getStaffKeyWorkerForPrison(String prisonId, Long staffId);
 
     BasicKeyworkerDto getBasicKeyworkerDtoForOffender(String offenderNo);
@@ -44,6 +59,14 @@ public interface NomisService {
 
     List<OffenderLocationDto> getOffendersAtLocation(String prisonId, String sortFields, SortOrder sortOrder, boolean admin);
 
+    /**
+     * As {@link #getOffendersAtLocation}, but returns as soon as the call is started, so that other calls can be made
+     * while it is in flight. Clients which block make the call before returning.
+     */
+    default CompletableFuture<List<OffenderLocationDto>> getOffendersAtLocationAsync(final String prisonId, final String sortFields, final SortOrder sortOrder, final boolean admin) {
+        return CompletableFuture.completedFuture(getOffendersAtLocation(prisonId, sortFields, sortOrder, admin));
+    }
+
     StaffLocationRoleDto getBasicKeyworkerDtoForStaffId(Long staffId);
 
     List<OffenderKeyworkerDto> getOffenderKeyWorkerPage(String prisonId, long offset, long limit);
@@ -1,6 +1,10 @@
 package uk.gov.justice.digital.hmpps.keyworker.services;
 
+import com.google.common.collect.Lists;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.ResponseEntity;
@@ -12,18 +16,25 @@ import uk.gov.justice.digital.hmpps.keyworker.dto.*;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-
+/**
+ * Elite2 client using the blocking RestTemplate. This is the default; set elite2.client.type=web-client to use
+ * {@link WebClientNomisService} instead.
+ */
 @Component
+@Qualifier("elite2")
+@ConditionalOnProperty(name = "elite2.client.type", havingValue = "rest-template", matchIfMissing = true)
 @Slf4j
 public class NomisServiceImpl implements NomisService {
 
     private static final String GET_KEY_WORKER = "/bookings/offenderNo/{offenderNo}/key-worker";
 
+    // Offender Nos per request for bulk prisoner lookups, also the page size as Elite2 pages the results
+    private static final int PRISONER_DETAIL_BATCH_SIZE = 100;
+
     private static final ParameterizedTypeReference<List<OffenderKeyworkerDto>> PARAM_TYPE_REF_OFFENDER_KEY_WORKER =
             new ParameterizedTypeReference<>() {};
 
@@ -59,16 +70,18 @@ public class NomisServiceImpl implements NomisService {
     private static final ParameterizedTypeReference<List<PrisonerIdentifier>> PRISONER_ID_LIST = new ParameterizedTypeReference<>() {};
 
     private final RestCallHelper restCallHelper;
+    private final PrisonerDetailCache prisonerDetailCache;
 
-    public NomisServiceImpl(final RestCallHelper restCallHelper) {
+    public NomisServiceImpl(final RestCallHelper restCallHelper, final CacheManager cacheManager) {
         this.restCallHelper = restCallHelper;
+        this.prisonerDetailCache = new PrisonerDetailCache(cacheManager, this);
     }
 
     @Override
     public List<PrisonerCustodyStatusDto> getPrisonerStatuses(final LocalDateTime threshold, final LocalDate movementDate) {
         final var uri = new UriTemplate(URI_MOVEMENTS).expand(threshold, movementDate);
 
-        return restCallHelper.getForListWithAuthentication(uri, PRISONER_STATUS_DTO_LIST).getBody();
+        return restCallHelper.getForListWithAuthentication(URI_MOVEMENTS, uri, PRISONER_STATUS_DTO_LIST).getBody();
     }
 
     @Override
@@ -76,19 +89,60 @@ public class NomisServiceImpl implements NomisService {
         log.info("Getting offender in prison {} offender No {}", prisonId, offenderNo);
         final var uri = new UriTemplate(URI_ACTIVE_OFFENDER_BY_AGENCY).expand(prisonId, offenderNo);
 
-        final var offenders = restCallHelper.getForList(uri, OFFENDER_LOCATION_DTO_LIST).getBody();
+        final var offenders = restCallHelper.getForList(URI_ACTIVE_OFFENDER_BY_AGENCY, uri, OFFENDER_LOCATION_DTO_LIST).getBody();
         return Optional.ofNullable(offenders.size() > 0 ? offenders.get(0) : null);
     }
 
     @Override
+    public List<OffenderLocationDto> getOffendersForPrison(final String prisonId, final List<String> offenderNos) {
+        log.info("Getting {} offenders in prison {} by offender Nos", offenderNos.size(), prisonId);
+        final var uri = new UriTemplate(URI_ACTIVE_OFFENDERS_BY_AGENCY_AND_OFFENDER_NOS).expand(prisonId);
+
+        return restCallHelper.post(URI_ACTIVE_OFFENDERS_BY_AGENCY_AND_OFFENDER_NOS, uri, offenderNos, OFFENDER_LOCATION_DTO_LIST, false);
+    }
+
+    @Override
+    @Cacheable(value = "getPrisonerDetail", sync = true)
     public Optional<PrisonerDetail> getPrisonerDetail(final String offenderNo) {
         log.info("Getting prisoner details for NOMIS No {}", offenderNo);
         final var uri = new UriTemplate(URI_PRISONER_LOOKUP).expand(offenderNo);
 
-        final var prisonerDetail = restCallHelper.getForList(uri, PRISONER_DETAIL_LIST).getBody();
+        final var prisonerDetail = restCallHelper.getForList(URI_PRISONER_LOOKUP, uri, PRISONER_DETAIL_LIST).getBody();
         return Optional.ofNullable(prisonerDetail.size() > 0 ? prisonerDetail.get(0) : null);
     }
 
+    /**
+     * Shares the getPrisonerDetail cache, so only offenders not already cached are requested, in batches, and those
+     * found (or not) are cached for later single lookups.
+     */
+    @Override
+    public List<PrisonerDetail> getPrisonerDetails(final List<String> offenderNos) {
+        final var distinctOffenderNos = new LinkedHashSet<>(offenderNos);
+        final var prisonerDetails = prisonerDetailCache.getAllPresent(distinctOffenderNos);
+        final var missing = distinctOffenderNos.stream().filter(offenderNo -> !prisonerDetails.containsKey(offenderNo)).collect(Collectors.toList());
+
+        if (!missing.isEmpty()) {
+            log.info("Getting prisoner details for {} NOMIS Nos, {} cached", missing.size(), prisonerDetails.size());
+            final var uri = new UriTemplate(URI_PRISONERS).expand();
+            final var paging = PagingAndSortingDto.builder().pageOffset(0L).pageLimit((long) PRISONER_DETAIL_BATCH_SIZE).build();
+
+            Lists.partition(missing, PRISONER_DETAIL_BATCH_SIZE).forEach(batch -> {
+                final var found = restCallHelper.postWithPaging(URI_PRISONERS, uri, Map.of("offenderNos", batch), paging, PRISONER_DETAIL_LIST, false)
+                        .stream()
+                        .collect(Collectors.toMap(PrisonerDetail::getOffenderNo, Function.identity(), (first, second) -> first));
+
+                batch.forEach(offenderNo -> {
+                    prisonerDetailCache.put(offenderNo, found.get(offenderNo));
+                    prisonerDetails.put(offenderNo, Optional.ofNullable(found.get(offenderNo)));
+                });
+            });
+        }
+        return distinctOffenderNos.stream()
+                .map(prisonerDetails::get)
+                .flatMap(Optional::stream)
+                .collect(Collectors.toList());
+    }
+
     @Override
     public ResponseEntity<List<StaffLocationRoleDto>> getActiveStaffKeyWorkersForPrison(final String prisonId, final Optional<String> nameFilter, final PagingAndSortingDto pagingAndSorting, final boolean admin) {
         log.info("Getting KW Staff in prison {}", prisonId);
@@ -97,17 +151,18 @@ public class NomisServiceImpl implements NomisService {
         nameFilter.ifPresent(filter -> uriBuilder.queryParam("nameFilter", filter));
         final var uri = uriBuilder.buildAndExpand(prisonId).toUri();
 
-        return restCallHelper.getWithPagingAndSorting(uri, pagingAndSorting, ELITE_STAFF_LOCATION_DTO_LIST, admin);
+        return restCallHelper.getWithPagingAndSorting(GET_STAFF_IN_SPECIFIC_PRISON, uri, pagingAndSorting, ELITE_STAFF_LOCATION_DTO_LIST, admin);
     }
 
     @Override
+    @Cacheable(value = "getStaffKeyWorkerForPrison", sync = true)
     public Optional<StaffLocationRoleDto> getStaffKeyWorkerForPrison(final String prisonId, final Long staffId) {
         log.info("Getting staff in prison {} staff Id {}", prisonId, staffId);
 
         final var uri = new UriTemplate(GET_STAFF_IN_SPECIFIC_PRISON + "?staffId={staffId}&activeOnly=false").expand(prisonId, staffId);
         log.debug("About to retrieve keyworker from Elite2api using uri {}", uri.toString());
 
-        final var staff = restCallHelper.getForList(uri, ELITE_STAFF_LOCATION_DTO_LIST).getBody();
+        final var staff = restCallHelper.getForList(GET_STAFF_IN_SPECIFIC_PRISON, uri, ELITE_STAFF_LOCATION_DTO_LIST).getBody();
         final var staffLocationRoleDto = Optional.ofNullable(staff.size() > 0 ? staff.get(0) : null);
         log.debug("Result: {}", staffLocationRoleDto);
         return staffLocationRoleDto;
@@ -118,14 +173,15 @@ public class NomisServiceImpl implements NomisService {
         log.info("Getting KW for offender", offenderNo);
 
         final var uri = new UriTemplate(GET_KEY_WORKER).expand(offenderNo);
-        return restCallHelper.get(uri, BasicKeyworkerDto.class);
+        return restCallHelper.get(GET_KEY_WORKER, uri, BasicKeyworkerDto.class, false);
     }
 
     @Override
+    @Cacheable(value = "getAvailableKeyworkers", sync = true)
     public List<KeyworkerDto> getAvailableKeyworkers(final String prisonId) {
         log.info("Getting available KW in prison {}", prisonId);
         final var uri = new UriTemplate(URI_AVAILABLE_KEYWORKERS).expand(prisonId);
-        return restCallHelper.getForList(uri, KEYWORKER_DTO_LIST).getBody();
+        return restCallHelper.getForList(URI_AVAILABLE_KEYWORKERS, uri, KEYWORKER_DTO_LIST).getBody();
     }
 
     @Override
@@ -134,16 +190,17 @@ public class NomisServiceImpl implements NomisService {
         final var uri = new UriTemplate(URI_ACTIVE_OFFENDERS_BY_AGENCY).expand(prisonId);
 
         return restCallHelper.getAllWithSorting(
-                uri, sortFields, sortOrder, new ParameterizedTypeReference<List<OffenderLocationDto>>() {
+                URI_ACTIVE_OFFENDERS_BY_AGENCY, uri, sortFields, sortOrder, new ParameterizedTypeReference<List<OffenderLocationDto>>() {
                 }, admin);
     }
 
     @Override
-    @Cacheable("getBasicKeyworkerDtoForStaffId")
+    @Cacheable(value = "getBasicKeyworkerDtoForStaffId", sync = true)
     public StaffLocationRoleDto getBasicKeyworkerDtoForStaffId(final Long staffId) {
         final var uri = new UriTemplate(URI_STAFF).expand(staffId);
         log.debug("Getting basic keyworker details for staffId {} from Elite2api using uri {}", staffId, uri.toString());
-        return restCallHelper.get(uri, StaffLocationRoleDto.class);
+        // As the system client, so that the cached result is the same for every caller and can be refreshed without one
+        return restCallHelper.get(URI_STAFF, uri, StaffLocationRoleDto.class, true);
     }
 
     @Override
@@ -153,18 +210,19 @@ public class NomisServiceImpl implements NomisService {
         final var uri = new UriTemplate(URI_KEY_WORKER_GET_ALLOCATION_HISTORY).expand(prisonId);
         final var pagingAndSorting = PagingAndSortingDto.builder().pageOffset(offset).pageLimit(limit).build();
 
-        return restCallHelper.getWithPaging(uri, pagingAndSorting, PARAM_TYPE_REF_OFFENDER_KEY_WORKER).getBody();
+        return restCallHelper.getWithPaging(URI_KEY_WORKER_GET_ALLOCATION_HISTORY, uri, pagingAndSorting, PARAM_TYPE_REF_OFFENDER_KEY_WORKER).getBody();
     }
 
     @Override
-    @Cacheable("getStaffDetailByUserId")
+    @Cacheable(value = "getStaffDetailByUserId", sync = true)
     public StaffUser getStaffDetailByUserId(final String userId) {
         log.info("Getting staff details for user Id {}", userId);
         final var uri = new UriTemplate(GET_USER_DETAILS).expand(userId);
         log.debug("About to retrieve staff details from Elite2api using uri {}", uri.toString());
 
         try {
-            final var staffUser = restCallHelper.get(uri, StaffUser.class);
+            // As the system client, as for getBasicKeyworkerDtoForStaffId
+            final var staffUser = restCallHelper.get(GET_USER_DETAILS, uri, StaffUser.class, true);
             log.debug("Result: {}", staffUser);
             return staffUser;
         } catch (final HttpClientErrorException e) {
@@ -189,7 +247,7 @@ public class NomisServiceImpl implements NomisService {
                 .numMonths(numMonths)
                 .build();
 
-        return restCallHelper.post(uri, body, CASE_NOTE_USAGE_DTO_LIST, false);
+        return restCallHelper.post(CASE_NOTE_USAGE, uri, body, CASE_NOTE_USAGE_DTO_LIST, false);
     }
 
     @Override
@@ -206,7 +264,7 @@ public class NomisServiceImpl implements NomisService {
                 .toDate(toDate)
                 .build();
 
-        return restCallHelper.post(uri, body, CASE_NOTE_USAGE_PRISONERS_DTO_LIST, admin);
+        return restCallHelper.post(CASE_NOTE_USAGE_BY_PRISONER, uri, body, CASE_NOTE_USAGE_PRISONERS_DTO_LIST, admin);
     }
 
     @Override
@@ -214,7 +272,7 @@ public class NomisServiceImpl implements NomisService {
         log.info("Getting Legacy Key worker allocations for {} agencyId by staff IDs", agencyId);
         final var uri = new UriTemplate(URI_CURRENT_ALLOCATIONS).expand(agencyId);
 
-        return restCallHelper.post(uri, staffIds, LEGACY_KEYWORKER_ALLOCATIONS, false);
+        return restCallHelper.post(URI_CURRENT_ALLOCATIONS, uri, staffIds, LEGACY_KEYWORKER_ALLOCATIONS, false);
     }
 
     @Override
@@ -222,7 +280,7 @@ public class NomisServiceImpl implements NomisService {
         log.info("Getting Legacy Key worker allocations for {} agencyId by offender Nos", agencyId);
         final var uri = new UriTemplate(URI_CURRENT_ALLOCATIONS_BY_OFFENDERS).expand(agencyId);
 
-        return restCallHelper.post(uri, offenderNos, LEGACY_KEYWORKER_ALLOCATIONS, false);
+        return restCallHelper.post(URI_CURRENT_ALLOCATIONS_BY_OFFENDERS, uri, offenderNos, LEGACY_KEYWORKER_ALLOCATIONS, false);
     }
 
     @Override
@@ -230,7 +288,7 @@ public class NomisServiceImpl implements NomisService {
         log.info("Getting Key worker allocations for offender Nos {}", offenderNos);
         final var uri = new UriTemplate(URI_OFFENDERS_ALLOCATION_HISTORY).expand();
 
-        return restCallHelper.post(uri, offenderNos, ALLOCATION_HISTORY, false);
+        return restCallHelper.post(URI_OFFENDERS_ALLOCATION_HISTORY, uri, offenderNos, ALLOCATION_HISTORY, false);
     }
 
     @Override
@@ -238,7 +296,7 @@ public class NomisServiceImpl implements NomisService {
         log.info("Getting all prisons");
         final var uri = new UriTemplate(URI_GET_ALL_PRISONS).expand();
 
-        final var prisonListResponse = restCallHelper.getForListWithAuthentication(uri, PRISON_LIST);
+        final var prisonListResponse = restCallHelper.getForListWithAuthentication(URI_GET_ALL_PRISONS, uri, PRISON_LIST);
         return prisonListResponse.getBody() != null ?
                 prisonListResponse.getBody().stream()
                         .map(p -> Prison.builder().prisonId(p.getAgencyId()).build())
@@ -248,13 +306,13 @@ public class NomisServiceImpl implements NomisService {
     @Override
     public CaseloadUpdate enableNewNomisForCaseload(final String caseload) {
         final var uri = new UriTemplate(URI_ENABLE_USERS_WITH_CASELOAD).expand(caseload);
-        return restCallHelper.put(uri, CaseloadUpdate.class, true);
+        return restCallHelper.put(URI_ENABLE_USERS_WITH_CASELOAD, uri, CaseloadUpdate.class, true);
     }
 
     @Override
     public List<PrisonerIdentifier> getIdentifierByTypeAndValue(final String type, final String value) {
         final var uri = new UriTemplate(URI_IDENTIFIERS).expand(type, value);
 
-        return restCallHelper.getForListWithAuthentication(uri, PRISONER_ID_LIST).getBody();
+        return restCallHelper.getForListWithAuthentication(URI_IDENTIFIERS, uri, PRISONER_ID_LIST).getBody();
     }
 }
@@ -5,7 +5,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import uk.gov.justice.digital.hmpps.keyworker.dto.Prison;
 import uk.gov.justice.digital.hmpps.keyworker.exception.PrisonNotMigratedException;
 import uk.gov.justice.digital.hmpps.keyworker.exception.PrisonNotSupportAutoAllocationException;
@@ -13,11 +16,16 @@ import uk.gov.justice.digital.hmpps.keyworker.exception.PrisonNotSupportedExcept
 import uk.gov.justice.digital.hmpps.keyworker.model.PrisonSupported;
 import uk.gov.justice.digital.hmpps.keyworker.repository.PrisonSupportedRepository;
 
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 @Service
-@Transactional(readOnly = true)
+@Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
 public class PrisonSupportedService {
 
     @Value("${svc.kw.allocation.capacity.tiers:6,9}")
@@ -26,13 +34,37 @@ public class PrisonSupportedService {
     @Value("${svc.kw.session.frequency.weeks:1}")
     private  int keyWorkerSessionDefaultFrequency;
 
+    /**
+     * How long a snapshot is used before it is reloaded, so that changes made by other instances are picked up.
+     */
+    @Value("${svc.kw.prison.supported.snapshot.seconds:60}")
+    private long snapshotSeconds;
+
     private final PrisonSupportedRepository repository;
 
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.discarded());
+
     @Autowired
     public PrisonSupportedService(final PrisonSupportedRepository repository) {
         this.repository = repository;
     }
 
+    /**
+     * Discards the current snapshot once the surrounding transaction (if any) commits, so the next read sees the change.
+     */
+    void prisonConfigurationChanged() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    snapshot.set(Snapshot.discarded());
+                }
+            });
+        } else {
+            snapshot.set(Snapshot.discarded());
+        }
+    }
+
     private void verifyPrisonSupported(final String prisonId) {
         Validate.notBlank(prisonId, "Prison id is required.");
 
@@ -95,6 +127,7 @@ public class PrisonSupportedService {
                     // create a new entry for a new supported prison
                     repository.save(prisonSupported);
                 });
+        prisonConfigurationChanged();
     }
 
     boolean isMigrated(final String prisonId) {
@@ -103,19 +136,22 @@ public class PrisonSupportedService {
     }
 
     public List<Prison> getMigratedPrisons() {
-        return repository.findAllByMigratedEquals(true).stream().map(this::buildPrison).collect(Collectors.toList());
+        return prisons().values().stream()
+                .filter(PrisonSupported::isMigrated)
+                .sorted(Comparator.comparing(PrisonSupported::getPrisonId))
+                .map(this::buildPrison)
+                .collect(Collectors.toList());
     }
 
     public Prison getPrisonDetail(final String prisonId) {
-        return repository.findById(prisonId).map(this::buildPrison)
-                .orElseGet(() ->  Prison.builder()
+        final var prison = prisonId == null ? null : prisons().get(prisonId);
+        return prison != null ? buildPrison(prison)
+                : Prison.builder()
                     .prisonId(prisonId)
                     .capacityTier1(capacityTiers.get(0))
                     .capacityTier2(capacityTiers.get(1))
                     .kwSessionFrequencyInWeeks(keyWorkerSessionDefaultFrequency)
-                    .build()
-                );
-
+                    .build();
     }
 
     private Prison buildPrison(final PrisonSupported prison) {
@@ -132,7 +168,47 @@ public class PrisonSupportedService {
     }
 
     private boolean isNotSupported(final String prisonId) {
-        return !repository.existsByPrisonId(prisonId);
+        return !prisons().containsKey(prisonId);
+    }
+
+    /**
+     * The PRISON_SUPPORTED table is small and rarely written, so reads are served from an immutable copy of it which is
+     * replaced as a whole, rather than querying it on every call.
+     */
+    private Map<String, PrisonSupported> prisons() {
+        final var current = snapshot.get();
+        if (current.isFresh(System.currentTimeMillis(), snapshotSeconds * 1000)) {
+            return current.prisons;
+        }
+        final var loaded = new Snapshot(StreamSupport.stream(repository.findAll().spliterator(), false)
+                .map(prison -> prison.toBuilder().build())
+                .collect(Collectors.toUnmodifiableMap(PrisonSupported::getPrisonId, Function.identity())),
+                System.currentTimeMillis());
+
+        // Not replaced if a write has discarded the snapshot since this load started, as the load may predate it
+        snapshot.compareAndSet(current, loaded);
+        return loaded.prisons;
+    }
+
+    private static class Snapshot {
+        private final Map<String, PrisonSupported> prisons;
+        private final long loadedAt;
+
+        private Snapshot(final Map<String, PrisonSupported> prisons, final long loadedAt) {
+            this.prisons = prisons;
+            this.loadedAt = loadedAt;
+        }
+
+        /**
+         * A new instance each time, so that a load which started before the discard cannot replace it.
+         */
+        private static Snapshot discarded() {
+            return new Snapshot(null, 0);
+        }
+
+        private boolean isFresh(final long now, final long maxAgeMillis) {
+            return prisons != null && now - loadedAt < maxAgeMillis;
+        }
     }
 
 }
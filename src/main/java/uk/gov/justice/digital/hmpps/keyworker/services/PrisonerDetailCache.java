@@ -0,0 +1,63 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.interceptor.KeyGenerator;
+import org.springframework.cache.support.NullValue;
+import org.springframework.util.ReflectionUtils;
+import uk.gov.justice.digital.hmpps.keyworker.dto.PrisonerDetail;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The getPrisonerDetail cache of a NomisService, for bulk lookups to share entries with single lookups. Entries are
+ * those of the current user, as for single lookups.
+ */
+class PrisonerDetailCache {
+    private final org.springframework.cache.Cache cache;
+    private final Object target;
+    private final Method method;
+    private final KeyGenerator keyGenerator = new RefreshableKeyGenerator();
+
+    PrisonerDetailCache(final CacheManager cacheManager, final NomisService target) {
+        this.cache = cacheManager.getCache("getPrisonerDetail");
+        this.target = target;
+        this.method = ReflectionUtils.findMethod(target.getClass(), "getPrisonerDetail", String.class);
+    }
+
+    /**
+     * Cached entries for offenderNos, without loading any missing ones.
+     *
+     * @param offenderNos offender Nos to look up.
+     * @return cached details by offender No, empty for offenders cached as not found.
+     */
+    Map<String, Optional<PrisonerDetail>> getAllPresent(final Collection<String> offenderNos) {
+        final var present = new LinkedHashMap<String, Optional<PrisonerDetail>>();
+        if (cache == null) {
+            return present;
+        }
+        final var nativeCache = (Cache<?, ?>) cache.getNativeCache();
+        offenderNos.forEach(offenderNo -> {
+            final var cached = nativeCache.getIfPresent(key(offenderNo));
+            if (cached != null) {
+                present.put(offenderNo, cached == NullValue.INSTANCE ? Optional.empty() : Optional.of((PrisonerDetail) cached));
+            }
+        });
+        return present;
+    }
+
+    void put(final String offenderNo, final PrisonerDetail prisonerDetail) {
+        if (cache != null) {
+            // null is stored as NullValue, as getPrisonerDetail stores Optional.empty()
+            cache.put(key(offenderNo), prisonerDetail);
+        }
+    }
+
+    private Object key(final String offenderNo) {
+        return keyGenerator.generate(target, method, offenderNo);
+    }
+}
@@ -0,0 +1,25 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class ReconciliationExecutorConfiguration {
+
+    // Shared by all prisons being reconciled, so this is the most Elite2 prisoner lookups made at once by the job
+    @Value("${key.worker.recon.lookup.threads:4}")
+    private int threads;
+
+    @Bean(name = "reconciliationLookupExecutor")
+    public ThreadPoolTaskExecutor reconciliationLookupExecutor() {
+        final var executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("recon-lookup-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        return executor;
+    }
+}
@@ -1,11 +1,15 @@
 package uk.gov.justice.digital.hmpps.keyworker.services;
 
+import com.google.common.collect.Lists;
 import com.microsoft.applicationinsights.TelemetryClient;
 import lombok.Getter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.camel.Exchange;
 import org.apache.commons.lang3.Validate;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import uk.gov.justice.digital.hmpps.keyworker.dto.OffenderLocationDto;
@@ -15,12 +19,17 @@ import uk.gov.justice.digital.hmpps.keyworker.dto.SortOrder;
 import uk.gov.justice.digital.hmpps.keyworker.model.DeallocationReason;
 import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
 import uk.gov.justice.digital.hmpps.keyworker.repository.OffenderKeyworkerRepository;
+import uk.gov.justice.digital.hmpps.keyworker.utils.CallerContext;
 
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -31,13 +40,23 @@ public class ReconciliationService {
     private final NomisService nomisService;
     private final OffenderKeyworkerRepository offenderKeyworkerRepository;
     private final TelemetryClient telemetryClient;
+    private final TaskExecutor lookupExecutor;
+    private final KeyworkerLoadService keyworkerLoadService;
+
+    // Most Elite2 lookups for a prison waited on at once; the executor bounds how many are actually in flight
+    @Value("${key.worker.recon.lookup.batch.size:50}")
+    private int lookupBatchSize;
 
     public ReconciliationService(final NomisService nomisService,
                                  final OffenderKeyworkerRepository offenderKeyworkerRepository,
-                                 final TelemetryClient telemetryClient) {
+                                 final TelemetryClient telemetryClient,
+                                 @Qualifier("reconciliationLookupExecutor") final TaskExecutor lookupExecutor,
+                                 final KeyworkerLoadService keyworkerLoadService) {
         this.nomisService = nomisService;
         this.offenderKeyworkerRepository = offenderKeyworkerRepository;
         this.telemetryClient = telemetryClient;
+        this.lookupExecutor = lookupExecutor;
+        this.keyworkerLoadService = keyworkerLoadService;
     }
 
     @Transactional
@@ -58,25 +77,45 @@ public class ReconciliationService {
 
         final var reconMetrics = new ReconMetrics(prisonId, assignedPrisonersToKW.size(), missingOffenders.size());
 
-        missingOffenders.forEach( notFoundOffender -> nomisService.getPrisonerDetail(notFoundOffender.getOffenderNo()).ifPresentOrElse(
+        // Look up missing offenders, and whether those not found have been merged, ahead of time and concurrently.
+        // Allocations are only changed here on the transaction's thread.
+        final var prisonerDetails = lookupAll(
+                missingOffenders.stream().map(OffenderKeyworker::getOffenderNo).distinct().collect(Collectors.toList()),
+                nomisService::getPrisonerDetail);
+
+        final var mergedOffenderNos = lookupAll(
+                prisonerDetails.entrySet().stream().filter(entry -> entry.getValue().isEmpty()).map(Map.Entry::getKey).collect(Collectors.toList()),
+                this::findMergedOffenderNo);
+
+        prisonerDetails.putAll(lookupAll(
+                mergedOffenderNos.values().stream().flatMap(Optional::stream).distinct().filter(offenderNo -> !prisonerDetails.containsKey(offenderNo)).collect(Collectors.toList()),
+                nomisService::getPrisonerDetail));
+
+        // Key worker loads should match allocations before any are changed here. Checked after the lookups, as it
+        // locks every load in the prison until this transaction ends.
+        reconMetrics.correctedKeyWorkerLoads.set(keyworkerLoadService.reconcile(prisonId));
+
+        missingOffenders.forEach( notFoundOffender -> prisonerDetails.computeIfAbsent(notFoundOffender.getOffenderNo(), nomisService::getPrisonerDetail).ifPresentOrElse(
                 prisonerDetail -> deallocateIfMoved(prisonId, notFoundOffender, prisonerDetail, reconMetrics),
                 () -> {
                     // check if its a merge
                     log.info("{} not found - Checking if it has been merged", notFoundOffender.getOffenderNo());
                     reconMetrics.notFoundOffenders.getAndIncrement();
-                    checkAndMerge(prisonId, reconMetrics, notFoundOffender);
+                    checkAndMerge(prisonId, reconMetrics, notFoundOffender, prisonerDetails, mergedOffenderNos);
                 }
         ));
 
+        keyworkerLoadService.refresh(prisonId);
+
         logMetrics(reconMetrics);
         return reconMetrics;
     }
 
-    private void checkAndMerge(String prisonId, ReconMetrics reconMetrics, OffenderKeyworker notFoundOffender) {
-        final var mergeData = nomisService.getIdentifierByTypeAndValue("MERGED", notFoundOffender.getOffenderNo());
-        mergeData.stream().map(PrisonerIdentifier::getOffenderNo).findFirst().ifPresentOrElse(
+    private void checkAndMerge(String prisonId, ReconMetrics reconMetrics, OffenderKeyworker notFoundOffender,
+                               Map<String, Optional<PrisonerDetail>> prisonerDetails, Map<String, Optional<String>> mergedOffenderNos) {
+        mergedOffenderNos.computeIfAbsent(notFoundOffender.getOffenderNo(), this::findMergedOffenderNo).ifPresentOrElse(
                 newOffenderNo -> offenderKeyworkerRepository.findByOffenderNo(notFoundOffender.getOffenderNo()).forEach(
-                        offenderKeyWorker -> mergeRecord(prisonId, reconMetrics, notFoundOffender, newOffenderNo, offenderKeyWorker)
+                        offenderKeyWorker -> mergeRecord(prisonId, reconMetrics, notFoundOffender, newOffenderNo, offenderKeyWorker, prisonerDetails)
                 ),
                 () -> removeMissingRecord(reconMetrics, notFoundOffender)
         );
@@ -90,7 +129,13 @@ public class ReconciliationService {
         reconMetrics.missingOffenders.getAndIncrement();
     }
 
-    private void mergeRecord(String prisonId, ReconMetrics reconMetrics, OffenderKeyworker notFoundOffender, String newOffenderNo, OffenderKeyworker offenderKeyWorker) {
+    private Optional<String> findMergedOffenderNo(final String offenderNo) {
+        final var mergeData = nomisService.getIdentifierByTypeAndValue("MERGED", offenderNo);
+        return mergeData.stream().map(PrisonerIdentifier::getOffenderNo).findFirst();
+    }
+
+    private void mergeRecord(String prisonId, ReconMetrics reconMetrics, OffenderKeyworker notFoundOffender, String newOffenderNo, OffenderKeyworker offenderKeyWorker,
+                             Map<String, Optional<PrisonerDetail>> prisonerDetails) {
         log.info("Allocation ID {} - Offender Merged from {} to {}", offenderKeyWorker.getOffenderKeyworkerId(), offenderKeyWorker.getOffenderNo(), newOffenderNo);
         if (offenderKeyWorker.isActive() && !offenderKeyworkerRepository.findByActiveAndOffenderNo(true, newOffenderNo).isEmpty()) {
             offenderKeyWorker.deallocate(LocalDateTime.now(), DeallocationReason.MERGED);
@@ -98,13 +143,49 @@ public class ReconciliationService {
         }
         offenderKeyWorker.setOffenderNo(newOffenderNo);
 
-        nomisService.getPrisonerDetail(newOffenderNo).ifPresent(
+        prisonerDetails.computeIfAbsent(newOffenderNo, nomisService::getPrisonerDetail).ifPresent(
                 prisonerDetail -> deallocateIfMoved(prisonId, offenderKeyWorker, prisonerDetail, reconMetrics)
         );
 
         reconMetrics.mergedRecords.put(notFoundOffender.getOffenderNo(), newOffenderNo);
     }
 
+    /**
+     * Calls lookup for each offender on the lookup executor, a batch at a time, as the current caller.
+     *
+     * @param offenderNos distinct offender numbers to look up.
+     * @param lookup Elite2 call to make for each offender.
+     * @return result of lookup for each offender, which may be added to.
+     */
+    private <T> Map<String, T> lookupAll(final List<String> offenderNos, final Function<String, T> lookup) {
+        final var results = new HashMap<String, T>();
+        if (offenderNos.isEmpty()) {
+            return results;
+        }
+        final var callerContext = CallerContext.capture();
+
+        Lists.partition(offenderNos, lookupBatchSize).forEach(batch -> {
+            final var lookups = batch.stream().collect(Collectors.toMap(Function.identity(),
+                    offenderNo -> CompletableFuture.supplyAsync(() -> callerContext.call(() -> lookup.apply(offenderNo)), lookupExecutor)));
+
+            lookups.forEach((offenderNo, result) -> results.put(offenderNo, join(result)));
+        });
+        log.debug("Looked up {} offenders in batches of {}", offenderNos.size(), lookupBatchSize);
+        return results;
+    }
+
+    private static <T> T join(final CompletableFuture<T> result) {
+        try {
+            return result.join();
+        } catch (final CompletionException e) {
+            // Fail as the lookup would have done had it been called directly
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
     private void logMetrics(final ReconMetrics metrics) {
         log.info("Recon Metrics {}", metrics);
         telemetryClient.trackEvent("reconciliation", metrics.getProperties(), null);
@@ -144,6 +225,7 @@ public class ReconciliationService {
         private final AtomicInteger notFoundOffenders = new AtomicInteger();
         private final AtomicInteger deAllocatedOffenders = new AtomicInteger();
         private final AtomicInteger missingOffenders = new AtomicInteger();
+        private final AtomicInteger correctedKeyWorkerLoads = new AtomicInteger();
         private final Map<String, String> mergedRecords = new HashMap<>();
 
         public ReconMetrics(String prisonId, int activeKeyWorkerAllocations, int unmatchedOffenders) {
@@ -160,6 +242,7 @@ public class ReconciliationService {
                     "notFoundOffenders", notFoundOffenders.toString(),
                     "deAllocatedOffenders", deAllocatedOffenders.toString(),
                     "missingOffenders", missingOffenders.toString(),
+                    "correctedKeyWorkerLoads", correctedKeyWorkerLoads.toString(),
                     "numberMerged", String.valueOf(mergedRecords.size())
             );
 
@@ -0,0 +1,57 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import org.springframework.cache.support.NullValue;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+
+/**
+ * Cache key for a call to a cached method. Only the method's arguments are used to identify the entry. The call is
+ * repeated without any caller's security context or token, so only lookups made with the system client use these keys.
+ */
+final class RefreshableKey {
+    private final Object key;
+    private final Object target;
+    private final Method method;
+    private final Object[] params;
+
+    RefreshableKey(final Object key, final Object target, final Method method, final Object[] params) {
+        this.key = key;
+        this.target = target;
+        this.method = method;
+        this.params = params;
+    }
+
+    /**
+     * Loads the value for key, ready to store in a Spring cache.
+     *
+     * @param key cache key.
+     * @return value to cache, or null when key cannot be loaded here and the caller must make the call itself.
+     */
+    static Object load(final Object key) {
+        return key instanceof RefreshableKey ? ((RefreshableKey) key).load() : null;
+    }
+
+    private Object load() {
+        // target is the bean itself rather than its proxy, so this does not go back through the cache
+        final var value = ReflectionUtils.invokeMethod(method, target, params);
+        final var storeValue = value instanceof Optional ? ((Optional<?>) value).orElse(null) : value;
+        return storeValue != null ? storeValue : NullValue.INSTANCE;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        return this == other || (other instanceof RefreshableKey && key.equals(((RefreshableKey) other).key));
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return key.toString();
+    }
+}
@@ -0,0 +1,28 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import org.springframework.cache.interceptor.KeyGenerator;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.cache.interceptor.SimpleKeyGenerator;
+import uk.gov.justice.digital.hmpps.keyworker.security.AuthenticationFacade;
+import uk.gov.justice.digital.hmpps.keyworker.security.UserSecurityUtils;
+
+import java.lang.reflect.Method;
+
+/**
+ * Generates keys equal to those of {@link SimpleKeyGenerator} which can also repeat the cached call to refresh the
+ * entry. Lookups in {@link CacheConfig#USER_SCOPED_CACHES} get plain keys which include the caller's username, so that
+ * one user's results are never served to another.
+ */
+public class RefreshableKeyGenerator implements KeyGenerator {
+
+    private final AuthenticationFacade authenticationFacade = new UserSecurityUtils();
+
+    @Override
+    public Object generate(final Object target, final Method method, final Object... params) {
+        final var key = SimpleKeyGenerator.generateKey(params);
+        if (CacheConfig.USER_SCOPED_CACHES.contains(method.getName())) {
+            return new SimpleKey(authenticationFacade.getCurrentUsername(), key);
+        }
+        return new RefreshableKey(key, target, method, params.clone());
+    }
+}
@@ -1,19 +1,31 @@
 package uk.gov.justice.digital.hmpps.keyworker.services;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.*;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.security.oauth2.client.OAuth2RestTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.client.RestTemplate;
 import uk.gov.justice.digital.hmpps.keyworker.dto.PagingAndSortingDto;
 import uk.gov.justice.digital.hmpps.keyworker.dto.SortOrder;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 import static uk.gov.justice.digital.hmpps.keyworker.dto.PagingAndSortingDto.*;
 
@@ -25,60 +37,64 @@ public class RestCallHelper {
 
     private static final HttpHeaders CONTENT_TYPE_APPLICATION_JSON = httpContentTypeHeaders(MediaType.APPLICATION_JSON);
 
+    private static final String REQUESTS_METRIC = "elite2.requests";
+    private static final String ERRORS_METRIC = "elite2.request.errors";
+    private static final String RESPONSE_SIZE_METRIC = "elite2.response.size";
+
     private final RestTemplate restTemplate;
     private final OAuth2RestTemplate elite2SystemRestTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Elite2Resilience elite2Resilience;
 
     @Autowired
     public RestCallHelper(@Qualifier(value = "elite2ApiRestTemplate") final RestTemplate restTemplate,
-                          final OAuth2RestTemplate elite2SystemRestTemplate) {
+                          final OAuth2RestTemplate elite2SystemRestTemplate,
+                          final MeterRegistry meterRegistry,
+                          final Elite2Resilience elite2Resilience) {
         this.restTemplate = restTemplate;
         this.elite2SystemRestTemplate = elite2SystemRestTemplate;
+        this.meterRegistry = meterRegistry;
+        this.elite2Resilience = elite2Resilience;
     }
 
-    protected <T> ResponseEntity<T> getForListWithAuthentication(final URI uri, final ParameterizedTypeReference<T> responseType) {
-        return getRestTemplate(true).exchange(
-                uri.toString(),
-                HttpMethod.GET,
-                null,
-                responseType);
+    protected <T> ResponseEntity<T> getForListWithAuthentication(final String endpoint, final URI uri, final ParameterizedTypeReference<T> responseType) {
+        return exchange(endpoint, uri, HttpMethod.GET, null, responseType.getType(), true);
     }
 
-    protected <T> T get(final URI uri, final Class<T> responseType) {
-        final var exchange = restTemplate.exchange(
-                uri.toString(),
-                HttpMethod.GET,
-                new HttpEntity<>(null, CONTENT_TYPE_APPLICATION_JSON),
-                responseType);
+    protected <T> T get(final String endpoint, final URI uri, final Class<T> responseType, final boolean admin) {
+        final ResponseEntity<T> exchange = exchange(endpoint, uri, HttpMethod.GET,
+                new HttpEntity<>(null, CONTENT_TYPE_APPLICATION_JSON), responseType, admin);
         return exchange.getBody();
     }
 
-    protected <T, E> List<T> post(final URI uri, final E body, final ParameterizedTypeReference<List<T>> responseType, final boolean admin) {
-        final var exchange = getRestTemplate(admin).exchange(uri.toString(),
-                HttpMethod.POST,
-                new HttpEntity<E>(body, CONTENT_TYPE_APPLICATION_JSON),
-                responseType);
+    protected <T, E> List<T> post(final String endpoint, final URI uri, final E body, final ParameterizedTypeReference<List<T>> responseType, final boolean admin) {
+        final ResponseEntity<List<T>> exchange = exchange(endpoint, uri, HttpMethod.POST,
+                new HttpEntity<E>(body, CONTENT_TYPE_APPLICATION_JSON), responseType.getType(), admin);
         return exchange.getBody();
     }
 
-    protected <T> ResponseEntity<T> getWithPagingAndSorting(final URI uri, final PagingAndSortingDto pagingAndSorting,
+    protected <T, E> List<T> postWithPaging(final String endpoint, final URI uri, final E body, final PagingAndSortingDto pagingAndSorting,
+                                            final ParameterizedTypeReference<List<T>> responseType, final boolean admin) {
+        final var headers = new HttpHeaders();
+        headers.putAll(CONTENT_TYPE_APPLICATION_JSON);
+        headers.putAll(withPaging(pagingAndSorting).getHeaders());
+
+        final ResponseEntity<List<T>> exchange = exchange(endpoint, uri, HttpMethod.POST,
+                new HttpEntity<E>(body, headers), responseType.getType(), admin);
+        return exchange.getBody();
+    }
+
+    protected <T> ResponseEntity<T> getWithPagingAndSorting(final String endpoint, final URI uri, final PagingAndSortingDto pagingAndSorting,
                                                             final ParameterizedTypeReference<T> responseType, final boolean admin) {
-        return getRestTemplate(admin).exchange(
-                uri.toString(),
-                HttpMethod.GET,
-                withPagingAndSorting(pagingAndSorting),
-                responseType);
+        return exchange(endpoint, uri, HttpMethod.GET, withPagingAndSorting(pagingAndSorting), responseType.getType(), admin);
     }
 
-    protected <T> ResponseEntity<T> getWithPaging(final URI uri, final PagingAndSortingDto pagingAndSorting,
+    protected <T> ResponseEntity<T> getWithPaging(final String endpoint, final URI uri, final PagingAndSortingDto pagingAndSorting,
                                                   final ParameterizedTypeReference<T> responseType) {
-        return restTemplate.exchange(
-                uri.toString(),
-                HttpMethod.GET,
-                withPaging(pagingAndSorting),
-                responseType);
+        return exchange(endpoint, uri, HttpMethod.GET, withPaging(pagingAndSorting), responseType.getType(), false);
     }
 
-    protected <T> List<T> getAllWithSorting(final URI uri, final String sortFields, final SortOrder sortOrder,
+    protected <T> List<T> getAllWithSorting(final String endpoint, final URI uri, final String sortFields, final SortOrder sortOrder,
                                             final ParameterizedTypeReference<List<T>> responseType, final boolean admin) {
         final long initialPageSize = Integer.MAX_VALUE;
 
@@ -89,25 +105,79 @@ public class RestCallHelper {
                 .pageLimit(initialPageSize)
                 .build();
 
-        final var response = getWithPagingAndSorting(uri, pagingAndSorting, responseType, admin);
+        final var response = getWithPagingAndSorting(endpoint, uri, pagingAndSorting, responseType, admin);
 
         return response.getBody() != null ? new ArrayList<>(response.getBody()) : new ArrayList<>();
     }
 
-    <T> T put(final URI uri, final Class<T> responseType, final boolean admin) {
-        final var exchange = getRestTemplate(admin).exchange(uri.toString(), HttpMethod.PUT, new HttpEntity<>(null, CONTENT_TYPE_APPLICATION_JSON), responseType);
+    <T> T put(final String endpoint, final URI uri, final Class<T> responseType, final boolean admin) {
+        final ResponseEntity<T> exchange = exchange(endpoint, uri, HttpMethod.PUT,
+                new HttpEntity<>(null, CONTENT_TYPE_APPLICATION_JSON), responseType, admin);
         return exchange.getBody();
     }
 
-    protected <T> ResponseEntity<T> getForList(final URI uri, final ParameterizedTypeReference<T> responseType) {
-        return restTemplate.exchange(
-                uri.toString(),
-                HttpMethod.GET,
-                null,
-                responseType);
+    protected <T> ResponseEntity<T> getForList(final String endpoint, final URI uri, final ParameterizedTypeReference<T> responseType) {
+        return exchange(endpoint, uri, HttpMethod.GET, null, responseType.getType(), false);
+    }
+
+    /**
+     * Makes the call, recording its duration, any failure and the size of the response body against the endpoint,
+     * which is the URI template rather than the expanded URI so that calls for different prisons or offenders are
+     * counted together. The call goes through the circuit breaker, bulkhead and timeout of the endpoint's group.
+     */
+    private <T> ResponseEntity<T> exchange(final String endpoint, final URI uri, final HttpMethod method,
+                                           final HttpEntity<?> requestEntity, final Type responseType, final boolean admin) {
+        return elite2Resilience.call(endpoint, () -> timedExchange(endpoint, uri, method, requestEntity, responseType, admin));
     }
 
-    private HttpEntity<?> withPagingAndSorting(final PagingAndSortingDto pagingAndSorting) {
+    private <T> ResponseEntity<T> timedExchange(final String endpoint, final URI uri, final HttpMethod method,
+                                                final HttpEntity<?> requestEntity, final Type responseType, final boolean admin) {
+        final var template = getRestTemplate(admin);
+        final ResponseExtractor<ResponseEntity<T>> responseExtractor = template.responseEntityExtractor(responseType);
+        final var responseSize = new LongAdder();
+        final var client = admin ? "admin" : "user";
+
+        final var sample = Timer.start(meterRegistry);
+        var status = "IO_ERROR";
+        try {
+            final var response = template.execute(uri.toString(), method,
+                    template.httpEntityCallback(requestEntity, responseType),
+                    clientResponse -> responseExtractor.extractData(new CountingClientHttpResponse(clientResponse, responseSize)));
+            status = String.valueOf(response.getStatusCodeValue());
+
+            DistributionSummary.builder(RESPONSE_SIZE_METRIC)
+                    .description("size of Elite2 response bodies")
+                    .baseUnit("bytes")
+                    .tags("endpoint", endpoint, "method", method.name(), "client", client)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(responseSize.sum());
+            return response;
+        } catch (final RestClientResponseException e) {
+            status = String.valueOf(e.getRawStatusCode());
+            countError(endpoint, method, status, client);
+            throw e;
+        } catch (final RuntimeException e) {
+            countError(endpoint, method, status, client);
+            throw e;
+        } finally {
+            sample.stop(Timer.builder(REQUESTS_METRIC)
+                    .description("Elite2 calls")
+                    .tags("endpoint", endpoint, "method", method.name(), "status", status, "client", client)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+    }
+
+    private void countError(final String endpoint, final HttpMethod method, final String status, final String client) {
+        Counter.builder(ERRORS_METRIC)
+                .description("Elite2 calls which failed, or returned an error status")
+                .tags("endpoint", endpoint, "method", method.name(), "status", status, "client", client)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    static HttpEntity<?> withPagingAndSorting(final PagingAndSortingDto pagingAndSorting) {
         final var headers = new HttpHeaders();
 
         headers.add(HEADER_PAGE_OFFSET, pagingAndSorting.getPageOffset().toString());
@@ -121,7 +191,7 @@ public class RestCallHelper {
         return new HttpEntity<>(null, headers);
     }
 
-    private HttpEntity<?> withPaging(final PagingAndSortingDto pagingAndSorting) {
+    static HttpEntity<?> withPaging(final PagingAndSortingDto pagingAndSorting) {
         final var headers = new HttpHeaders();
 
         headers.add(HEADER_PAGE_OFFSET, pagingAndSorting.getPageOffset().toString());
@@ -139,4 +209,69 @@ public class RestCallHelper {
     private RestTemplate getRestTemplate(final boolean admin) {
         return admin ? elite2SystemRestTemplate : restTemplate;
     }
+
+    /**
+     * Counts the bytes of the response body as they are read.
+     */
+    private static class CountingClientHttpResponse implements ClientHttpResponse {
+        private final ClientHttpResponse response;
+        private final LongAdder size;
+        private InputStream body;
+
+        CountingClientHttpResponse(final ClientHttpResponse response, final LongAdder size) {
+            this.response = response;
+            this.size = size;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = new FilterInputStream(response.getBody()) {
+                    @Override
+                    public int read() throws IOException {
+                        final var b = super.read();
+                        if (b != -1) {
+                            size.increment();
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(final byte[] b, final int off, final int len) throws IOException {
+                        final var n = super.read(b, off, len);
+                        if (n > 0) {
+                            size.add(n);
+                        }
+                        return n;
+                    }
+                };
+            }
+            return body;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return response.getHeaders();
+        }
+
+        @Override
+        public HttpStatus getStatusCode() throws IOException {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public int getRawStatusCode() throws IOException {
+            return response.getRawStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return response.getStatusText();
+        }
+
+        @Override
+        public void close() {
+            response.close();
+        }
+    }
 }
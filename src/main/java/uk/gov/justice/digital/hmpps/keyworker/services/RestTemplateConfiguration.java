@@ -1,12 +1,23 @@
 package uk.gov.justice.digital.hmpps.keyworker.services;
 
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.boot.web.client.RootUriTemplateHandler;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.security.oauth2.client.OAuth2ClientContext;
 import org.springframework.security.oauth2.client.OAuth2RestTemplate;
 import org.springframework.security.oauth2.client.token.grant.client.ClientCredentialsAccessTokenProvider;
@@ -17,7 +28,9 @@ import org.springframework.web.client.RestTemplate;
 import uk.gov.justice.digital.hmpps.keyworker.utils.JwtAuthInterceptor;
 import uk.gov.justice.digital.hmpps.keyworker.utils.UserContextInterceptor;
 
+import java.net.URI;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class RestTemplateConfiguration {
@@ -31,6 +44,21 @@ public class RestTemplateConfiguration {
     @Value("${elite2.api.uri.root}")
     private String apiRootUri;
 
+    @Value("${elite2.client.max.connections:100}")
+    private int maxConnections;
+
+    @Value("${elite2.client.acquire.timeout.ms:5000}")
+    private int acquireTimeoutMillis;
+
+    @Value("${elite2.client.connect.timeout.ms:2000}")
+    private int connectTimeoutMillis;
+
+    @Value("${elite2.client.read.timeout.ms:30000}")
+    private int readTimeoutMillis;
+
+    @Value("${elite2.client.keep.alive.seconds:60}")
+    private long keepAliveSeconds;
+
     @Autowired
     public RestTemplateConfiguration(
             final OAuth2ClientContext oauth2ClientContext,
@@ -39,9 +67,34 @@ public class RestTemplateConfiguration {
         this.elite2apiDetails = elite2apiDetails;
     }
 
+    /**
+     * Pooled connections to Elite2, shared by the user and system rest templates. At most
+     * elite2.client.max.connections are open, calls wait up to elite2.client.acquire.timeout.ms for a free one, and idle
+     * connections are kept alive for as long as Elite2 allows, up to elite2.client.keep.alive.seconds.
+     */
+    @Bean(name = "elite2HttpClient", destroyMethod = "close")
+    public CloseableHttpClient elite2HttpClient() {
+        final var connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        final ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            final var keepAliveMillis = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return keepAliveMillis > 0 ? Math.min(keepAliveMillis, keepAliveSeconds * 1000) : keepAliveSeconds * 1000;
+        };
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAliveSeconds, TimeUnit.SECONDS)
+                .setDefaultRequestConfig(defaultRequestConfig())
+                .build();
+    }
+
     @Bean(name = "elite2ApiRestTemplate")
-    public RestTemplate elite2ApiRestTemplate(final RestTemplateBuilder restTemplateBuilder) {
-        return getRestTemplate(restTemplateBuilder, apiRootUri);
+    public RestTemplate elite2ApiRestTemplate(final RestTemplateBuilder restTemplateBuilder, final CloseableHttpClient elite2HttpClient) {
+        return getRestTemplate(restTemplateBuilder.requestFactory(() -> new Elite2ClientHttpRequestFactory(elite2HttpClient, defaultRequestConfig())), apiRootUri);
     }
 
     @Bean(name = "elite2ApiHealthRestTemplate")
@@ -63,18 +116,52 @@ public class RestTemplateConfiguration {
     }
 
     @Bean
-    public OAuth2RestTemplate elite2SystemRestTemplate(final GatewayAwareAccessTokenProvider accessTokenProvider) {
+    public OAuth2RestTemplate elite2SystemRestTemplate(final GatewayAwareAccessTokenProvider accessTokenProvider,
+                                                       final CloseableHttpClient elite2HttpClient) {
 
         final var elite2SystemRestTemplate = new OAuth2RestTemplate(elite2apiDetails, oauth2ClientContext);
         final var systemInterceptors = elite2SystemRestTemplate.getInterceptors();
         systemInterceptors.add(new UserContextInterceptor());
 
         elite2SystemRestTemplate.setAccessTokenProvider(accessTokenProvider);
+        elite2SystemRestTemplate.setRequestFactory(new Elite2ClientHttpRequestFactory(elite2HttpClient, defaultRequestConfig()));
 
         RootUriTemplateHandler.addTo(elite2SystemRestTemplate, this.apiRootUri);
         return elite2SystemRestTemplate;
     }
 
+    private RequestConfig defaultRequestConfig() {
+        return RequestConfig.custom()
+                .setConnectionRequestTimeout(acquireTimeoutMillis)
+                .setConnectTimeout(connectTimeoutMillis)
+                .setSocketTimeout(readTimeoutMillis)
+                .build();
+    }
+
+    /**
+     * Times out reads after the timeout of the endpoint group being called, see {@link Elite2Resilience}, or after
+     * the default read timeout outside of a group's call.
+     */
+    static class Elite2ClientHttpRequestFactory extends HttpComponentsClientHttpRequestFactory {
+        private final RequestConfig defaultRequestConfig;
+
+        Elite2ClientHttpRequestFactory(final HttpClient httpClient, final RequestConfig defaultRequestConfig) {
+            super(httpClient);
+            this.defaultRequestConfig = defaultRequestConfig;
+        }
+
+        @Override
+        protected HttpContext createHttpContext(final HttpMethod httpMethod, final URI uri) {
+            final var timeoutMillis = Elite2Resilience.getTimeoutMillis();
+            if (timeoutMillis == null) {
+                return null;
+            }
+            final var context = HttpClientContext.create();
+            context.setRequestConfig(RequestConfig.copy(defaultRequestConfig).setSocketTimeout(timeoutMillis).build());
+            return context;
+        }
+    }
+
     /**
      * This subclass is necessary to make OAuth2AccessTokenSupport.getRestTemplate() public
      */
@@ -0,0 +1,135 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.ResponseEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Shares the result of a call with identical calls made while it is still in flight, so that only one of them is
+ * actually made. Callers sharing a result get their own copy of any list, but the elements themselves are shared.
+ */
+class SingleFlight {
+    private static final String CALLS_METRIC = "nomis.single.flight.calls";
+    private static final String DEDUPLICATION_METRIC = "nomis.single.flight.deduplication.ratio";
+
+    private final ConcurrentHashMap<Object, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final Counter made;
+    private final Counter shared;
+
+    SingleFlight(final String name, final MeterRegistry meterRegistry) {
+        made = Counter.builder(CALLS_METRIC)
+                .description("calls made, or shared with an identical call already in flight")
+                .tags("method", name, "outcome", "made")
+                .register(meterRegistry);
+        shared = Counter.builder(CALLS_METRIC)
+                .description("calls made, or shared with an identical call already in flight")
+                .tags("method", name, "outcome", "shared")
+                .register(meterRegistry);
+        Gauge.builder(DEDUPLICATION_METRIC, this, SingleFlight::getDeduplicationRatio)
+                .description("proportion of calls which shared the result of another")
+                .tags("method", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param key identifies the call; calls with equal keys are identical.
+     * @param call makes the call.
+     * @return result of this call, or of the identical call in flight, which fails in the same way.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T call(final Object key, final Supplier<T> call) {
+        final var result = new CompletableFuture<Object>();
+        final var existing = inFlight.putIfAbsent(key, result);
+
+        if (existing != null) {
+            shared.increment();
+            return (T) copyOf(join(existing));
+        }
+
+        made.increment();
+        try {
+            final var value = call.get();
+            result.complete(value);
+            return value;
+        } catch (final RuntimeException | Error e) {
+            result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, result);
+        }
+    }
+
+    /**
+     * As {@link #call(Object, Supplier)}, for a call which returns while in flight. Calls made either way share results.
+     *
+     * @param key identifies the call; calls with equal keys are identical.
+     * @param call starts the call.
+     * @return result of this call, or of the identical call in flight.
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> callAsync(final Object key, final Supplier<CompletableFuture<T>> call) {
+        final var result = new CompletableFuture<Object>();
+        final var existing = inFlight.putIfAbsent(key, result);
+
+        if (existing != null) {
+            shared.increment();
+            return existing.thenApply(value -> (T) copyOf(value));
+        }
+
+        made.increment();
+        final CompletableFuture<T> started;
+        try {
+            started = call.get();
+        } catch (final RuntimeException | Error e) {
+            inFlight.remove(key, result);
+            result.completeExceptionally(e);
+            throw e;
+        }
+        return started.whenComplete((value, e) -> {
+            inFlight.remove(key, result);
+            if (e != null) {
+                result.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else {
+                result.complete(value);
+            }
+        });
+    }
+
+    double getDeduplicationRatio() {
+        final var total = made.count() + shared.count();
+        return total == 0 ? 0 : shared.count() / total;
+    }
+
+    private static Object join(final CompletableFuture<Object> result) {
+        try {
+            return result.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static Object copyOf(final Object value) {
+        if (value instanceof List) {
+            return new ArrayList<>((List<?>) value);
+        }
+        if (value instanceof ResponseEntity) {
+            final var response = (ResponseEntity<?>) value;
+            return new ResponseEntity<>(copyOf(response.getBody()), response.getHeaders(), response.getStatusCode());
+        }
+        return value;
+    }
+}
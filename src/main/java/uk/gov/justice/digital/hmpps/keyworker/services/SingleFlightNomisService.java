@@ -0,0 +1,204 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import uk.gov.justice.digital.hmpps.keyworker.dto.*;
+import uk.gov.justice.digital.hmpps.keyworker.security.AuthenticationFacade;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Makes identical Elite2 calls that are in flight at the same time share one call, for the methods listed in
+ * svc.kw.single.flight.methods. Calls are identical when the method and its arguments are equal and, unless they are
+ * made with the system client, when they are made by the same user, as Elite2 restricts what each user can see.
+ */
+@Service
+@Primary
+public class SingleFlightNomisService implements NomisService {
+
+    private final NomisService nomisService;
+    private final MeterRegistry meterRegistry;
+    private final AuthenticationFacade authenticationFacade;
+    private final Map<String, SingleFlight> singleFlights = new ConcurrentHashMap<>();
+
+    @Value("${svc.kw.single.flight.methods:getActiveStaffKeyWorkersForPrison,getOffendersAtLocation}")
+    private Set<String> singleFlightMethods;
+
+    public SingleFlightNomisService(@Qualifier("elite2") final NomisService nomisService,
+                                    final MeterRegistry meterRegistry,
+                                    final AuthenticationFacade authenticationFacade) {
+        this.nomisService = nomisService;
+        this.meterRegistry = meterRegistry;
+        this.authenticationFacade = authenticationFacade;
+    }
+
+    private <T> T call(final String method, final Supplier<T> call, final Object... args) {
+        return call(method, false, call, args);
+    }
+
+    /**
+     * @param admin whether the call is made with the system client, so has the same result whoever makes it.
+     */
+    private <T> T call(final String method, final boolean admin, final Supplier<T> call, final Object... args) {
+        if (!singleFlightMethods.contains(method)) {
+            return call.get();
+        }
+        return singleFlight(method).call(key(admin, args), call);
+    }
+
+    /**
+     * As {@link #call(String, boolean, Supplier, Object...)}, for a call which returns while in flight. Shares results
+     * with blocking calls of the same method.
+     */
+    private <T> CompletableFuture<T> callAsync(final String method, final boolean admin, final Supplier<CompletableFuture<T>> call, final Object... args) {
+        if (!singleFlightMethods.contains(method)) {
+            return call.get();
+        }
+        return singleFlight(method).callAsync(key(admin, args), call);
+    }
+
+    private SingleFlight singleFlight(final String method) {
+        return singleFlights.computeIfAbsent(method, name -> new SingleFlight(name, meterRegistry));
+    }
+
+    private Object key(final boolean admin, final Object... args) {
+        return admin ? Arrays.asList(args) : List.of(Optional.ofNullable(authenticationFacade.getCurrentUsername()), Arrays.asList(args));
+    }
+
+    @Override
+    public List<PrisonerCustodyStatusDto> getPrisonerStatuses(final LocalDateTime threshold, final LocalDate movementDate) {
+        return call("getPrisonerStatuses", () -> nomisService.getPrisonerStatuses(threshold, movementDate), threshold, movementDate);
+    }
+
+    @Override
+    public Optional<OffenderLocationDto> getOffenderForPrison(final String prisonId, final String offenderNo) {
+        return call("getOffenderForPrison", () -> nomisService.getOffenderForPrison(prisonId, offenderNo), prisonId, offenderNo);
+    }
+
+    @Override
+    public List<OffenderLocationDto> getOffendersForPrison(final String prisonId, final List<String> offenderNos) {
+        return call("getOffendersForPrison", () -> nomisService.getOffendersForPrison(prisonId, offenderNos), prisonId, offenderNos);
+    }
+
+    @Override
+    public Optional<PrisonerDetail> getPrisonerDetail(final String offenderNo) {
+        return call("getPrisonerDetail", () -> nomisService.getPrisonerDetail(offenderNo), offenderNo);
+    }
+
+    @Override
+    public List<PrisonerDetail> getPrisonerDetails(final List<String> offenderNos) {
+        return call("getPrisonerDetails", () -> nomisService.getPrisonerDetails(offenderNos), offenderNos);
+    }
+
+    @Override
+    public ResponseEntity<List<StaffLocationRoleDto>> getActiveStaffKeyWorkersForPrison(final String prisonId, final Optional<String> nameFilter, final PagingAndSortingDto pagingAndSorting, final boolean admin) {
+        return call("getActiveStaffKeyWorkersForPrison", admin, () -> nomisService.getActiveStaffKeyWorkersForPrison(prisonId, nameFilter, pagingAndSorting, admin),
+                prisonId, nameFilter, pagingAndSorting, admin);
+    }
+
+    @Override
+    public CompletableFuture<ResponseEntity<List<StaffLocationRoleDto>>> getActiveStaffKeyWorkersForPrisonAsync(final String prisonId, final Optional<String> nameFilter, final PagingAndSortingDto pagingAndSorting, final boolean admin) {
+        return callAsync("getActiveStaffKeyWorkersForPrison", admin, () -> nomisService.getActiveStaffKeyWorkersForPrisonAsync(prisonId, nameFilter, pagingAndSorting, admin),
+                prisonId, nameFilter, pagingAndSorting, admin);
+    }
+
+    @Override
+    public Optional<StaffLocationRoleDto> getStaffKeyWorkerForPrison(final String prisonId, final Long staffId) {
+        return call("getStaffKeyWorkerForPrison", () -> nomisService.getStaffKeyWorkerForPrison(prisonId, staffId), prisonId, staffId);
+    }
+
+    @Override
+    public BasicKeyworkerDto getBasicKeyworkerDtoForOffender(final String offenderNo) {
+        return call("getBasicKeyworkerDtoForOffender", () -> nomisService.getBasicKeyworkerDtoForOffender(offenderNo), offenderNo);
+    }
+
+    @Override
+    public List<KeyworkerDto> getAvailableKeyworkers(final String prisonId) {
+        return call("getAvailableKeyworkers", () -> nomisService.getAvailableKeyworkers(prisonId), prisonId);
+    }
+
+    @Override
+    public List<OffenderLocationDto> getOffendersAtLocation(final String prisonId, final String sortFields, final SortOrder sortOrder, final boolean admin) {
+        return call("getOffendersAtLocation", admin, () -> nomisService.getOffendersAtLocation(prisonId, sortFields, sortOrder, admin),
+                prisonId, sortFields, sortOrder, admin);
+    }
+
+    @Override
+    public CompletableFuture<List<OffenderLocationDto>> getOffendersAtLocationAsync(final String prisonId, final String sortFields, final SortOrder sortOrder, final boolean admin) {
+        return callAsync("getOffendersAtLocation", admin, () -> nomisService.getOffendersAtLocationAsync(prisonId, sortFields, sortOrder, admin),
+                prisonId, sortFields, sortOrder, admin);
+    }
+
+    @Override
+    public StaffLocationRoleDto getBasicKeyworkerDtoForStaffId(final Long staffId) {
+        // Always made with the system client
+        return call("getBasicKeyworkerDtoForStaffId", true, () -> nomisService.getBasicKeyworkerDtoForStaffId(staffId), staffId);
+    }
+
+    @Override
+    public List<OffenderKeyworkerDto> getOffenderKeyWorkerPage(final String prisonId, final long offset, final long limit) {
+        return call("getOffenderKeyWorkerPage", () -> nomisService.getOffenderKeyWorkerPage(prisonId, offset, limit), prisonId, offset, limit);
+    }
+
+    @Override
+    public StaffUser getStaffDetailByUserId(final String userId) {
+        // Always made with the system client
+        return call("getStaffDetailByUserId", true, () -> nomisService.getStaffDetailByUserId(userId), userId);
+    }
+
+    @Override
+    public List<CaseNoteUsageDto> getCaseNoteUsage(final List<Long> staffIds, final String caseNoteType, final String caseNoteSubType, final LocalDate fromDate, final LocalDate toDate, final Integer numMonths) {
+        return call("getCaseNoteUsage", () -> nomisService.getCaseNoteUsage(staffIds, caseNoteType, caseNoteSubType, fromDate, toDate, numMonths),
+                staffIds, caseNoteType, caseNoteSubType, fromDate, toDate, numMonths);
+    }
+
+    @Override
+    public List<CaseNoteUsagePrisonersDto> getCaseNoteUsageForPrisoners(final List<String> offenderNos, final Long staffId, final String caseNoteType, final String caseNoteSubType, final LocalDate fromDate, final LocalDate toDate, final boolean admin) {
+        return call("getCaseNoteUsageForPrisoners", admin, () -> nomisService.getCaseNoteUsageForPrisoners(offenderNos, staffId, caseNoteType, caseNoteSubType, fromDate, toDate, admin),
+                offenderNos, staffId, caseNoteType, caseNoteSubType, fromDate, toDate, admin);
+    }
+
+    @Override
+    public List<KeyworkerAllocationDetailsDto> getCurrentAllocations(final List<Long> staffIds, final String agencyId) {
+        return call("getCurrentAllocations", () -> nomisService.getCurrentAllocations(staffIds, agencyId), staffIds, agencyId);
+    }
+
+    @Override
+    public List<KeyworkerAllocationDetailsDto> getCurrentAllocationsByOffenderNos(final List<String> offenderNos, final String agencyId) {
+        return call("getCurrentAllocationsByOffenderNos", () -> nomisService.getCurrentAllocationsByOffenderNos(offenderNos, agencyId), offenderNos, agencyId);
+    }
+
+    @Override
+    public List<AllocationHistoryDto> getAllocationHistoryByOffenderNos(final List<String> offenderNos) {
+        return call("getAllocationHistoryByOffenderNos", () -> nomisService.getAllocationHistoryByOffenderNos(offenderNos), offenderNos);
+    }
+
+    @Override
+    public List<Prison> getAllPrisons() {
+        return call("getAllPrisons", nomisService::getAllPrisons);
+    }
+
+    @Override
+    public CaseloadUpdate enableNewNomisForCaseload(final String caseload) {
+        // An update, so never shared
+        return nomisService.enableNewNomisForCaseload(caseload);
+    }
+
+    @Override
+    public List<PrisonerIdentifier> getIdentifierByTypeAndValue(final String type, final String value) {
+        return call("getIdentifierByTypeAndValue", () -> nomisService.getIdentifierByTypeAndValue(type, value), type, value);
+    }
+}
@@ -0,0 +1,23 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class StaffLookupExecutorConfiguration {
+
+    // Shared by all requests, so this is the most Elite2 staff and user lookups made at once for allocation histories
+    @Value("${key.worker.staff.lookup.threads:8}")
+    private int threads;
+
+    @Bean(name = "staffLookupExecutor")
+    public ThreadPoolTaskExecutor staffLookupExecutor() {
+        final var executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("staff-lookup-");
+        return executor;
+    }
+}
@@ -0,0 +1,114 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.CamelContext;
+import org.apache.camel.impl.DefaultThreadPoolFactory;
+import org.apache.camel.spi.ThreadPoolProfile;
+import org.apache.camel.spring.boot.CamelContextConfiguration;
+import org.apache.coyote.AbstractProtocol;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import uk.gov.justice.digital.hmpps.keyworker.utils.VirtualThreads;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs request handling, the fan-out executors and the batch route thread pools on virtual threads when
+ * svc.kw.threads.mode=virtual, which needs a Java 21 or later runtime. Requests get a virtual thread each, so Tomcat's
+ * max threads no longer applies, while the fan-out executors and route pools keep their sizes, and so their limits on
+ * concurrent Elite2 calls, with virtual threads in place of platform ones.
+ */
+@Configuration
+@ConditionalOnProperty(name = "svc.kw.threads.mode", havingValue = "virtual")
+@Slf4j
+public class VirtualThreadConfiguration {
+
+    public VirtualThreadConfiguration() {
+        if (!VirtualThreads.isSupported()) {
+            throw new IllegalStateException("svc.kw.threads.mode=virtual needs a Java 21 or later runtime, not " + Runtime.version());
+        }
+        log.info("Using virtual threads for request handling, fan-out executors and batch routes");
+    }
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadTomcatCustomizer() {
+        return factory -> factory.addConnectorCustomizers(connector -> {
+            if (connector.getProtocolHandler() instanceof AbstractProtocol) {
+                ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(VirtualThreads.threadPerTaskExecutor("http-"));
+            }
+        });
+    }
+
+    @Bean
+    public static BeanPostProcessor virtualThreadTaskExecutorPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(final Object bean, final String beanName) {
+                // Before initialisation, which is when the executor creates its pool
+                if (bean instanceof ThreadPoolTaskExecutor) {
+                    final var executor = (ThreadPoolTaskExecutor) bean;
+                    executor.setThreadFactory(VirtualThreads.threadFactory(executor.getThreadNamePrefix()));
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public CamelContextConfiguration virtualThreadCamelContextConfiguration() {
+        return new CamelContextConfiguration() {
+            @Override
+            public void beforeApplicationStart(final CamelContext camelContext) {
+                camelContext.getExecutorServiceManager().setThreadPoolFactory(new VirtualThreadPoolFactory());
+            }
+
+            @Override
+            public void afterApplicationStart(final CamelContext camelContext) {
+                // no changes after started required.
+            }
+        };
+    }
+
+    /**
+     * Camel thread pools, such as those of parallel splitters, with virtual threads named as Camel would name them.
+     */
+    private static class VirtualThreadPoolFactory extends DefaultThreadPoolFactory {
+        private final ThreadFactory virtualThreadFactory = VirtualThreads.threadFactory("camel-");
+
+        @Override
+        public ExecutorService newCachedThreadPool(final ThreadFactory threadFactory) {
+            return super.newCachedThreadPool(virtual(threadFactory));
+        }
+
+        @Override
+        public ExecutorService newThreadPool(final int corePoolSize, final int maxPoolSize, final long keepAliveTime, final TimeUnit timeUnit,
+                                             final int maxQueueSize, final boolean allowCoreThreadTimeOut,
+                                             final RejectedExecutionHandler rejectedExecutionHandler, final ThreadFactory threadFactory) {
+            return super.newThreadPool(corePoolSize, maxPoolSize, keepAliveTime, timeUnit, maxQueueSize, allowCoreThreadTimeOut,
+                    rejectedExecutionHandler, virtual(threadFactory));
+        }
+
+        @Override
+        public ScheduledExecutorService newScheduledThreadPool(final ThreadPoolProfile profile, final ThreadFactory threadFactory) {
+            return super.newScheduledThreadPool(profile, virtual(threadFactory));
+        }
+
+        private ThreadFactory virtual(final ThreadFactory camelThreadFactory) {
+            return task -> {
+                final var thread = virtualThreadFactory.newThread(task);
+                // Camel's thread is only created for its name, and never started
+                thread.setName(camelThreadFactory.newThread(task).getName());
+                return thread;
+            };
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.oauth2.client.OAuth2RestTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.client.UnknownHttpStatusCodeException;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import uk.gov.justice.digital.hmpps.keyworker.dto.PagingAndSortingDto;
+import uk.gov.justice.digital.hmpps.keyworker.utils.MdcUtility;
+import uk.gov.justice.digital.hmpps.keyworker.utils.UserContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Non-blocking counterpart of {@link RestCallHelper}: calls Elite2 as the current user, or as the system client when
+ * admin is set, recording the same metrics. Error responses and I/O failures are raised as the RestTemplate's
+ * exceptions so that callers and the controller advice handle them the same way whichever client is used.
+ * <p>
+ * The caller's auth token and correlation id are read when a call is created rather than when it is made, so calls
+ * must be created on the caller's thread. Calls go through the circuit breaker, bulkhead and timeout of the endpoint's
+ * group, as with {@link RestCallHelper}.
+ */
+@Component
+@ConditionalOnProperty(name = "elite2.client.type", havingValue = "web-client")
+public class WebClientCallHelper {
+
+    private static final String REQUESTS_METRIC = "elite2.requests";
+    private static final String ERRORS_METRIC = "elite2.request.errors";
+    private static final String RESPONSE_SIZE_METRIC = "elite2.response.size";
+
+    private final WebClient webClient;
+    private final OAuth2RestTemplate elite2SystemRestTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Elite2Resilience elite2Resilience;
+    private final String apiRootUri;
+
+    public WebClientCallHelper(@Qualifier("elite2WebClient") final WebClient webClient,
+                               final OAuth2RestTemplate elite2SystemRestTemplate,
+                               final MeterRegistry meterRegistry,
+                               final Elite2Resilience elite2Resilience,
+                               @Value("${elite2.api.uri.root}") final String apiRootUri) {
+        this.webClient = webClient;
+        this.elite2SystemRestTemplate = elite2SystemRestTemplate;
+        this.meterRegistry = meterRegistry;
+        this.elite2Resilience = elite2Resilience;
+        this.apiRootUri = apiRootUri;
+    }
+
+    <T> Mono<ResponseEntity<T>> get(final String endpoint, final URI uri, final ParameterizedTypeReference<T> responseType, final boolean admin) {
+        return exchange(endpoint, uri, HttpMethod.GET, new HttpHeaders(), null, responseType, admin);
+    }
+
+    <T> Mono<ResponseEntity<T>> getWithPaging(final String endpoint, final URI uri, final PagingAndSortingDto pagingAndSorting,
+                                              final ParameterizedTypeReference<T> responseType, final boolean admin) {
+        return exchange(endpoint, uri, HttpMethod.GET, RestCallHelper.withPaging(pagingAndSorting).getHeaders(), null, responseType, admin);
+    }
+
+    <T> Mono<ResponseEntity<T>> getWithPagingAndSorting(final String endpoint, final URI uri, final PagingAndSortingDto pagingAndSorting,
+                                                        final ParameterizedTypeReference<T> responseType, final boolean admin) {
+        return exchange(endpoint, uri, HttpMethod.GET, RestCallHelper.withPagingAndSorting(pagingAndSorting).getHeaders(), null, responseType, admin);
+    }
+
+    <T> Mono<ResponseEntity<T>> post(final String endpoint, final URI uri, final Object body,
+                                     final ParameterizedTypeReference<T> responseType, final boolean admin) {
+        return exchange(endpoint, uri, HttpMethod.POST, new HttpHeaders(), body, responseType, admin);
+    }
+
+    <T> Mono<ResponseEntity<T>> postWithPaging(final String endpoint, final URI uri, final Object body, final PagingAndSortingDto pagingAndSorting,
+                                               final ParameterizedTypeReference<T> responseType, final boolean admin) {
+        return exchange(endpoint, uri, HttpMethod.POST, RestCallHelper.withPaging(pagingAndSorting).getHeaders(), body, responseType, admin);
+    }
+
+    <T> Mono<ResponseEntity<T>> put(final String endpoint, final URI uri, final ParameterizedTypeReference<T> responseType, final boolean admin) {
+        return exchange(endpoint, uri, HttpMethod.PUT, new HttpHeaders(), null, responseType, admin);
+    }
+
+    private <T> Mono<ResponseEntity<T>> exchange(final String endpoint, final URI uri, final HttpMethod method, final HttpHeaders headers,
+                                                 final Object body, final ParameterizedTypeReference<T> responseType, final boolean admin) {
+        final var client = admin ? "admin" : "user";
+        final var authorization = admin ? "Bearer " + elite2SystemRestTemplate.getAccessToken().getValue() : UserContext.getAuthToken();
+        final var correlationId = MDC.get(MdcUtility.CORRELATION_ID_HEADER);
+
+        final var request = webClient.method(method)
+                .uri(URI.create(apiRootUri + uri.toString()))
+                .headers(requestHeaders -> {
+                    requestHeaders.addAll(headers);
+                    requestHeaders.setContentType(MediaType.APPLICATION_JSON);
+                    requestHeaders.add(HttpHeaders.AUTHORIZATION, authorization);
+                    requestHeaders.add(MdcUtility.CORRELATION_ID_HEADER, correlationId);
+                });
+        final var response = body != null ? request.syncBody(body).exchange() : request.exchange();
+
+        return elite2Resilience.call(endpoint, Mono.defer(() -> {
+            final var sample = Timer.start(meterRegistry);
+            final var status = new AtomicReference<>("IO_ERROR");
+            final var responseSize = new LongAdder();
+
+            return response
+                    .flatMap(clientResponse -> {
+                        status.set(String.valueOf(clientResponse.rawStatusCode()));
+                        final var counted = ClientResponse.from(clientResponse)
+                                .body(clientResponse.bodyToFlux(DataBuffer.class).doOnNext(buffer -> responseSize.add(buffer.readableByteCount())))
+                                .build();
+                        return isError(clientResponse.rawStatusCode()) ? WebClientCallHelper.<ResponseEntity<T>>toException(counted) : counted.toEntity(responseType);
+                    })
+                    .doOnSuccess(entity -> DistributionSummary.builder(RESPONSE_SIZE_METRIC)
+                            .description("size of Elite2 response bodies")
+                            .baseUnit("bytes")
+                            .tags("endpoint", endpoint, "method", method.name(), "client", client)
+                            .publishPercentileHistogram()
+                            .register(meterRegistry)
+                            .record(responseSize.sum()))
+                    .onErrorMap(e -> !(e instanceof RestClientException),
+                            e -> new ResourceAccessException("I/O error on " + method + " request for \"" + uri + "\": " + e.getMessage(),
+                                    e instanceof IOException ? (IOException) e : new IOException(e)))
+                    .doOnError(e -> Counter.builder(ERRORS_METRIC)
+                            .description("Elite2 calls which failed, or returned an error status")
+                            .tags("endpoint", endpoint, "method", method.name(), "status", status.get(), "client", client)
+                            .register(meterRegistry)
+                            .increment())
+                    .doFinally(signal -> sample.stop(Timer.builder(REQUESTS_METRIC)
+                            .description("Elite2 calls")
+                            .tags("endpoint", endpoint, "method", method.name(), "status", status.get(), "client", client)
+                            .publishPercentileHistogram()
+                            .register(meterRegistry)));
+        }));
+    }
+
+    private static boolean isError(final int rawStatusCode) {
+        final var status = HttpStatus.resolve(rawStatusCode);
+        return status == null || status.isError();
+    }
+
+    private static <T> Mono<T> toException(final ClientResponse response) {
+        return response.bodyToMono(byte[].class)
+                .defaultIfEmpty(new byte[0])
+                .flatMap(body -> Mono.<T>error(toException(response.rawStatusCode(), response.headers().asHttpHeaders(), body)));
+    }
+
+    private static RestClientResponseException toException(final int rawStatusCode, final HttpHeaders headers, final byte[] body) {
+        final var status = HttpStatus.resolve(rawStatusCode);
+        if (status == null) {
+            return new UnknownHttpStatusCodeException(rawStatusCode, "", headers, body, StandardCharsets.UTF_8);
+        }
+        return status.is4xxClientError()
+                ? HttpClientErrorException.create(status, status.getReasonPhrase(), headers, body, StandardCharsets.UTF_8)
+                : HttpServerErrorException.create(status, status.getReasonPhrase(), headers, body, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,56 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking Elite2 client used when elite2.client.type=web-client. Connections are pooled and kept alive, and at
+ * most elite2.client.max.connections are open at once; further calls wait up to elite2.client.acquire.timeout.ms for
+ * one to be free.
+ */
+@Configuration
+@ConditionalOnProperty(name = "elite2.client.type", havingValue = "web-client")
+public class WebClientConfiguration {
+
+    @Value("${elite2.client.max.connections:100}")
+    private int maxConnections;
+
+    @Value("${elite2.client.acquire.timeout.ms:5000}")
+    private long acquireTimeoutMillis;
+
+    @Value("${elite2.client.connect.timeout.ms:2000}")
+    private int connectTimeoutMillis;
+
+    @Value("${elite2.client.read.timeout.ms:30000}")
+    private long readTimeoutMillis;
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider elite2ConnectionProvider() {
+        return ConnectionProvider.fixed("elite2", maxConnections, acquireTimeoutMillis);
+    }
+
+    @Bean(name = "elite2WebClient")
+    public WebClient elite2WebClient(final WebClient.Builder webClientBuilder, final ConnectionProvider elite2ConnectionProvider) {
+        final var httpClient = HttpClient.create(elite2ConnectionProvider)
+                .keepAlive(true)
+                .tcpConfiguration(tcpClient -> tcpClient
+                        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                        .option(ChannelOption.SO_KEEPALIVE, true)
+                        .doOnConnected(connection -> connection.addHandlerLast(new ReadTimeoutHandler(readTimeoutMillis, TimeUnit.MILLISECONDS))));
+
+        // The builder carries the application's Jackson settings, so responses are read as with the RestTemplate
+        return webClientBuilder
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+}
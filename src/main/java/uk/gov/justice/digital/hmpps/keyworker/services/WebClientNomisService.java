@@ -0,0 +1,369 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import uk.gov.justice.digital.hmpps.keyworker.dto.*;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Elite2 client using the non-blocking {@link WebClientCallHelper}, selected with elite2.client.type=web-client. The
+ * async methods return while their call is in flight, so that callers can make independent calls at the same time, and
+ * independent calls within a method, such as the batches of a bulk prisoner lookup, are made concurrently. The other
+ * methods return once their result is complete.
+ */
+@Component
+@Qualifier("elite2")
+@ConditionalOnProperty(name = "elite2.client.type", havingValue = "web-client")
+@Slf4j
+public class WebClientNomisService implements NomisService {
+
+    private static final String GET_KEY_WORKER = "/bookings/offenderNo/{offenderNo}/key-worker";
+
+    // Offender Nos per request for bulk prisoner lookups, also the page size as Elite2 pages the results
+    private static final int PRISONER_DETAIL_BATCH_SIZE = 100;
+
+    private static final ParameterizedTypeReference<List<OffenderKeyworkerDto>> PARAM_TYPE_REF_OFFENDER_KEY_WORKER =
+            new ParameterizedTypeReference<>() {};
+
+    private static final ParameterizedTypeReference<List<StaffLocationRoleDto>> ELITE_STAFF_LOCATION_DTO_LIST =
+            new ParameterizedTypeReference<>() {};
+
+    private static final ParameterizedTypeReference<List<OffenderLocationDto>> OFFENDER_LOCATION_DTO_LIST =
+            new ParameterizedTypeReference<>() {};
+
+    private static final ParameterizedTypeReference<List<PrisonerDetail>> PRISONER_DETAIL_LIST =
+            new ParameterizedTypeReference<>() {};
+
+    private static final ParameterizedTypeReference<List<KeyworkerDto>> KEYWORKER_DTO_LIST =
+            new ParameterizedTypeReference<>() {};
+
+    private static final ParameterizedTypeReference<List<PrisonerCustodyStatusDto>> PRISONER_STATUS_DTO_LIST =
+            new ParameterizedTypeReference<>() {};
+
+    private static final ParameterizedTypeReference<List<CaseNoteUsageDto>> CASE_NOTE_USAGE_DTO_LIST =
+            new ParameterizedTypeReference<>() {};
+
+    private static final ParameterizedTypeReference<List<CaseNoteUsagePrisonersDto>> CASE_NOTE_USAGE_PRISONERS_DTO_LIST =
+            new ParameterizedTypeReference<>() {};
+
+    private static final ParameterizedTypeReference<List<KeyworkerAllocationDetailsDto>> LEGACY_KEYWORKER_ALLOCATIONS =
+            new ParameterizedTypeReference<>() {};
+
+    private static final ParameterizedTypeReference<List<AllocationHistoryDto>> ALLOCATION_HISTORY =
+            new ParameterizedTypeReference<>() {};
+
+    private static final ParameterizedTypeReference<List<PrisonContactDetailDto>> PRISON_LIST = new ParameterizedTypeReference<>() {};
+
+    private static final ParameterizedTypeReference<List<PrisonerIdentifier>> PRISONER_ID_LIST = new ParameterizedTypeReference<>() {};
+
+    private static final ParameterizedTypeReference<BasicKeyworkerDto> BASIC_KEYWORKER_DTO = new ParameterizedTypeReference<>() {};
+
+    private static final ParameterizedTypeReference<StaffLocationRoleDto> STAFF_LOCATION_ROLE_DTO = new ParameterizedTypeReference<>() {};
+
+    private static final ParameterizedTypeReference<StaffUser> STAFF_USER = new ParameterizedTypeReference<>() {};
+
+    private static final ParameterizedTypeReference<CaseloadUpdate> CASELOAD_UPDATE = new ParameterizedTypeReference<>() {};
+
+    private final WebClientCallHelper webClientCallHelper;
+    private final PrisonerDetailCache prisonerDetailCache;
+
+    // Batches of a bulk lookup requested at the same time
+    @Value("${elite2.client.batch.concurrency:4}")
+    private int batchConcurrency;
+
+    public WebClientNomisService(final WebClientCallHelper webClientCallHelper, final CacheManager cacheManager) {
+        this.webClientCallHelper = webClientCallHelper;
+        this.prisonerDetailCache = new PrisonerDetailCache(cacheManager, this);
+    }
+
+    @Override
+    public List<PrisonerCustodyStatusDto> getPrisonerStatuses(final LocalDateTime threshold, final LocalDate movementDate) {
+        final var uri = new UriTemplate(URI_MOVEMENTS).expand(threshold, movementDate);
+
+        return body(webClientCallHelper.get(URI_MOVEMENTS, uri, PRISONER_STATUS_DTO_LIST, true));
+    }
+
+    @Override
+    public Optional<OffenderLocationDto> getOffenderForPrison(final String prisonId, final String offenderNo) {
+        log.info("Getting offender in prison {} offender No {}", prisonId, offenderNo);
+        final var uri = new UriTemplate(URI_ACTIVE_OFFENDER_BY_AGENCY).expand(prisonId, offenderNo);
+
+        final var offenders = body(webClientCallHelper.get(URI_ACTIVE_OFFENDER_BY_AGENCY, uri, OFFENDER_LOCATION_DTO_LIST, false));
+        return Optional.ofNullable(offenders.size() > 0 ? offenders.get(0) : null);
+    }
+
+    @Override
+    public List<OffenderLocationDto> getOffendersForPrison(final String prisonId, final List<String> offenderNos) {
+        log.info("Getting {} offenders in prison {} by offender Nos", offenderNos.size(), prisonId);
+        final var uri = new UriTemplate(URI_ACTIVE_OFFENDERS_BY_AGENCY_AND_OFFENDER_NOS).expand(prisonId);
+
+        return body(webClientCallHelper.post(URI_ACTIVE_OFFENDERS_BY_AGENCY_AND_OFFENDER_NOS, uri, offenderNos, OFFENDER_LOCATION_DTO_LIST, false));
+    }
+
+    @Override
+    @Cacheable(value = "getPrisonerDetail", sync = true)
+    public Optional<PrisonerDetail> getPrisonerDetail(final String offenderNo) {
+        log.info("Getting prisoner details for NOMIS No {}", offenderNo);
+        final var uri = new UriTemplate(URI_PRISONER_LOOKUP).expand(offenderNo);
+
+        final var prisonerDetail = body(webClientCallHelper.get(URI_PRISONER_LOOKUP, uri, PRISONER_DETAIL_LIST, false));
+        return Optional.ofNullable(prisonerDetail.size() > 0 ? prisonerDetail.get(0) : null);
+    }
+
+    /**
+     * Shares the getPrisonerDetail cache, so only offenders not already cached are requested, in batches made
+     * concurrently, and those found (or not) are cached for later single lookups.
+     */
+    @Override
+    public List<PrisonerDetail> getPrisonerDetails(final List<String> offenderNos) {
+        final var distinctOffenderNos = new LinkedHashSet<>(offenderNos);
+        final var prisonerDetails = prisonerDetailCache.getAllPresent(distinctOffenderNos);
+        final var missing = distinctOffenderNos.stream().filter(offenderNo -> !prisonerDetails.containsKey(offenderNo)).collect(Collectors.toList());
+
+        if (!missing.isEmpty()) {
+            log.info("Getting prisoner details for {} NOMIS Nos, {} cached", missing.size(), prisonerDetails.size());
+            final var uri = new UriTemplate(URI_PRISONERS).expand();
+            final var paging = PagingAndSortingDto.builder().pageOffset(0L).pageLimit((long) PRISONER_DETAIL_BATCH_SIZE).build();
+
+            // Calls are created here, on the caller's thread, and only subscribed to by flatMap
+            final var batches = Lists.partition(missing, PRISONER_DETAIL_BATCH_SIZE).stream()
+                    .map(batch -> webClientCallHelper.postWithPaging(URI_PRISONERS, uri, Map.of("offenderNos", batch), paging, PRISONER_DETAIL_LIST, false))
+                    .collect(Collectors.toList());
+
+            final var found = Flux.fromIterable(batches)
+                    .flatMap(batch -> batch, batchConcurrency)
+                    .flatMapIterable(response -> response.getBody() != null ? response.getBody() : List.<PrisonerDetail>of())
+                    .collectMap(PrisonerDetail::getOffenderNo)
+                    .block();
+
+            missing.forEach(offenderNo -> {
+                prisonerDetailCache.put(offenderNo, found.get(offenderNo));
+                prisonerDetails.put(offenderNo, Optional.ofNullable(found.get(offenderNo)));
+            });
+        }
+        return distinctOffenderNos.stream()
+                .map(prisonerDetails::get)
+                .flatMap(Optional::stream)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public ResponseEntity<List<StaffLocationRoleDto>> getActiveStaffKeyWorkersForPrison(final String prisonId, final Optional<String> nameFilter, final PagingAndSortingDto pagingAndSorting, final boolean admin) {
+        return activeStaffKeyWorkersForPrison(prisonId, nameFilter, pagingAndSorting, admin).block();
+    }
+
+    @Override
+    public CompletableFuture<ResponseEntity<List<StaffLocationRoleDto>>> getActiveStaffKeyWorkersForPrisonAsync(final String prisonId, final Optional<String> nameFilter, final PagingAndSortingDto pagingAndSorting, final boolean admin) {
+        return activeStaffKeyWorkersForPrison(prisonId, nameFilter, pagingAndSorting, admin).toFuture();
+    }
+
+    private Mono<ResponseEntity<List<StaffLocationRoleDto>>> activeStaffKeyWorkersForPrison(final String prisonId, final Optional<String> nameFilter, final PagingAndSortingDto pagingAndSorting, final boolean admin) {
+        log.info("Getting KW Staff in prison {}", prisonId);
+
+        final var uriBuilder = UriComponentsBuilder.fromUriString(GET_STAFF_IN_SPECIFIC_PRISON);
+        nameFilter.ifPresent(filter -> uriBuilder.queryParam("nameFilter", filter));
+        final var uri = uriBuilder.buildAndExpand(prisonId).toUri();
+
+        return webClientCallHelper.getWithPagingAndSorting(GET_STAFF_IN_SPECIFIC_PRISON, uri, pagingAndSorting, ELITE_STAFF_LOCATION_DTO_LIST, admin);
+    }
+
+    @Override
+    @Cacheable(value = "getStaffKeyWorkerForPrison", sync = true)
+    public Optional<StaffLocationRoleDto> getStaffKeyWorkerForPrison(final String prisonId, final Long staffId) {
+        log.info("Getting staff in prison {} staff Id {}", prisonId, staffId);
+
+        final var uri = new UriTemplate(GET_STAFF_IN_SPECIFIC_PRISON + "?staffId={staffId}&activeOnly=false").expand(prisonId, staffId);
+        log.debug("About to retrieve keyworker from Elite2api using uri {}", uri.toString());
+
+        final var staff = body(webClientCallHelper.get(GET_STAFF_IN_SPECIFIC_PRISON, uri, ELITE_STAFF_LOCATION_DTO_LIST, false));
+        final var staffLocationRoleDto = Optional.ofNullable(staff.size() > 0 ? staff.get(0) : null);
+        log.debug("Result: {}", staffLocationRoleDto);
+        return staffLocationRoleDto;
+    }
+
+    @Override
+    public BasicKeyworkerDto getBasicKeyworkerDtoForOffender(final String offenderNo) {
+        log.info("Getting KW for offender", offenderNo);
+
+        final var uri = new UriTemplate(GET_KEY_WORKER).expand(offenderNo);
+        return body(webClientCallHelper.get(GET_KEY_WORKER, uri, BASIC_KEYWORKER_DTO, false));
+    }
+
+    @Override
+    @Cacheable(value = "getAvailableKeyworkers", sync = true)
+    public List<KeyworkerDto> getAvailableKeyworkers(final String prisonId) {
+        log.info("Getting available KW in prison {}", prisonId);
+        final var uri = new UriTemplate(URI_AVAILABLE_KEYWORKERS).expand(prisonId);
+        return body(webClientCallHelper.get(URI_AVAILABLE_KEYWORKERS, uri, KEYWORKER_DTO_LIST, false));
+    }
+
+    @Override
+    public List<OffenderLocationDto> getOffendersAtLocation(final String prisonId, final String sortFields, final SortOrder sortOrder, final boolean admin) {
+        return offendersAtLocation(prisonId, sortFields, sortOrder, admin).block();
+    }
+
+    @Override
+    public CompletableFuture<List<OffenderLocationDto>> getOffendersAtLocationAsync(final String prisonId, final String sortFields, final SortOrder sortOrder, final boolean admin) {
+        return offendersAtLocation(prisonId, sortFields, sortOrder, admin).toFuture();
+    }
+
+    private Mono<List<OffenderLocationDto>> offendersAtLocation(final String prisonId, final String sortFields, final SortOrder sortOrder, final boolean admin) {
+        log.info("Getting offenders in prison {}", prisonId);
+        final var uri = new UriTemplate(URI_ACTIVE_OFFENDERS_BY_AGENCY).expand(prisonId);
+
+        final var pagingAndSorting = PagingAndSortingDto.builder()
+                .sortFields(sortFields)
+                .sortOrder(sortOrder)
+                .pageOffset(0L)
+                .pageLimit((long) Integer.MAX_VALUE)
+                .build();
+
+        return webClientCallHelper.getWithPagingAndSorting(URI_ACTIVE_OFFENDERS_BY_AGENCY, uri, pagingAndSorting, OFFENDER_LOCATION_DTO_LIST, admin)
+                .map(response -> response.getBody() != null ? new ArrayList<>(response.getBody()) : new ArrayList<OffenderLocationDto>());
+    }
+
+    @Override
+    @Cacheable(value = "getBasicKeyworkerDtoForStaffId", sync = true)
+    public StaffLocationRoleDto getBasicKeyworkerDtoForStaffId(final Long staffId) {
+        final var uri = new UriTemplate(URI_STAFF).expand(staffId);
+        log.debug("Getting basic keyworker details for staffId {} from Elite2api using uri {}", staffId, uri.toString());
+        // As the system client, so that the cached result is the same for every caller and can be refreshed without one
+        return body(webClientCallHelper.get(URI_STAFF, uri, STAFF_LOCATION_ROLE_DTO, true));
+    }
+
+    @Override
+    public List<OffenderKeyworkerDto> getOffenderKeyWorkerPage(final String prisonId, final long offset, final long limit) {
+        log.info("Retrieving allocation history for agency [{}] using offset [{}] and limit [{}].", prisonId, offset, limit);
+
+        final var uri = new UriTemplate(URI_KEY_WORKER_GET_ALLOCATION_HISTORY).expand(prisonId);
+        final var pagingAndSorting = PagingAndSortingDto.builder().pageOffset(offset).pageLimit(limit).build();
+
+        return body(webClientCallHelper.getWithPaging(URI_KEY_WORKER_GET_ALLOCATION_HISTORY, uri, pagingAndSorting, PARAM_TYPE_REF_OFFENDER_KEY_WORKER, false));
+    }
+
+    @Override
+    @Cacheable(value = "getStaffDetailByUserId", sync = true)
+    public StaffUser getStaffDetailByUserId(final String userId) {
+        log.info("Getting staff details for user Id {}", userId);
+        final var uri = new UriTemplate(GET_USER_DETAILS).expand(userId);
+        log.debug("About to retrieve staff details from Elite2api using uri {}", uri.toString());
+
+        try {
+            // As the system client, as for getBasicKeyworkerDtoForStaffId
+            final var staffUser = body(webClientCallHelper.get(GET_USER_DETAILS, uri, STAFF_USER, true));
+            log.debug("Result: {}", staffUser);
+            return staffUser;
+        } catch (final HttpClientErrorException e) {
+            return StaffUser.builder().firstName("User").lastName(userId).username(userId).build();
+        }
+    }
+
+    @Override
+    public List<CaseNoteUsageDto> getCaseNoteUsage(final List<Long> staffIds, final String caseNoteType, final String caseNoteSubType, final LocalDate fromDate, final LocalDate toDate, final Integer numMonths) {
+        log.info("Getting case note details of type {} sub type {}, from {}, to {} for {} months", caseNoteType, caseNoteSubType, fromDate, toDate);
+        final var uri = new UriTemplate(CASE_NOTE_USAGE).expand();
+
+        final var body = CaseNoteUsageRequest.builder()
+                .staffIds(staffIds)
+                .type(caseNoteType)
+                .subType(caseNoteSubType)
+                .fromDate(fromDate)
+                .toDate(toDate)
+                .numMonths(numMonths)
+                .build();
+
+        return body(webClientCallHelper.post(CASE_NOTE_USAGE, uri, body, CASE_NOTE_USAGE_DTO_LIST, false));
+    }
+
+    @Override
+    public List<CaseNoteUsagePrisonersDto> getCaseNoteUsageForPrisoners(final List<String> offenderNos, final Long staffId, final String caseNoteType, final String caseNoteSubType, final LocalDate fromDate, final LocalDate toDate, final boolean admin) {
+        log.info("Getting case note details for prisoner list of type {} sub type {}, from {}, to {}", caseNoteType, caseNoteSubType, fromDate, toDate);
+        final var uri = new UriTemplate(CASE_NOTE_USAGE_BY_PRISONER).expand();
+
+        final var body = CaseNoteUsagePrisonersRequest.builder()
+                .offenderNos(offenderNos)
+                .staffId(staffId)
+                .type(caseNoteType)
+                .subType(caseNoteSubType)
+                .fromDate(fromDate)
+                .toDate(toDate)
+                .build();
+
+        return body(webClientCallHelper.post(CASE_NOTE_USAGE_BY_PRISONER, uri, body, CASE_NOTE_USAGE_PRISONERS_DTO_LIST, admin));
+    }
+
+    @Override
+    public List<KeyworkerAllocationDetailsDto> getCurrentAllocations(final List<Long> staffIds, final String agencyId) {
+        log.info("Getting Legacy Key worker allocations for {} agencyId by staff IDs", agencyId);
+        final var uri = new UriTemplate(URI_CURRENT_ALLOCATIONS).expand(agencyId);
+
+        return body(webClientCallHelper.post(URI_CURRENT_ALLOCATIONS, uri, staffIds, LEGACY_KEYWORKER_ALLOCATIONS, false));
+    }
+
+    @Override
+    public List<KeyworkerAllocationDetailsDto> getCurrentAllocationsByOffenderNos(final List<String> offenderNos, final String agencyId) {
+        log.info("Getting Legacy Key worker allocations for {} agencyId by offender Nos", agencyId);
+        final var uri = new UriTemplate(URI_CURRENT_ALLOCATIONS_BY_OFFENDERS).expand(agencyId);
+
+        return body(webClientCallHelper.post(URI_CURRENT_ALLOCATIONS_BY_OFFENDERS, uri, offenderNos, LEGACY_KEYWORKER_ALLOCATIONS, false));
+    }
+
+    @Override
+    public List<AllocationHistoryDto> getAllocationHistoryByOffenderNos(final List<String> offenderNos) {
+        log.info("Getting Key worker allocations for offender Nos {}", offenderNos);
+        final var uri = new UriTemplate(URI_OFFENDERS_ALLOCATION_HISTORY).expand();
+
+        return body(webClientCallHelper.post(URI_OFFENDERS_ALLOCATION_HISTORY, uri, offenderNos, ALLOCATION_HISTORY, false));
+    }
+
+    @Override
+    public List<Prison> getAllPrisons() {
+        log.info("Getting all prisons");
+        final var uri = new UriTemplate(URI_GET_ALL_PRISONS).expand();
+
+        final var prisons = body(webClientCallHelper.get(URI_GET_ALL_PRISONS, uri, PRISON_LIST, true));
+        return prisons != null ?
+                prisons.stream()
+                        .map(p -> Prison.builder().prisonId(p.getAgencyId()).build())
+                        .collect(Collectors.toList()) : Collections.emptyList();
+    }
+
+    @Override
+    public CaseloadUpdate enableNewNomisForCaseload(final String caseload) {
+        final var uri = new UriTemplate(URI_ENABLE_USERS_WITH_CASELOAD).expand(caseload);
+        return body(webClientCallHelper.put(URI_ENABLE_USERS_WITH_CASELOAD, uri, CASELOAD_UPDATE, true));
+    }
+
+    @Override
+    public List<PrisonerIdentifier> getIdentifierByTypeAndValue(final String type, final String value) {
+        final var uri = new UriTemplate(URI_IDENTIFIERS).expand(type, value);
+
+        return body(webClientCallHelper.get(URI_IDENTIFIERS, uri, PRISONER_ID_LIST, true));
+    }
+
+    /**
+     * Waits for the call, which is made on a connection from the pool, and returns the response body.
+     */
+    private static <T> T body(final Mono<ResponseEntity<T>> call) {
+        final var response = call.block();
+        return response != null ? response.getBody() : null;
+    }
+}
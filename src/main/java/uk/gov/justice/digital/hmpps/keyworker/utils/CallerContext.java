@@ -0,0 +1,45 @@
+package uk.gov.justice.digital.hmpps.keyworker.utils;
+
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.function.Supplier;
+
+/**
+ * Security context and Elite2 auth token of the user on whose behalf work is requested. Both are held in thread locals,
+ * so must be captured on the request thread and applied to any other thread the work is handed to.
+ */
+public class CallerContext {
+    private final SecurityContext securityContext;
+    private final String authToken;
+
+    private CallerContext(final SecurityContext securityContext, final String authToken) {
+        this.securityContext = securityContext;
+        this.authToken = authToken;
+    }
+
+    public static CallerContext capture() {
+        return new CallerContext(SecurityContextHolder.getContext(), UserContext.getAuthToken());
+    }
+
+    /**
+     * Runs task on the current thread as the captured caller, restoring the thread's own context afterwards.
+     *
+     * @param task work to perform.
+     * @return result of task.
+     */
+    public <T> T call(final Supplier<T> task) {
+        final var previousSecurityContext = SecurityContextHolder.getContext();
+        final var previousAuthToken = UserContext.getAuthToken();
+
+        SecurityContextHolder.setContext(securityContext);
+        UserContext.setAuthToken(authToken);
+
+        try {
+            return task.get();
+        } finally {
+            SecurityContextHolder.setContext(previousSecurityContext);
+            UserContext.setAuthToken(previousAuthToken);
+        }
+    }
+}
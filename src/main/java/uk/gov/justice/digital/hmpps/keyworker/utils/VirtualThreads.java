@@ -0,0 +1,49 @@
+package uk.gov.justice.digital.hmpps.keyworker.utils;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads, for a Java 21 or later runtime. The application is compiled for Java 11, so the virtual thread API
+ * is looked up reflectively, and only when virtual threads are asked for.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (final NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param namePrefix name of the threads, which are numbered from 0.
+     * @return factory of virtual threads.
+     * @throws IllegalStateException if the runtime does not support virtual threads.
+     */
+    public static ThreadFactory threadFactory(final String namePrefix) {
+        try {
+            final var builderClass = Class.forName("java.lang.Thread$Builder");
+            final var builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(Thread.class.getMethod("ofVirtual").invoke(null), namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads need a Java 21 or later runtime, not " + Runtime.version(), e);
+        }
+    }
+
+    /**
+     * @param namePrefix name of the threads, which are numbered from 0.
+     * @return executor running each task on a new virtual thread.
+     * @throws IllegalStateException if the runtime does not support virtual threads.
+     */
+    public static Executor threadPerTaskExecutor(final String namePrefix) {
+        final var threadFactory = threadFactory(namePrefix);
+        return task -> threadFactory.newThread(task).start();
+    }
+}
@@ -0,0 +1,23 @@
+DROP TABLE IF EXISTS KEY_WORKER_LOAD;
+
+CREATE TABLE KEY_WORKER_LOAD
+(
+  STAFF_ID                            BIGINT    NOT NULL,
+  PRISON_ID                     VARCHAR(  6)    NOT NULL,
+  NUMBER_ALLOCATED                       INT    NOT NULL,
+  CONSTRAINT KEY_WORKER_LOAD_PK PRIMARY KEY (STAFF_ID, PRISON_ID)
+);
+
+COMMENT ON TABLE KEY_WORKER_LOAD IS 'Number of active, non-provisional allocations each Key worker has in a prison, maintained from OFFENDER_KEY_WORKER.';
+
+COMMENT ON COLUMN KEY_WORKER_LOAD.STAFF_ID         IS 'The Related Key Worker Staff Id';
+COMMENT ON COLUMN KEY_WORKER_LOAD.PRISON_ID        IS 'Prison Id';
+COMMENT ON COLUMN KEY_WORKER_LOAD.NUMBER_ALLOCATED IS 'Number of active, non-provisional allocations';
+
+CREATE INDEX KEY_WORKER_LOAD_AI_IDX ON KEY_WORKER_LOAD (PRISON_ID);
+
+INSERT INTO KEY_WORKER_LOAD (STAFF_ID, PRISON_ID, NUMBER_ALLOCATED)
+  SELECT STAFF_ID, PRISON_ID, COUNT(*)
+  FROM OFFENDER_KEY_WORKER
+  WHERE ACTIVE_FLAG = 'Y' AND ALLOC_TYPE <> 'P'
+  GROUP BY STAFF_ID, PRISON_ID;
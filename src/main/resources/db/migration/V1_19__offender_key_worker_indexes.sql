@@ -0,0 +1,13 @@
+-- Active allocations in a prison, by allocation type
+CREATE INDEX OFFENDER_KEY_WORKER_PAT_IDX ON OFFENDER_KEY_WORKER (PRISON_ID, ACTIVE_FLAG, ALLOC_TYPE);
+-- A Key worker's allocations in a prison
+CREATE INDEX OFFENDER_KEY_WORKER_SPA_IDX ON OFFENDER_KEY_WORKER (STAFF_ID, PRISON_ID, ACTIVE_FLAG);
+-- Allocations in a prison assigned within a period
+CREATE INDEX OFFENDER_KEY_WORKER_PAD_IDX ON OFFENDER_KEY_WORKER (PRISON_ID, ASSIGNED_DATE_TIME);
+-- Current allocation of an offender
+CREATE INDEX OFFENDER_KEY_WORKER_OA_IDX ON OFFENDER_KEY_WORKER (OFFENDER_NO, ACTIVE_FLAG);
+
+-- Replaced by the indexes above, which lead with the same columns
+DROP INDEX OFFENDER_KEY_WORKER_AI_IDX;
+DROP INDEX OFFENDER_KEY_WORKER_SI_IDX;
+DROP INDEX OFFENDER_KEY_WORKER_ON_IDX;
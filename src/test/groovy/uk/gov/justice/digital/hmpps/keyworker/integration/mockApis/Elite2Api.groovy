@@ -63,6 +63,11 @@ class Elite2Api extends WireMockRule {
                 .willReturn(aResponse().withStatus(HttpStatus.OK.value())
                 .withBody(OffenderLocationDtoListStub.getResponseForAutoAllocation(prisonId))
                 .withHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)))
+
+        stubFor(post(urlEqualTo(new UriTemplate(NOMIS_API_PREFIX + URI_ACTIVE_OFFENDERS_BY_AGENCY_AND_OFFENDER_NOS).expand(prisonId).toString()))
+                .willReturn(aResponse().withStatus(HttpStatus.OK.value())
+                .withBody(OffenderLocationDtoListStub.getResponseForAutoAllocation(prisonId))
+                .withHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)))
     }
 
     def stubKeyworkerSearch = { String prisonId, String nameFilterPattern ->
@@ -191,4 +196,48 @@ class Elite2Api extends WireMockRule {
                 .withHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
         ))
     }
+
+    void stubLoadTestPrison(String prisonId, int prisoners, int staff) {
+        stubFor(get(urlEqualTo(new UriTemplate(NOMIS_API_PREFIX + URI_ACTIVE_OFFENDERS_BY_AGENCY).expand(prisonId).toString()))
+                .willReturn(aResponse().withStatus(HttpStatus.OK.value())
+                .withBody(LoadTestStub.getOffenders(prisonId, prisoners))
+                .withHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)))
+
+        // Answers a page of allocations, which is never more than the default page size
+        stubFor(post(urlEqualTo(new UriTemplate(NOMIS_API_PREFIX + URI_ACTIVE_OFFENDERS_BY_AGENCY_AND_OFFENDER_NOS).expand(prisonId).toString()))
+                .willReturn(aResponse().withStatus(HttpStatus.OK.value())
+                .withBody(LoadTestStub.getOffenders(prisonId, Math.min(prisoners, 10)))
+                .withHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)))
+
+        stubFor(get(urlEqualTo(new UriTemplate(NOMIS_API_PREFIX + URI_AVAILABLE_KEYWORKERS).expand(prisonId).toString()))
+                .willReturn(aResponse().withStatus(HttpStatus.OK.value())
+                .withBody(LoadTestStub.getAvailableKeyworkers(staff))
+                .withHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)))
+
+        stubFor(get(urlPathMatching(new UriTemplate(NOMIS_API_PREFIX + GET_STAFF_IN_SPECIFIC_PRISON).expand(prisonId).toString()))
+                .willReturn(aResponse().withStatus(HttpStatus.OK.value())
+                .withBody(LoadTestStub.getStaff(prisonId, staff))
+                .withHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+                .withHeader(Page.HEADER_PAGE_LIMIT, String.valueOf(staff))
+                .withHeader(Page.HEADER_PAGE_OFFSET, '0')
+                .withHeader(Page.HEADER_TOTAL_RECORDS, String.valueOf(staff))))
+
+        stubFor(get(urlEqualTo(new UriTemplate(NOMIS_API_PREFIX + URI_KEY_WORKER_GET_ALLOCATION_HISTORY).expand(prisonId).toString()))
+                .willReturn(aResponse().withStatus(HttpStatus.OK.value())
+                .withBody(LoadTestStub.getAllocationHistory(prisonId, prisoners, staff))
+                .withHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)))
+
+        stubFor(post(urlPathMatching(new UriTemplate(NOMIS_API_PREFIX + CASE_NOTE_USAGE).expand().toString()))
+                .willReturn(aResponse().withStatus(HttpStatus.OK.value())
+                .withBody(LoadTestStub.getCaseNoteUsage(staff))
+                .withHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)))
+
+        stubFor(post(urlPathMatching(new UriTemplate(NOMIS_API_PREFIX + CASE_NOTE_USAGE_BY_PRISONER).expand().toString()))
+                .willReturn(aResponse().withStatus(HttpStatus.OK.value())
+                .withBody("[]")
+                .withHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)))
+
+        stubAccessCodeListForKeyRole(prisonId)
+        stubAccessCodeListForKeyAdminRole(prisonId)
+    }
 }
@@ -0,0 +1,60 @@
+package uk.gov.justice.digital.hmpps.keyworker.integration.mockResponses
+
+import groovy.json.JsonOutput
+
+/**
+ * Generated Elite2 responses for a prison of a given size, used by the load test.
+ */
+class LoadTestStub {
+
+    static String offenderNo(int index) {
+        String.format('L%05dT', index)
+    }
+
+    static long staffId(int index) {
+        10000L + index
+    }
+
+    static getOffenders(String prisonId, int count) {
+        JsonOutput.toJson((0..<count).collect { i ->
+            [offenderNo: offenderNo(i), bookingId: 100000 + i, firstName: "FIRST${i}", lastName: "LAST${i}",
+             dateOfBirth: '1980-01-01', agencyId: prisonId, assignedLivingUnitId: 1000 + i % 200,
+             assignedLivingUnitDesc: "${prisonId}-${['A', 'B', 'C', 'D'][i % 4]}-${i % 50}-${i % 30}"]
+        })
+    }
+
+    static getAvailableKeyworkers(int count) {
+        JsonOutput.toJson((0..<count).collect { i ->
+            [staffId: staffId(i), firstName: "STAFF${i}", lastName: "USER${i}", capacity: 6, numberAllocated: 0]
+        })
+    }
+
+    static getStaff(String prisonId, int count) {
+        JsonOutput.toJson((0..<count).collect { i ->
+            [staffId: staffId(i), firstName: "STAFF${i}", lastName: "USER${i}", agencyId: prisonId, fromDate: '2018-01-02',
+             position: 'AO', positionDescription: 'Admin Officer', role: 'KW', roleDescription: 'Key Worker',
+             scheduleType: 'FT', scheduleTypeDescription: 'Full Time', hoursPerWeek: 37]
+        })
+    }
+
+    /**
+     * Two thirds of the roll actively allocated, spread evenly across the staff, each with an earlier expired allocation.
+     */
+    static getAllocationHistory(String prisonId, int prisoners, int staff) {
+        def allocations = []
+        (0..<(prisoners * 2).intdiv(3)).each { i ->
+            allocations << [offenderNo: offenderNo(i), staffId: staffId(i % staff), agencyId: prisonId, assigned: '2018-06-01T12:14:00',
+                            userId: 'ITAG_USER', active: 'Y', created: '2018-06-01T12:14:00', createdBy: 'SA']
+            allocations << [offenderNo: offenderNo(i), staffId: staffId((i + 1) % staff), agencyId: prisonId, assigned: '2017-06-01T12:14:00',
+                            expired: '2018-06-01T12:14:00', userId: 'ITAG_USER', active: 'N', created: '2017-06-01T12:14:00', createdBy: 'SA']
+        }
+        JsonOutput.toJson(allocations)
+    }
+
+    static getCaseNoteUsage(int staff) {
+        JsonOutput.toJson((0..<staff).collectMany { i ->
+            [[staffId: staffId(i), caseNoteType: 'KA', caseNoteSubType: 'KS', latestCaseNote: '2018-07-01', numCaseNotes: 1 + i % 5],
+             [staffId: staffId(i), caseNoteType: 'KA', caseNoteSubType: 'KE', latestCaseNote: '2018-07-01', numCaseNotes: i % 3]]
+        })
+    }
+}
@@ -2,6 +2,8 @@ package uk.gov.justice.digital.hmpps.keyworker.integration.specs
 
 import groovy.json.JsonSlurper
 import org.junit.Assert
+import org.springframework.http.HttpEntity
+import org.springframework.http.HttpHeaders
 import org.springframework.http.HttpMethod
 import org.springframework.http.HttpStatus
 
@@ -13,6 +15,37 @@ class AutoAllocationSpecification extends TestSpecification {
     final static TODAY = LocalDate.now().format(DateTimeFormatter.ISO_DATE)
     def jsonSlurper = new JsonSlurper()
 
+    def "Allocation plan proposes the same allocations without making them"() {
+
+        given:
+        migratedForAutoAllocation("SYI")
+        elite2api.stubAvailableKeyworkersForAutoAllocation("SYI")
+        elite2api.stubOffendersAtLocationForAutoAllocation("SYI")
+        capacityOf1002is1And1001is3()
+
+        when:
+        def response = restTemplate.exchange("/key-worker/SYI/allocate/plan", HttpMethod.GET, createHeaderEntity("headers"), String.class)
+        def plan = jsonSlurper.parseText(response.body)
+        def allocations = restTemplate.exchange("/key-worker/SYI/allocations", HttpMethod.GET, createHeaderEntityWithPageLimit(50), String.class)
+
+        then:
+        response.statusCode == HttpStatus.OK
+        plan.prisonId == "SYI"
+        plan.allocations.collect { it.offenderNo } == ["UNALLOC1", "UNALLOC2", "UNALLOC3", "UNALLOC4", "UNALLOC5",
+                                                       "UNALLOC6", "UNALLOC7", "UNALLOC8", "UNALLOC9", "EXPIRED1"]
+        plan.allocations.collect { it.staffId } == [1002, 1003, 1001, 1003, 1001, 1003, 1001, 1003, 1003, 1002]
+        plan.unallocatedOffenderNos == []
+        plan.outcome == null
+
+        def kw1001 = plan.keyworkers.find { it.staffId == 1001 }
+        kw1001.currentAllocations == 1
+        kw1001.plannedAllocations == 3
+        kw1001.totalAllocations == 4
+
+        // Nothing has been written
+        jsonSlurper.parseText(allocations.body).size() == 1
+    }
+
     def "Allocation service reports ok"() {
 
         given:
@@ -24,7 +57,7 @@ class AutoAllocationSpecification extends TestSpecification {
         when:
         def response = restTemplate.exchange("/key-worker/SYI/allocate/start", HttpMethod.POST, createHeaderEntity("headers"), String.class)
         def confirm = restTemplate.exchange("/key-worker/SYI/allocate/confirm", HttpMethod.POST, createHeaderEntity("headers"), String.class)
-        def allocations = restTemplate.exchange("/key-worker/SYI/allocations", HttpMethod.GET, createHeaderEntity("headers"), String.class)
+        def allocations = restTemplate.exchange("/key-worker/SYI/allocations", HttpMethod.GET, createHeaderEntityWithPageLimit(50), String.class)
         def result = jsonSlurper.parseText(allocations.body)
 
         then:
@@ -75,6 +108,47 @@ class AutoAllocationSpecification extends TestSpecification {
         result[10].assigned.substring(0, 10) == TODAY
     }
 
+    def "Auto-allocation job can be polled until finished"() {
+
+        given:
+        migratedForAutoAllocation("SYI")
+        elite2api.stubAvailableKeyworkersForAutoAllocation("SYI")
+        elite2api.stubOffendersAtLocationForAutoAllocation("SYI")
+
+        when:
+        def response = restTemplate.exchange("/key-worker/SYI/allocate/job", HttpMethod.POST, createHeaderEntity("headers"), String.class)
+        def job = jsonSlurper.parseText(response.body)
+        def status = job
+        for (def attempt = 0; attempt < 50 && status.status in ["QUEUED", "RUNNING"]; attempt++) {
+            sleep(100)
+            status = jsonSlurper.parseText(restTemplate.exchange("/key-worker/allocate/job/${job.jobId}", HttpMethod.GET, createHeaderEntity("headers"), String.class).body)
+        }
+
+        then:
+        response.statusCode == HttpStatus.ACCEPTED
+        job.prisonId == "SYI"
+        status.jobId == job.jobId
+        status.status == "COMPLETED"
+        status.completedDateTime != null
+    }
+
+    def "Unknown auto-allocation job is not found"() {
+
+        when:
+        def response = restTemplate.exchange("/key-worker/allocate/job/unknown", HttpMethod.GET, createHeaderEntity("headers"), String.class)
+
+        then:
+        response.statusCode == HttpStatus.NOT_FOUND
+    }
+
+    private HttpEntity createHeaderEntityWithPageLimit(int pageLimit) {
+        def entity = createHeaderEntity("headers")
+        def headers = new HttpHeaders()
+        headers.putAll(entity.headers)
+        headers.add("Page-Limit", String.valueOf(pageLimit))
+        new HttpEntity<>(entity.body, headers)
+    }
+
     private void capacityOf1002is1And1001is3() {
         Assert.assertEquals(HttpStatus.OK, restTemplate.exchange("/key-worker/1002/prison/SYI", HttpMethod.POST,
                 createHeaderEntity("{\"capacity\": 1, \"status\": \"ACTIVE\"}"), String.class).statusCode)
@@ -26,4 +26,25 @@ class HealthSpecification extends TestSpecification {
 
         details.status == "UP"
     }
+
+    def "Prometheus metrics are scraped with a system token"() {
+
+        when:
+        def response = restTemplate.exchange("/prometheus", HttpMethod.GET, createHeaderEntityForAdminUser("headers"), String.class)
+
+        then:
+        response.statusCode == HttpStatus.OK
+        response.body.contains("jvm_memory_used_bytes")
+    }
+
+    def "Prometheus metrics are not available to users or without a token"() {
+
+        when:
+        def userResponse = restTemplate.exchange("/prometheus", HttpMethod.GET, createHeaderEntity("headers"), String.class)
+        def anonymousResponse = restTemplate.getForEntity("/prometheus", String.class)
+
+        then:
+        userResponse.statusCode == HttpStatus.FORBIDDEN
+        anonymousResponse.statusCode == HttpStatus.UNAUTHORIZED
+    }
 }
@@ -0,0 +1,238 @@
+package uk.gov.justice.digital.hmpps.keyworker.integration.specs
+
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+import groovy.util.logging.Slf4j
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.web.client.RestTemplateBuilder
+import org.springframework.http.HttpEntity
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpMethod
+import org.springframework.http.HttpStatus
+import org.springframework.http.client.SimpleClientHttpRequestFactory
+import uk.gov.justice.digital.hmpps.keyworker.dto.Page
+import uk.gov.justice.digital.hmpps.keyworker.model.PrisonKeyWorkerStatistic
+import uk.gov.justice.digital.hmpps.keyworker.repository.PrisonKeyWorkerStatisticRepository
+
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryType
+import java.time.LocalDate
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import static uk.gov.justice.digital.hmpps.keyworker.integration.mockResponses.LoadTestStub.staffId
+
+/**
+ * Drives the main endpoints at a target concurrency against a generated prison, with Elite2 answering from WireMock
+ * after a fixed delay. Excluded from the default test task; run with {@code ./gradlew loadTest}, setting the
+ * {@code load.*} system properties below to change the prison size, Elite2 latency and load.
+ * <p>
+ * The report is written per thread mode ({@code svc.kw.threads.mode}), and once both platform and virtual thread runs
+ * have been made with the same settings their throughput and memory are compared.
+ */
+@Slf4j
+class LoadTestSpecification extends TestSpecification {
+
+    static final String PRISON_ID = 'LDT'
+
+    static final int PRISONERS = Integer.getInteger('load.prisoners', 1800)
+    static final int STAFF = Integer.getInteger('load.staff', 300)
+    static final int LATENCY_MILLIS = Integer.getInteger('load.latency.ms', 50)
+    static final int CONCURRENCY = Integer.getInteger('load.concurrency', 20)
+    static final int REQUESTS = Integer.getInteger('load.requests', 1000)
+    static final int WARMUP = Integer.getInteger('load.warmup', 100)
+
+    static final String THREADS_MODE = System.getProperty('svc.kw.threads.mode', 'platform')
+
+    // Migrated with two thirds of the roll allocated
+    static final int ALLOCATED = (PRISONERS * 2).intdiv(3)
+
+    @Autowired
+    PrisonKeyWorkerStatisticRepository statisticRepository
+
+    def "main endpoints under load"() {
+
+        given: "a migrated prison with a year of statistics"
+        elite2api.stubLoadTestPrison(PRISON_ID, PRISONERS, STAFF)
+        migrate()
+        seedStatistics()
+        elite2api.setGlobalFixedDelay(LATENCY_MILLIS)
+
+        def client = new RestTemplateBuilder()
+                .rootUri(restTemplate.rootUri)
+                // Not pooled, so the client never limits the concurrency under test
+                .requestFactory(SimpleClientHttpRequestFactory)
+                .build()
+        def toDate = LocalDate.now().minusDays(1)
+        def fromDate = toDate.minusMonths(1)
+
+        when: "each endpoint is called at the target concurrency"
+        def results = [
+                run('available', CONCURRENCY, REQUESTS) { i ->
+                    client.exchange("/key-worker/${PRISON_ID}/available", HttpMethod.GET, createHeaderEntity(null), String)
+                },
+                run('members', CONCURRENCY, REQUESTS) { i ->
+                    client.exchange("/key-worker/${PRISON_ID}/members", HttpMethod.GET, createHeaderEntity(null), String)
+                },
+                run('allocations', CONCURRENCY, REQUESTS) { i ->
+                    client.exchange("/key-worker/${PRISON_ID}/allocations", HttpMethod.GET, pageOf(i * 10 % Math.max(ALLOCATED, 1), 10), String)
+                },
+                // Each run replaces the prison's provisional allocations, so concurrent runs would only contend on them
+                run('allocate/start', 1, Math.max(REQUESTS.intdiv(50), 5)) { i ->
+                    client.exchange("/key-worker/${PRISON_ID}/allocate/start", HttpMethod.POST, createHeaderEntity(null), String)
+                },
+                run('key-worker-stats', CONCURRENCY, REQUESTS) { i ->
+                    client.exchange("/key-worker-stats?prisonId=${PRISON_ID}&fromDate=${fromDate}&toDate=${toDate}", HttpMethod.GET, createHeaderEntity(null), String)
+                },
+                run('key-worker-stats/staff', CONCURRENCY, REQUESTS) { i ->
+                    client.exchange("/key-worker-stats/${staffId(i % STAFF)}/prison/${PRISON_ID}?fromDate=${fromDate}&toDate=${toDate}", HttpMethod.GET, createHeaderEntity(null), String)
+                }
+        ]
+        report(results)
+
+        then:
+        results.every { it.errors == 0 }
+    }
+
+    private void migrate() {
+        def response = restTemplate.exchange("/key-worker/enable/${PRISON_ID}/auto-allocate?migrate=true&capacity=6,9&frequency=1",
+                HttpMethod.POST, createHeaderEntityForAdminUser("headers"), String)
+        assert response.statusCode == HttpStatus.OK
+    }
+
+    private void seedStatistics() {
+        def today = LocalDate.now()
+        if (statisticRepository.findOneByPrisonIdAndSnapshotDate(PRISON_ID, today.minusDays(1)) != null) return
+
+        statisticRepository.saveAll((1..365).collect { days ->
+            PrisonKeyWorkerStatistic.builder()
+                    .prisonId(PRISON_ID)
+                    .snapshotDate(today.minusDays(days))
+                    .totalNumPrisoners(PRISONERS)
+                    .numPrisonersAssignedKeyWorker(ALLOCATED)
+                    .numberKeyWorkerSessions(STAFF + days % 40)
+                    .numberKeyWorkerEntries(STAFF.intdiv(2) + days % 20)
+                    .numberOfActiveKeyworkers(STAFF)
+                    .avgNumDaysFromReceptionToAllocationDays(5 + days % 5)
+                    .avgNumDaysFromReceptionToKeyWorkingSession(8 + days % 5)
+                    .build()
+        })
+    }
+
+    private HttpEntity pageOf(long offset, long limit) {
+        def headers = new HttpHeaders()
+        headers.putAll(createHeaderEntity(null).headers)
+        headers.add(Page.HEADER_PAGE_OFFSET, String.valueOf(offset))
+        headers.add(Page.HEADER_PAGE_LIMIT, String.valueOf(limit))
+        new HttpEntity<>(headers)
+    }
+
+    private Map run(String name, int concurrency, int requests, Closure call) {
+        def executor = Executors.newFixedThreadPool(concurrency)
+        try {
+            execute(executor, Math.min(WARMUP, requests), call)
+
+            def heapPools = ManagementFactory.memoryPoolMXBeans.findAll { it.type == MemoryType.HEAP }
+            heapPools.each { it.resetPeakUsage() }
+            // Platform threads only, virtual threads are not counted
+            def threads = ManagementFactory.threadMXBean
+            threads.resetPeakThreadCount()
+            def collectors = ManagementFactory.garbageCollectorMXBeans
+            def gcCountBefore = collectors.sum { it.collectionCount } as long
+            def gcTimeBefore = collectors.sum { it.collectionTime } as long
+
+            def start = System.nanoTime()
+            def outcomes = execute(executor, requests, call)
+            def elapsedNanos = System.nanoTime() - start
+
+            def latencies = outcomes.findAll { it.ok }.collect { it.nanos }.sort()
+            [
+                    endpoint     : name,
+                    concurrency  : concurrency,
+                    requests     : requests,
+                    errors       : outcomes.count { !it.ok },
+                    throughput   : requests * 1_000_000_000d / elapsedNanos,
+                    p50Millis    : percentile(latencies, 0.5),
+                    p99Millis    : percentile(latencies, 0.99),
+                    p999Millis   : percentile(latencies, 0.999),
+                    maxMillis    : latencies ? latencies.last() / 1_000_000d : 0d,
+                    peakHeapMb   : (heapPools.sum { it.peakUsage.used } as long).intdiv(1024 * 1024),
+                    peakThreads  : threads.peakThreadCount,
+                    gcCount      : (collectors.sum { it.collectionCount } as long) - gcCountBefore,
+                    gcTimeMillis : (collectors.sum { it.collectionTime } as long) - gcTimeBefore
+            ]
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private static List<Map> execute(def executor, int requests, Closure call) {
+        def tasks = (0..<requests).collect { i ->
+            { ->
+                def start = System.nanoTime()
+                def ok
+                try {
+                    ok = call(i).statusCode.is2xxSuccessful()
+                } catch (Exception e) {
+                    log.warn("Request {} failed: {}", i, e.message)
+                    ok = false
+                }
+                [ok: ok, nanos: System.nanoTime() - start]
+            } as Callable
+        }
+        executor.invokeAll(tasks, 1, TimeUnit.HOURS).collect { it.get() }
+    }
+
+    private static double percentile(List<Long> sortedNanos, double percentile) {
+        if (!sortedNanos) return 0d
+        def index = Math.max((int) Math.ceil(percentile * sortedNanos.size()) - 1, 0)
+        sortedNanos[index] / 1_000_000d
+    }
+
+    private static void report(List<Map> results) {
+        def settings = [prisoners: PRISONERS, staff: STAFF, elite2LatencyMillis: LATENCY_MILLIS, concurrency: CONCURRENCY, requests: REQUESTS]
+        def file = reportFile(THREADS_MODE)
+        file.parentFile.mkdirs()
+        file.text = JsonOutput.prettyPrint(JsonOutput.toJson(settings + [threadsMode: THREADS_MODE, javaVersion: Runtime.version().toString(), results: results]))
+
+        log.info(String.format('%-24s %8s %8s %10s %9s %9s %9s %9s %8s %8s %6s %8s',
+                'endpoint', 'requests', 'errors', 'req/s', 'p50 ms', 'p99 ms', 'p999 ms', 'max ms', 'heap MB', 'threads', 'gcs', 'gc ms'))
+        results.each {
+            log.info(String.format('%-24s %8d %8d %10.1f %9.1f %9.1f %9.1f %9.1f %8d %8d %6d %8d',
+                    it.endpoint, it.requests, it.errors, it.throughput, it.p50Millis, it.p99Millis, it.p999Millis,
+                    it.maxMillis, it.peakHeapMb, it.peakThreads, it.gcCount, it.gcTimeMillis))
+        }
+        log.info('Load test report written to {}', file.absolutePath)
+
+        compare(settings)
+    }
+
+    private static File reportFile(String threadsMode) {
+        new File("build/reports/load-test/report-${threadsMode}.json")
+    }
+
+    /**
+     * Compares the platform and virtual thread reports, when both exist and were made with the same settings.
+     */
+    private static void compare(Map settings) {
+        def reports = ['platform', 'virtual'].collect { reportFile(it) }
+        if (!reports.every { it.exists() }) return
+
+        def (platform, virtual) = reports.collect { new JsonSlurper().parse(it) }
+        if (![platform, virtual].every { report -> settings.every { report[it.key] == it.value } }) {
+            log.info('Platform and virtual thread reports were made with different settings, so are not compared')
+            return
+        }
+
+        log.info(String.format('%-24s %12s %12s %8s %14s %14s %12s %12s',
+                'endpoint', 'platform r/s', 'virtual r/s', 'ratio', 'platform MB', 'virtual MB', 'platform thr', 'virtual thr'))
+        platform.results.each { p ->
+            def v = virtual.results.find { it.endpoint == p.endpoint }
+            if (v == null) return
+            log.info(String.format('%-24s %12.1f %12.1f %8.2f %14d %14d %12d %12d',
+                    p.endpoint, p.throughput, v.throughput, p.throughput ? v.throughput / p.throughput : 0d,
+                    p.peakHeapMb, v.peakHeapMb, p.peakThreads, v.peakThreads))
+        }
+    }
+}
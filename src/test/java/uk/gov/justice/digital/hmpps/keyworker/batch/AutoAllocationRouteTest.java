@@ -0,0 +1,96 @@
+package uk.gov.justice.digital.hmpps.keyworker.batch;
+
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.justice.digital.hmpps.keyworker.dto.AutoAllocationOutcomeDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.AutoAllocationOutcomeDto.Status;
+import uk.gov.justice.digital.hmpps.keyworker.dto.Prison;
+import uk.gov.justice.digital.hmpps.keyworker.exception.AllocationException;
+import uk.gov.justice.digital.hmpps.keyworker.services.AutoAllocationProgress;
+import uk.gov.justice.digital.hmpps.keyworker.services.KeyworkerAutoAllocationService;
+import uk.gov.justice.digital.hmpps.keyworker.services.PrisonSupportedService;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AutoAllocationRouteTest extends CamelTestSupport {
+
+    private static final Prison MDI = Prison.builder().prisonId("MDI").migrated(true).autoAllocatedSupported(true).build();
+    private static final Prison LEI = Prison.builder().prisonId("LEI").migrated(true).autoAllocatedSupported(true).build();
+    private static final Prison LPI = Prison.builder().prisonId("LPI").migrated(true).autoAllocatedSupported(true).build();
+    private static final Prison WWI = Prison.builder().prisonId("WWI").migrated(true).autoAllocatedSupported(false).build();
+
+    @Mock
+    private PrisonSupportedService prisonSupportedService;
+
+    @Mock
+    private KeyworkerAutoAllocationService keyworkerAutoAllocationService;
+
+    @Override
+    public RouteBuilder[] createRouteBuilders() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        final var route = new AutoAllocationRoute(keyworkerAutoAllocationService, prisonSupportedService);
+        ReflectionTestUtils.setField(route, "maxConcurrentPrisons", 2);
+        ReflectionTestUtils.setField(route, "connectionPoolSize", 10);
+
+        return new RouteBuilder[]{route};
+    }
+
+    @Test
+    public void testAutoAllocatesEachSupportedPrison() {
+        when(prisonSupportedService.getMigratedPrisons()).thenReturn(List.of(MDI, LEI, LPI, WWI));
+        when(keyworkerAutoAllocationService.autoAllocate(eq(MDI.getPrisonId()), any(AutoAllocationProgress.class))).thenReturn(5L);
+        when(keyworkerAutoAllocationService.autoAllocate(eq(LEI.getPrisonId()), any(AutoAllocationProgress.class))).thenAnswer(invocation -> {
+            invocation.<AutoAllocationProgress>getArgument(1).getCounter().increment(3);
+            throw AllocationException.withMessage("All available Key workers are at full capacity.");
+        });
+        when(keyworkerAutoAllocationService.autoAllocate(eq(LPI.getPrisonId()), any(AutoAllocationProgress.class))).thenThrow(new IllegalStateException("Elite2 unavailable"));
+
+        final var response = template.send(AutoAllocationRoute.DIRECT_AUTO_ALLOCATION, exchange -> {
+        });
+
+        final List<AutoAllocationOutcomeDto> outcomes = response.getIn().getBody(List.class);
+        final var outcomesByPrison = outcomes.stream()
+                .collect(Collectors.toMap(AutoAllocationOutcomeDto::getPrisonId, Function.identity()));
+
+        assertThat(outcomesByPrison).containsOnlyKeys("MDI", "LEI", "LPI");
+
+        assertThat(outcomesByPrison.get("MDI").getStatus()).isEqualTo(Status.COMPLETED);
+        assertThat(outcomesByPrison.get("MDI").getAllocations()).isEqualTo(5L);
+
+        assertThat(outcomesByPrison.get("LEI").getStatus()).isEqualTo(Status.HALTED);
+        assertThat(outcomesByPrison.get("LEI").getAllocations()).isEqualTo(3L);
+        assertThat(outcomesByPrison.get("LEI").getOutcome()).isEqualTo("All available Key workers are at full capacity.");
+
+        assertThat(outcomesByPrison.get("LPI").getStatus()).isEqualTo(Status.FAILED);
+        assertThat(outcomesByPrison.get("LPI").getAllocations()).isEqualTo(0L);
+        assertThat(outcomesByPrison.get("LPI").getOutcome()).isEqualTo("Elite2 unavailable");
+
+        verify(keyworkerAutoAllocationService, never()).autoAllocate(eq(WWI.getPrisonId()), any(AutoAllocationProgress.class));
+    }
+
+    @Test
+    public void testNoPrisonsSupportAutoAllocation() {
+        when(prisonSupportedService.getMigratedPrisons()).thenReturn(List.of(WWI));
+
+        final var response = template.send(AutoAllocationRoute.DIRECT_AUTO_ALLOCATION, exchange -> {
+        });
+
+        assertThat(response.getIn().getBody(List.class)).isEmpty();
+
+        verifyZeroInteractions(keyworkerAutoAllocationService);
+    }
+}
@@ -0,0 +1,147 @@
+package uk.gov.justice.digital.hmpps.keyworker.batch;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.AdviceWithRouteBuilder;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.justice.digital.hmpps.keyworker.dto.Prison;
+import uk.gov.justice.digital.hmpps.keyworker.services.PrisonSupportedService;
+import uk.gov.justice.digital.hmpps.keyworker.services.ReconciliationService;
+import uk.gov.justice.digital.hmpps.keyworker.services.ReconciliationService.ReconMetrics;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class KeyworkerReconRouteParallelTest extends CamelTestSupport {
+
+    private final static String MOCK_RECON_ENDPOINT = "mock:recon";
+    private final static String MOCK_DLQ_ENDPOINT = "mock:dlq";
+
+    private static final List<Prison> PRISONS = List.of(
+            Prison.builder().prisonId("MDI").migrated(true).build(),
+            Prison.builder().prisonId("LEI").migrated(true).build(),
+            Prison.builder().prisonId("LPI").migrated(true).build(),
+            Prison.builder().prisonId("WWI").migrated(true).build());
+
+    @Mock
+    private PrisonSupportedService prisonSupportedService;
+
+    @Mock
+    private ReconciliationService reconciliationService;
+
+    private static final long WAIT_SECONDS = 10;
+    private static final CountDownLatch NO_WAIT = new CountDownLatch(0);
+
+    private final AtomicInteger inProgress = new AtomicInteger();
+    private final AtomicInteger maxInProgress = new AtomicInteger();
+    private final Set<String> waitedInTime = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public RouteBuilder[] createRouteBuilders() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        final var route = new KeyworkerReconRoute(reconciliationService, prisonSupportedService);
+        ReflectionTestUtils.setField(route, "parallelEnabled", true);
+        ReflectionTestUtils.setField(route, "parallelThreads", 3);
+        // Half of a pool of 4 connections, so 2 prisons at once rather than the 3 threads configured
+        ReflectionTestUtils.setField(route, "connectionPoolSize", 4);
+
+        return new RouteBuilder[]{route};
+    }
+
+    @Before
+    public void mockEndpoints() throws Exception {
+        context.getRouteDefinitions().get(1).adviceWith(context, new AdviceWithRouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                weaveAddLast().to(MOCK_RECON_ENDPOINT);
+            }
+        });
+
+        context.getRouteDefinitions().get(2).adviceWith(context, new AdviceWithRouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                weaveAddLast().to(MOCK_DLQ_ENDPOINT);
+            }
+        });
+        when(prisonSupportedService.getMigratedPrisons()).thenReturn(PRISONS);
+    }
+
+    @Test
+    public void testPrisonsReconciledAtOnceKeptToHalfTheConnectionPool() throws Exception {
+        // Each prison is held until a second prison is in progress alongside it
+        final var twoStarted = new CountDownLatch(2);
+        when(reconciliationService.reconcileKeyWorkerAllocations(anyString()))
+                .thenAnswer(invocation -> reconcile(invocation.getArgument(0), twoStarted, twoStarted));
+
+        template.send(KeyworkerReconRoute.DIRECT_KEY_WORKER_RECON, exchange -> {
+        });
+
+        assertThat(reconciledPrisonIds()).containsExactlyInAnyOrder("MDI", "LEI", "LPI", "WWI");
+        // Every prison went ahead, so the first two overlapped; none found more than one other in progress
+        assertThat(waitedInTime).containsExactlyInAnyOrder("MDI", "LEI", "LPI", "WWI");
+        assertThat(maxInProgress.get()).isLessThanOrEqualTo(2);
+        assertThat(getMockEndpoint(MOCK_DLQ_ENDPOINT).getReceivedExchanges()).isEmpty();
+    }
+
+    @Test
+    public void testFailedReconciliationRetriedWithoutHoldingUpOtherPrisons() throws Exception {
+        final var othersReconciled = new CountDownLatch(PRISONS.size() - 1);
+        when(reconciliationService.reconcileKeyWorkerAllocations(anyString())).thenAnswer(invocation -> {
+            final var metrics = reconcile(invocation.getArgument(0), NO_WAIT, NO_WAIT);
+            othersReconciled.countDown();
+            return metrics;
+        });
+        // MDI's retry only goes ahead once every other prison has been reconciled
+        doThrow(new IllegalStateException("Elite2 unavailable"))
+                .doAnswer(invocation -> reconcile("MDI", NO_WAIT, othersReconciled))
+                .when(reconciliationService).reconcileKeyWorkerAllocations("MDI");
+
+        template.send(KeyworkerReconRoute.DIRECT_KEY_WORKER_RECON, exchange -> {
+        });
+
+        assertThat(reconciledPrisonIds()).containsExactlyInAnyOrder("MDI", "LEI", "LPI", "WWI");
+        // The other prisons were reconciled while MDI waited to be retried, rather than after it
+        assertThat(waitedInTime).contains("MDI");
+
+        verify(reconciliationService, times(2)).reconcileKeyWorkerAllocations("MDI");
+        verify(reconciliationService, never()).raiseProcessingError(anyString(), any(Exchange.class));
+        assertThat(getMockEndpoint(MOCK_DLQ_ENDPOINT).getReceivedExchanges()).isEmpty();
+    }
+
+    private ReconMetrics reconcile(final String prisonId, final CountDownLatch started, final CountDownLatch waitFor) throws InterruptedException {
+        maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+        try {
+            started.countDown();
+            if (waitFor.await(WAIT_SECONDS, TimeUnit.SECONDS)) {
+                waitedInTime.add(prisonId);
+            }
+            return new ReconMetrics(prisonId, 10, 1);
+        } finally {
+            inProgress.decrementAndGet();
+        }
+    }
+
+    private List<String> reconciledPrisonIds() {
+        return getMockEndpoint(MOCK_RECON_ENDPOINT).getReceivedExchanges().stream()
+                .map(exchange -> exchange.getIn().getBody(ReconMetrics.class).getPrisonId())
+                .collect(Collectors.toList());
+    }
+}
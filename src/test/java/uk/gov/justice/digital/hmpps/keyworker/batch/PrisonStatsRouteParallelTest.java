@@ -0,0 +1,112 @@
+package uk.gov.justice.digital.hmpps.keyworker.batch;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.AdviceWithRouteBuilder;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.justice.digital.hmpps.keyworker.dto.Prison;
+import uk.gov.justice.digital.hmpps.keyworker.model.PrisonKeyWorkerStatistic;
+import uk.gov.justice.digital.hmpps.keyworker.services.KeyworkerStatsService;
+import uk.gov.justice.digital.hmpps.keyworker.services.PrisonSupportedService;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PrisonStatsRouteParallelTest extends CamelTestSupport {
+
+    private final static String MOCK_GENSTATS_ENDPOINT = "mock:gen-stats";
+    private final static String MOCK_DLQ_ENDPOINT = "mock:dlq";
+
+    private static final Prison MDI = Prison.builder().prisonId("MDI").migrated(true).build();
+    private static final Prison LEI = Prison.builder().prisonId("LEI").migrated(true).build();
+    private static final Prison LPI = Prison.builder().prisonId("LPI").migrated(true).build();
+
+    @Mock
+    private PrisonSupportedService prisonSupportedService;
+
+    @Mock
+    private KeyworkerStatsService keyworkerStatsService;
+
+    @Override
+    public RouteBuilder[] createRouteBuilders() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        final var route = new PrisonStatsRoute(keyworkerStatsService, prisonSupportedService);
+        ReflectionTestUtils.setField(route, "parallelEnabled", true);
+        ReflectionTestUtils.setField(route, "parallelThreads", 3);
+        ReflectionTestUtils.setField(route, "connectionPoolSize", 10);
+
+        return new RouteBuilder[]{route};
+    }
+
+    @Before
+    public void mockEndpoints() throws Exception {
+        context.getRouteDefinitions().get(1).adviceWith(context, new AdviceWithRouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                weaveAddLast().to(MOCK_GENSTATS_ENDPOINT);
+            }
+        });
+
+        context.getRouteDefinitions().get(2).adviceWith(context, new AdviceWithRouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                weaveAddLast().to(MOCK_DLQ_ENDPOINT);
+            }
+        });
+    }
+
+    @Test
+    public void testGenerateStatsInParallel() throws Exception {
+        when(prisonSupportedService.getMigratedPrisons()).thenReturn(List.of(MDI, LEI, LPI));
+
+        final var now = LocalDate.now();
+        List.of(MDI, LEI, LPI).forEach(prison -> when(keyworkerStatsService.generatePrisonStats(prison.getPrisonId()))
+                .thenReturn(PrisonKeyWorkerStatistic.builder().prisonId(prison.getPrisonId()).snapshotDate(now).build()));
+
+        template.send(PrisonStatsRoute.DIRECT_PRISON_STATS, exchange -> {
+        });
+
+        final var statsEndpoint = getMockEndpoint(MOCK_GENSTATS_ENDPOINT);
+        statsEndpoint.assertIsSatisfied();
+
+        // Prisons may complete in any order
+        final var prisonIds = statsEndpoint.getReceivedExchanges().stream()
+                .map(exchange -> exchange.getIn().getBody(PrisonKeyWorkerStatistic.class).getPrisonId())
+                .collect(Collectors.toList());
+        assertThat(prisonIds).containsExactlyInAnyOrder("MDI", "LEI", "LPI");
+
+        assertThat(getMockEndpoint(MOCK_DLQ_ENDPOINT).getReceivedExchanges()).isEmpty();
+
+        verify(keyworkerStatsService, times(3)).generatePrisonStats(isA(String.class));
+    }
+
+    @Test
+    public void testErrorInOnePrisonDoesNotAffectOthers() throws Exception {
+        when(prisonSupportedService.getMigratedPrisons()).thenReturn(List.of(MDI, LEI, LPI));
+
+        when(keyworkerStatsService.generatePrisonStats(MDI.getPrisonId())).thenThrow(NullPointerException.class);
+        when(keyworkerStatsService.generatePrisonStats(LEI.getPrisonId())).thenReturn(PrisonKeyWorkerStatistic.builder().prisonId(LEI.getPrisonId()).build());
+        when(keyworkerStatsService.generatePrisonStats(LPI.getPrisonId())).thenReturn(PrisonKeyWorkerStatistic.builder().prisonId(LPI.getPrisonId()).build());
+
+        template.send(PrisonStatsRoute.DIRECT_PRISON_STATS, exchange -> {
+        });
+
+        assertThat(getMockEndpoint(MOCK_GENSTATS_ENDPOINT).getReceivedExchanges()).hasSize(2);
+        assertThat(getMockEndpoint(MOCK_DLQ_ENDPOINT).getReceivedExchanges()).hasSize(1);
+
+        verify(keyworkerStatsService).raiseStatsProcessingError(eq(MDI.getPrisonId()), isA(Exchange.class));
+    }
+}
@@ -0,0 +1,57 @@
+package uk.gov.justice.digital.hmpps.keyworker.repository;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.transaction.TestTransaction;
+import org.springframework.transaction.annotation.Transactional;
+import uk.gov.justice.digital.hmpps.keyworker.model.KeyworkerLoad;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+@Transactional
+public class KeyworkerLoadRepositoryTest {
+
+    private static final String AGENCY_ID_LEI = "LEI";
+    private static final long STAFF_ID = 900001L;
+
+    @Autowired
+    private KeyworkerLoadRepository repository;
+
+    @Test
+    public void givenNoLoadWhenInsertedTwiceThenOnlyTheFirstInsertCreatesIt() {
+
+        assertThat(repository.insertIfMissing(STAFF_ID, AGENCY_ID_LEI, 0)).isEqualTo(1);
+        assertThat(repository.insertIfMissing(STAFF_ID, AGENCY_ID_LEI, 5)).isEqualTo(0);
+
+        final var load = repository.findById(new KeyworkerLoad.KeyworkerLoadId(STAFF_ID, AGENCY_ID_LEI)).orElseThrow();
+
+        assertThat(load.getNumberAllocated()).isEqualTo(0);
+    }
+
+    @Test
+    public void givenACommittedLoadWhenInsertedAgainThenItIsUnchanged() {
+
+        repository.save(KeyworkerLoad.builder().staffId(STAFF_ID + 1).prisonId(AGENCY_ID_LEI).numberAllocated(3).build());
+
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+
+        TestTransaction.start();
+
+        assertThat(repository.insertIfMissing(STAFF_ID + 1, AGENCY_ID_LEI, 0)).isEqualTo(0);
+        assertThat(repository.lockByPrisonIdAndStaffIdIn(AGENCY_ID_LEI, List.of(STAFF_ID + 1)))
+                .extracting(KeyworkerLoad::getNumberAllocated)
+                .containsExactly(3);
+
+        repository.deleteById(new KeyworkerLoad.KeyworkerLoadId(STAFF_ID + 1, AGENCY_ID_LEI));
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+    }
+}
@@ -0,0 +1,260 @@
+package uk.gov.justice.digital.hmpps.keyworker.repository;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.flywaydb.core.Flyway;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import uk.gov.justice.digital.hmpps.keyworker.dto.AllocationsFilterDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.SortOrder;
+import uk.gov.justice.digital.hmpps.keyworker.model.AllocationType;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that the queries {@link OffenderKeyworkerRepository} sends to PostgreSQL are served by indexes, with
+ * allocation volumes similar to production. Each repository method is called against an embedded database, and every
+ * statement it executes is explained again with the same parameters. Excluded from the default test task as it starts
+ * a database server; run with {@code ./gradlew queryPlanTest}.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+@DirtiesContext
+public class OffenderKeyworkerQueryPlanTest {
+
+    private static final List<ExecutedStatement> executed = new CopyOnWriteArrayList<>();
+
+    private static EmbeddedPostgres postgres;
+
+    @Autowired
+    private OffenderKeyworkerRepository repository;
+
+    @TestConfiguration
+    static class EmbeddedPostgresConfiguration {
+        @Bean
+        @Primary
+        public DataSource dataSource() {
+            return recording(postgres.getPostgresDatabase());
+        }
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws IOException, SQLException {
+        postgres = EmbeddedPostgres.start();
+        final var dataSource = postgres.getPostgresDatabase();
+
+        Flyway.configure().dataSource(dataSource).locations("classpath:db/migration").load().migrate();
+
+        // 200,000 allocations across 100 prisons and 2,000 Key workers, with around four per offender and a quarter active
+        try (final var connection = dataSource.getConnection(); final var statement = connection.createStatement()) {
+            statement.execute("INSERT INTO OFFENDER_KEY_WORKER (OFFENDER_NO, STAFF_ID, ASSIGNED_DATE_TIME, ACTIVE_FLAG, ALLOC_REASON, ALLOC_TYPE, USER_ID, PRISON_ID, CREATE_DATETIME, CREATE_USER_ID) " +
+                    "SELECT 'A' || LPAD(CAST(i % 49999 AS VARCHAR), 7, '0'), i % 2000, TIMESTAMP '2015-01-01 00:00:00' + i * INTERVAL '10 minutes', " +
+                    "CASE WHEN i % 4 = 0 THEN 'Y' ELSE 'N' END, 'AUTO', CASE WHEN i % 3 = 0 THEN 'M' ELSE 'A' END, 'LOAD', " +
+                    "'P' || LPAD(CAST(i % 100 AS VARCHAR), 3, '0'), CURRENT_TIMESTAMP, 'LOAD' " +
+                    "FROM GENERATE_SERIES(1, 200000) i");
+            statement.execute("ANALYZE OFFENDER_KEY_WORKER");
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        postgres.close();
+    }
+
+    @Test
+    public void findByOffenderNo() throws SQLException {
+        assertNoSequentialScan(() -> repository.findByOffenderNo("A0000050"));
+    }
+
+    @Test
+    public void findByActiveAndPrisonIdAndAllocationTypeIsNot() throws SQLException {
+        assertNoSequentialScan(() -> repository.findByActiveAndPrisonIdAndAllocationTypeIsNot(true, "P050", AllocationType.PROVISIONAL));
+    }
+
+    @Test
+    public void findByActiveAndPrisonIdAndAllocationType() throws SQLException {
+        assertNoSequentialScan(() -> repository.findByActiveAndPrisonIdAndAllocationType(true, "P050", AllocationType.MANUAL));
+    }
+
+    @Test
+    public void findByActiveAndPrisonIdAndOffenderNoInAndAllocationTypeIsNot() throws SQLException {
+        assertNoSequentialScan(() -> repository.findByActiveAndPrisonIdAndOffenderNoInAndAllocationTypeIsNot(true, "P050", List.of("A0000050", "A0000150"), AllocationType.PROVISIONAL));
+    }
+
+    @Test
+    public void findByStaffIdAndPrisonIdAndActive() throws SQLException {
+        assertNoSequentialScan(() -> repository.findByStaffIdAndPrisonIdAndActive(1050L, "P050", true));
+    }
+
+    @Test
+    public void findByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot() throws SQLException {
+        assertNoSequentialScan(() -> repository.findByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(1050L, "P050", true, AllocationType.PROVISIONAL));
+    }
+
+    @Test
+    public void countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot() throws SQLException {
+        assertNoSequentialScan(() -> repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(1050L, "P050", true, AllocationType.PROVISIONAL));
+    }
+
+    @Test
+    public void findByStaffIdAndPrisonId() throws SQLException {
+        assertNoSequentialScan(() -> repository.findByStaffIdAndPrisonId(1050L, "P050"));
+    }
+
+    @Test
+    public void findByOffenderNoAndActiveAndAllocationTypeIsNot() throws SQLException {
+        assertNoSequentialScan(() -> repository.findByOffenderNoAndActiveAndAllocationTypeIsNot("A0000050", true, AllocationType.PROVISIONAL));
+    }
+
+    @Test
+    public void findByActiveAndOffenderNoIn() throws SQLException {
+        assertNoSequentialScan(() -> repository.findByActiveAndOffenderNoIn(true, List.of("A0000050", "A0000150", "A0000250")));
+    }
+
+    @Test
+    public void findByPrisonIdAndAssignedDateTimeBetween() throws SQLException {
+        assertNoSequentialScan(() -> repository.findByPrisonIdAndAssignedDateTimeBetween("P050", LocalDateTime.of(2016, 1, 1, 0, 0), LocalDateTime.of(2016, 2, 1, 0, 0)));
+    }
+
+    @Test
+    public void countAllocationsByStaffId() throws SQLException {
+        assertNoSequentialScan(() -> repository.countAllocationsByStaffId("P050", List.of(50L, 150L, 250L), true, AllocationType.PROVISIONAL));
+    }
+
+    @Test
+    public void countAllocationsByPrisonId() throws SQLException {
+        assertNoSequentialScan(() -> repository.countAllocationsByPrisonId("P050", true, AllocationType.PROVISIONAL));
+    }
+
+    @Test
+    public void findActiveAllocations() throws SQLException {
+        final var filter = AllocationsFilterDto.builder()
+                .prisonId("P050")
+                .allocationType(Optional.empty())
+                .fromDate(Optional.of(LocalDate.of(2016, 1, 1)))
+                .toDate(LocalDate.of(2016, 12, 31))
+                .build();
+
+        assertNoSequentialScan(() -> repository.findActiveAllocations(filter, true, SortOrder.DESC, 20, 10));
+    }
+
+    private static void assertNoSequentialScan(final Runnable call) throws SQLException {
+        executed.clear();
+        call.run();
+        final var statements = new ArrayList<>(executed);
+
+        assertThat(statements).as("statements executed").isNotEmpty();
+
+        try (final var connection = postgres.getPostgresDatabase().getConnection()) {
+            for (final var statement : statements) {
+                try (final var explain = statement.prepare(connection, "EXPLAIN (FORMAT JSON) ");
+                     final var plan = explain.executeQuery()) {
+                    plan.next();
+
+                    assertThat(plan.getString(1)).as(statement.sql).doesNotContain("\"Seq Scan\"");
+                }
+            }
+        }
+    }
+
+    /**
+     * Records each prepared statement executed through the data source, with the parameters set on it.
+     */
+    private static DataSource recording(final DataSource dataSource) {
+        return proxy(DataSource.class, dataSource, (method, args, result) ->
+                "getConnection".equals(method.getName()) ? recording((Connection) result) : result);
+    }
+
+    private static Connection recording(final Connection connection) {
+        return proxy(Connection.class, connection, (method, args, result) ->
+                "prepareStatement".equals(method.getName()) ? recording((PreparedStatement) result, (String) args[0]) : result);
+    }
+
+    private static PreparedStatement recording(final PreparedStatement preparedStatement, final String sql) {
+        final var statement = new ExecutedStatement(sql);
+
+        return proxy(PreparedStatement.class, preparedStatement, (method, args, result) -> {
+            if (method.getName().startsWith("set") && args != null && args.length > 1 && args[0] instanceof Integer) {
+                statement.parameters.add(new ParameterSetting(method, args));
+            } else if (method.getName().startsWith("execute") && (args == null || args.length == 0)) {
+                executed.add(statement);
+            }
+            return result;
+        });
+    }
+
+    private interface Interceptor {
+        Object afterCall(Method method, Object[] args, Object result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(final Class<T> type, final T target, final Interceptor interceptor) {
+        return (T) Proxy.newProxyInstance(OffenderKeyworkerQueryPlanTest.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            try {
+                return interceptor.afterCall(method, args, method.invoke(target, args));
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    private static class ExecutedStatement {
+        private final String sql;
+        private final List<ParameterSetting> parameters = new ArrayList<>();
+
+        private ExecutedStatement(final String sql) {
+            this.sql = sql;
+        }
+
+        private PreparedStatement prepare(final Connection connection, final String prefix) throws SQLException {
+            final var statement = connection.prepareStatement(prefix + sql);
+            for (final var parameter : parameters) {
+                parameter.apply(statement);
+            }
+            return statement;
+        }
+    }
+
+    private static class ParameterSetting {
+        private final Method method;
+        private final Object[] args;
+
+        private ParameterSetting(final Method method, final Object[] args) {
+            this.method = method;
+            this.args = args;
+        }
+
+        private void apply(final PreparedStatement statement) throws SQLException {
+            try {
+                method.invoke(statement, args);
+            } catch (final IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (final InvocationTargetException e) {
+                throw new SQLException(e.getCause());
+            }
+        }
+    }
+}
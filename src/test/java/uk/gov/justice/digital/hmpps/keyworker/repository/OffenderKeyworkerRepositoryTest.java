@@ -10,13 +10,19 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.context.transaction.TestTransaction;
 import org.springframework.transaction.annotation.Transactional;
+import uk.gov.justice.digital.hmpps.keyworker.dto.AllocationsFilterDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerAllocationCount;
+import uk.gov.justice.digital.hmpps.keyworker.dto.SortOrder;
 import uk.gov.justice.digital.hmpps.keyworker.model.AllocationReason;
 import uk.gov.justice.digital.hmpps.keyworker.model.AllocationType;
 import uk.gov.justice.digital.hmpps.keyworker.model.DeallocationReason;
 import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.within;
@@ -123,6 +129,80 @@ public class OffenderKeyworkerRepositoryTest {
         repository.deleteAll();
     }
 
+    @Test
+    public void shouldReturnCountsGroupedByStaffId() {
+        final var UNKNOWN_STAFFID = 98765L;
+
+        final var staffId1 = nextId();
+        repository.save(buildEntity(staffId1));
+        final var secondAllocation = buildEntity(staffId1);
+        secondAllocation.setOffenderNo("A1234AB");
+        repository.save(secondAllocation);
+
+        final var staffId2 = nextId();
+        repository.save(buildEntity(staffId2));
+        final var provisionalAllocation = buildEntity(staffId2);
+        provisionalAllocation.setOffenderNo("A1234AC");
+        provisionalAllocation.setAllocationType(AllocationType.PROVISIONAL);
+        repository.save(provisionalAllocation);
+
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+
+        assertThat(repository.countAllocationsByStaffId(AGENCY_ID_LEI, List.of(staffId1, staffId2, UNKNOWN_STAFFID), true, AllocationType.PROVISIONAL))
+                .containsExactlyInAnyOrder(new KeyworkerAllocationCount(staffId1, 2L), new KeyworkerAllocationCount(staffId2, 1L));
+        assertThat(repository.countAllocationsByStaffId(AGENCY_ID_LEI, List.of(staffId1), false, AllocationType.PROVISIONAL)).isEmpty();
+
+        repository.deleteAll();
+    }
+
+    @Test
+    public void shouldReturnPageOfActiveAllocationsWithinDates() {
+        final var prisonId = "PGI";
+        final var staffId = nextId();
+        for (var day = 1; day <= 5; day++) {
+            final var allocation = buildEntity(staffId);
+            allocation.setPrisonId(prisonId);
+            allocation.setOffenderNo("A000" + day + "AA");
+            allocation.setAssignedDateTime(LocalDateTime.of(2018, 3, day, 10, 0));
+            repository.save(allocation);
+        }
+        final var provisionalAllocation = buildEntity(staffId);
+        provisionalAllocation.setPrisonId(prisonId);
+        provisionalAllocation.setOffenderNo("A0006AA");
+        provisionalAllocation.setAssignedDateTime(LocalDateTime.of(2018, 3, 3, 11, 0));
+        provisionalAllocation.setAllocationType(AllocationType.PROVISIONAL);
+        repository.save(provisionalAllocation);
+
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+
+        // 2nd to 4th of March inclusive, excluding the provisional allocation
+        final var filter = AllocationsFilterDto.builder()
+                .prisonId(prisonId)
+                .allocationType(Optional.empty())
+                .fromDate(Optional.of(LocalDate.of(2018, 3, 2)))
+                .toDate(LocalDate.of(2018, 3, 4))
+                .build();
+
+        assertThat(repository.countActiveAllocations(filter)).isEqualTo(3L);
+        assertThat(repository.findActiveAllocations(filter, true, SortOrder.DESC, 1, 5))
+                .extracting(OffenderKeyworker::getOffenderNo).containsExactly("A0003AA", "A0002AA");
+        assertThat(repository.findActiveAllocations(filter, false, SortOrder.ASC, 0, 2))
+                .extracting(OffenderKeyworker::getOffenderNo).containsExactly("A0002AA", "A0003AA");
+
+        final var provisionalFilter = AllocationsFilterDto.builder()
+                .prisonId(prisonId)
+                .allocationType(Optional.of(AllocationType.PROVISIONAL))
+                .fromDate(Optional.empty())
+                .toDate(LocalDate.of(2018, 3, 4))
+                .build();
+        assertThat(repository.findActiveAllocations(provisionalFilter, false, SortOrder.ASC, 0, 10))
+                .extracting(OffenderKeyworker::getOffenderNo).containsExactly("A0006AA");
+
+        repository.deleteAll();
+    }
+
     @Test
     public void shouldDeleteProvisionalRows() {
 
@@ -2,6 +2,8 @@ package uk.gov.justice.digital.hmpps.keyworker.services;
 
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.http.HttpHeaders;
 import org.springframework.security.config.annotation.ObjectPostProcessor;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
@@ -28,6 +30,11 @@ public abstract class AbstractServiceTest {
         public AuthenticationConfiguration authenticationConfiguration() {
             return new AuthenticationConfiguration();
         }
+
+        @Bean(name = "staffLookupExecutor")
+        public TaskExecutor staffLookupExecutor() {
+            return new SimpleAsyncTaskExecutor();
+        }
     }
 
     protected String expandUriTemplate(final String uriTemplate, final Object... uriVars) {
@@ -0,0 +1,153 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import uk.gov.justice.digital.hmpps.keyworker.dto.AutoAllocationJobDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.AutoAllocationJobDto.Status;
+import uk.gov.justice.digital.hmpps.keyworker.exception.AllocationException;
+import uk.gov.justice.digital.hmpps.keyworker.exception.PrisonNotSupportedException;
+
+import javax.persistence.EntityNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AutoAllocationJobServiceTest {
+    private static final String TEST_AGENCY_ID = "LEI";
+
+    @Mock
+    private KeyworkerAutoAllocationService keyworkerAutoAllocationService;
+
+    @Mock
+    private PrisonSupportedService prisonSupportedService;
+
+    // Jobs are held until run, so their state can be checked before, during and after running
+    private final List<Runnable> submittedTasks = new ArrayList<>();
+
+    private AutoAllocationJobService service;
+
+    @Before
+    public void setUp() {
+        service = new AutoAllocationJobService(keyworkerAutoAllocationService, prisonSupportedService, submittedTasks::add);
+    }
+
+    @Test
+    public void testJobReportsProgressUntilCompleted() {
+        final var progressWhileRunning = new ArrayList<AutoAllocationJobDto>();
+
+        final var submitted = service.submit(TEST_AGENCY_ID);
+
+        assertThat(submitted.getStatus()).isEqualTo(Status.QUEUED);
+        assertThat(submitted.getAllocations()).isEqualTo(0L);
+        assertThat(submitted.getOffendersRemaining()).isNull();
+
+        when(keyworkerAutoAllocationService.autoAllocate(eq(TEST_AGENCY_ID), any(AutoAllocationProgress.class))).thenAnswer(invocation -> {
+            final AutoAllocationProgress progress = invocation.getArgument(1);
+            progress.setOffendersToAllocate(10);
+            progress.getCounter().increment(4);
+
+            progressWhileRunning.add(service.getJob(submitted.getJobId()));
+
+            progress.getCounter().increment(6);
+            return 10L;
+        });
+
+        runSubmittedTasks();
+
+        assertThat(progressWhileRunning).hasSize(1);
+        assertThat(progressWhileRunning.get(0).getStatus()).isEqualTo(Status.RUNNING);
+        assertThat(progressWhileRunning.get(0).getAllocations()).isEqualTo(4L);
+        assertThat(progressWhileRunning.get(0).getOffendersRemaining()).isEqualTo(6);
+
+        final var completed = service.getJob(submitted.getJobId());
+
+        assertThat(completed.getStatus()).isEqualTo(Status.COMPLETED);
+        assertThat(completed.getAllocations()).isEqualTo(10L);
+        assertThat(completed.getOffendersRemaining()).isEqualTo(0);
+        assertThat(completed.getCompletedDateTime()).isNotNull();
+    }
+
+    @Test
+    public void testJobReportsCapacityExhaustion() {
+        when(keyworkerAutoAllocationService.autoAllocate(eq(TEST_AGENCY_ID), any(AutoAllocationProgress.class))).thenAnswer(invocation -> {
+            final AutoAllocationProgress progress = invocation.getArgument(1);
+            progress.setOffendersToAllocate(10);
+            progress.getCounter().increment(7);
+
+            throw AllocationException.withMessage(KeyworkerPool.OUTCOME_ALL_KEY_WORKERS_AT_CAPACITY);
+        });
+
+        final var submitted = service.submit(TEST_AGENCY_ID);
+        runSubmittedTasks();
+
+        final var halted = service.getJob(submitted.getJobId());
+
+        assertThat(halted.getStatus()).isEqualTo(Status.HALTED);
+        assertThat(halted.getAllocations()).isEqualTo(7L);
+        assertThat(halted.getOffendersRemaining()).isEqualTo(3);
+        assertThat(halted.getOutcome()).isEqualTo(KeyworkerPool.OUTCOME_ALL_KEY_WORKERS_AT_CAPACITY);
+    }
+
+    @Test
+    public void testFailedJobReportsNoAllocations() {
+        when(keyworkerAutoAllocationService.autoAllocate(eq(TEST_AGENCY_ID), any(AutoAllocationProgress.class))).thenAnswer(invocation -> {
+            invocation.<AutoAllocationProgress>getArgument(1).getCounter().increment(2);
+
+            throw new IllegalStateException("Elite2 unavailable");
+        });
+
+        final var submitted = service.submit(TEST_AGENCY_ID);
+        runSubmittedTasks();
+
+        final var failed = service.getJob(submitted.getJobId());
+
+        assertThat(failed.getStatus()).isEqualTo(Status.FAILED);
+        assertThat(failed.getAllocations()).isEqualTo(0L);
+        assertThat(failed.getOutcome()).isEqualTo("Elite2 unavailable");
+    }
+
+    @Test
+    public void testUnfinishedJobReturnedForSamePrison() {
+        final var first = service.submit(TEST_AGENCY_ID);
+        final var second = service.submit(TEST_AGENCY_ID);
+
+        assertThat(second.getJobId()).isEqualTo(first.getJobId());
+        assertThat(submittedTasks).hasSize(1);
+
+        runSubmittedTasks();
+
+        final var third = service.submit(TEST_AGENCY_ID);
+
+        assertThat(third.getJobId()).isNotEqualTo(first.getJobId());
+    }
+
+    @Test
+    public void testUnsupportedPrisonRejectedOnSubmission() {
+        doThrow(new PrisonNotSupportedException("Prison [LEI] is not supported for auto-allocation."))
+                .when(prisonSupportedService).verifyPrisonSupportsAutoAllocation(TEST_AGENCY_ID);
+
+        assertThatThrownBy(() -> service.submit(TEST_AGENCY_ID)).isInstanceOf(PrisonNotSupportedException.class);
+
+        assertThat(submittedTasks).isEmpty();
+    }
+
+    @Test
+    public void testUnknownJob() {
+        assertThatThrownBy(() -> service.getJob("unknown")).isInstanceOf(EntityNotFoundException.class);
+    }
+
+    private void runSubmittedTasks() {
+        final var tasks = new ArrayList<>(submittedTasks);
+        submittedTasks.clear();
+        tasks.forEach(Runnable::run);
+    }
+}
@@ -0,0 +1,170 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.support.SimpleCacheManager;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CacheConfigTest {
+
+    private CacheConfig cacheConfig;
+    private CacheManager cacheManager;
+
+    @Before
+    public void setUp() {
+        final var environment = new MockEnvironment()
+                .withProperty("cache.getAvailableKeyworkers.max.weight", "5");
+        cacheConfig = new CacheConfig(environment);
+        ReflectionTestUtils.setField(cacheConfig, "staffInformationTimeoutSeconds", 86400);
+        ReflectionTestUtils.setField(cacheConfig, "prisonerInformationTimeoutSeconds", 300);
+        ReflectionTestUtils.setField(cacheConfig, "refreshAheadPercent", 80);
+        ReflectionTestUtils.setField(cacheConfig, "fallbackSeconds", 86400);
+        cacheManager = cacheConfig.cacheManager();
+        ((SimpleCacheManager) cacheManager).afterPropertiesSet();
+    }
+
+    @Test
+    public void testCachePerLookup() {
+        assertThat(cacheManager.getCacheNames()).containsExactlyInAnyOrder(
+                "getBasicKeyworkerDtoForStaffId", "getStaffDetailByUserId", "getStaffKeyWorkerForPrison",
+                "getPrisonerDetail", "getAvailableKeyworkers");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testListsWeighedByElementCount() {
+        final var cache = (Cache<Object, Object>) cacheManager.getCache("getAvailableKeyworkers").getNativeCache();
+
+        cache.put("LEI", List.of(1, 2, 3));
+        cache.put("MDI", List.of(4, 5, 6));
+        cache.cleanUp();
+
+        assertThat(cache.policy().eviction().orElseThrow().getMaximum()).isEqualTo(5);
+        assertThat(cache.estimatedSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void testConcurrentMissesLoadOnce() throws Exception {
+        final var lookup = new Lookup();
+        final var cache = nativeCache("getStaffDetailByUserId");
+        final var executor = Executors.newFixedThreadPool(4);
+        try {
+            final var results = IntStream.range(0, 4)
+                    .mapToObj(i -> executor.submit(() -> cache.get(lookup.key("ASMITH"))))
+                    .collect(Collectors.toList());
+            lookup.release.countDown();
+
+            for (final var result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("ASMITH");
+            }
+            assertThat(lookup.calls.get()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRefreshRepeatsLookup() throws Exception {
+        final var lookup = new Lookup();
+        lookup.release.countDown();
+        final var cache = nativeCache("getStaffDetailByUserId");
+
+        assertThat(cache.get(lookup.key("ASMITH"))).isEqualTo("ASMITH");
+        cache.refresh(lookup.key("ASMITH"));
+
+        // Refreshes happen in the background
+        for (var attempt = 0; attempt < 50 && lookup.calls.get() < 2; attempt++) {
+            Thread.sleep(100);
+        }
+        assertThat(lookup.calls.get()).isEqualTo(2);
+        assertThat(cache.get(lookup.key("ASMITH"))).isEqualTo("ASMITH");
+    }
+
+    @Test
+    public void testSharedEntriesKeptForFallback() {
+        final var cache = cacheManager.getCache("getStaffDetailByUserId");
+
+        assertThat(cache).isInstanceOf(FallbackCaffeineCache.class);
+        assertThat(nativeCache("getStaffDetailByUserId").policy().expireAfterWrite().orElseThrow().getExpiresAfter(TimeUnit.SECONDS))
+                .isEqualTo(86400 + 86400);
+        assertThat(cacheManager.getCache("getPrisonerDetail")).isNotInstanceOf(FallbackCaffeineCache.class);
+    }
+
+    @Test
+    public void testSharedKeysDoNotDependOnCaller() {
+        final var lookup = new Lookup();
+
+        final var userKey = asUser("USER1", () -> lookup.key("ASMITH"));
+        final var otherUserKey = asUser("USER2", () -> lookup.key("ASMITH"));
+
+        assertThat(userKey).isEqualTo(otherUserKey).isInstanceOf(RefreshableKey.class);
+    }
+
+    @Test
+    public void testUserScopedEntriesAreKeptPerUserAndNotRefreshed() {
+        final var method = ReflectionUtils.findMethod(NomisService.class, "getPrisonerDetail", String.class);
+        final var keyGenerator = new RefreshableKeyGenerator();
+        final var cache = cacheManager.getCache("getPrisonerDetail");
+
+        asUser("USER1", () -> {
+            cache.put(keyGenerator.generate(this, method, "A1234AA"), "A1234AA");
+            return null;
+        });
+
+        assertThat(asUser("USER1", () -> cache.get(keyGenerator.generate(this, method, "A1234AA")))).isNotNull();
+        assertThat(asUser("USER2", () -> cache.get(keyGenerator.generate(this, method, "A1234AA")))).isNull();
+
+        final var nativeCache = (Cache<?, ?>) cache.getNativeCache();
+        assertThat(nativeCache).isNotInstanceOf(LoadingCache.class);
+        assertThat(nativeCache.policy().refreshAfterWrite()).isEmpty();
+    }
+
+    private static <T> T asUser(final String username, final Supplier<T> call) {
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken(username, null));
+        try {
+            return call.get();
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private LoadingCache<Object, Object> nativeCache(final String name) {
+        return (LoadingCache<Object, Object>) cacheManager.getCache(name).getNativeCache();
+    }
+
+    public static class Lookup {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        public Optional<String> getStaffDetailByUserId(final String userId) throws InterruptedException {
+            calls.incrementAndGet();
+            release.await(5, TimeUnit.SECONDS);
+            return Optional.of(userId);
+        }
+
+        private Object key(final String userId) {
+            final var method = ReflectionUtils.findMethod(Lookup.class, "getStaffDetailByUserId", String.class);
+            return new RefreshableKeyGenerator().generate(this, method, userId);
+        }
+    }
+}
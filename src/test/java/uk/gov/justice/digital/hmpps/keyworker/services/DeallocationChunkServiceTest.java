@@ -0,0 +1,89 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import uk.gov.justice.digital.hmpps.keyworker.dto.PrisonerCustodyStatusDto;
+import uk.gov.justice.digital.hmpps.keyworker.model.BatchHistory;
+import uk.gov.justice.digital.hmpps.keyworker.model.DeallocationReason;
+import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
+import uk.gov.justice.digital.hmpps.keyworker.repository.BatchHistoryRepository;
+import uk.gov.justice.digital.hmpps.keyworker.repository.OffenderKeyworkerRepository;
+
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DeallocationChunkServiceTest {
+
+    @Mock
+    private OffenderKeyworkerRepository repository;
+    @Mock
+    private BatchHistoryRepository batchHistoryRepository;
+    @Mock
+    private KeyworkerLoadService keyworkerLoadService;
+
+    private DeallocationChunkService service;
+
+    private final LocalDateTime threshold = LocalDateTime.of(2018, Month.JANUARY, 14, 12, 0);
+
+    private BatchHistory deallocateJob;
+
+    @Before
+    public void setUp() {
+        service = new DeallocationChunkService(repository, batchHistoryRepository, keyworkerLoadService);
+        deallocateJob = BatchHistory.builder().batchId(1L).name("DeallocateJob").lastRun(threshold).build();
+        when(batchHistoryRepository.findByName("DeallocateJob")).thenReturn(deallocateJob);
+    }
+
+    @Test
+    public void testDeallocateChunk() {
+        final var movements = List.of(
+                PrisonerCustodyStatusDto.builder().offenderNo("AA1111A").toAgency("LEI").movementType("TRN").createDateTime(threshold.plusMinutes(1)).build(),
+                PrisonerCustodyStatusDto.builder().offenderNo("AA1111B").movementType("REL").createDateTime(threshold.plusMinutes(2)).build(),
+                PrisonerCustodyStatusDto.builder().offenderNo("AA1111C").toAgency("BXI").movementType("TRN").createDateTime(threshold.plusMinutes(3)).build(),
+                PrisonerCustodyStatusDto.builder().offenderNo("AA1111A").toAgency("MDI").movementType("TRN").createDateTime(threshold.plusMinutes(4)).build(),
+                PrisonerCustodyStatusDto.builder().offenderNo("AA1111D-notinDB").movementType("REL").createDateTime(threshold.plusMinutes(5)).build()
+        );
+
+        final var allocationA = OffenderKeyworker.builder().offenderNo("AA1111A").active(true).prisonId("MDI").build();
+        final var allocationB = OffenderKeyworker.builder().offenderNo("AA1111B").active(true).prisonId("MDI").build();
+        final var allocationC = OffenderKeyworker.builder().offenderNo("AA1111C").active(true).prisonId("BXI").build();
+        when(repository.findByActiveAndOffenderNoIn(true, Set.of("AA1111A", "AA1111B", "AA1111C", "AA1111D-notinDB")))
+                .thenReturn(List.of(allocationA, allocationB, allocationC));
+
+        final var deallocated = service.deallocate(movements, threshold.plusMinutes(5));
+
+        assertThat(deallocated).isEqualTo(2);
+
+        // The first movement ends the allocation
+        assertThat(allocationA.isActive()).isFalse();
+        assertThat(allocationA.getExpiryDateTime()).isEqualTo(threshold.plusMinutes(1));
+        assertThat(allocationA.getDeallocationReason()).isEqualTo(DeallocationReason.TRANSFER);
+
+        assertThat(allocationB.isActive()).isFalse();
+        assertThat(allocationB.getDeallocationReason()).isEqualTo(DeallocationReason.RELEASED);
+
+        // Moved into the prison the allocation is for
+        assertThat(allocationC.isActive()).isTrue();
+        assertThat(allocationC.getExpiryDateTime()).isNull();
+
+        assertThat(deallocateJob.getLastRun()).isEqualTo(threshold.plusMinutes(5));
+    }
+
+    @Test
+    public void testCheckpointNeverMovesBack() {
+        service.advanceCheckpoint(threshold.minusDays(1));
+
+        assertThat(deallocateJob.getLastRun()).isEqualTo(threshold);
+        verify(batchHistoryRepository).findByName("DeallocateJob");
+    }
+}
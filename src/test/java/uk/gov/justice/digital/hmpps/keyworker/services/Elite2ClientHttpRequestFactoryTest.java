@@ -0,0 +1,43 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.env.MockEnvironment;
+import uk.gov.justice.digital.hmpps.keyworker.services.RestTemplateConfiguration.Elite2ClientHttpRequestFactory;
+
+import java.net.URI;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.gov.justice.digital.hmpps.keyworker.services.NomisService.CASE_NOTE_USAGE;
+
+public class Elite2ClientHttpRequestFactoryTest {
+
+    private static final URI CASE_NOTE_USAGE_URI = URI.create("http://localhost/api/case-notes/staff-usage");
+
+    private final RequestConfig defaultRequestConfig = RequestConfig.custom()
+            .setConnectionRequestTimeout(5000)
+            .setConnectTimeout(2000)
+            .setSocketTimeout(30000)
+            .build();
+    private final Elite2ClientHttpRequestFactory requestFactory = new Elite2ClientHttpRequestFactory(HttpClients.createDefault(), defaultRequestConfig);
+
+    @Test
+    public void testDefaultTimeoutsOutsideGroupCall() {
+        assertThat(requestFactory.createHttpContext(HttpMethod.POST, CASE_NOTE_USAGE_URI)).isNull();
+    }
+
+    @Test
+    public void testGroupTimeoutUsedAsReadTimeout() {
+        final var resilience = new Elite2Resilience(new MockEnvironment(), new SimpleMeterRegistry());
+
+        final var context = resilience.call(CASE_NOTE_USAGE, () -> (HttpClientContext) requestFactory.createHttpContext(HttpMethod.POST, CASE_NOTE_USAGE_URI));
+
+        assertThat(context.getRequestConfig().getSocketTimeout()).isEqualTo(20000);
+        assertThat(context.getRequestConfig().getConnectTimeout()).isEqualTo(2000);
+        assertThat(context.getRequestConfig().getConnectionRequestTimeout()).isEqualTo(5000);
+    }
+}
@@ -0,0 +1,159 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import reactor.core.publisher.Mono;
+import uk.gov.justice.digital.hmpps.keyworker.exception.Elite2UnavailableException;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static uk.gov.justice.digital.hmpps.keyworker.services.NomisService.*;
+
+public class Elite2ResilienceTest {
+
+    private static final Instant NOW = Instant.parse("2019-01-01T10:00:00Z");
+
+    private SimpleMeterRegistry meterRegistry;
+    private Clock clock;
+    private Elite2Resilience resilience;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        final var environment = new MockEnvironment()
+                .withProperty("elite2.resilience.staff.window.size", "4")
+                .withProperty("elite2.resilience.staff.half.open.calls", "1")
+                .withProperty("elite2.resilience.movements.max.concurrent.calls", "1")
+                .withProperty("elite2.resilience.movements.max.wait.ms", "10")
+                .withProperty("elite2.resilience.case-notes.timeout.ms", "50");
+        meterRegistry = new SimpleMeterRegistry();
+        clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(NOW);
+        resilience = new Elite2Resilience(environment, meterRegistry, clock);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testBreakerOpensWhenFailureRateReached() {
+        openStaffBreaker();
+
+        final var calls = new AtomicInteger();
+        assertThatThrownBy(() -> resilience.call(URI_STAFF, calls::incrementAndGet)).isInstanceOf(Elite2UnavailableException.class);
+
+        assertThat(calls).hasValue(0);
+        assertThat(groupStatus("staff")).containsEntry("circuitBreaker", "OPEN");
+        assertThat(groupStatus("roll")).containsEntry("circuitBreaker", "CLOSED");
+        assertThat(meterRegistry.get("elite2.request.rejections").tags("group", "staff", "reason", "circuit-open").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void testBreakerClosesAfterSuccessfulTrialCall() {
+        openStaffBreaker();
+        when(clock.instant()).thenReturn(NOW.plusSeconds(30));
+
+        assertThat(resilience.call(GET_USER_DETAILS, () -> "trial")).isEqualTo("trial");
+
+        assertThat(groupStatus("staff")).containsEntry("circuitBreaker", "CLOSED");
+    }
+
+    @Test
+    public void testBreakerReopensAfterFailedTrialCall() {
+        openStaffBreaker();
+        when(clock.instant()).thenReturn(NOW.plusSeconds(30));
+
+        assertThatThrownBy(() -> resilience.call(URI_STAFF, () -> {
+            throw new ResourceAccessException("Read timed out");
+        })).isInstanceOf(ResourceAccessException.class);
+
+        assertThat(groupStatus("staff")).containsEntry("circuitBreaker", "OPEN");
+    }
+
+    @Test
+    public void testClientErrorsDoNotOpenBreaker() {
+        for (var i = 0; i < 4; i++) {
+            assertThatThrownBy(() -> resilience.call(URI_STAFF, () -> {
+                throw new HttpClientErrorException(HttpStatus.NOT_FOUND);
+            })).isInstanceOf(HttpClientErrorException.class);
+        }
+
+        assertThat(groupStatus("staff")).containsEntry("circuitBreaker", "CLOSED");
+    }
+
+    @Test
+    public void testBulkheadRejectsCallsBeyondLimit() throws Exception {
+        final var started = new CountDownLatch(1);
+        final var release = new CountDownLatch(1);
+        final var first = executor.submit(() -> resilience.call(URI_MOVEMENTS, () -> {
+            started.countDown();
+            try {
+                return release.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> resilience.call(URI_MOVEMENTS, () -> true)).isInstanceOf(Elite2UnavailableException.class);
+        // Other groups are unaffected
+        assertThat(resilience.call(URI_STAFF, () -> true)).isTrue();
+
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(resilience.call(URI_MOVEMENTS, () -> true)).isTrue();
+        assertThat(meterRegistry.get("elite2.request.rejections").tags("group", "movements", "reason", "bulkhead-full").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void testGroupTimeoutAppliesDuringCall() {
+        assertThat(resilience.call(URI_STAFF, Elite2Resilience::getTimeoutMillis)).isEqualTo(5000);
+        assertThat(resilience.call(URI_PRISONERS, Elite2Resilience::getTimeoutMillis)).isEqualTo(10000);
+        assertThat(Elite2Resilience.getTimeoutMillis()).isNull();
+    }
+
+    @Test
+    public void testNonBlockingCallTimesOut() {
+        final var call = resilience.call(CASE_NOTE_USAGE, Mono.never());
+
+        assertThatThrownBy(call::block).isInstanceOf(ResourceAccessException.class).hasMessageContaining("timed out after 50ms");
+    }
+
+    private void openStaffBreaker() {
+        resilience.call(URI_STAFF, () -> "ok");
+        resilience.call(URI_STAFF, () -> "ok");
+        for (var i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> resilience.call(URI_STAFF, () -> {
+                throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+            })).isInstanceOf(HttpServerErrorException.class);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> groupStatus(final String group) {
+        return (Map<String, Object>) resilience.getStatus().get(group);
+    }
+}
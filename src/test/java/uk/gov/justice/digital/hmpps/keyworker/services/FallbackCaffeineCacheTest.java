@@ -0,0 +1,76 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.Cache.ValueRetrievalException;
+import org.springframework.cache.interceptor.CacheOperationInvoker.ThrowableWrapper;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FallbackCaffeineCacheTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private FallbackCaffeineCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new FallbackCaffeineCache("getStaffDetailByUserId", Caffeine.newBuilder()
+                .ticker(nanos::get)
+                .expireAfterWrite(300 + 600, TimeUnit.SECONDS)
+                .build(), 300);
+        cache.put("ASMITH", "Smith");
+    }
+
+    @Test
+    public void testEntryReturnedWithinTimeToLive() {
+        nanos.set(TimeUnit.SECONDS.toNanos(299));
+
+        assertThat(cache.get("ASMITH").get()).isEqualTo("Smith");
+        assertThat(cache.get("ASMITH", () -> "Jones")).isEqualTo("Smith");
+    }
+
+    @Test
+    public void testExpiredEntryLoadedAgain() {
+        nanos.set(TimeUnit.SECONDS.toNanos(300));
+
+        assertThat(cache.get("ASMITH")).isNull();
+        assertThat(cache.get("ASMITH", () -> "Jones")).isEqualTo("Jones");
+        assertThat(cache.get("ASMITH").get()).isEqualTo("Jones");
+    }
+
+    @Test
+    public void testExpiredEntryReturnedWhileElite2Unavailable() {
+        nanos.set(TimeUnit.SECONDS.toNanos(600));
+
+        assertThat(cache.get("ASMITH", () -> {
+            throw new ThrowableWrapper(new ResourceAccessException("Read timed out"));
+        })).isEqualTo("Smith");
+        // Still expired, so the next call tries Elite2 again
+        assertThat(cache.get("ASMITH")).isNull();
+    }
+
+    @Test
+    public void testNoFallbackForRefusedCallsOrAfterFallbackPeriod() {
+        nanos.set(TimeUnit.SECONDS.toNanos(300));
+        final var notFound = new ThrowableWrapper(new HttpClientErrorException(HttpStatus.NOT_FOUND));
+
+        assertThatThrownBy(() -> cache.get("ASMITH", () -> {
+            throw notFound;
+        })).isInstanceOf(ValueRetrievalException.class).hasCause(notFound);
+
+        nanos.set(TimeUnit.SECONDS.toNanos(900));
+        final var unavailable = new ThrowableWrapper(new ResourceAccessException("Read timed out"));
+
+        assertThatThrownBy(() -> cache.get("ASMITH", () -> {
+            throw unavailable;
+        })).isInstanceOf(ValueRetrievalException.class).hasCause(unavailable);
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerAllocationDetailsDto;
 import uk.gov.justice.digital.hmpps.keyworker.dto.OffenderLocationDto;
 import uk.gov.justice.digital.hmpps.keyworker.model.AllocationType;
 import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
@@ -12,6 +13,8 @@ import uk.gov.justice.digital.hmpps.keyworker.repository.OffenderKeyworkerReposi
 import wiremock.org.apache.commons.collections4.SetUtils;
 
 import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -119,6 +122,30 @@ public class KeyworkerAllocationProcessorTest {
         verify(repository, times(1)).findByActiveAndOffenderNoIn(eq(true), eq(offNos));
     }
 
+    // When offender summary allocation filter processing requested with a list of 5 offender summary dtos
+    // And every offender has an active provisional allocation left by an earlier auto-allocation run
+    // And 2 of the offenders also have an active non-provisional allocation, returned after their provisional one
+    // Then response is a list of 3 offender summary dtos for the offenders who only have a provisional allocation
+    @Test
+    public void testFilterByUnallocatedIgnoresExistingProvisionals() {
+        final var dtos = KeyworkerTestHelper.getOffenders(TEST_AGENCY, 5);
+        final var offNos = dtos.stream().map(OffenderLocationDto::getOffenderNo).collect(Collectors.toList());
+
+        final var allocs = offNos.stream()
+                .map(offNo -> OffenderKeyworker.builder()
+                        .offenderNo(offNo)
+                        .allocationType(AllocationType.PROVISIONAL)
+                        .build())
+                .collect(Collectors.toList());
+        allocs.addAll(KeyworkerTestHelper.getAllocations(TEST_AGENCY, Set.of(offNos.get(0), offNos.get(1))));
+
+        when(repository.findByActiveAndOffenderNoIn(eq(true), anyCollection())).thenReturn(allocs);
+
+        final var results = processor.filterByUnallocated(dtos);
+
+        assertThat(results).extracting(OffenderLocationDto::getOffenderNo).containsExactlyElementsOf(offNos.subList(2, 5));
+    }
+
     // When offender summary allocation filter processing requested with a list of 5 offender summary dtos
     // And 3 of the offenders have an active allocation to a Key worker (so 2 do not)
     // Then response is a list of 2 offender summary dtos for the offenders who do not have an allocation
@@ -147,4 +174,19 @@ public class KeyworkerAllocationProcessorTest {
 
         verify(repository, times(1)).findByActiveAndOffenderNoIn(eq(true), eq(SetUtils.union(allocatedOffNos, unallocatedOffNos)));
     }
+
+    @Test
+    public void testSortByOffendersOrdersByOffenderPosition() {
+        final var offenders = List.of(
+                KeyworkerTestHelper.getOffender(2, TEST_AGENCY, "A1234AB"),
+                KeyworkerTestHelper.getOffender(1, TEST_AGENCY, "A1234AA"));
+        final var allocations = List.of(
+                KeyworkerAllocationDetailsDto.builder().offenderNo("A1234AZ").build(),
+                KeyworkerAllocationDetailsDto.builder().offenderNo("A1234AA").build(),
+                KeyworkerAllocationDetailsDto.builder().offenderNo("A1234AB").build());
+
+        final var results = processor.sortByOffenders(allocations, offenders);
+
+        assertThat(results).extracting(KeyworkerAllocationDetailsDto::getOffenderNo).containsExactly("A1234AB", "A1234AA", "A1234AZ");
+    }
 }
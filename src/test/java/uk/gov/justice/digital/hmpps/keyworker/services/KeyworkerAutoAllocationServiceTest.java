@@ -6,9 +6,13 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
 import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerPlannedLoadDto;
 import uk.gov.justice.digital.hmpps.keyworker.dto.OffenderLocationDto;
 import uk.gov.justice.digital.hmpps.keyworker.dto.Page;
 import uk.gov.justice.digital.hmpps.keyworker.dto.Prison;
@@ -56,6 +60,12 @@ public class KeyworkerAutoAllocationServiceTest {
     @Mock
     private OffenderKeyworkerRepository offenderKeyworkerRepository;
 
+    @Mock
+    private KeyworkerLoadService keyworkerLoadService;
+
+    @Captor
+    private ArgumentCaptor<List<OffenderKeyworker>> allocationsArg;
+
     private long allocCount;
 
     @Before
@@ -70,7 +80,7 @@ public class KeyworkerAutoAllocationServiceTest {
         when(prisonSupportedService.getPrisonDetail(TEST_AGENCY_ID)).thenReturn(prisonDetail);
 
         keyworkerAutoAllocationService =
-                new KeyworkerAutoAllocationService(keyworkerService, keyworkerPoolFactory, offenderKeyworkerRepository, prisonSupportedService);
+                new KeyworkerAutoAllocationService(keyworkerService, keyworkerPoolFactory, offenderKeyworkerRepository, prisonSupportedService, keyworkerLoadService);
     }
 
     // Each unit test below is preceded by acceptance criteria in Given-When-Then form
@@ -99,6 +109,28 @@ public class KeyworkerAutoAllocationServiceTest {
         assertThat(thrown).isInstanceOf(PrisonNotSupportedException.class);
     }
 
+    // Given that auto-allocation is in progress for an agency
+    // When auto-allocation process is initiated again for the agency, by a job or the multi-prison batch
+    // Then the second auto-allocation process halts without performing any allocations
+    // And once the first has finished, auto-allocation can be initiated again
+    @Test
+    public void testServiceHaltsWhileAutoAllocationInProgressForAgency() {
+        final var nested = new ArrayList<Throwable>();
+        when(keyworkerService.getUnallocatedOffenders(eq(TEST_AGENCY_ID), isNull(), isNull())).thenAnswer(invocation -> {
+            if (nested.isEmpty()) {
+                nested.add(catchThrowable(() -> keyworkerAutoAllocationService.autoAllocate(TEST_AGENCY_ID)));
+            }
+            return Collections.emptyList();
+        });
+
+        keyworkerAutoAllocationService.autoAllocate(TEST_AGENCY_ID);
+        keyworkerAutoAllocationService.autoAllocate(TEST_AGENCY_ID);
+
+        assertThat(nested).hasSize(1);
+        assertThat(nested.get(0)).isInstanceOf(AllocationException.class).hasMessage(KeyworkerAutoAllocationService.OUTCOME_ALREADY_IN_PROGRESS);
+        verify(keyworkerService, times(2)).getUnallocatedOffenders(eq(TEST_AGENCY_ID), isNull(), isNull());
+    }
+
     // Given that all offenders at an agency are allocated to a KW
     // When auto-allocation process is initiated
     // Then auto-allocation process does not perform any allocations
@@ -182,8 +214,8 @@ public class KeyworkerAutoAllocationServiceTest {
                 .getUnallocatedOffenders(eq(TEST_AGENCY_ID), isNull(), isNull());
 
         verify(keyworkerService, times(1)).getKeyworkersAvailableForAutoAllocation(TEST_AGENCY_ID);
-        verify(keyworkerPoolFactory, times(1)).getKeyworkerPool(TEST_AGENCY_ID, someKeyworkers);
-        verify(keyworkerService, times(1)).getAllocationHistoryForPrisoner(anyString());
+        verify(keyworkerPoolFactory, times(1)).getKeyworkerPool(eq(TEST_AGENCY_ID), eq(someKeyworkers), any(AllocationHistorySnapshot.class));
+        verify(offenderKeyworkerRepository, times(1)).findByOffenderNoIn(anyCollection());
 
         verify(keyworkerService, never()).allocate(any(OffenderKeyworker.class));
         verifyException(thrown, AllocationException.class, KeyworkerPool.OUTCOME_ALL_KEY_WORKERS_AT_CAPACITY);
@@ -233,9 +265,9 @@ public class KeyworkerAutoAllocationServiceTest {
                 .getUnallocatedOffenders(eq(TEST_AGENCY_ID), isNull(), isNull());
 
         verify(keyworkerService, times(1)).getKeyworkersAvailableForAutoAllocation(TEST_AGENCY_ID);
-        verify(keyworkerPoolFactory, times(1)).getKeyworkerPool(TEST_AGENCY_ID, someKeyworkers);
+        verify(keyworkerPoolFactory, times(1)).getKeyworkerPool(eq(TEST_AGENCY_ID), eq(someKeyworkers), any(AllocationHistorySnapshot.class));
 
-        verify(keyworkerService, times(1)).getAllocationHistoryForPrisoner(eq(allocOffenderNo));
+        verify(offenderKeyworkerRepository, times(1)).findByOffenderNoIn(anyCollection());
 
         // Expecting allocation to succeed - verify request includes expected values
         final var kwaArg = ArgumentCaptor.forClass(OffenderKeyworker.class);
@@ -298,9 +330,9 @@ public class KeyworkerAutoAllocationServiceTest {
                 .getUnallocatedOffenders(eq(TEST_AGENCY_ID), isNull(), isNull());
 
         verify(keyworkerService, times(1)).getKeyworkersAvailableForAutoAllocation(TEST_AGENCY_ID);
-        verify(keyworkerPoolFactory, times(1)).getKeyworkerPool(TEST_AGENCY_ID, someKeyworkers);
+        verify(keyworkerPoolFactory, times(1)).getKeyworkerPool(eq(TEST_AGENCY_ID), eq(someKeyworkers), any(AllocationHistorySnapshot.class));
 
-        verify(keyworkerService, times(1)).getAllocationHistoryForPrisoner(eq(allocOffenderNo));
+        verify(offenderKeyworkerRepository, times(1)).findByOffenderNoIn(anyCollection());
 
         // Expecting allocation to succeed - verify request includes expected values
         final var kwaArg = ArgumentCaptor.forClass(OffenderKeyworker.class);
@@ -351,8 +383,8 @@ public class KeyworkerAutoAllocationServiceTest {
 
         verify(keyworkerService, times(1)).getKeyworkersAvailableForAutoAllocation(TEST_AGENCY_ID);
 
-        verify(keyworkerPoolFactory, times(1)).getKeyworkerPool(TEST_AGENCY_ID, someKeyworkers);
-        verify(keyworkerService, times(1)).getAllocationHistoryForPrisoner(anyString());
+        verify(keyworkerPoolFactory, times(1)).getKeyworkerPool(eq(TEST_AGENCY_ID), eq(someKeyworkers), any(AllocationHistorySnapshot.class));
+        verify(offenderKeyworkerRepository, times(1)).findByOffenderNoIn(anyCollection());
         // Expecting allocation to succeed - verify request includes expected values
         final var kwaArg = ArgumentCaptor.forClass(OffenderKeyworker.class);
 
@@ -409,8 +441,7 @@ public class KeyworkerAutoAllocationServiceTest {
         final var olderAllocation = getPreviousKeyworkerAutoAllocation(
                 TEST_AGENCY_ID, "A7777AA", olderLeastAllocStaffId, refDateTime.minusDays(7));
 
-        mockKeyworkerAllocationHistory(recentLeastAllocStaffId, recentAllocation);
-        mockKeyworkerAllocationHistory(olderLeastAllocStaffId, olderAllocation);
+        mockKeyworkerAllocationHistory(recentAllocation, olderAllocation);
 
         // Invoke auto-allocate
         keyworkerAutoAllocationService.autoAllocate(TEST_AGENCY_ID);
@@ -420,9 +451,9 @@ public class KeyworkerAutoAllocationServiceTest {
                 .getUnallocatedOffenders(eq(TEST_AGENCY_ID), isNull(), isNull());
 
         verify(keyworkerService, times(1)).getKeyworkersAvailableForAutoAllocation(TEST_AGENCY_ID);
-        verify(keyworkerPoolFactory, times(1)).getKeyworkerPool(TEST_AGENCY_ID, someKeyworkers);
-        verify(keyworkerService, times(1)).getAllocationHistoryForPrisoner(eq(allocOffenderNo));
-        verify(keyworkerService, times(2)).getAllocationsForKeyworker(anyLong());
+        verify(keyworkerPoolFactory, times(1)).getKeyworkerPool(eq(TEST_AGENCY_ID), eq(someKeyworkers), any(AllocationHistorySnapshot.class));
+        verify(offenderKeyworkerRepository, times(1)).findByOffenderNoIn(anyCollection());
+        verify(offenderKeyworkerRepository, times(1)).findByStaffIdIn(anyCollection());
 
         // Expecting allocation to succeed - verify request includes expected values
         final var kwaArg = ArgumentCaptor.forClass(OffenderKeyworker.class);
@@ -467,9 +498,9 @@ public class KeyworkerAutoAllocationServiceTest {
                 .getUnallocatedOffenders(eq(TEST_AGENCY_ID), isNull(), isNull());
 
         verify(keyworkerService, times(1)).getKeyworkersAvailableForAutoAllocation(TEST_AGENCY_ID);
-        verify(keyworkerPoolFactory, times(1)).getKeyworkerPool(TEST_AGENCY_ID, someKeyworkers);
+        verify(keyworkerPoolFactory, times(1)).getKeyworkerPool(eq(TEST_AGENCY_ID), eq(someKeyworkers), any(AllocationHistorySnapshot.class));
 
-        verify(keyworkerService, times(totalOffenders)).getAllocationHistoryForPrisoner(anyString());
+        verify(offenderKeyworkerRepository, times(1)).findByOffenderNoIn(anyCollection());
 
         // Expecting allocation to succeed - verify request includes expected values
         final var kwaArg = ArgumentCaptor.forClass(OffenderKeyworker.class);
@@ -525,9 +556,9 @@ public class KeyworkerAutoAllocationServiceTest {
                 .getUnallocatedOffenders(eq(TEST_AGENCY_ID), isNull(), isNull());
 
         verify(keyworkerService, times(1)).getKeyworkersAvailableForAutoAllocation(TEST_AGENCY_ID);
-        verify(keyworkerPoolFactory, times(1)).getKeyworkerPool(TEST_AGENCY_ID, someKeyworkers);
+        verify(keyworkerPoolFactory, times(1)).getKeyworkerPool(eq(TEST_AGENCY_ID), eq(someKeyworkers), any(AllocationHistorySnapshot.class));
 
-        verify(keyworkerService, atLeast(totalCapacity)).getAllocationHistoryForPrisoner(anyString());
+        verify(offenderKeyworkerRepository, times(1)).findByOffenderNoIn(anyCollection());
 
         // Expecting allocation to succeed - verify request includes expected values
         final var kwaArg = ArgumentCaptor.forClass(OffenderKeyworker.class);
@@ -542,6 +573,215 @@ public class KeyworkerAutoAllocationServiceTest {
         });
     }
 
+    // Given bulk insert of provisional allocations is enabled
+    // And multiple offenders at an agency are not allocated to a KW
+    // And multiple, available KWs have enough total capacity to allocate all offenders
+    // When auto-allocation process is initiated
+    // Then all offenders are allocated to a KW
+    // And all allocations are written together rather than one at a time
+    @Test
+    public void testAllOffendersAllocatedInBulk() {
+        ReflectionTestUtils.setField(keyworkerAutoAllocationService, "bulkInsertEnabled", true);
+        ReflectionTestUtils.setField(keyworkerAutoAllocationService, "bulkInsertBatchSize", 10);
+
+        final Integer totalOffenders = 25;
+        final Integer totalKeyworkers = 5;
+
+        mockUnallocatedOffenders(TEST_AGENCY_ID, getNextOffenderNo(totalOffenders));
+
+        final var someKeyworkers = mockKeyworkers(totalKeyworkers, 0, 0, CAPACITY_TIER_1);
+
+        mockKeyworkerPool(someKeyworkers);
+
+        mockPrisonerAllocationHistory(null);
+
+        final var allocated = keyworkerAutoAllocationService.autoAllocate(TEST_AGENCY_ID);
+
+        assertThat(allocated).isEqualTo(25);
+
+        verify(keyworkerService, never()).allocate(any(OffenderKeyworker.class));
+        verify(keyworkerService, times(1)).allocateAll(allocationsArg.capture(), eq(10));
+
+        assertThat(allocationsArg.getValue()).hasSize(totalOffenders);
+        assertThat(allocationsArg.getValue()).extracting(OffenderKeyworker::getOffenderNo).doesNotHaveDuplicates();
+
+        allocationsArg.getValue().forEach(kwAlloc -> {
+            assertThat(kwAlloc.getStaffId()).isBetween(1L, totalKeyworkers.longValue());
+            assertThat(kwAlloc.getAllocationType()).isEqualTo(AllocationType.PROVISIONAL);
+            assertThat(kwAlloc.getAllocationReason()).isEqualTo(AllocationReason.AUTO);
+        });
+    }
+
+    // Given bulk insert of provisional allocations is enabled
+    // And total capacity, across all KWs, is not sufficient to allow all offenders to be allocated
+    // When auto-allocation process is initiated
+    // Then allocations made whilst there was capacity are still written
+    // And auto-allocation process throws an exception with an appropriate error message
+    @Test
+    public void testSomeOffendersAllocatedInBulkBeforeErrorDueToNoCapacity() {
+        ReflectionTestUtils.setField(keyworkerAutoAllocationService, "bulkInsertEnabled", true);
+        ReflectionTestUtils.setField(keyworkerAutoAllocationService, "bulkInsertBatchSize", 10);
+
+        final Integer totalOffenders = 25;
+        final Integer totalKeyworkers = 5;
+
+        mockUnallocatedOffenders(TEST_AGENCY_ID, getNextOffenderNo(totalOffenders));
+
+        final var someKeyworkers = mockKeyworkers(totalKeyworkers, FULLY_ALLOCATED - 2, FULLY_ALLOCATED, CAPACITY_TIER_1);
+
+        final var totalCapacity = (totalKeyworkers * FULLY_ALLOCATED) -
+                someKeyworkers.stream().mapToInt(KeyworkerDto::getNumberAllocated).sum();
+
+        mockKeyworkerPool(someKeyworkers);
+
+        mockPrisonerAllocationHistory(null);
+
+        final var thrown = catchThrowable(() -> keyworkerAutoAllocationService.autoAllocate(TEST_AGENCY_ID));
+
+        verifyException(thrown, AllocationException.class, KeyworkerPool.OUTCOME_ALL_KEY_WORKERS_AT_CAPACITY);
+
+        verify(keyworkerService, never()).allocate(any(OffenderKeyworker.class));
+        verify(keyworkerService, times(1)).allocateAll(allocationsArg.capture(), eq(10));
+
+        assertThat(allocationsArg.getValue()).hasSize(totalCapacity);
+    }
+
+    // Given bulk insert of provisional allocations is enabled
+    // And multiple offenders at an agency are not allocated to a KW
+    // When auto-allocation process is initiated
+    // And the allocations cannot be written
+    // Then no allocations are counted as made
+    @Test
+    public void testAllocationsNotCountedWhenBulkInsertFails() {
+        ReflectionTestUtils.setField(keyworkerAutoAllocationService, "bulkInsertEnabled", true);
+        ReflectionTestUtils.setField(keyworkerAutoAllocationService, "bulkInsertBatchSize", 10);
+
+        final Integer totalOffenders = 25;
+        final Integer totalKeyworkers = 5;
+
+        mockUnallocatedOffenders(TEST_AGENCY_ID, getNextOffenderNo(totalOffenders));
+
+        final var someKeyworkers = mockKeyworkers(totalKeyworkers, 0, 0, CAPACITY_TIER_1);
+
+        mockKeyworkerPool(someKeyworkers);
+
+        mockPrisonerAllocationHistory(null);
+
+        final var failure = new DataIntegrityViolationException("Batch insert failed");
+        doThrow(failure).when(keyworkerService).allocateAll(anyList(), eq(10));
+
+        final var progress = new AutoAllocationProgress();
+
+        final var thrown = catchThrowable(() -> keyworkerAutoAllocationService.autoAllocate(TEST_AGENCY_ID, progress));
+
+        assertThat(thrown).isSameAs(failure);
+        assertThat(progress.getAllocations()).isZero();
+        assertThat(progress.getOffendersRemaining()).isEqualTo(totalOffenders);
+    }
+
+    // Given multiple offenders at an agency are not allocated to a KW
+    // And total capacity, across all KWs, is not sufficient to allow all offenders to be allocated
+    // When an auto-allocation plan is requested
+    // Then the plan proposes allocations whilst there is capacity and lists the offenders that would remain unallocated
+    // And no allocations are made
+    @Test
+    public void testPlanProposesAllocationsWithoutAllocating() {
+        final Integer totalOffenders = 25;
+        final Integer totalKeyworkers = 5;
+
+        mockUnallocatedOffenders(TEST_AGENCY_ID, getNextOffenderNo(totalOffenders));
+
+        final var someKeyworkers = mockKeyworkers(totalKeyworkers, FULLY_ALLOCATED - 2, FULLY_ALLOCATED, CAPACITY_TIER_1);
+
+        final var currentAllocations = someKeyworkers.stream().mapToInt(KeyworkerDto::getNumberAllocated).sum();
+        final var totalCapacity = (totalKeyworkers * FULLY_ALLOCATED) - currentAllocations;
+
+        mockKeyworkerPool(someKeyworkers);
+
+        mockPrisonerAllocationHistory(null);
+
+        final var plan = keyworkerAutoAllocationService.planAllocations(TEST_AGENCY_ID);
+
+        assertThat(plan.getPrisonId()).isEqualTo(TEST_AGENCY_ID);
+        assertThat(plan.getOutcome()).isEqualTo(KeyworkerPool.OUTCOME_ALL_KEY_WORKERS_AT_CAPACITY);
+        assertThat(plan.getAllocations()).hasSize(totalCapacity);
+        assertThat(plan.getUnallocatedOffenderNos()).hasSize(totalOffenders - totalCapacity);
+
+        plan.getAllocations().forEach(kwAlloc -> {
+            assertThat(kwAlloc.getStaffId()).isBetween(1L, totalKeyworkers.longValue());
+            assertThat(kwAlloc.getPrisonId()).isEqualTo(TEST_AGENCY_ID);
+            assertThat(kwAlloc.getAllocationType()).isEqualTo(AllocationType.PROVISIONAL);
+            assertThat(kwAlloc.getAllocationReason()).isEqualTo(AllocationReason.AUTO);
+        });
+
+        assertThat(plan.getKeyworkers()).hasSize(totalKeyworkers);
+        assertThat(plan.getKeyworkers().stream().mapToInt(KeyworkerPlannedLoadDto::getCurrentAllocations).sum()).isEqualTo(currentAllocations);
+        assertThat(plan.getKeyworkers().stream().mapToInt(KeyworkerPlannedLoadDto::getPlannedAllocations).sum()).isEqualTo(totalCapacity);
+        plan.getKeyworkers().forEach(load -> assertThat(load.getTotalAllocations()).isEqualTo(FULLY_ALLOCATED));
+
+        verify(keyworkerService, never()).allocate(any(OffenderKeyworker.class));
+        verify(keyworkerService, never()).allocateAll(anyList(), anyInt());
+        verify(offenderKeyworkerRepository, never()).deleteExistingProvisionals(anyString());
+    }
+
+    // Given an offender at an agency is not allocated to a KW
+    // And offender has an existing provisional allocation to a KW, left by an earlier auto-allocation run
+    // When an auto-allocation plan is requested
+    // Then the plan treats the offender as unallocated and ignores the provisional allocation, as an auto-allocation
+    //   run would after clearing it
+    // And the existing provisional allocations are not cleared
+    @Test
+    public void testPlanIgnoresExistingProvisionals() {
+        final var lowAllocCount = 1;
+        final var highAllocCount = FULLY_ALLOCATED - 1;
+        final var allocOffenderNo = getNextOffenderNo();
+        final long provisionalStaffId = 2;
+
+        mockUnallocatedOffenders(TEST_AGENCY_ID, Collections.singleton(allocOffenderNo));
+
+        final var someKeyworkers = mockKeyworkers(
+                getKeyworker(1, lowAllocCount, CAPACITY_TIER_1),
+                getKeyworker(provisionalStaffId, highAllocCount, CAPACITY_TIER_1),
+                getKeyworker(3, lowAllocCount, CAPACITY_TIER_1));
+
+        mockKeyworkerPool(someKeyworkers);
+
+        final var existingProvisional = getPreviousKeyworkerAutoAllocation(TEST_AGENCY_ID, allocOffenderNo, provisionalStaffId).toBuilder()
+                .allocationType(AllocationType.PROVISIONAL)
+                .build();
+
+        mockPrisonerAllocationHistory(allocOffenderNo, existingProvisional);
+
+        final var plan = keyworkerAutoAllocationService.planAllocations(TEST_AGENCY_ID);
+
+        assertThat(plan.getAllocations()).hasSize(1);
+        assertThat(plan.getAllocations().get(0).getOffenderNo()).isEqualTo(allocOffenderNo);
+        assertThat(plan.getAllocations().get(0).getStaffId()).isNotEqualTo(provisionalStaffId);
+        assertThat(plan.getUnallocatedOffenderNos()).isEmpty();
+
+        verify(offenderKeyworkerRepository, never()).deleteExistingProvisionals(anyString());
+    }
+
+    // Given there are one or more offenders at an agency that are not allocated to a KW
+    // And there are no KWs available for auto-allocation
+    // When an auto-allocation plan is requested
+    // Then the plan proposes no allocations and reports why
+    @Test
+    public void testPlanReportsNoKeyWorkersAvailable() {
+        mockUnallocatedOffenders(TEST_AGENCY_ID, getNextOffenderNo(3));
+
+        mockKeyworkers(0, 0, 0, CAPACITY_TIER_1);
+
+        final var plan = keyworkerAutoAllocationService.planAllocations(TEST_AGENCY_ID);
+
+        assertThat(plan.getOutcome()).isEqualTo(KeyworkerAutoAllocationService.OUTCOME_NO_AVAILABLE_KEY_WORKERS);
+        assertThat(plan.getAllocations()).isEmpty();
+        assertThat(plan.getKeyworkers()).isEmpty();
+        assertThat(plan.getUnallocatedOffenderNos()).hasSize(3);
+
+        verify(keyworkerPoolFactory, never()).getKeyworkerPool(anyString(), anyList(), any(AllocationHistorySnapshot.class));
+    }
+
     private void mockUnallocatedOffenders(final String prisonId, final Set<String> offenderNos) {
         final var offNos = offenderNos.toArray(new String[0]);
 
@@ -598,10 +838,9 @@ public class KeyworkerAutoAllocationServiceTest {
     }
 
     private void mockKeyworkerPool(final List<KeyworkerDto> keyworkers) {
-        final var keyworkerPool = KeyworkerTestHelper.initKeyworkerPool(keyworkerService, prisonSupportedService,
-                keyworkers, TEST_AGENCY_ID);
-
-        when(keyworkerPoolFactory.getKeyworkerPool(TEST_AGENCY_ID, keyworkers)).thenReturn(keyworkerPool);
+        when(keyworkerPoolFactory.getKeyworkerPool(eq(TEST_AGENCY_ID), eq(keyworkers), any(AllocationHistorySnapshot.class)))
+                .thenAnswer(invocation -> KeyworkerTestHelper.initKeyworkerPool(invocation.getArgument(2),
+                        prisonSupportedService, keyworkers, TEST_AGENCY_ID));
     }
 
     private void mockPrisonerAllocationHistory(final String offenderNo, final OffenderKeyworker... allocations) {
@@ -609,16 +848,17 @@ public class KeyworkerAutoAllocationServiceTest {
                 (allocations == null) ? Collections.emptyList() : Arrays.asList(allocations);
 
         if (StringUtils.isBlank(offenderNo)) {
-            when(keyworkerService.getAllocationHistoryForPrisoner(anyString())).thenReturn(allocationHistory);
+            when(offenderKeyworkerRepository.findByOffenderNoIn(anyCollection())).thenReturn(allocationHistory);
         } else {
-            when(keyworkerService.getAllocationHistoryForPrisoner(eq(offenderNo))).thenReturn(allocationHistory);
+            when(offenderKeyworkerRepository.findByOffenderNoIn(argThat(offenderNos -> offenderNos.contains(offenderNo))))
+                    .thenReturn(allocationHistory);
         }
     }
 
-    private void mockKeyworkerAllocationHistory(final Long staffId, final OffenderKeyworker... allocations) {
+    private void mockKeyworkerAllocationHistory(final OffenderKeyworker... allocations) {
         final List<OffenderKeyworker> allocationHistory =
                 (allocations == null) ? Collections.emptyList() : Arrays.asList(allocations);
 
-        when(keyworkerService.getAllocationsForKeyworker(eq(staffId))).thenReturn(allocationHistory);
+        when(offenderKeyworkerRepository.findByStaffIdIn(anyCollection())).thenReturn(allocationHistory);
     }
 }
@@ -8,7 +8,10 @@ import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.client.HttpServerErrorException;
 import uk.gov.justice.digital.hmpps.keyworker.dto.PrisonerCustodyStatusDto;
@@ -25,6 +28,9 @@ import java.time.temporal.ChronoUnit;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -44,6 +50,10 @@ public class KeyworkerBatchServiceTest {
     private KeyworkerRepository keyworkerRepository;
     @Mock
     private TelemetryClient telemetryClient;
+    @Mock
+    private DeallocationChunkService deallocationChunkService;
+    @Mock
+    private KeyworkerLoadService keyworkerLoadService;
 
     final private LocalDateTime threshold = LocalDateTime.of(2018, Month.JANUARY, 14, 12, 0);
 
@@ -69,13 +79,18 @@ public class KeyworkerBatchServiceTest {
 
     @Before
     public void setUp() {
-        batchService = new KeyworkerBatchService(repository, keyworkerRepository, nomisService, telemetryClient, batchHistoryRepository);
+        createBatchService(new SyncTaskExecutor());
+    }
+
+    private void createBatchService(final TaskExecutor movementsExecutor) {
+        batchService = new KeyworkerBatchService(repository, keyworkerRepository, nomisService, telemetryClient, batchHistoryRepository, deallocationChunkService, keyworkerLoadService, movementsExecutor);
         ReflectionTestUtils.setField(batchService, "lookBackDays", 3);
         ReflectionTestUtils.setField(batchService, "lookBackDays", 3);
         ReflectionTestUtils.setField(batchService, "lookBackDays", 3);
         ReflectionTestUtils.setField(batchService, "maxAttempts", 2);
         ReflectionTestUtils.setField(batchService, "initialDeallocateThreshold", "2018-01-14T12:00");
         ReflectionTestUtils.setField(batchService, "backoffMs", 100);
+        ReflectionTestUtils.setField(batchService, "chunkSize", 2);
     }
 
     @Test
@@ -226,6 +241,29 @@ public class KeyworkerBatchServiceTest {
         assertThat(exception.getValue().getMessage()).isEqualTo("502 Bad Gateway");
     }
 
+    @Test
+    public void testDaysFetchedConcurrently() {
+        final var executor = Executors.newFixedThreadPool(4);
+        try {
+            createBatchService(new ConcurrentTaskExecutor(executor));
+
+            final var allDaysRequested = new CountDownLatch(4);
+            when(nomisService.getPrisonerStatuses(eq(threshold), any(LocalDate.class))).thenAnswer(invocation -> {
+                allDaysRequested.countDown();
+                // Only returns once every day has been requested, so would time out if the days were fetched one at a time
+                assertThat(allDaysRequested.await(5, TimeUnit.SECONDS)).isTrue();
+                return Collections.emptyList();
+            });
+
+            batchService.executeDeallocation();
+
+            verify(nomisService, times(4)).getPrisonerStatuses(eq(threshold), any(LocalDate.class));
+            verify(telemetryClient, never()).trackException(any());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     public void testDeallocateJobDontProceed() {
         final var today = LocalDate.now();
@@ -256,6 +294,70 @@ public class KeyworkerBatchServiceTest {
         assertThat(offenderDetailsA.get(0).getDeallocationReason()).isNull();
     }
 
+    @Test
+    public void testStreamingDeallocateInChunks() {
+        final var today = LocalDate.now();
+        when(batchHistoryRepository.findByName("DeallocateJob")).thenReturn(BatchHistory.builder().batchId(1L).name("DeallocateJob").lastRun(threshold).build());
+
+        when(nomisService.getPrisonerStatuses(threshold, today)).thenReturn(prisonerStatusesDay0);
+        when(nomisService.getPrisonerStatuses(threshold, today.plusDays(-1))).thenReturn(Collections.emptyList());
+        when(nomisService.getPrisonerStatuses(threshold, today.plusDays(-2))).thenReturn(Collections.emptyList());
+        when(nomisService.getPrisonerStatuses(threshold, today.plusDays(-3))).thenReturn(prisonerStatusesDay3);
+
+        when(deallocationChunkService.deallocate(anyList(), any(LocalDateTime.class))).thenReturn(1);
+
+        batchService.executeStreamingDeallocation();
+
+        final var inOrder = inOrder(deallocationChunkService);
+        inOrder.verify(deallocationChunkService).deallocate(prisonerStatusesDay0, threshold.plusMinutes(1));
+        inOrder.verify(deallocationChunkService).deallocate(prisonerStatusesDay3, threshold.plusMinutes(2));
+
+        final var jobStart = ArgumentCaptor.forClass(LocalDateTime.class);
+        inOrder.verify(deallocationChunkService).advanceCheckpoint(jobStart.capture());
+        assertThat(jobStart.getValue()).isCloseTo(LocalDateTime.now(), new TemporalUnitWithinOffset(1, ChronoUnit.HOURS));
+
+        verify(repository, never()).findByActiveAndOffenderNo(anyBoolean(), anyString());
+        verify(telemetryClient, never()).trackException(any());
+    }
+
+    @Test
+    public void testStreamingDeallocateKeepsMovementsCreatedTogetherInOneChunk() {
+        final var today = LocalDate.now();
+        when(batchHistoryRepository.findByName("DeallocateJob")).thenReturn(BatchHistory.builder().batchId(1L).name("DeallocateJob").lastRun(threshold).build());
+        ReflectionTestUtils.setField(batchService, "chunkSize", 1);
+
+        final var movementA = PrisonerCustodyStatusDto.builder().offenderNo("AA1111A").createDateTime(threshold).build();
+        final var movementB = PrisonerCustodyStatusDto.builder().offenderNo("AA1111B").createDateTime(threshold).build();
+        final var movementC = PrisonerCustodyStatusDto.builder().offenderNo("AA1111C").createDateTime(threshold.plusMinutes(1)).build();
+        when(nomisService.getPrisonerStatuses(eq(threshold), any(LocalDate.class))).thenReturn(Collections.emptyList());
+        when(nomisService.getPrisonerStatuses(threshold, today)).thenReturn(List.of(movementC, movementA, movementB));
+
+        batchService.executeStreamingDeallocation();
+
+        final var inOrder = inOrder(deallocationChunkService);
+        inOrder.verify(deallocationChunkService).deallocate(List.of(movementA, movementB), threshold);
+        inOrder.verify(deallocationChunkService).deallocate(List.of(movementC), threshold.plusMinutes(1));
+        inOrder.verify(deallocationChunkService).advanceCheckpoint(any(LocalDateTime.class));
+    }
+
+    @Test
+    public void testStreamingDeallocateStopsAtFailedChunk() {
+        final var today = LocalDate.now();
+        when(batchHistoryRepository.findByName("DeallocateJob")).thenReturn(BatchHistory.builder().batchId(1L).name("DeallocateJob").lastRun(threshold).build());
+        ReflectionTestUtils.setField(batchService, "chunkSize", 1);
+
+        when(nomisService.getPrisonerStatuses(eq(threshold), any(LocalDate.class))).thenReturn(Collections.emptyList());
+        when(nomisService.getPrisonerStatuses(threshold, today)).thenReturn(prisonerStatusesDay0);
+        when(deallocationChunkService.deallocate(prisonerStatusesDay0.subList(1, 2), threshold.plusMinutes(1))).thenThrow(new RuntimeException("test"));
+
+        batchService.executeStreamingDeallocation();
+
+        verify(deallocationChunkService).deallocate(prisonerStatusesDay0.subList(0, 1), threshold);
+        // The checkpoint stays at the last chunk committed
+        verify(deallocationChunkService, never()).advanceCheckpoint(any(LocalDateTime.class));
+        verify(telemetryClient).trackException(any(RuntimeException.class));
+    }
+
     @Test
     public void testUpdateStatusBatchHappy() {
         final var DATE_14_JAN_2018 = LocalDate.of(2018, Month.JANUARY, 14);
@@ -0,0 +1,170 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerAllocationCount;
+import uk.gov.justice.digital.hmpps.keyworker.model.AllocationType;
+import uk.gov.justice.digital.hmpps.keyworker.model.KeyworkerLoad;
+import uk.gov.justice.digital.hmpps.keyworker.model.OffenderKeyworker;
+import uk.gov.justice.digital.hmpps.keyworker.repository.KeyworkerLoadRepository;
+import uk.gov.justice.digital.hmpps.keyworker.repository.OffenderKeyworkerRepository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class KeyworkerLoadServiceTest {
+
+    private static final String TEST_AGENCY = "LEI";
+
+    @Mock
+    private KeyworkerLoadRepository repository;
+    @Mock
+    private OffenderKeyworkerRepository offenderKeyworkerRepository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private KeyworkerLoadService service;
+
+    @Before
+    public void setUp() {
+        service = new KeyworkerLoadService(repository, offenderKeyworkerRepository, transactionManager);
+    }
+
+    @Test
+    public void testGetNumberAllocated() {
+        when(repository.findByPrisonIdAndStaffIdIn(TEST_AGENCY, List.of(-5L, -6L))).thenReturn(List.of(load(-5L, 3)));
+
+        assertThat(service.getNumberAllocated(TEST_AGENCY, List.of(-5L, -6L))).isEqualTo(Map.of(-5L, 3));
+    }
+
+    @Test
+    public void testRefreshUpdatesLoads() {
+        final var existing = load(-5L, 3);
+        final var created = load(-6L, 0);
+        when(repository.lockByPrisonIdAndStaffIdIn(TEST_AGENCY, Set.of(-5L, -6L))).thenReturn(List.of(created, existing));
+        when(offenderKeyworkerRepository.countAllocationsByStaffId(TEST_AGENCY, Set.of(-5L, -6L), true, AllocationType.PROVISIONAL))
+                .thenReturn(List.of(new KeyworkerAllocationCount(-5L, 2L), new KeyworkerAllocationCount(-6L, 1L)));
+
+        service.refresh(List.of(allocation(-5L), allocation(-6L), allocation(-6L)));
+
+        assertThat(existing.getNumberAllocated()).isEqualTo(2);
+        assertThat(created.getNumberAllocated()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRefreshCreatesMissingLoadsBeforeLockingInStaffIdOrder() {
+        service.refresh(TEST_AGENCY, List.of(-5L, -7L, -6L));
+
+        final var inOrder = inOrder(repository, transactionManager);
+        inOrder.verify(transactionManager).getTransaction(any());
+        inOrder.verify(repository).insertIfMissing(-7L, TEST_AGENCY, 0);
+        inOrder.verify(repository).insertIfMissing(-6L, TEST_AGENCY, 0);
+        inOrder.verify(repository).insertIfMissing(-5L, TEST_AGENCY, 0);
+        inOrder.verify(transactionManager).commit(any());
+        inOrder.verify(repository).lockByPrisonIdAndStaffIdIn(eq(TEST_AGENCY), argThat(staffIds -> List.copyOf(staffIds).equals(List.of(-7L, -6L, -5L))));
+    }
+
+    @Test
+    public void testRefreshInsertsNothingWhenLoadsExist() {
+        when(repository.findByPrisonIdAndStaffIdIn(TEST_AGENCY, Set.of(-5L, -6L))).thenReturn(List.of(load(-5L, 1), load(-6L, 0)));
+
+        service.refresh(TEST_AGENCY, List.of(-5L, -6L));
+
+        verify(repository, never()).insertIfMissing(any(), any(), anyInt());
+        verify(transactionManager, never()).getTransaction(any());
+    }
+
+    @Test
+    public void testRefreshRetriesInsertAfterConcurrentInsert() {
+        when(repository.insertIfMissing(-5L, TEST_AGENCY, 0))
+                .thenThrow(new DataIntegrityViolationException("duplicate key"))
+                .thenReturn(0);
+
+        service.refresh(TEST_AGENCY, List.of(-5L));
+
+        verify(repository, times(2)).insertIfMissing(-5L, TEST_AGENCY, 0);
+        verify(transactionManager).rollback(any());
+        verify(transactionManager).commit(any());
+        verify(repository).lockByPrisonIdAndStaffIdIn(eq(TEST_AGENCY), argThat(staffIds -> staffIds.contains(-5L)));
+    }
+
+    @Test
+    public void testRefreshGivesUpAfterRepeatedDuplicates() {
+        when(repository.insertIfMissing(-5L, TEST_AGENCY, 0)).thenThrow(new DataIntegrityViolationException("duplicate key"));
+
+        assertThatThrownBy(() -> service.refresh(TEST_AGENCY, List.of(-5L))).isInstanceOf(DataIntegrityViolationException.class);
+
+        verify(repository, times(3)).insertIfMissing(-5L, TEST_AGENCY, 0);
+        verify(repository, never()).lockByPrisonIdAndStaffIdIn(any(), any());
+    }
+
+    @Test
+    public void testReconcileReturnsCorrectedLoads() {
+        when(repository.findByPrisonIdAndStaffIdIn(TEST_AGENCY, Set.of(-5L, -7L))).thenReturn(List.of(load(-5L, 2)));
+        final var correct = load(-5L, 2);
+        final var stale = load(-6L, 4);
+        final var created = load(-7L, 0);
+        when(repository.lockByPrisonId(TEST_AGENCY)).thenReturn(List.of(correct, stale, created));
+        when(offenderKeyworkerRepository.countAllocationsByPrisonId(TEST_AGENCY, true, AllocationType.PROVISIONAL))
+                .thenReturn(List.of(new KeyworkerAllocationCount(-5L, 2L), new KeyworkerAllocationCount(-7L, 1L)));
+
+        final var corrected = service.reconcile(TEST_AGENCY);
+
+        assertThat(corrected).isEqualTo(2);
+        assertThat(correct.getNumberAllocated()).isEqualTo(2);
+        assertThat(stale.getNumberAllocated()).isEqualTo(0);
+        assertThat(created.getNumberAllocated()).isEqualTo(1);
+        verify(repository).insertIfMissing(-7L, TEST_AGENCY, 0);
+        verify(repository, never()).insertIfMissing(-5L, TEST_AGENCY, 0);
+        verify(repository, never()).insertIfMissing(-6L, TEST_AGENCY, 0);
+    }
+
+    @Test
+    public void testRefreshLocksLoadCreatedForKeyworkerFirstAllocatedDuringRefresh() {
+        final var late = load(-6L, 0);
+        when(offenderKeyworkerRepository.countAllocationsByStaffId(TEST_AGENCY, Set.of(-5L, -6L), true, AllocationType.PROVISIONAL))
+                .thenReturn(List.of(new KeyworkerAllocationCount(-6L, 1L)));
+        when(repository.lockByPrisonIdAndStaffIdIn(TEST_AGENCY, Set.of(-5L, -6L))).thenReturn(List.of(load(-5L, 0)));
+        when(repository.lockByPrisonIdAndStaffIdIn(TEST_AGENCY, Set.of(-6L))).thenReturn(List.of(late));
+
+        service.refresh(TEST_AGENCY, List.of(-5L, -6L));
+
+        assertThat(late.getNumberAllocated()).isEqualTo(1);
+        verify(repository, times(2)).insertIfMissing(-6L, TEST_AGENCY, 0);
+    }
+
+    @Test
+    public void testRefreshNothingForNoAllocations() {
+        service.refresh(List.of());
+
+        verifyNoMoreInteractions(repository, offenderKeyworkerRepository);
+    }
+
+    private static KeyworkerLoad load(final long staffId, final int numberAllocated) {
+        return KeyworkerLoad.builder().staffId(staffId).prisonId(TEST_AGENCY).numberAllocated(numberAllocated).build();
+    }
+
+    private static OffenderKeyworker allocation(final long staffId) {
+        return OffenderKeyworker.builder().staffId(staffId).prisonId(TEST_AGENCY).build();
+    }
+}
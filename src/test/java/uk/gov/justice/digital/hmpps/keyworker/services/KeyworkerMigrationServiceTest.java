@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 
 @RunWith(SpringRunner.class)
@@ -42,6 +43,9 @@ public class KeyworkerMigrationServiceTest extends AbstractServiceTest {
     @MockBean
     private PrisonSupportedService prisonSupportedService;
 
+    @MockBean
+    private KeyworkerLoadService keyworkerLoadService;
+
     @Before
     public void setUp() {
         doThrow(new PrisonNotSupportedException(INVALID_AGENCY_ID)).when(prisonSupportedService).verifyPrisonMigrated(eq(INVALID_AGENCY_ID));
@@ -51,7 +55,7 @@ public class KeyworkerMigrationServiceTest extends AbstractServiceTest {
     // Then migration does not start and PrisonNotSupportedException is thrown
     @Test(expected = PrisonNotSupportedException.class)
     public void testCheckAndMigrateOffenderKeyWorkerIneligibleAgency() {
-        when(prisonSupportedService.isMigrated(eq(INVALID_AGENCY_ID))).thenThrow(PrisonNotSupportedException.class);
+        when(prisonSupportedRepository.lockByPrisonId(eq(INVALID_AGENCY_ID))).thenReturn(Optional.empty());
         service.migrateKeyworkerByPrison(INVALID_AGENCY_ID);
     }
 
@@ -59,11 +63,14 @@ public class KeyworkerMigrationServiceTest extends AbstractServiceTest {
     // Then migration does not start but no error is thrown
     @Test
     public void testCheckAndMigrateOffenderKeyWorkerAgencyAlreadyMigrated() {
-        when(prisonSupportedService.isMigrated(eq(TEST_AGENCY))).thenReturn(true);
+        when(prisonSupportedRepository.lockByPrisonId(eq(TEST_AGENCY)))
+                .thenReturn(Optional.of(PrisonSupported.builder().prisonId(TEST_AGENCY).migrated(true).build()));
 
         service.migrateKeyworkerByPrison(TEST_AGENCY);
 
-        verify(prisonSupportedService, times(1)).isMigrated(eq(TEST_AGENCY));
+        // The stale snapshot is not consulted, and nothing is migrated again
+        verify(prisonSupportedService, never()).isMigrated(anyString());
+        verifyZeroInteractions(nomisService, offenderKeyworkerRepository);
     }
 
     // When request made to check and migrate agency that is eligible for migration but has not yet been migrated
@@ -76,11 +83,15 @@ public class KeyworkerMigrationServiceTest extends AbstractServiceTest {
 
         when(nomisService.getOffenderKeyWorkerPage(TEST_AGENCY, 0, TEST_PAGE_SIZE)).thenReturn(testDtos);
 
-        when(prisonSupportedRepository.findById(eq(TEST_AGENCY))).thenReturn(Optional.of(PrisonSupported.builder().prisonId(TEST_AGENCY).build()));
+        final var prison = PrisonSupported.builder().prisonId(TEST_AGENCY).build();
+        when(prisonSupportedRepository.lockByPrisonId(eq(TEST_AGENCY))).thenReturn(Optional.of(prison));
         service.migrateKeyworkerByPrison(TEST_AGENCY);
 
-        verify(prisonSupportedRepository, times(1)).findById(eq(TEST_AGENCY));
+        verify(prisonSupportedRepository, times(1)).lockByPrisonId(eq(TEST_AGENCY));
+        assertThat(prison.isMigrated()).isTrue();
         verify(offenderKeyworkerRepository).saveAll(anySet());
+        verify(prisonSupportedService).prisonConfigurationChanged();
+        verify(keyworkerLoadService).refresh(TEST_AGENCY);
     }
 
     private List<OffenderKeyworkerDto> getTestOffenderKeyworkerDtos(final long count) {
@@ -4,9 +4,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
-import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
-import org.springframework.test.util.ReflectionTestUtils;
 import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerDto;
 import uk.gov.justice.digital.hmpps.keyworker.dto.Prison;
 import uk.gov.justice.digital.hmpps.keyworker.exception.AllocationException;
@@ -15,13 +13,9 @@ import uk.gov.justice.digital.hmpps.keyworker.model.AllocationType;
 import java.time.LocalDateTime;
 import java.util.Collections;
 import java.util.List;
-import java.util.SortedSet;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.catchThrowable;
-import static org.mockito.ArgumentMatchers.anyLong;
-import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static uk.gov.justice.digital.hmpps.keyworker.services.KeyworkerTestHelper.*;
 
@@ -34,8 +28,6 @@ public class KeyworkerPoolTest {
 
     private KeyworkerPool keyworkerPool;
 
-    @Mock
-    private KeyworkerService keyworkerService;
     @Mock
     private PrisonSupportedService prisonSupportedService;
 
@@ -68,7 +60,7 @@ public class KeyworkerPoolTest {
     public void testSingleKeyworkerWithSpareCapacity() {
         // Single KW, with capacity, in KWP
         final var keyworker = getKeyworker(1, CAPACITY_TIER_1, CAPACITY_TIER_1);
-        keyworkerPool = initKeyworkerPool(keyworkerService, prisonSupportedService, Collections.singleton(keyworker), TEST_AGENCY_ID);
+        keyworkerPool = initKeyworkerPool(prisonSupportedService, Collections.singleton(keyworker), TEST_AGENCY_ID);
 
         // Request KW from pool for offender
         final var allocatedKeyworker = keyworkerPool.getKeyworker("A1111AA");
@@ -90,7 +82,7 @@ public class KeyworkerPoolTest {
     public void testPoolErrorsWhenSingleKeyworkerIsFullyAllocated() {
         // Single KW, fully allocated, in KWP
         final var keyworker = getKeyworker(1, FULLY_ALLOCATED, CAPACITY_TIER_1);
-        keyworkerPool = initKeyworkerPool(keyworkerService, prisonSupportedService, Collections.singleton(keyworker), TEST_AGENCY_ID);
+        keyworkerPool = initKeyworkerPool(prisonSupportedService, Collections.singleton(keyworker), TEST_AGENCY_ID);
 
         // Request KW from pool (catching expected exception)
         final var thrown = catchThrowable(() -> keyworkerPool.getKeyworker("A1111AA"));
@@ -114,7 +106,7 @@ public class KeyworkerPoolTest {
         final var lowAllocCount = 1;
         final var highAllocCount = FULLY_ALLOCATED - 1;
         final var keyworkers = getKeyworkers(3, lowAllocCount, highAllocCount, CAPACITY_TIER_1);
-        keyworkerPool = initKeyworkerPool(keyworkerService, prisonSupportedService, keyworkers, TEST_AGENCY_ID);
+        keyworkerPool = initKeyworkerPool(prisonSupportedService, keyworkers, TEST_AGENCY_ID);
 
         // Request KW from pool for offender
         final var allocatedKeyworker = keyworkerPool.getKeyworker("A1111AA");
@@ -141,7 +133,7 @@ public class KeyworkerPoolTest {
         final var keyworkers = getKeyworkers(3, lowAllocCount, highAllocCount, CAPACITY_TIER_1);
         keyworkers.get(0).setCapacity(3);
         keyworkers.get(0).setNumberAllocated(4);
-        keyworkerPool = initKeyworkerPool(keyworkerService, prisonSupportedService, keyworkers, TEST_AGENCY_ID);
+        keyworkerPool = initKeyworkerPool(prisonSupportedService, keyworkers, TEST_AGENCY_ID);
 
         // Request KW from pool for offender
         final var allocatedKeyworker = keyworkerPool.getKeyworker("A1111AA");
@@ -156,16 +148,14 @@ public class KeyworkerPoolTest {
         final var keyworkers = getKeyworkers(5, 1, 1, CAPACITY_TIER_1);
         // Make life difficult for the comparator - decreasing staff id order
         Collections.shuffle(keyworkers);
-        keyworkerPool = initKeyworkerPool(keyworkerService, prisonSupportedService, keyworkers, TEST_AGENCY_ID);
-
-        // Get KW sorted set to check directly
-        final var set = (SortedSet<KeyworkerDto>) ReflectionTestUtils.getField(keyworkerPool, "keyworkerPool");
-        final var it = set.iterator();
-        assertThat(it.next().getStaffId()).isEqualTo(1L);
-        assertThat(it.next().getStaffId()).isEqualTo(2L);
-        assertThat(it.next().getStaffId()).isEqualTo(3L);
-        assertThat(it.next().getStaffId()).isEqualTo(4L);
-        assertThat(it.next().getStaffId()).isEqualTo(5L);
+        keyworkerPool = initKeyworkerPool(prisonSupportedService, keyworkers, TEST_AGENCY_ID);
+
+        // Take each priority KW in turn, allocating to it so that the next one comes to the head of the pool
+        for (var staffId = 1L; staffId <= 5L; staffId++) {
+            final var priorityKeyworker = keyworkerPool.getKeyworker("A1111AA");
+            assertThat(priorityKeyworker.getStaffId()).isEqualTo(staffId);
+            keyworkerPool.incrementAndRefreshKeyworker(priorityKeyworker);
+        }
     }
 
     // Given an offender is seeking KW allocation
@@ -191,8 +181,6 @@ public class KeyworkerPoolTest {
                 getKeyworker(2, highAllocCount, CAPACITY_TIER_1),
                 getKeyworker(3, lowAllocCount, CAPACITY_TIER_1));
 
-        keyworkerPool = initKeyworkerPool(keyworkerService, prisonSupportedService, keyworkers, TEST_AGENCY_ID);
-
         // Some previous allocations for each Key worker
         final var refDateTime = LocalDateTime.now();
 
@@ -211,16 +199,14 @@ public class KeyworkerPoolTest {
         staff3IrrelevantAllocationP.setAllocationType(AllocationType.PROVISIONAL);
         staff3IrrelevantAllocationM.setAllocationType(AllocationType.MANUAL);
 
-        when(keyworkerService.getAllocationsForKeyworker(eq(staffId1))).thenReturn(Collections.singletonList(staff1Allocation));
-        when(keyworkerService.getAllocationsForKeyworker(eq(staffId3))).thenReturn(List.of(
-                staff3Allocation, staff3IrrelevantAllocationP, staff3IrrelevantAllocationM));
+        final var allocationHistory = getAllocationHistory(Collections.emptyList(), List.of(
+                staff1Allocation, staff2Allocation, staff3Allocation, staff3IrrelevantAllocationP, staff3IrrelevantAllocationM));
+
+        keyworkerPool = initKeyworkerPool(allocationHistory, prisonSupportedService, keyworkers, TEST_AGENCY_ID);
 
         // Request KW from pool for offender
         final var allocatedKeyworker = keyworkerPool.getKeyworker("A1111AA");
 
-        // Verify collaborators
-        verify(keyworkerService, Mockito.times(2)).getAllocationsForKeyworker(anyLong());
-
         // Verify returned KW is the one with fewest allocations and least recent auto-allocation
         assertThat(allocatedKeyworker.getStaffId()).isEqualTo(staffId3);
     }
@@ -241,12 +227,13 @@ public class KeyworkerPoolTest {
         final long allocStaffId = 2;
 
         final var keyworkers = getKeyworkers(3, lowAllocCount, highAllocCount, CAPACITY_TIER_1);
-        keyworkerPool = initKeyworkerPool(keyworkerService, prisonSupportedService, keyworkers, TEST_AGENCY_ID);
 
         // A previous allocation between the unallocated offender and Key worker with staffId = 2
-        mockPrisonerAllocationHistory(keyworkerService,
+        final var allocationHistory = getPrisonerAllocationHistory(
                 getPreviousKeyworkerAutoAllocation(TEST_AGENCY_ID, allocOffenderNo, allocStaffId));
 
+        keyworkerPool = initKeyworkerPool(allocationHistory, prisonSupportedService, keyworkers, TEST_AGENCY_ID);
+
         // Request KW from pool for offender
         final var allocatedKeyworker = keyworkerPool.getKeyworker(allocOffenderNo);
 
@@ -275,14 +262,15 @@ public class KeyworkerPoolTest {
         final var ldtLeastRecent = ldtOther.minusDays(7);
 
         final var keyworkers = getKeyworkers(7, lowAllocCount, highAllocCount, CAPACITY_TIER_1);
-        keyworkerPool = initKeyworkerPool(keyworkerService, prisonSupportedService, keyworkers, TEST_AGENCY_ID);
 
         // Previous allocations between the unallocated offender and previous KWs
-        mockPrisonerAllocationHistory(keyworkerService,
+        final var allocationHistory = getPrisonerAllocationHistory(
                 getPreviousKeyworkerAutoAllocation(TEST_AGENCY_ID, allocOffenderNo, allocStaffIdMostRecent, ldtMostRecent),
                 getPreviousKeyworkerAutoAllocation(TEST_AGENCY_ID, allocOffenderNo, allocStaffIdOther, ldtOther),
                 getPreviousKeyworkerAutoAllocation(TEST_AGENCY_ID, allocOffenderNo, allocStaffIdLeastRecent, ldtLeastRecent));
 
+        keyworkerPool = initKeyworkerPool(allocationHistory, prisonSupportedService, keyworkers, TEST_AGENCY_ID);
+
         // Request KW from pool for offender
         final var allocatedKeyworker = keyworkerPool.getKeyworker(allocOffenderNo);
 
@@ -302,7 +290,7 @@ public class KeyworkerPoolTest {
         final var highAllocCount = FULLY_ALLOCATED - 1;
 
         final var keyworkers = getKeyworkers(7, lowAllocCount, highAllocCount, CAPACITY_TIER_1);
-        keyworkerPool = initKeyworkerPool(keyworkerService, prisonSupportedService, keyworkers, TEST_AGENCY_ID);
+        keyworkerPool = initKeyworkerPool(prisonSupportedService, keyworkers, TEST_AGENCY_ID);
 
         // A KW who is not a member of KWP
         final var otherKeyworker = getKeyworker(8, 5, CAPACITY_TIER_1);
@@ -333,7 +321,7 @@ public class KeyworkerPoolTest {
         keyworkers.add(firstKeyworker);
         keyworkers.add(secondKeyworker);
 
-        keyworkerPool = initKeyworkerPool(keyworkerService, prisonSupportedService, keyworkers, TEST_AGENCY_ID);
+        keyworkerPool = initKeyworkerPool(prisonSupportedService, keyworkers, TEST_AGENCY_ID);
 
         // Verify that priority KW is the one with known low alloc count and lowest staff id
         var priorityKeyworker = keyworkerPool.getKeyworker("A1111AA");
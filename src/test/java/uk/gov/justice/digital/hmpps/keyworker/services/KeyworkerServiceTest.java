@@ -8,7 +8,6 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.ArgumentMatchers;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.client.RestClientTest;
@@ -74,6 +73,9 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
     @MockBean
     private NomisService nomisService;
 
+    @MockBean
+    private KeyworkerLoadService keyworkerLoadService;
+
 
     @Before
     public void setup() {
@@ -256,6 +258,12 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
         assertThat(list.get(1).isActive()).isFalse();
         assertThat(list.get(1).getExpiryDateTime()).isCloseTo(LocalDateTime.now(), within(1, ChronoUnit.HOURS));
         assertThat(list.get(1).getDeallocationReason()).isEqualTo(DeallocationReason.RELEASED);
+
+        // Old and new allocations recounted together, rather than locking each Key worker's load separately
+        verify(keyworkerLoadService, times(1)).refresh(anyCollection());
+        verify(keyworkerLoadService).refresh(argThat((Collection<OffenderKeyworker> changed) -> changed.size() == 3
+                && changed.containsAll(list)
+                && changed.stream().anyMatch(allocation -> allocation.isActive() && Long.valueOf(staffId).equals(allocation.getStaffId()))));
     }
 
     @Test
@@ -277,6 +285,31 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
         KeyworkerTestHelper.verifyNewAllocation(argCap.getValue(), TEST_AGENCY, offenderNo, staffId);
     }
 
+    @Test
+    public void testAllocateAllOffenderKeyworkers() {
+        final var assignedDateTime = LocalDateTime.of(2018, Month.FEBRUARY, 26, 6, 0);
+
+        final var testAlloc1 = getTestOffenderKeyworker("A1111AA", 5L);
+        final var testAlloc2 = getTestOffenderKeyworker("A1111AB", 6L);
+        testAlloc2.setAssignedDateTime(assignedDateTime);
+
+        // Mock authenticated user
+        when(authenticationFacade.getCurrentUsername()).thenReturn(TEST_USER);
+
+        service.allocateAll(List.of(testAlloc1, testAlloc2), 50);
+
+        verify(repository, times(1)).insertAll(eq(List.of(testAlloc1, testAlloc2)), eq(50));
+        verify(repository, never()).save(any(OffenderKeyworker.class));
+
+        KeyworkerTestHelper.verifyNewAllocation(testAlloc1, TEST_AGENCY, "A1111AA", 5L);
+        KeyworkerTestHelper.verifyNewAllocation(testAlloc2, TEST_AGENCY, "A1111AB", 6L);
+
+        assertThat(testAlloc2.getAssignedDateTime()).isEqualTo(assignedDateTime);
+        assertThat(testAlloc1.getUserId()).isEqualTo(TEST_USER);
+        assertThat(testAlloc1.getCreateUserId()).isEqualTo(TEST_USER);
+        assertThat(testAlloc1.getCreationDateTime()).isCloseTo(LocalDateTime.now(), within(1, ChronoUnit.HOURS));
+    }
+
     @Test
     public void testGetOffenders() {
 
@@ -410,6 +443,68 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
         }
     }
 
+    @Test
+    public void testGetAllocationsFetchesOffendersForPageOnly() {
+        final var filter = AllocationsFilterDto.builder()
+                .prisonId(TEST_AGENCY)
+                .allocationType(Optional.empty())
+                .fromDate(Optional.of(LocalDate.of(2018, 1, 1)))
+                .toDate(LocalDate.of(2018, 6, 30))
+                .build();
+        final var paging = PagingAndSortingDto.builder().pageOffset(20L).pageLimit(2L).sortFields("assigned").sortOrder(SortOrder.DESC).build();
+        final var allocations = List.of(
+                OffenderKeyworker.builder().offenderNo("A1234AA").staffId(-5L).build(),
+                OffenderKeyworker.builder().offenderNo("A1234AB").staffId(-5L).build());
+        final var offenders = List.of(
+                KeyworkerTestHelper.getOffender(1, TEST_AGENCY, "A1234AA"),
+                KeyworkerTestHelper.getOffender(2, TEST_AGENCY, "A1234AB"));
+        final var decorated = List.of(KeyworkerAllocationDetailsDto.builder().offenderNo("A1234AA").build(), KeyworkerAllocationDetailsDto.builder().offenderNo("A1234AB").build());
+
+        when(repository.countActiveAllocations(filter)).thenReturn(57L);
+        when(repository.findActiveAllocations(filter, true, SortOrder.DESC, 20L, 2L)).thenReturn(allocations);
+        when(nomisService.getOffendersForPrison(TEST_AGENCY, List.of("A1234AA", "A1234AB"))).thenReturn(offenders);
+        when(processor.decorateAllocated(allocations, offenders)).thenReturn(decorated);
+
+        final var page = service.getAllocations(filter, paging);
+
+        assertThat(page.getItems()).isEqualTo(decorated);
+        assertThat(page.getTotalRecords()).isEqualTo(57L);
+        assertThat(page.getPageOffset()).isEqualTo(20L);
+        assertThat(page.getPageLimit()).isEqualTo(2L);
+        verify(nomisService, never()).getOffendersAtLocation(anyString(), anyString(), any(), anyBoolean());
+    }
+
+    @Test
+    public void testGetAllocationsSortedByNamePagesAfterSorting() {
+        final var filter = AllocationsFilterDto.builder()
+                .prisonId(TEST_AGENCY)
+                .allocationType(Optional.of(AllocationType.MANUAL))
+                .fromDate(Optional.empty())
+                .toDate(LocalDate.of(2018, 6, 30))
+                .build();
+        final var paging = PagingAndSortingDto.builder().pageOffset(1L).pageLimit(1L).sortFields("lastName,firstName").sortOrder(SortOrder.ASC).build();
+        final var allocations = List.of(
+                OffenderKeyworker.builder().offenderNo("A1234AA").staffId(-5L).build(),
+                OffenderKeyworker.builder().offenderNo("A1234AB").staffId(-5L).build());
+        final var allOffenders = List.of(
+                KeyworkerTestHelper.getOffender(2, TEST_AGENCY, "A1234AB"),
+                KeyworkerTestHelper.getOffender(1, TEST_AGENCY, "A1234AA"));
+        final var decorated = List.of(KeyworkerAllocationDetailsDto.builder().offenderNo("A1234AA").build(), KeyworkerAllocationDetailsDto.builder().offenderNo("A1234AB").build());
+        final var sorted = List.of(decorated.get(1), decorated.get(0));
+
+        when(repository.countActiveAllocations(filter)).thenReturn(2L);
+        when(repository.findActiveAllocations(filter, false, SortOrder.ASC, 0, Integer.MAX_VALUE)).thenReturn(allocations);
+        when(nomisService.getOffendersAtLocation(TEST_AGENCY, "lastName,firstName", SortOrder.ASC, false)).thenReturn(allOffenders);
+        when(processor.decorateAllocated(allocations, allOffenders)).thenReturn(decorated);
+        when(processor.sortByOffenders(decorated, allOffenders)).thenReturn(sorted);
+
+        final var page = service.getAllocations(filter, paging);
+
+        assertThat(page.getItems()).extracting(KeyworkerAllocationDetailsDto::getOffenderNo).containsExactly("A1234AA");
+        assertThat(page.getTotalRecords()).isEqualTo(2L);
+        verify(nomisService, never()).getOffendersForPrison(anyString(), anyList());
+    }
+
     private void expectKeyworkerDetailsCall(final long staffId, final Integer CAPACITY, final int ALLOCATIONS, final LocalDate activeDate) {
         expectStaffRoleApiCall(staffId);
 
@@ -421,7 +516,20 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
                 .activeDate(activeDate)
                 .build())
         );
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(staffId, TEST_AGENCY, true, PROVISIONAL)).thenReturn(ALLOCATIONS);
+        when(keyworkerLoadService.getNumberAllocated(TEST_AGENCY, List.of(staffId))).thenReturn(Map.of(staffId, ALLOCATIONS));
+    }
+
+    private void expectKeyworkerRecords(final Keyworker... keyworkers) {
+        when(keyworkerRepository.findAllById(anyIterable())).thenReturn(List.of(keyworkers));
+    }
+
+    private void expectAllocationCounts(final Map<Long, Integer> countsByStaffId) {
+        when(keyworkerLoadService.getNumberAllocated(eq(TEST_AGENCY), anyCollection())).thenAnswer(invocation -> {
+            final Collection<Long> staffIds = invocation.getArgument(1);
+            final Map<Long, Integer> counts = new HashMap<>();
+            staffIds.stream().filter(countsByStaffId::containsKey).forEach(staffId -> counts.put(staffId, countsByStaffId.get(staffId)));
+            return counts;
+        });
     }
 
     private void expectStaffRoleApiCall(final long staffId) {
@@ -452,11 +560,10 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
         expectStaffRoleApiCall(staffId);
 
         when(keyworkerRepository.findById(staffId)).thenReturn(Optional.empty());
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(staffId, TEST_AGENCY, true, PROVISIONAL)).thenReturn(null);
 
         final var keyworkerDetails = service.getKeyworkerDetails(TEST_AGENCY, staffId);
 
-        KeyworkerTestHelper.verifyKeyworkerDto(staffId, 6, null, KeyworkerStatus.ACTIVE, keyworkerDetails, null);
+        KeyworkerTestHelper.verifyKeyworkerDto(staffId, 6, 0, KeyworkerStatus.ACTIVE, keyworkerDetails, null);
     }
 
     @Test
@@ -477,7 +584,7 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
         assertThat(keyworkerDetails.getCapacity()).isEqualTo(null);
 
         verify(keyworkerRepository, never()).findById(Mockito.anyLong());
-        verify(repository, never()).countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(Mockito.anyLong(), Mockito.anyString(), Mockito.anyBoolean(), ArgumentMatchers.any());
+        verify(keyworkerLoadService, never()).getNumberAllocated(anyString(), anyCollection());
     }
 
     @Test
@@ -523,9 +630,7 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
 
         // Mock allocation lookup
         when(repository.findByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(TEST_STAFF_ID, TEST_AGENCY, true, PROVISIONAL)).thenReturn(allocations);
-        when(nomisService.getPrisonerDetail(offender1.getOffenderNo())).thenReturn(Optional.of(offender1));
-        when(nomisService.getPrisonerDetail(offender2.getOffenderNo())).thenReturn(Optional.of(offender2));
-        when(nomisService.getPrisonerDetail(offender3.getOffenderNo())).thenReturn(Optional.of(offender3));
+        when(nomisService.getPrisonerDetails(ImmutableList.of("1", "2", "3"))).thenReturn(ImmutableList.of(offender1, offender2, offender3));
 
         // Invoke service method
         final var allocationList = service.getAllocationsForKeyworkerWithOffenderDetails(TEST_AGENCY, TEST_STAFF_ID, false);
@@ -536,6 +641,8 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
 
         // Verify mocks
         verify(prisonSupportedService, times(1)).isMigrated(eq(TEST_AGENCY));
+        verify(nomisService, times(1)).getPrisonerDetails(anyList());
+        verify(nomisService, never()).getPrisonerDetail(anyString());
 
     }
 
@@ -570,9 +677,7 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
 
         when(repository.findByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(TEST_STAFF_ID, TEST_AGENCY, true, PROVISIONAL)).thenReturn(allocations);
 
-        when(nomisService.getPrisonerDetail(offender1.getOffenderNo())).thenReturn(Optional.of(offender1));
-        when(nomisService.getPrisonerDetail("2")).thenReturn(Optional.empty());
-        when(nomisService.getPrisonerDetail(offender3.getOffenderNo())).thenReturn(Optional.of(offender3));
+        when(nomisService.getPrisonerDetails(ImmutableList.of("1", "2", "3"))).thenReturn(ImmutableList.of(offender1, offender3));
 
         // Invoke service method
         final var allocationList = service.getAllocationsForKeyworkerWithOffenderDetails(TEST_AGENCY, TEST_STAFF_ID, false);
@@ -618,26 +723,22 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
         );
         when(nomisService.getActiveStaffKeyWorkersForPrison(TEST_AGENCY, nameFilter, pagingAndSorting, false))
                 .thenReturn(new ResponseEntity<>(nomisList, paginationHeaders(2, 0, 10), HttpStatus.OK));
-        when(keyworkerRepository.findById(-5L)).thenReturn(Optional.of(Keyworker.builder()
-                .staffId(-5L)
-                .status(KeyworkerStatus.UNAVAILABLE_LONG_TERM_ABSENCE)
-                .capacity(5)
-                .autoAllocationFlag(true)
-                .activeDate(LocalDate.of(2018, Month.AUGUST, 12))
-                .build())
-        );
-        when(keyworkerRepository.findById(-6L)).thenReturn(Optional.of(Keyworker.builder()
-                .staffId(-6L)
-                .status(KeyworkerStatus.ACTIVE)
-                .capacity(3)
-                .autoAllocationFlag(true)
-                .activeDate(LocalDate.of(2018, Month.AUGUST, 14))
-                .build())
-        );
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(-5L, TEST_AGENCY, true, AllocationType.PROVISIONAL))
-                .thenReturn(2);
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(-6L, TEST_AGENCY, true, AllocationType.PROVISIONAL))
-                .thenThrow(new RuntimeException("Should not be needed"));
+        expectKeyworkerRecords(
+                Keyworker.builder()
+                        .staffId(-5L)
+                        .status(KeyworkerStatus.UNAVAILABLE_LONG_TERM_ABSENCE)
+                        .capacity(5)
+                        .autoAllocationFlag(true)
+                        .activeDate(LocalDate.of(2018, Month.AUGUST, 12))
+                        .build(),
+                Keyworker.builder()
+                        .staffId(-6L)
+                        .status(KeyworkerStatus.ACTIVE)
+                        .capacity(3)
+                        .autoAllocationFlag(true)
+                        .activeDate(LocalDate.of(2018, Month.AUGUST, 14))
+                        .build());
+        expectAllocationCounts(Map.of(-5L, 2));
 
         final var keyworkerList = service.getKeyworkers(TEST_AGENCY, nameFilter, statusFilter, pagingAndSorting);
 
@@ -649,6 +750,10 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
         assertThat(result.getActiveDate()).isEqualTo(LocalDate.of(2018, Month.AUGUST, 12));
         assertThat(result.getAutoAllocationAllowed()).isTrue();
         assertThat(result.getStatus()).isEqualTo(KeyworkerStatus.UNAVAILABLE_LONG_TERM_ABSENCE);
+
+        // Key workers removed by the status filter are not looked up, and the rest are looked up together
+        verify(keyworkerLoadService).getNumberAllocated(TEST_AGENCY, List.of(-5L));
+        verify(keyworkerRepository, never()).findById(anyLong());
     }
 
     @Test
@@ -750,36 +855,29 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
         );
         when(nomisService.getActiveStaffKeyWorkersForPrison(TEST_AGENCY, nameFilter, pagingAndSorting, false))
                 .thenReturn(new ResponseEntity<>(nomisList, paginationHeaders(3, 0, 10), HttpStatus.OK));
-        when(keyworkerRepository.findById(-5L)).thenReturn(Optional.of(Keyworker.builder()
-                .staffId(-5L)
-                .status(KeyworkerStatus.ACTIVE)
-                .capacity(5)
-                .autoAllocationFlag(true)
-                .activeDate(LocalDate.of(2018, Month.AUGUST, 12))
-                .build())
-        );
-        when(keyworkerRepository.findById(-6L)).thenReturn(Optional.of(Keyworker.builder()
-                .staffId(-6L)
-                .status(KeyworkerStatus.ACTIVE)
-                .capacity(3)
-                .autoAllocationFlag(true)
-                .activeDate(LocalDate.of(2018, Month.AUGUST, 14))
-                .build())
-        );
-        when(keyworkerRepository.findById(-7L)).thenReturn(Optional.of(Keyworker.builder()
-                .staffId(-7L)
-                .status(KeyworkerStatus.UNAVAILABLE_ANNUAL_LEAVE)
-                .capacity(2)
-                .autoAllocationFlag(false)
-                .activeDate(LocalDate.of(2018, Month.AUGUST, 14))
-                .build())
-        );
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(-5L, TEST_AGENCY, true, AllocationType.PROVISIONAL))
-                .thenReturn(2);
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(-6L, TEST_AGENCY, true, AllocationType.PROVISIONAL))
-                .thenReturn(1);
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(-7L, TEST_AGENCY, true, AllocationType.PROVISIONAL))
-                .thenReturn(3);
+        expectKeyworkerRecords(
+                Keyworker.builder()
+                        .staffId(-5L)
+                        .status(KeyworkerStatus.ACTIVE)
+                        .capacity(5)
+                        .autoAllocationFlag(true)
+                        .activeDate(LocalDate.of(2018, Month.AUGUST, 12))
+                        .build(),
+                Keyworker.builder()
+                        .staffId(-6L)
+                        .status(KeyworkerStatus.ACTIVE)
+                        .capacity(3)
+                        .autoAllocationFlag(true)
+                        .activeDate(LocalDate.of(2018, Month.AUGUST, 14))
+                        .build(),
+                Keyworker.builder()
+                        .staffId(-7L)
+                        .status(KeyworkerStatus.UNAVAILABLE_ANNUAL_LEAVE)
+                        .capacity(2)
+                        .autoAllocationFlag(false)
+                        .activeDate(LocalDate.of(2018, Month.AUGUST, 14))
+                        .build());
+        expectAllocationCounts(Map.of(-5L, 2, -6L, 1, -7L, 3));
 
         when(nomisService.getCaseNoteUsage(eq(List.of(-5L, -6L, -7L)), eq(KEYWORKER_CASENOTE_TYPE), eq(KEYWORKER_SESSION_SUB_TYPE), isNull(), isNull(), eq(1)))
                 .thenReturn(List.of(
@@ -850,27 +948,23 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
         when(nomisService.getActiveStaffKeyWorkersForPrison(TEST_AGENCY, Optional.empty(), pagingAndSorting, false))
                 .thenReturn(new ResponseEntity<>(nomisList, paginationHeaders(2, 0, 10), HttpStatus.OK));
 
-        when(keyworkerRepository.findById(-5L)).thenReturn(Optional.of(Keyworker.builder()
-                .staffId(-5L)
-                .status(KeyworkerStatus.INACTIVE)
-                .capacity(5)
-                .autoAllocationFlag(true)
-                .activeDate(LocalDate.of(2018, Month.AUGUST, 12))
-                .build())
-        );
-        when(keyworkerRepository.findById(-6L)).thenReturn(Optional.of(Keyworker.builder()
-                .staffId(-6L)
-                .status(KeyworkerStatus.INACTIVE)
-                .capacity(3)
-                .autoAllocationFlag(true)
-                .activeDate(LocalDate.of(2018, Month.AUGUST, 14))
-                .build())
-        );
+        expectKeyworkerRecords(
+                Keyworker.builder()
+                        .staffId(-5L)
+                        .status(KeyworkerStatus.INACTIVE)
+                        .capacity(5)
+                        .autoAllocationFlag(true)
+                        .activeDate(LocalDate.of(2018, Month.AUGUST, 12))
+                        .build(),
+                Keyworker.builder()
+                        .staffId(-6L)
+                        .status(KeyworkerStatus.INACTIVE)
+                        .capacity(3)
+                        .autoAllocationFlag(true)
+                        .activeDate(LocalDate.of(2018, Month.AUGUST, 14))
+                        .build());
 
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(-5L, TEST_AGENCY, true, AllocationType.PROVISIONAL))
-                .thenReturn(2);
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(-6L, TEST_AGENCY, true, AllocationType.PROVISIONAL))
-                .thenReturn(1);
+        expectAllocationCounts(Map.of(-5L, 2, -6L, 1));
 
         when(nomisService.getCaseNoteUsage(eq(List.of(-5L, -6L)), eq(KEYWORKER_CASENOTE_TYPE), eq(KEYWORKER_SESSION_SUB_TYPE), isNull(), isNull(), eq(1)))
                 .thenReturn(Arrays.asList(
@@ -1028,6 +1122,12 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
         assertThat(allocationHistory).extracting("prisonId").isEqualTo(ImmutableList.of("HLI",TEST_AGENCY,"LPI"));
         assertThat(allocationHistory).extracting("assigned").isEqualTo(ImmutableList.of(now.minusMonths(1),now.minusMonths(2),now.minusMonths(3)));
         assertThat(allocationHistory).extracting("active").isEqualTo(ImmutableList.of(true, false, false));
+        assertThat(allocationHistory).extracting("lastModifiedByUser.username").isEqualTo(ImmutableList.of("staff3", "staff2", "staff1"));
+
+        // Each member of staff and user is looked up once, however many allocations they appear on
+        verify(nomisService).getBasicKeyworkerDtoForStaffId(12L);
+        verify(nomisService).getStaffDetailByUserId("staff2");
+        verify(nomisService).getStaffDetailByUserId("staff3");
     }
     @Test
     public void testGetAvailableKeyworkers() {
@@ -1041,17 +1141,14 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
                 KeyworkerTestHelper.getKeyworker(7, 0, 0)
         );
 
-        when(keyworkerRepository.findById(1L)).thenReturn(Optional.of(Keyworker.builder().staffId(1L).autoAllocationFlag(true).status(KeyworkerStatus.INACTIVE).build()));
-        when(keyworkerRepository.findById(2L)).thenReturn(Optional.of(Keyworker.builder().staffId(2L).autoAllocationFlag(true).status(KeyworkerStatus.UNAVAILABLE_ANNUAL_LEAVE).build()));
-        when(keyworkerRepository.findById(3L)).thenReturn(Optional.of(Keyworker.builder().staffId(3L).autoAllocationFlag(true).status(KeyworkerStatus.ACTIVE).build()));
-        when(keyworkerRepository.findById(5L)).thenReturn(Optional.of(Keyworker.builder().staffId(3L).autoAllocationFlag(true).status(KeyworkerStatus.UNAVAILABLE_LONG_TERM_ABSENCE).build()));
-        when(keyworkerRepository.findById(7L)).thenReturn(Optional.of(Keyworker.builder().staffId(3L).autoAllocationFlag(true).status(KeyworkerStatus.ACTIVE).build()));
+        expectKeyworkerRecords(
+                Keyworker.builder().staffId(1L).autoAllocationFlag(true).status(KeyworkerStatus.INACTIVE).build(),
+                Keyworker.builder().staffId(2L).autoAllocationFlag(true).status(KeyworkerStatus.UNAVAILABLE_ANNUAL_LEAVE).build(),
+                Keyworker.builder().staffId(3L).autoAllocationFlag(true).status(KeyworkerStatus.ACTIVE).build(),
+                Keyworker.builder().staffId(5L).autoAllocationFlag(true).status(KeyworkerStatus.UNAVAILABLE_LONG_TERM_ABSENCE).build(),
+                Keyworker.builder().staffId(7L).autoAllocationFlag(true).status(KeyworkerStatus.ACTIVE).build());
 
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(1L, TEST_AGENCY, true, PROVISIONAL)).thenReturn(0);
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(2L, TEST_AGENCY, true, PROVISIONAL)).thenReturn(2);
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(3L, TEST_AGENCY, true, PROVISIONAL)).thenReturn(1);
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(5L, TEST_AGENCY, true, PROVISIONAL)).thenReturn(0);
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(7L, TEST_AGENCY, true, PROVISIONAL)).thenReturn(2);
+        expectAllocationCounts(Map.of(1L, 0, 2L, 2, 3L, 1, 5L, 0, 7L, 2));
 
         when(nomisService.getAvailableKeyworkers(TEST_AGENCY)).thenReturn(keyworkers);
         // Invoke service method
@@ -1101,14 +1198,13 @@ public class KeyworkerServiceTest extends AbstractServiceTest {
                 KeyworkerTestHelper.getKeyworker(4, 0, CAPACITY_TIER_1));
 
 
-        when(keyworkerRepository.findById(1L)).thenReturn(Optional.of(Keyworker.builder().staffId(1L).autoAllocationFlag(true).build()));
-        when(keyworkerRepository.findById(2L)).thenReturn(Optional.of(Keyworker.builder().staffId(2L).autoAllocationFlag(true).build()));
-        when(keyworkerRepository.findById(3L)).thenReturn(Optional.of(Keyworker.builder().staffId(3L).autoAllocationFlag(true).build()));
-        when(keyworkerRepository.findById(4L)).thenReturn(Optional.of(Keyworker.builder().staffId(4L).autoAllocationFlag(false).build()));
+        expectKeyworkerRecords(
+                Keyworker.builder().staffId(1L).autoAllocationFlag(true).build(),
+                Keyworker.builder().staffId(2L).autoAllocationFlag(true).build(),
+                Keyworker.builder().staffId(3L).autoAllocationFlag(true).build(),
+                Keyworker.builder().staffId(4L).autoAllocationFlag(false).build());
 
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(1L, TEST_AGENCY, true, PROVISIONAL)).thenReturn(2);
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(2L, TEST_AGENCY, true, PROVISIONAL)).thenReturn(3);
-        when(repository.countByStaffIdAndPrisonIdAndActiveAndAllocationTypeIsNot(3L, TEST_AGENCY, true, PROVISIONAL)).thenReturn(1);
+        expectAllocationCounts(Map.of(1L, 2, 2L, 3, 3L, 1));
 
 
         when(nomisService.getAvailableKeyworkers(TEST_AGENCY)).thenReturn(allocations);
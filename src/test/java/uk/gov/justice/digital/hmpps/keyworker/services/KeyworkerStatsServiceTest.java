@@ -20,6 +20,7 @@ import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.temporal.TemporalAdjusters;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static java.time.temporal.ChronoUnit.DAYS;
@@ -633,8 +634,8 @@ public class KeyworkerStatsServiceTest {
                         .offenderNo(offenderNo)
                         .build()).collect(Collectors.toList());
 
-        when(nomisService.getOffendersAtLocation(eq(TEST_AGENCY_ID), isA(String.class), isA(SortOrder.class), eq(true)))
-                .thenReturn(offenderLocations);
+        when(nomisService.getOffendersAtLocationAsync(eq(TEST_AGENCY_ID), isA(String.class), isA(SortOrder.class), eq(true)))
+                .thenReturn(CompletableFuture.completedFuture(offenderLocations));
 
         when(repository.findByActiveAndPrisonIdAndOffenderNoInAndAllocationTypeIsNot(eq(true), eq(TEST_AGENCY_ID), eq(offenderNos), eq(AllocationType.PROVISIONAL)))
                 .thenReturn(getDefaultOffenderKeyworkers());
@@ -653,11 +654,12 @@ public class KeyworkerStatsServiceTest {
                         .staffId(-3L)
                         .build()
         );
-        when(nomisService.getActiveStaffKeyWorkersForPrison(eq(TEST_AGENCY_ID), eq(Optional.empty()), isA(PagingAndSortingDto.class), eq(true)))
-                .thenReturn(new ResponseEntity<>(staffLocationRoleDtos, HttpStatus.OK));
+        when(nomisService.getActiveStaffKeyWorkersForPrisonAsync(eq(TEST_AGENCY_ID), eq(Optional.empty()), isA(PagingAndSortingDto.class), eq(true)))
+                .thenReturn(CompletableFuture.completedFuture(new ResponseEntity<>(staffLocationRoleDtos, HttpStatus.OK)));
 
-        when(keyworkerRepository.findById(-5L)).thenReturn(Optional.of(Keyworker.builder().staffId(-5L).status(KeyworkerStatus.ACTIVE).build()));
-        when(keyworkerRepository.findById(-3L)).thenReturn(Optional.of(Keyworker.builder().staffId(-5L).status(KeyworkerStatus.INACTIVE).build()));
+        when(keyworkerRepository.findAllById(Set.of(-5L, -4L, -3L))).thenReturn(List.of(
+                Keyworker.builder().staffId(-5L).status(KeyworkerStatus.ACTIVE).build(),
+                Keyworker.builder().staffId(-3L).status(KeyworkerStatus.INACTIVE).build()));
 
         when(nomisService.getCaseNoteUsageForPrisoners(eq(offenderNos), isNull(),
                 eq(KEYWORKER_CASENOTE_TYPE), isNull(), eq(toDate.minusDays(1)),
@@ -686,9 +688,9 @@ public class KeyworkerStatsServiceTest {
 
     private void verifyChecks() {
         verify(statisticRepository).findOneByPrisonIdAndSnapshotDate(TEST_AGENCY_ID, toDate.minusDays(1));
-        verify(nomisService).getOffendersAtLocation(eq(TEST_AGENCY_ID), isA(String.class), isA(SortOrder.class), eq(true));
+        verify(nomisService).getOffendersAtLocationAsync(eq(TEST_AGENCY_ID), isA(String.class), isA(SortOrder.class), eq(true));
         verify(repository).findByActiveAndPrisonIdAndOffenderNoInAndAllocationTypeIsNot(eq(true), eq(TEST_AGENCY_ID), eq(offenderNos), eq(AllocationType.PROVISIONAL));
-        verify(nomisService).getActiveStaffKeyWorkersForPrison(eq(TEST_AGENCY_ID), eq(Optional.empty()), isA(PagingAndSortingDto.class), eq(true));
+        verify(nomisService).getActiveStaffKeyWorkersForPrisonAsync(eq(TEST_AGENCY_ID), eq(Optional.empty()), isA(PagingAndSortingDto.class), eq(true));
         verify(nomisService).getCaseNoteUsageForPrisoners(eq(offenderNos), isNull(),
                 eq(KEYWORKER_CASENOTE_TYPE), isNull(), eq(toDate.minusDays(1)),
                 eq(toDate.minusDays(1)), eq(true));
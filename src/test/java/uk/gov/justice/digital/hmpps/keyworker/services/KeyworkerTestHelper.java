@@ -12,8 +12,6 @@ import java.time.Month;
 import java.util.*;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.Mockito.anyString;
-import static org.mockito.Mockito.when;
 
 public class KeyworkerTestHelper {
     public static final int CAPACITY_TIER_1 = 6;
@@ -201,19 +199,28 @@ public class KeyworkerTestHelper {
         assertThat(kwAlloc.getExpiryDateTime()).isNull();
     }
 
-    public static void mockPrisonerAllocationHistory(final KeyworkerService keyworkerService,
-                                                     final OffenderKeyworker... allocations) {
-        final List<OffenderKeyworker> allocationHistory =
-                (allocations == null) ? Collections.emptyList() : List.of(allocations);
+    // Provides allocation history snapshot containing specified offender allocations and Key worker allocations.
+    public static AllocationHistorySnapshot getAllocationHistory(final List<OffenderKeyworker> offenderAllocations,
+                                                                 final List<OffenderKeyworker> keyworkerAllocations) {
+        return new AllocationHistorySnapshot(offenderAllocations, keyworkerAllocations);
+    }
+
+    // Provides allocation history snapshot containing specified offender allocations only.
+    public static AllocationHistorySnapshot getPrisonerAllocationHistory(final OffenderKeyworker... allocations) {
+        return getAllocationHistory(List.of(allocations), Collections.emptyList());
+    }
 
-        when(keyworkerService.getAllocationHistoryForPrisoner(anyString())).thenReturn(allocationHistory);
+    public static KeyworkerPool initKeyworkerPool(final PrisonSupportedService prisonSupportedService,
+                                                  final Collection<KeyworkerDto> keyworkers,
+                                                  final String prisonId) {
+        return initKeyworkerPool(getPrisonerAllocationHistory(), prisonSupportedService, keyworkers, prisonId);
     }
 
-    public static KeyworkerPool initKeyworkerPool(final KeyworkerService keyworkerService,
+    public static KeyworkerPool initKeyworkerPool(final AllocationHistorySnapshot allocationHistory,
                                                   final PrisonSupportedService prisonSupportedService,
                                                   final Collection<KeyworkerDto> keyworkers,
                                                   final String prisonId) {
-        return new KeyworkerPool(keyworkerService, prisonSupportedService, keyworkers, prisonId);
+        return new KeyworkerPool(allocationHistory, prisonSupportedService, keyworkers, prisonId);
     }
 
     // Provides a previous Key worker allocation between specified offender and Key worker with an assigned datetime 7
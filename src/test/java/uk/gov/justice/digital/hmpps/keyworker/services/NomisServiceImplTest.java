@@ -0,0 +1,85 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.support.SimpleCacheManager;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.ReflectionUtils;
+import uk.gov.justice.digital.hmpps.keyworker.dto.PrisonerDetail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static uk.gov.justice.digital.hmpps.keyworker.services.NomisService.URI_PRISONERS;
+
+public class NomisServiceImplTest {
+
+    private RestCallHelper restCallHelper;
+    private CacheManager cacheManager;
+    private NomisServiceImpl nomisService;
+
+    @Before
+    public void setUp() {
+        final var cacheConfig = new CacheConfig(new MockEnvironment());
+        ReflectionTestUtils.setField(cacheConfig, "staffInformationTimeoutSeconds", 86400);
+        ReflectionTestUtils.setField(cacheConfig, "prisonerInformationTimeoutSeconds", 300);
+        ReflectionTestUtils.setField(cacheConfig, "refreshAheadPercent", 80);
+        cacheManager = cacheConfig.cacheManager();
+        ((SimpleCacheManager) cacheManager).afterPropertiesSet();
+
+        restCallHelper = mock(RestCallHelper.class);
+        nomisService = new NomisServiceImpl(restCallHelper, cacheManager);
+
+        // Elite2 returns the details of those offenders it knows, which here excludes any ending in X
+        when(restCallHelper.postWithPaging(eq(URI_PRISONERS), any(), any(), any(), any(), anyBoolean())).thenAnswer(invocation -> {
+            final Map<String, List<String>> body = invocation.getArgument(2);
+            return body.get("offenderNos").stream()
+                    .filter(offenderNo -> !offenderNo.endsWith("X"))
+                    .map(NomisServiceImplTest::prisonerDetail)
+                    .collect(Collectors.toList());
+        });
+    }
+
+    @Test
+    public void testGetPrisonerDetailsInBatches() {
+        final var offenderNos = IntStream.range(0, 250).mapToObj(i -> String.format("A%04dAA", i)).collect(Collectors.toList());
+
+        final var prisonerDetails = nomisService.getPrisonerDetails(offenderNos);
+
+        assertThat(prisonerDetails).extracting(PrisonerDetail::getOffenderNo).containsExactlyElementsOf(offenderNos);
+        verify(restCallHelper, times(3)).postWithPaging(eq(URI_PRISONERS), any(), any(), any(), any(), anyBoolean());
+    }
+
+    @Test
+    public void testGetPrisonerDetailsUsesPrisonerDetailCache() {
+        cacheManager.getCache("getPrisonerDetail").put(key("A1234AA"), prisonerDetail("A1234AA"));
+
+        assertThat(nomisService.getPrisonerDetails(List.of("A1234AA", "A1234AB", "A1234AX")))
+                .extracting(PrisonerDetail::getOffenderNo).containsExactly("A1234AA", "A1234AB");
+        verify(restCallHelper).postWithPaging(eq(URI_PRISONERS), any(), eq(Map.of("offenderNos", List.of("A1234AB", "A1234AX"))), any(), any(), anyBoolean());
+
+        // Both those found and those not found are now cached for single lookups too
+        assertThat(cacheManager.getCache("getPrisonerDetail").get(key("A1234AB")).get()).isEqualTo(prisonerDetail("A1234AB"));
+        assertThat(nomisService.getPrisonerDetails(List.of("A1234AB", "A1234AX")))
+                .extracting(PrisonerDetail::getOffenderNo).containsExactly("A1234AB");
+        verifyNoMoreInteractions(restCallHelper);
+    }
+
+    private Object key(final String offenderNo) {
+        final var method = ReflectionUtils.findMethod(NomisServiceImpl.class, "getPrisonerDetail", String.class);
+        return new RefreshableKeyGenerator().generate(nomisService, method, offenderNo);
+    }
+
+    private static PrisonerDetail prisonerDetail(final String offenderNo) {
+        return PrisonerDetail.builder().offenderNo(offenderNo).latestLocationId("LEI").build();
+    }
+}
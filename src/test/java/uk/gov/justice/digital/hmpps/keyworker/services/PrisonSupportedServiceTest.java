@@ -7,6 +7,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.justice.digital.hmpps.keyworker.dto.Prison;
 import uk.gov.justice.digital.hmpps.keyworker.exception.PrisonNotMigratedException;
 import uk.gov.justice.digital.hmpps.keyworker.exception.PrisonNotSupportAutoAllocationException;
 import uk.gov.justice.digital.hmpps.keyworker.exception.PrisonNotSupportedException;
@@ -18,6 +19,7 @@ import java.util.Optional;
 
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -34,31 +36,30 @@ public class PrisonSupportedServiceTest {
     public void setUp() {
         prisonSupportedService = new PrisonSupportedService(repository);
         ReflectionTestUtils.setField(prisonSupportedService, "capacityTiers", List.of(6,9));
+        ReflectionTestUtils.setField(prisonSupportedService, "snapshotSeconds", 60L);
     }
 
     @Test(expected = PrisonNotSupportedException.class)
     public void testVerifyPrisonSupportForUnsupportedPrison() {
-        when(repository.existsByPrisonId("XXX")).thenReturn(false);
+        when(repository.findAll()).thenReturn(List.of());
         prisonSupportedService.verifyPrisonMigrated("XXX");
     }
 
     @Test(expected = PrisonNotMigratedException.class)
     public void testVerifyPrisonSupportForSupportedPrison() {
-        when(repository.existsByPrisonId(TEST_AGENCY)).thenReturn(true);
-        when(repository.findById(TEST_AGENCY)).thenReturn(Optional.of(PrisonSupported.builder().prisonId(TEST_AGENCY).migrated(false).build()));
+        when(repository.findAll()).thenReturn(List.of(PrisonSupported.builder().prisonId(TEST_AGENCY).migrated(false).build()));
         prisonSupportedService.verifyPrisonMigrated(TEST_AGENCY);
     }
 
     @Test
     public void testVerifyPrisonMigratedForSupportedPrison() {
-        when(repository.existsByPrisonId(TEST_AGENCY)).thenReturn(true);
-        when(repository.findById(TEST_AGENCY)).thenReturn(Optional.of(PrisonSupported.builder().prisonId(TEST_AGENCY).migrated(true).build()));
+        when(repository.findAll()).thenReturn(List.of(PrisonSupported.builder().prisonId(TEST_AGENCY).migrated(true).build()));
         prisonSupportedService.verifyPrisonMigrated(TEST_AGENCY);
     }
 
     @Test
     public void testIsMigratedSupportedPrison() {
-        when(repository.findById(TEST_AGENCY)).thenReturn(Optional.of(PrisonSupported.builder().prisonId(TEST_AGENCY).migrated(true).build()));
+        when(repository.findAll()).thenReturn(List.of(PrisonSupported.builder().prisonId(TEST_AGENCY).migrated(true).build()));
         final var migrated = prisonSupportedService.isMigrated(TEST_AGENCY);
 
         assertThat(migrated).isTrue();
@@ -66,7 +67,7 @@ public class PrisonSupportedServiceTest {
 
     @Test
     public void testIsNotMigratedSupportedPrison() {
-        when(repository.findById(TEST_AGENCY)).thenReturn(Optional.of(PrisonSupported.builder().prisonId(TEST_AGENCY).migrated(false).build()));
+        when(repository.findAll()).thenReturn(List.of(PrisonSupported.builder().prisonId(TEST_AGENCY).migrated(false).build()));
         final var migrated = prisonSupportedService.isMigrated(TEST_AGENCY);
 
         assertThat(migrated).isFalse();
@@ -74,7 +75,7 @@ public class PrisonSupportedServiceTest {
 
     @Test
     public void testIsNotExistsSupportedPrison() {
-        when(repository.findById(TEST_AGENCY)).thenReturn(Optional.empty());
+        when(repository.findAll()).thenReturn(List.of());
         final var migrated = prisonSupportedService.isMigrated(TEST_AGENCY);
 
         assertThat(migrated).isFalse();
@@ -82,15 +83,13 @@ public class PrisonSupportedServiceTest {
 
     @Test
     public void testAutoAllocationSupportedForPrison() {
-        when(repository.existsByPrisonId(TEST_AGENCY)).thenReturn(true);
-        when(repository.findById(TEST_AGENCY)).thenReturn(Optional.of(PrisonSupported.builder().prisonId(TEST_AGENCY).autoAllocate(true).build()));
+        when(repository.findAll()).thenReturn(List.of(PrisonSupported.builder().prisonId(TEST_AGENCY).autoAllocate(true).build()));
         prisonSupportedService.verifyPrisonSupportsAutoAllocation(TEST_AGENCY);
     }
 
     @Test(expected = PrisonNotSupportAutoAllocationException.class)
     public void testAutoAllocationNotSupportedForPrison() {
-        when(repository.existsByPrisonId(TEST_AGENCY)).thenReturn(true);
-        when(repository.findById(TEST_AGENCY)).thenReturn(Optional.of(PrisonSupported.builder().prisonId(TEST_AGENCY).autoAllocate(false).build()));
+        when(repository.findAll()).thenReturn(List.of(PrisonSupported.builder().prisonId(TEST_AGENCY).autoAllocate(false).build()));
         prisonSupportedService.verifyPrisonSupportsAutoAllocation(TEST_AGENCY);
     }
 
@@ -118,4 +117,42 @@ public class PrisonSupportedServiceTest {
         assertThat(prison.getCapacityTier1()).isEqualTo(6);
         assertThat(prison.getCapacityTier2()).isEqualTo(9);
     }
+
+    @Test
+    public void testPrisonDetailReadFromSnapshot() {
+        when(repository.findAll()).thenReturn(List.of(PrisonSupported.builder().prisonId(TEST_AGENCY).migrated(true).capacityTier1(4).build()));
+
+        prisonSupportedService.verifyPrisonMigrated(TEST_AGENCY);
+        final var prison = prisonSupportedService.getPrisonDetail(TEST_AGENCY);
+        final var migratedPrisons = prisonSupportedService.getMigratedPrisons();
+
+        assertThat(prison.getCapacityTier1()).isEqualTo(4);
+        assertThat(migratedPrisons).extracting(Prison::getPrisonId).containsExactly(TEST_AGENCY);
+        verify(repository, times(1)).findAll();
+        verify(repository, never()).findById(anyString());
+    }
+
+    @Test
+    public void testSnapshotReloadedAfterUpdate() {
+        final var prison = PrisonSupported.builder().prisonId(TEST_AGENCY).build();
+        when(repository.findAll()).thenReturn(List.of(prison));
+        when(repository.findById(TEST_AGENCY)).thenReturn(Optional.of(prison));
+
+        assertThat(prisonSupportedService.getPrisonDetail(TEST_AGENCY).isAutoAllocatedSupported()).isFalse();
+        prisonSupportedService.updateSupportedPrison(TEST_AGENCY, true, 5, 7, 1);
+
+        assertThat(prisonSupportedService.getPrisonDetail(TEST_AGENCY).isAutoAllocatedSupported()).isTrue();
+        verify(repository, times(2)).findAll();
+    }
+
+    @Test
+    public void testSnapshotReloadedWhenExpired() {
+        ReflectionTestUtils.setField(prisonSupportedService, "snapshotSeconds", 0L);
+        when(repository.findAll()).thenReturn(List.of());
+
+        prisonSupportedService.isMigrated(TEST_AGENCY);
+        prisonSupportedService.isMigrated(TEST_AGENCY);
+
+        verify(repository, times(2)).findAll();
+    }
 }
@@ -7,6 +7,10 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestClientException;
 import uk.gov.justice.digital.hmpps.keyworker.dto.OffenderLocationDto;
 import uk.gov.justice.digital.hmpps.keyworker.dto.PrisonerDetail;
 import uk.gov.justice.digital.hmpps.keyworker.dto.PrisonerIdentifier;
@@ -18,8 +22,13 @@ import uk.gov.justice.digital.hmpps.keyworker.services.ReconciliationService.Rec
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 
@@ -35,6 +44,9 @@ public class ReconciliationServiceTest {
     @Mock
     private TelemetryClient telemetryClient;
 
+    @Mock
+    private KeyworkerLoadService keyworkerLoadService;
+
     private final static String TEST_AGENCY_ID = "LEI";
 
     private ReconciliationService service;
@@ -42,11 +54,75 @@ public class ReconciliationServiceTest {
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
-        service = new ReconciliationService(nomisService, repository, telemetryClient);
+        service = new ReconciliationService(nomisService, repository, telemetryClient, new SyncTaskExecutor(), keyworkerLoadService);
+        ReflectionTestUtils.setField(service, "lookupBatchSize", 50);
     }
 
     @Test
     public void testReconciliation() {
+        stubReconciliation();
+
+        ReconMetrics metrics = service.reconcileKeyWorkerAllocations(TEST_AGENCY_ID);
+
+        assertReconciled(metrics);
+    }
+
+    @Test
+    public void testReconciliationCorrectsKeyWorkerLoads() {
+        when(repository.findByActiveAndPrisonId(true, TEST_AGENCY_ID)).thenReturn(List.of());
+        when(nomisService.getOffendersAtLocation(TEST_AGENCY_ID, "bookingId", SortOrder.ASC, true)).thenReturn(Collections.emptyList());
+        when(keyworkerLoadService.reconcile(TEST_AGENCY_ID)).thenReturn(2);
+
+        ReconMetrics metrics = service.reconcileKeyWorkerAllocations(TEST_AGENCY_ID);
+
+        assertThat(metrics.getCorrectedKeyWorkerLoads().get()).isEqualTo(2);
+        verify(keyworkerLoadService).refresh(TEST_AGENCY_ID);
+    }
+
+    @Test
+    public void testKeyWorkerLoadsLockedOnlyAfterLookups() {
+        stubReconciliation();
+        final var elite2CallsBeforeLocking = new AtomicInteger();
+        when(keyworkerLoadService.reconcile(TEST_AGENCY_ID)).thenAnswer(invocation -> {
+            elite2CallsBeforeLocking.set(mockingDetails(nomisService).getInvocations().size());
+            return 0;
+        });
+
+        service.reconcileKeyWorkerAllocations(TEST_AGENCY_ID);
+
+        assertThat(elite2CallsBeforeLocking.get()).isEqualTo(mockingDetails(nomisService).getInvocations().size());
+    }
+
+    @Test
+    public void testReconciliationWithConcurrentLookupsInBatches() {
+        final var executor = Executors.newFixedThreadPool(3);
+        try {
+            service = new ReconciliationService(nomisService, repository, telemetryClient, new ConcurrentTaskExecutor(executor), keyworkerLoadService);
+            ReflectionTestUtils.setField(service, "lookupBatchSize", 2);
+            stubReconciliation();
+
+            ReconMetrics metrics = service.reconcileKeyWorkerAllocations(TEST_AGENCY_ID);
+
+            assertReconciled(metrics);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReconciliationFailsWhenLookupFails() {
+        when(repository.findByActiveAndPrisonId(true, TEST_AGENCY_ID)).thenReturn(
+                List.of(OffenderKeyworker.builder().offenderNo("A1234AD").build())
+        );
+        when(nomisService.getOffendersAtLocation(TEST_AGENCY_ID, "bookingId", SortOrder.ASC, true)).thenReturn(Collections.emptyList());
+
+        final var failure = new RestClientException("Elite2 unavailable");
+        when(nomisService.getPrisonerDetail("A1234AD")).thenThrow(failure);
+
+        assertThatThrownBy(() -> service.reconcileKeyWorkerAllocations(TEST_AGENCY_ID)).isSameAs(failure);
+    }
+
+    private void stubReconciliation() {
 
         when(repository.findByActiveAndPrisonId(true, TEST_AGENCY_ID)).thenReturn(
                 List.of(
@@ -120,9 +196,9 @@ public class ReconciliationServiceTest {
         when(nomisService.getPrisonerDetail("B1234AC")).thenReturn(Optional.of(PrisonerDetail.builder().offenderNo("B1234AC").latestLocationId("LEI").currentlyInPrison("Y").build()));
         when(nomisService.getPrisonerDetail("B1234AG")).thenReturn(Optional.of(PrisonerDetail.builder().offenderNo("B1234AG").latestLocationId("OUT").currentlyInPrison("N").build()));
         when(nomisService.getPrisonerDetail("B1234AH")).thenReturn(Optional.of(PrisonerDetail.builder().offenderNo("B1234AH").latestLocationId("MDI").currentlyInPrison("Y").build()));
+    }
 
-        ReconMetrics metrics = service.reconcileKeyWorkerAllocations(TEST_AGENCY_ID);
-
+    private void assertReconciled(final ReconMetrics metrics) {
         assertThat(metrics).isNotNull();
 
         assertThat(metrics.getPrisonId()).isEqualTo(TEST_AGENCY_ID);
@@ -0,0 +1,99 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.security.oauth2.client.DefaultOAuth2ClientContext;
+import org.springframework.security.oauth2.client.OAuth2RestTemplate;
+import org.springframework.security.oauth2.client.token.grant.client.ClientCredentialsResourceDetails;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriTemplate;
+import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerDto;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+import static uk.gov.justice.digital.hmpps.keyworker.services.NomisService.CASE_NOTE_USAGE;
+import static uk.gov.justice.digital.hmpps.keyworker.services.NomisService.URI_AVAILABLE_KEYWORKERS;
+
+public class RestCallHelperTest {
+
+    private static final ParameterizedTypeReference<List<KeyworkerDto>> KEYWORKER_DTO_LIST = new ParameterizedTypeReference<>() {};
+
+    private static final String KEYWORKERS = "[{\"staffId\":1},{\"staffId\":2}]";
+
+    private SimpleMeterRegistry meterRegistry;
+    private MockRestServiceServer userServer;
+    private MockRestServiceServer adminServer;
+    private RestCallHelper restCallHelper;
+
+    @Before
+    public void setUp() {
+        final var restTemplate = new RestTemplate();
+        final var systemRestTemplate = new OAuth2RestTemplate(new ClientCredentialsResourceDetails(),
+                new DefaultOAuth2ClientContext(new DefaultOAuth2AccessToken("token")));
+        userServer = MockRestServiceServer.bindTo(restTemplate).build();
+        adminServer = MockRestServiceServer.bindTo(systemRestTemplate).build();
+        meterRegistry = new SimpleMeterRegistry();
+        restCallHelper = new RestCallHelper(restTemplate, systemRestTemplate, meterRegistry,
+                new Elite2Resilience(new MockEnvironment(), meterRegistry));
+    }
+
+    @Test
+    public void testCallIsTimedByUriTemplate() {
+        userServer.expect(requestTo("/key-worker/LEI/available")).andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(KEYWORKERS, MediaType.APPLICATION_JSON));
+
+        final var keyworkers = restCallHelper.getForList(URI_AVAILABLE_KEYWORKERS,
+                new UriTemplate(URI_AVAILABLE_KEYWORKERS).expand("LEI"), KEYWORKER_DTO_LIST).getBody();
+
+        assertThat(keyworkers).extracting(KeyworkerDto::getStaffId).containsExactly(1L, 2L);
+        assertThat(meterRegistry.get("elite2.requests")
+                .tags("endpoint", URI_AVAILABLE_KEYWORKERS, "method", "GET", "status", "200", "client", "user")
+                .timer().count()).isEqualTo(1);
+
+        final var responseSize = meterRegistry.get("elite2.response.size").tags("endpoint", URI_AVAILABLE_KEYWORKERS).summary();
+        assertThat(responseSize.count()).isEqualTo(1);
+        assertThat(responseSize.totalAmount()).isEqualTo(KEYWORKERS.length());
+        assertThat(meterRegistry.find("elite2.request.errors").counter()).isNull();
+    }
+
+    @Test
+    public void testAdminCallIsTaggedAsAdmin() {
+        adminServer.expect(requestTo("/case-notes/staff-usage")).andExpect(method(HttpMethod.POST))
+                .andRespond(withSuccess("[]", MediaType.APPLICATION_JSON));
+
+        restCallHelper.post(CASE_NOTE_USAGE, new UriTemplate(CASE_NOTE_USAGE).expand(), List.of(1L), KEYWORKER_DTO_LIST, true);
+
+        assertThat(meterRegistry.get("elite2.requests")
+                .tags("endpoint", CASE_NOTE_USAGE, "method", "POST", "status", "200", "client", "admin")
+                .timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testErrorStatusIsCounted() {
+        userServer.expect(requestTo("/key-worker/LEI/available")).andRespond(withServerError());
+
+        assertThatThrownBy(() -> restCallHelper.getForList(URI_AVAILABLE_KEYWORKERS,
+                new UriTemplate(URI_AVAILABLE_KEYWORKERS).expand("LEI"), KEYWORKER_DTO_LIST))
+                .isInstanceOf(HttpServerErrorException.class);
+
+        assertThat(meterRegistry.get("elite2.request.errors")
+                .tags("endpoint", URI_AVAILABLE_KEYWORKERS, "status", "500", "client", "user")
+                .counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("elite2.requests").tags("status", "500").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.find("elite2.response.size").summary()).isNull();
+    }
+}
@@ -0,0 +1,241 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestClientException;
+import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.OffenderLocationDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.SortOrder;
+import uk.gov.justice.digital.hmpps.keyworker.security.UserSecurityUtils;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SingleFlightNomisServiceTest {
+
+    private static final String TEST_AGENCY = "LEI";
+
+    @Mock
+    private NomisService nomisService;
+
+    private SimpleMeterRegistry meterRegistry;
+    private SingleFlightNomisService service;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        service = new SingleFlightNomisService(nomisService, meterRegistry, new UserSecurityUtils());
+        ReflectionTestUtils.setField(service, "singleFlightMethods", Set.of("getOffendersAtLocation"));
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testIdenticalCallsInFlightShareOneCall() throws Exception {
+        final var offenders = List.of(OffenderLocationDto.builder().offenderNo("A1234AA").build());
+        final var release = new CountDownLatch(1);
+        when(nomisService.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, false)).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return offenders;
+        });
+
+        final var first = executor.submit(() -> service.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, false));
+        waitForCalls(1);
+        final var second = executor.submit(() -> service.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, false));
+        final var third = executor.submit(() -> service.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, false));
+        waitForShared(2);
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(offenders);
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(offenders).isNotSameAs(offenders);
+        assertThat(third.get(5, TimeUnit.SECONDS)).isEqualTo(offenders);
+
+        verify(nomisService, times(1)).getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, false);
+        assertThat(meterRegistry.get("nomis.single.flight.deduplication.ratio").tag("method", "getOffendersAtLocation").gauge().value())
+                .isCloseTo(2.0 / 3, within(0.001));
+    }
+
+    @Test
+    public void testUserCallsAreOnlySharedWithTheSameUser() throws Exception {
+        final var release = new CountDownLatch(1);
+        when(nomisService.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, false)).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return List.of();
+        });
+
+        final var first = executor.submit(() -> asUser("USER1", () -> service.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, false)));
+        waitForCalls(1);
+        final var second = executor.submit(() -> asUser("USER2", () -> service.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, false)));
+        waitForCalls(2);
+        final var third = executor.submit(() -> asUser("USER1", () -> service.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, false)));
+        waitForShared(1);
+        release.countDown();
+
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        third.get(5, TimeUnit.SECONDS);
+
+        verify(nomisService, times(2)).getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, false);
+        assertThat(sharedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSystemCallsAreSharedBetweenUsers() throws Exception {
+        final var release = new CountDownLatch(1);
+        when(nomisService.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, true)).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return List.of();
+        });
+
+        final var first = executor.submit(() -> asUser("USER1", () -> service.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, true)));
+        waitForCalls(1);
+        final var second = executor.submit(() -> asUser("USER2", () -> service.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, true)));
+        waitForShared(1);
+        release.countDown();
+
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+
+        verify(nomisService, times(1)).getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, true);
+    }
+
+    @Test
+    public void testFailureIsShared() throws Exception {
+        final var release = new CountDownLatch(1);
+        final var failure = new RestClientException("Elite2 unavailable");
+        when(nomisService.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, true)).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            throw failure;
+        });
+
+        final var first = executor.submit(() -> service.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, true));
+        waitForCalls(1);
+        final var second = executor.submit(() -> service.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, true));
+        waitForShared(1);
+        release.countDown();
+
+        assertFailsWith(first, failure);
+        assertFailsWith(second, failure);
+        verify(nomisService, times(1)).getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, true);
+    }
+
+    @Test
+    public void testAsyncCallsShareWithCallsInFlight() throws Exception {
+        final var offenders = List.of(OffenderLocationDto.builder().offenderNo("A1234AA").build());
+        final var inFlight = new CompletableFuture<List<OffenderLocationDto>>();
+        when(nomisService.getOffendersAtLocationAsync(TEST_AGENCY, "bookingId", SortOrder.ASC, true)).thenReturn(inFlight);
+
+        final var first = service.getOffendersAtLocationAsync(TEST_AGENCY, "bookingId", SortOrder.ASC, true);
+        final var second = service.getOffendersAtLocationAsync(TEST_AGENCY, "bookingId", SortOrder.ASC, true);
+        final var blocking = executor.submit(() -> service.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, true));
+        waitForShared(2);
+
+        assertThat(first).isNotDone();
+        inFlight.complete(offenders);
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(offenders);
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(offenders).isNotSameAs(offenders);
+        assertThat(blocking.get(5, TimeUnit.SECONDS)).isEqualTo(offenders);
+
+        verify(nomisService, times(1)).getOffendersAtLocationAsync(TEST_AGENCY, "bookingId", SortOrder.ASC, true);
+        verify(nomisService, never()).getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, true);
+    }
+
+    @Test
+    public void testAsyncCallFailureIsShared() throws Exception {
+        final var failure = new RestClientException("Elite2 unavailable");
+        final var inFlight = new CompletableFuture<List<OffenderLocationDto>>();
+        when(nomisService.getOffendersAtLocationAsync(TEST_AGENCY, "bookingId", SortOrder.ASC, true)).thenReturn(inFlight);
+
+        final var first = service.getOffendersAtLocationAsync(TEST_AGENCY, "bookingId", SortOrder.ASC, true);
+        final var blocking = executor.submit(() -> service.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, true));
+        waitForShared(1);
+        inFlight.completeExceptionally(failure);
+
+        assertFailsWith(first, failure);
+        assertFailsWith(blocking, failure);
+
+        // Nothing left in flight, so the next call is made
+        service.getOffendersAtLocationAsync(TEST_AGENCY, "bookingId", SortOrder.ASC, true);
+        verify(nomisService, times(2)).getOffendersAtLocationAsync(TEST_AGENCY, "bookingId", SortOrder.ASC, true);
+    }
+
+    @Test
+    public void testCallsAfterCompletionAreMadeAgain() {
+        when(nomisService.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, true)).thenReturn(List.of());
+
+        service.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, true);
+        service.getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, true);
+
+        verify(nomisService, times(2)).getOffendersAtLocation(TEST_AGENCY, "bookingId", SortOrder.ASC, true);
+    }
+
+    @Test
+    public void testMethodsNotConfiguredAreNotShared() {
+        final var keyworkers = List.of(KeyworkerDto.builder().staffId(1L).build());
+        when(nomisService.getAvailableKeyworkers(TEST_AGENCY)).thenReturn(keyworkers);
+
+        assertThat(service.getAvailableKeyworkers(TEST_AGENCY)).isSameAs(keyworkers);
+
+        assertThat(meterRegistry.find("nomis.single.flight.calls").tag("method", "getAvailableKeyworkers").counter()).isNull();
+    }
+
+    private void waitForCalls(final int calls) throws InterruptedException {
+        for (var attempt = 0; attempt < 50 && mockingDetails(nomisService).getInvocations().size() < calls; attempt++) {
+            Thread.sleep(100);
+        }
+    }
+
+    private void waitForShared(final int shared) throws InterruptedException {
+        for (var attempt = 0; attempt < 50 && sharedCount() < shared; attempt++) {
+            Thread.sleep(100);
+        }
+    }
+
+    private double sharedCount() {
+        final var counter = meterRegistry.find("nomis.single.flight.calls").tag("outcome", "shared").counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    private static <T> T asUser(final String username, final Supplier<T> call) {
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken(username, "password"));
+        try {
+            return call.get();
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    private static void assertFailsWith(final Future<?> call, final Exception failure) {
+        assertThatThrownBy(() -> call.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCause(failure);
+    }
+}
@@ -0,0 +1,199 @@
+package uk.gov.justice.digital.hmpps.keyworker.services;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.common.FileSource;
+import com.github.tomakehurst.wiremock.extension.Parameters;
+import com.github.tomakehurst.wiremock.extension.ResponseDefinitionTransformer;
+import com.github.tomakehurst.wiremock.http.Request;
+import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.cache.support.SimpleCacheManager;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.security.oauth2.client.DefaultOAuth2ClientContext;
+import org.springframework.security.oauth2.client.OAuth2RestTemplate;
+import org.springframework.security.oauth2.client.token.grant.client.ClientCredentialsResourceDetails;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.resources.ConnectionProvider;
+import uk.gov.justice.digital.hmpps.keyworker.dto.KeyworkerDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.OffenderLocationDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.PagingAndSortingDto;
+import uk.gov.justice.digital.hmpps.keyworker.dto.PrisonerDetail;
+import uk.gov.justice.digital.hmpps.keyworker.dto.SortOrder;
+import uk.gov.justice.digital.hmpps.keyworker.dto.StaffLocationRoleDto;
+import uk.gov.justice.digital.hmpps.keyworker.utils.UserContext;
+
+import java.util.Optional;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.gov.justice.digital.hmpps.keyworker.services.NomisService.URI_AVAILABLE_KEYWORKERS;
+
+public class WebClientNomisServiceTest {
+
+    private static final String KEYWORKERS = "[{\"staffId\":1},{\"staffId\":2}]";
+
+    private final BothInFlight bothInFlight = new BothInFlight();
+
+    @Rule
+    public WireMockRule elite2Api = new WireMockRule(options().dynamicPort().extensions(bothInFlight));
+
+    private SimpleMeterRegistry meterRegistry;
+    private ConnectionProvider connectionProvider;
+    private WebClientNomisService nomisService;
+
+    @Before
+    public void setUp() {
+        final var webClientConfiguration = new WebClientConfiguration();
+        ReflectionTestUtils.setField(webClientConfiguration, "maxConnections", 4);
+        ReflectionTestUtils.setField(webClientConfiguration, "acquireTimeoutMillis", 5000L);
+        ReflectionTestUtils.setField(webClientConfiguration, "connectTimeoutMillis", 1000);
+        ReflectionTestUtils.setField(webClientConfiguration, "readTimeoutMillis", 5000L);
+        connectionProvider = webClientConfiguration.elite2ConnectionProvider();
+        final var webClient = webClientConfiguration.elite2WebClient(WebClient.builder(), connectionProvider);
+
+        final var systemRestTemplate = new OAuth2RestTemplate(new ClientCredentialsResourceDetails(),
+                new DefaultOAuth2ClientContext(new DefaultOAuth2AccessToken("system-token")));
+        meterRegistry = new SimpleMeterRegistry();
+        final var webClientCallHelper = new WebClientCallHelper(webClient, systemRestTemplate, meterRegistry,
+                new Elite2Resilience(new MockEnvironment(), meterRegistry), "http://localhost:" + elite2Api.port() + "/api");
+
+        final var cacheConfig = new CacheConfig(new MockEnvironment());
+        ReflectionTestUtils.setField(cacheConfig, "staffInformationTimeoutSeconds", 86400);
+        ReflectionTestUtils.setField(cacheConfig, "prisonerInformationTimeoutSeconds", 300);
+        final var cacheManager = cacheConfig.cacheManager();
+        ((SimpleCacheManager) cacheManager).afterPropertiesSet();
+
+        nomisService = new WebClientNomisService(webClientCallHelper, cacheManager);
+        ReflectionTestUtils.setField(nomisService, "batchConcurrency", 4);
+
+        UserContext.setAuthToken("Bearer user-token");
+    }
+
+    @After
+    public void tearDown() {
+        UserContext.setAuthToken(null);
+        connectionProvider.dispose();
+    }
+
+    @Test
+    public void testCallIsMadeAsUserAndTimed() {
+        elite2Api.stubFor(get(urlEqualTo("/api/key-worker/LEI/available"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(KEYWORKERS)));
+
+        final var keyworkers = nomisService.getAvailableKeyworkers("LEI");
+
+        assertThat(keyworkers).extracting(KeyworkerDto::getStaffId).containsExactly(1L, 2L);
+        elite2Api.verify(getRequestedFor(urlEqualTo("/api/key-worker/LEI/available"))
+                .withHeader("Authorization", equalTo("Bearer user-token")));
+        assertThat(meterRegistry.get("elite2.requests")
+                .tags("endpoint", URI_AVAILABLE_KEYWORKERS, "method", "GET", "status", "200", "client", "user")
+                .timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("elite2.response.size").tags("endpoint", URI_AVAILABLE_KEYWORKERS).summary().totalAmount())
+                .isEqualTo(KEYWORKERS.length());
+    }
+
+    @Test
+    public void testAdminCallUsesSystemToken() {
+        elite2Api.stubFor(get(urlEqualTo("/api/agencies/prison"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody("[{\"agencyId\":\"LEI\"}]")));
+
+        assertThat(nomisService.getAllPrisons()).extracting("prisonId").containsExactly("LEI");
+        elite2Api.verify(getRequestedFor(urlEqualTo("/api/agencies/prison"))
+                .withHeader("Authorization", equalTo("Bearer system-token")));
+    }
+
+    @Test
+    public void testErrorStatusRaisedAsRestClientException() {
+        elite2Api.stubFor(get(urlEqualTo("/api/key-worker/LEI/available")).willReturn(aResponse().withStatus(500)));
+        elite2Api.stubFor(get(urlEqualTo("/api/users/UNKNOWN")).willReturn(aResponse().withStatus(404)));
+
+        assertThatThrownBy(() -> nomisService.getAvailableKeyworkers("LEI")).isInstanceOf(HttpServerErrorException.class);
+        assertThat(meterRegistry.get("elite2.request.errors")
+                .tags("endpoint", URI_AVAILABLE_KEYWORKERS, "status", "500", "client", "user")
+                .counter().count()).isEqualTo(1);
+
+        // 4xx for a user's details falls back to a placeholder, as with the RestTemplate client
+        assertThat(nomisService.getStaffDetailByUserId("UNKNOWN").getUsername()).isEqualTo("UNKNOWN");
+    }
+
+    @Test
+    public void testGetPrisonerDetailsInBatches() {
+        elite2Api.stubFor(post(urlEqualTo("/api/prisoners"))
+                .withHeader("Page-Limit", equalTo("100"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json")
+                        .withBody("[{\"offenderNo\":\"A0000AA\"},{\"offenderNo\":\"A0100AA\"},{\"offenderNo\":\"A0200AA\"}]")));
+        final var offenderNos = IntStream.range(0, 250).mapToObj(i -> String.format("A%04dAA", i)).collect(Collectors.toList());
+
+        final var prisonerDetails = nomisService.getPrisonerDetails(offenderNos);
+
+        assertThat(prisonerDetails).extracting(PrisonerDetail::getOffenderNo).containsExactly("A0000AA", "A0100AA", "A0200AA");
+        elite2Api.verify(3, postRequestedFor(urlEqualTo("/api/prisoners")));
+
+        // All are now cached, found or not
+        nomisService.getPrisonerDetails(offenderNos);
+        elite2Api.verify(3, postRequestedFor(urlEqualTo("/api/prisoners")));
+    }
+
+    @Test
+    public void testAsyncCallsAreInFlightAtTheSameTime() {
+        elite2Api.stubFor(get(urlPathEqualTo("/api/bookings"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody("[{\"offenderNo\":\"A1234AA\"}]")
+                        .withTransformers(BothInFlight.NAME)));
+        elite2Api.stubFor(get(urlPathEqualTo("/api/staff/roles/LEI/role/KW"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody("[{\"staffId\":1}]")
+                        .withTransformers(BothInFlight.NAME)));
+        final var pagingAndSorting = PagingAndSortingDto.builder().pageOffset(0L).pageLimit(3000L).build();
+
+        final var offenders = nomisService.getOffendersAtLocationAsync("LEI", "bookingId", SortOrder.ASC, true);
+        final var keyworkers = nomisService.getActiveStaffKeyWorkersForPrisonAsync("LEI", Optional.empty(), pagingAndSorting, true);
+
+        // Neither call is answered until both have been received
+        assertThat(offenders.join()).extracting(OffenderLocationDto::getOffenderNo).containsExactly("A1234AA");
+        assertThat(keyworkers.join().getBody()).extracting(StaffLocationRoleDto::getStaffId).containsExactly(1L);
+    }
+
+    /**
+     * Holds each request it is applied to until a second such request is received, or fails it after a few seconds.
+     */
+    private static class BothInFlight extends ResponseDefinitionTransformer {
+        private static final String NAME = "both-in-flight";
+
+        private final CyclicBarrier barrier = new CyclicBarrier(2);
+
+        @Override
+        public ResponseDefinition transform(final Request request, final ResponseDefinition responseDefinition, final FileSource files, final Parameters parameters) {
+            try {
+                barrier.await(5, TimeUnit.SECONDS);
+                return responseDefinition;
+            } catch (final InterruptedException | BrokenBarrierException | TimeoutException e) {
+                return ResponseDefinitionBuilder.responseDefinition().withStatus(504).build();
+            }
+        }
+
+        @Override
+        public String getName() {
+            return NAME;
+        }
+
+        @Override
+        public boolean applyGlobally() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package uk.gov.justice.digital.hmpps.keyworker.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+public class VirtualThreadsTest {
+
+    @Test
+    public void testTasksRunOnNamedVirtualThreads() throws Exception {
+        assumeTrue(VirtualThreads.isSupported());
+        final var thread = new CompletableFuture<Thread>();
+
+        VirtualThreads.threadPerTaskExecutor("test-").execute(() -> thread.complete(Thread.currentThread()));
+
+        final var taskThread = thread.get(5, TimeUnit.SECONDS);
+        assertThat(taskThread.getName()).isEqualTo("test-0");
+        assertThat(Thread.class.getMethod("isVirtual").invoke(taskThread)).isEqualTo(true);
+    }
+
+    @Test
+    public void testUnsupportedRuntimeIsReported() {
+        assumeFalse(VirtualThreads.isSupported());
+
+        assertThatThrownBy(() -> VirtualThreads.threadFactory("test-"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Java 21");
+    }
+}